@@ -0,0 +1,90 @@
+/**
+ * Helios, OpenSource Monitoring
+ * Brought to you by the Helios Development Group
+ *
+ * Copyright 2007, Helios Development Group and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org. 
+ *
+ */
+package org.helios.jmxstats.benchmarks;
+
+import java.io.File;
+
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.results.format.ResultFormatType;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.ChainedOptionsBuilder;
+import org.openjdk.jmh.runner.options.CommandLineOptionException;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * <p>Title: BenchmarkRunner</p>
+ * <p>Description: Runs the selected benchmarks once per configured thread count with the GC profiler attached, so every result reports
+ * throughput, sampled latency percentiles and normalized allocation (<code>gc.alloc.rate.norm</code>, bytes per op).
+ * Results are written as JSON per thread count to {@link #RESULT_DIR_PROP}. Any standard JMH command line options are passed through,
+ * e.g. <code>java -jar benchmarks.jar NameLookup -p cardinality=100000</code>.</p> 
+ * <p>Company: Helios Development Group LLC</p>
+ * @author Whitehead (nwhitehead AT heliosdev DOT org)
+ * <p><code>org.helios.jmxstats.benchmarks.BenchmarkRunner</code></p>
+ */
+public class BenchmarkRunner {
+	/** The system property that defines the comma separated thread counts to run each benchmark with */
+	public static final String THREADS_PROP = "org.helios.benchmark.threads";
+	/** The default thread counts */
+	public static final String DEFAULT_THREADS = "1,2,4";
+	/** The system property that defines the directory results are written to */
+	public static final String RESULT_DIR_PROP = "org.helios.benchmark.results";
+	/** The default result directory */
+	public static final String DEFAULT_RESULT_DIR = "target/jmh";
+
+	/**
+	 * Runs the benchmarks
+	 * @param args JMH command line options
+	 * @throws RunnerException thrown if a benchmark fails
+	 * @throws CommandLineOptionException thrown if the options cannot be parsed
+	 */
+	public static void main(String[] args) throws RunnerException, CommandLineOptionException {
+		final CommandLineOptions cmd = new CommandLineOptions(args);
+		final File resultDir = new File(System.getProperty(RESULT_DIR_PROP, DEFAULT_RESULT_DIR));
+		if(!resultDir.exists() && !resultDir.mkdirs()) {
+			throw new RuntimeException("Failed to create result directory [" + resultDir + "]", new Throwable());
+		}
+		for(String t: System.getProperty(THREADS_PROP, DEFAULT_THREADS).split(",")) {
+			final int threads = Integer.parseInt(t.trim());
+			final ChainedOptionsBuilder options = new OptionsBuilder()
+				.parent(cmd)
+				.threads(threads)
+				.addProfiler(GCProfiler.class)
+				.resultFormat(ResultFormatType.JSON)
+				.result(new File(resultDir, "jmh-" + threads + "-threads.json").getPath());
+			log("Running benchmarks with [" + threads + "] threads");
+			new Runner(options.build()).run();
+		}
+	}
+	
+	/**
+	 * Console logger
+	 * @param msg The message to log
+	 */
+	public static void log(Object msg) {
+		System.out.println(msg);
+	}
+}
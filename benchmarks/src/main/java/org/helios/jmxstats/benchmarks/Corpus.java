@@ -0,0 +1,214 @@
+/**
+ * Helios, OpenSource Monitoring
+ * Brought to you by the Helios Development Group
+ *
+ * Copyright 2007, Helios Development Group and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org. 
+ *
+ */
+package org.helios.jmxstats.benchmarks;
+
+import java.io.BufferedReader;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+import java.util.zip.GZIPInputStream;
+
+/**
+ * <p>Title: Corpus</p>
+ * <p>Description: Loads distinct names from the <code>words.txt.gz</code> corpus. Each corpus word is expanded into
+ * case and reversal variants, as the original name cache performance test did, to reach the requested cardinality.</p>
+ * <p>The words share no structure, so {@link Shape} also builds metric names from them the way they are named in production:
+ * dotted names and ObjectName keyed names, in which most of each name is a prefix shared with many other names.</p> 
+ * <p>Company: Helios Development Group LLC</p>
+ * @author Whitehead (nwhitehead AT heliosdev DOT org)
+ * <p><code>org.helios.jmxstats.benchmarks.Corpus</code></p>
+ */
+public class Corpus {
+	/** The classpath resource of the corpus */
+	public static final String RESOURCE = "/words.txt.gz";
+	/** The seed of the lookup order shuffle */
+	public static final long SEED = 0x5DEECE66DL;
+	/** The leaf segments of dotted names */
+	private static final String[] LEAVES = {"count", "errors", "latency", "latency.p50", "latency.p99", "bytesIn", "bytesOut", "active", "queued", "rejected", "timeouts", "retries"};
+	/** The number of hosts of each application */
+	private static final int HOSTS = 32;
+	/** The number of components of each host */
+	private static final int COMPONENTS = 64;
+	/** The MBean types of ObjectName keyed names */
+	private static final String[] TYPES = {"MemoryPool", "GarbageCollector", "ThreadPool", "DataSource", "Cache", "Servlet", "Queue", "Connector"};
+	/** The attributes of ObjectName keyed names */
+	private static final String[] ATTRIBUTES = {"Count", "ActiveCount", "MaxActive", "Usage", "PeakUsage", "CollectionTime", "HitCount", "MissCount", "ErrorCount", "ProcessingTime"};
+	/** The number of domains of ObjectName keyed names */
+	private static final int DOMAINS = 16;
+	
+	/**
+	 * <p>Title: Shape</p>
+	 * <p>Description: The shape of the names of a corpus</p> 
+	 */
+	public static enum Shape {
+		/** Distinct corpus words and their variants, sharing no prefixes */
+		WORDS {
+			@Override
+			public String[] names(int count) {
+				return words(count);
+			}
+		},
+		/** Dotted names such as <code>app.host-007.component.latency.p99</code>, where the names of a component share all but the leaf */
+		DOTTED {
+			@Override
+			public String[] names(int count) {
+				final int perApp = HOSTS * COMPONENTS * LEAVES.length;
+				final String[] segments = segments(COMPONENTS + (count + perApp - 1) / perApp);
+				final String[] names = new String[count];
+				final StringBuilder b = new StringBuilder(64);
+				for(int i = 0; i < count; i++) {
+					int rest = i;
+					final int leaf = rest % LEAVES.length; rest /= LEAVES.length;
+					final int component = rest % COMPONENTS; rest /= COMPONENTS;
+					final int host = rest % HOSTS; rest /= HOSTS;
+					b.setLength(0);
+					b.append(segments[COMPONENTS + rest]).append(".host-").append(host).append('.').append(segments[component]).append('.').append(LEAVES[leaf]);
+					names[i] = b.toString();
+				}
+				return names;
+			}
+		},
+		/** ObjectName keyed names such as <code>com.app:name=eden,type=MemoryPool/Usage</code>, rendered as the ObjectName index names its metrics */
+		OBJECTNAME {
+			@Override
+			public String[] names(int count) {
+				final int perName = TYPES.length * ATTRIBUTES.length;
+				final int nameCount = (count + perName - 1) / perName;
+				final String[] all = segments(DOMAINS + nameCount);
+				final String[] names = new String[count];
+				final StringBuilder b = new StringBuilder(64);
+				for(int i = 0; i < count; i++) {
+					int rest = i;
+					final int attribute = rest % ATTRIBUTES.length; rest /= ATTRIBUTES.length;
+					final int type = rest % TYPES.length; rest /= TYPES.length;
+					b.setLength(0);
+					b.append("com.").append(all[rest % DOMAINS]).append(":name=").append(all[DOMAINS + rest])
+						.append(",type=").append(TYPES[type]).append('/').append(ATTRIBUTES[attribute]);
+					names[i] = b.toString();
+				}
+				return names;
+			}
+		};
+		
+		/**
+		 * Returns the requested number of distinct names of this shape
+		 * @param count The number of names
+		 * @return the names in corpus order
+		 */
+		public abstract String[] names(int count);
+	}
+	
+	/**
+	 * Loads the requested number of distinct names from the corpus
+	 * @param count The number of names
+	 * @return the names in corpus order
+	 */
+	public static String[] words(int count) {
+		final Set<String> words = new LinkedHashSet<String>(count*2);
+		InputStream is = Corpus.class.getResourceAsStream(RESOURCE);
+		if(is==null) throw new RuntimeException("Corpus resource [" + RESOURCE + "] not found", new Throwable());
+		BufferedReader reader = null;
+		try {
+			reader = new BufferedReader(new InputStreamReader(new GZIPInputStream(is)));
+			String word = null;
+			while(words.size()<count && (word = reader.readLine()) != null) {
+				if(word.isEmpty()) continue;
+				final String lower = word.toLowerCase(), upper = word.toUpperCase();
+				final String reversed = new StringBuilder(lower).reverse().toString();
+				final String[] variants = {
+					lower, upper, reversed, reversed.toUpperCase(),
+					reversed + upper, new StringBuilder(reversed + upper).reverse().toString(), (reversed + upper).toUpperCase()
+				};
+				for(String v: variants) {
+					if(words.size()==count) break;
+					words.add(v);
+				}
+			}
+		} catch (Exception e) {
+			throw new RuntimeException("Failed to read corpus [" + RESOURCE + "]", e);
+		} finally {
+			try { if(reader!=null) reader.close(); else is.close(); } catch (Exception e) {}
+		}
+		if(words.size()<count) throw new RuntimeException("Corpus only yielded [" + words.size() + "] of [" + count + "] names", new Throwable());
+		return words.toArray(new String[count]);
+	}
+	
+	/**
+	 * Returns distinct name segments: the corpus words that are plain lower case letters once lower cased, without variants
+	 * @param count The number of segments
+	 * @return the segments in corpus order
+	 */
+	private static String[] segments(int count) {
+		final Set<String> segments = new LinkedHashSet<String>(count*2);
+		InputStream is = Corpus.class.getResourceAsStream(RESOURCE);
+		if(is==null) throw new RuntimeException("Corpus resource [" + RESOURCE + "] not found", new Throwable());
+		BufferedReader reader = null;
+		try {
+			reader = new BufferedReader(new InputStreamReader(new GZIPInputStream(is)));
+			String word = null;
+			while(segments.size()<count && (word = reader.readLine()) != null) {
+				final String lower = word.toLowerCase();
+				if(lower.matches("[a-z]+")) segments.add(lower);
+			}
+		} catch (Exception e) {
+			throw new RuntimeException("Failed to read corpus [" + RESOURCE + "]", e);
+		} finally {
+			try { if(reader!=null) reader.close(); else is.close(); } catch (Exception e) {}
+		}
+		if(segments.size()<count) throw new RuntimeException("Corpus only yielded [" + segments.size() + "] of [" + count + "] segments", new Throwable());
+		return segments.toArray(new String[count]);
+	}
+	
+	/**
+	 * Returns a copy of the passed names in a fixed pseudo random order, so lookups do not follow insertion order
+	 * @param names The names to shuffle
+	 * @return the shuffled copy
+	 */
+	public static String[] shuffled(String[] names) {
+		final List<String> list = new ArrayList<String>(names.length);
+		Collections.addAll(list, names);
+		Collections.shuffle(list, new Random(SEED));
+		return list.toArray(new String[names.length]);
+	}
+	
+	/**
+	 * Returns names that are not in the passed names but have the same length distribution
+	 * @param names The registered names
+	 * @return the missing names
+	 */
+	public static String[] misses(String[] names) {
+		final String[] misses = new String[names.length];
+		for(int i = 0; i < names.length; i++) {
+			final String n = names[i];
+			misses[i] = n.substring(0, n.length()-1) + (char)(n.charAt(n.length()-1) ^ 0x1F00);
+		}
+		return shuffled(misses);
+	}
+}
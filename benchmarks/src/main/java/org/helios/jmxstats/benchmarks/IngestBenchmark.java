@@ -0,0 +1,181 @@
+/**
+ * Helios, OpenSource Monitoring
+ * Brought to you by the Helios Development Group
+ *
+ * Copyright 2007, Helios Development Group and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org. 
+ *
+ */
+package org.helios.jmxstats.benchmarks;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.LockSupport;
+
+import org.helios.jmxstats.core.metric.IMetric;
+import org.helios.jmxstats.core.metric.MetricRegistry;
+import org.helios.jmxstats.core.metric.MetricType;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * <p>Title: IngestBenchmark</p>
+ * <p>Description: Benchmarks the ingest hot path, {@link IMetric#process(long)} and the handle indexed {@link MetricRegistry#process(int, long)},
+ * for every {@link MetricType}. Writers either share one metric (lock contention) or each write their own. With <code>switching</code>
+ * enabled a background thread closes an interval every {@link #SWITCH_PERIOD_MICROS} us, so writers contend with interval resets in progress.
+ * Run through {@link BenchmarkRunner} to sweep writer thread counts and collect bytes per op.</p> 
+ * <p>Company: Helios Development Group LLC</p>
+ * @author Whitehead (nwhitehead AT heliosdev DOT org)
+ * <p><code>org.helios.jmxstats.benchmarks.IngestBenchmark</code></p>
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class IngestBenchmark {
+	/** The period of the background interval switch in us */
+	public static final long SWITCH_PERIOD_MICROS = 1000;
+	
+	/** The metric type */
+	@Param
+	public MetricType type;
+	/** Indicates if all writers share one metric */
+	@Param({"true", "false"})
+	public boolean shared;
+	/** Indicates if a background thread switches intervals during the measurement */
+	@Param({"false", "true"})
+	public boolean switching;
+	
+	/** The registry */
+	private MetricRegistry registry;
+	/** The shared metric handle */
+	private int sharedHandle;
+	/** The serial number of writer threads, used to name distinct metrics */
+	private final AtomicInteger writers = new AtomicInteger(0);
+	/** The interval switching thread */
+	private Thread switcher;
+	/** Stops the interval switching thread */
+	private volatile boolean stopped = false;
+	
+	/**
+	 * Registers the shared metric and starts the interval switching thread if enabled
+	 */
+	@Setup(Level.Trial)
+	public void setup() {
+		registry = MetricRegistry.getInstance();
+		sharedHandle = registry.getHandle("benchmark.ingest." + type + ".shared", type);
+		if(switching) {
+			switcher = new Thread("IntervalSwitcher") {
+				@Override
+				public void run() {
+					while(!stopped) {
+						registry.reset(System.currentTimeMillis());
+						LockSupport.parkNanos(TimeUnit.MICROSECONDS.toNanos(SWITCH_PERIOD_MICROS));
+					}
+				}
+			};
+			switcher.setDaemon(true);
+			switcher.start();
+		}
+	}
+	
+	/**
+	 * Stops the interval switching thread
+	 * @throws InterruptedException thrown if interrupted while waiting for the thread to stop
+	 */
+	@TearDown(Level.Trial)
+	public void tearDown() throws InterruptedException {
+		stopped = true;
+		if(switcher!=null) switcher.join();
+	}
+	
+	/**
+	 * <p>Title: Writer</p>
+	 * <p>Description: A writer thread's metric and value generator</p> 
+	 */
+	@State(Scope.Thread)
+	public static class Writer {
+		/** The metric handle this thread writes to */
+		int handle;
+		/** The metric this thread writes to */
+		IMetric metric;
+		/** The xorshift state */
+		long seed;
+		/** The last raw value, increasing for delta metrics */
+		long value;
+		/** Indicates if the metric is a delta metric */
+		boolean delta;
+		
+		/**
+		 * Resolves the thread's metric
+		 * @param bench The benchmark state
+		 */
+		@Setup(Level.Trial)
+		public void setup(IngestBenchmark bench) {
+			final int serial = bench.writers.incrementAndGet();
+			handle = bench.shared ? bench.sharedHandle : bench.registry.getHandle("benchmark.ingest." + bench.type + ".writer" + serial, bench.type);
+			metric = bench.registry.getMetric(handle);
+			seed = 0x9E3779B97F4A7C15L * serial;
+			delta = bench.type.isDelta();
+		}
+		
+		/**
+		 * Returns the next value to submit
+		 * @return the next value
+		 */
+		long next() {
+			seed ^= seed << 13;
+			seed ^= seed >>> 7;
+			seed ^= seed << 17;
+			if(delta) return value += seed & 0xFF;
+			return seed & 0xFFFF;
+		}
+	}
+	
+	/**
+	 * Submits a value directly to the writer's metric
+	 * @param writer The writer thread's state
+	 */
+	@Benchmark
+	public void process(Writer writer) {
+		writer.metric.process(writer.next());
+	}
+	
+	/**
+	 * Submits a value to the writer's metric by handle through the registry
+	 * @param writer The writer thread's state
+	 */
+	@Benchmark
+	public void registryProcess(Writer writer) {
+		registry.process(writer.handle, writer.next());
+	}
+}
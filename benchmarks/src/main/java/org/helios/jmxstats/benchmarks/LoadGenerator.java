@@ -0,0 +1,300 @@
+/**
+ * Helios, OpenSource Monitoring
+ * Brought to you by the Helios Development Group
+ *
+ * Copyright 2007, Helios Development Group and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org. 
+ *
+ */
+package org.helios.jmxstats.benchmarks;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.lang.management.BufferPoolMXBean;
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryMXBean;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+import org.helios.jmxstats.core.Controller;
+import org.helios.jmxstats.core.Controller.CurrentInterval;
+import org.helios.jmxstats.core.Controller.SystemClock;
+import org.helios.jmxstats.core.IntervalListener;
+import org.helios.jmxstats.core.metric.MetricRegistry;
+import org.helios.jmxstats.core.metric.MetricType;
+
+/**
+ * <p>Title: LoadGenerator</p>
+ * <p>Description: A soak test that drives the whole pipeline at a configured scale for a configured duration.
+ * It registers a number of metrics through the {@link Controller} and submits values to them at a target rate from a number of threads.
+ * On every interval switch it records the switch latency, the drain and flush times, its own listener lag, the GC count and time, and the
+ * heap, non-heap and direct/mapped buffer usage. Each interval is appended as a row to <code>&lt;output&gt;.csv</code> and as a JSON object
+ * line to <code>&lt;output&gt;.json</code> so runs can be compared over time.</p>
+ * <p>Metric names are registered in the chronicle under <code>user.home</code>, so run with <code>-Duser.home=&lt;scratch dir&gt;</code> to keep
+ * them out of a real store. The interval length is set with <code>-Dorg.helios.interval</code>.</p> 
+ * <p>Company: Helios Development Group LLC</p>
+ * @author Whitehead (nwhitehead AT heliosdev DOT org)
+ * <p><code>org.helios.jmxstats.benchmarks.LoadGenerator</code></p>
+ */
+public class LoadGenerator implements IntervalListener {
+	/** The system property that defines the number of metrics */
+	public static final String METRICS_PROP = "org.helios.load.metrics";
+	/** The system property that defines the target event rate in events per second across all threads */
+	public static final String RATE_PROP = "org.helios.load.rate";
+	/** The system property that defines the number of submitting threads */
+	public static final String THREADS_PROP = "org.helios.load.threads";
+	/** The system property that defines the run duration in seconds */
+	public static final String DURATION_PROP = "org.helios.load.duration";
+	/** The system property that defines the metric type */
+	public static final String TYPE_PROP = "org.helios.load.type";
+	/** The system property that defines the output file path, without extension */
+	public static final String OUTPUT_PROP = "org.helios.load.output";
+	/** The default number of metrics */
+	public static final int DEFAULT_METRICS = 10000;
+	/** The default target event rate */
+	public static final long DEFAULT_RATE = 1000000;
+	/** The default number of submitting threads */
+	public static final int DEFAULT_THREADS = 4;
+	/** The default run duration in seconds */
+	public static final long DEFAULT_DURATION = 3600;
+	/** The most events a thread submits between rate checks */
+	public static final int MAX_BURST = 1024;
+	/** The pause of a thread that is ahead of its rate in ns. */
+	public static final long PACING_NANOS = 100000;
+	/** The report columns */
+	public static final String[] COLUMNS = {
+		"intervalId", "startTime", "events", "eventsPerSec", "switchMs", "drainMs", "flushMs", "listenerLagMs",
+		"gcCount", "gcTimeMs", "heapUsed", "heapCommitted", "nonHeapUsed", "directUsed", "mappedUsed", "liveMetrics", "droppedValues"
+	};
+	
+	/** The submitted event counters, one per thread */
+	private final AtomicLong[] submitted;
+	/** The CSV report */
+	private final PrintWriter csv;
+	/** The JSON lines report */
+	private final PrintWriter json;
+	/** The GC MXBeans */
+	private final List<GarbageCollectorMXBean> gcs = ManagementFactory.getGarbageCollectorMXBeans();
+	/** The buffer pool MXBeans */
+	private final List<BufferPoolMXBean> bufferPools = ManagementFactory.getPlatformMXBeans(BufferPoolMXBean.class);
+	/** The memory MXBean */
+	private final MemoryMXBean memory = ManagementFactory.getMemoryMXBean();
+	/** The event total at the last switch */
+	private long lastEvents = 0;
+	/** The GC count at the last switch */
+	private long lastGcCount = 0;
+	/** The GC time at the last switch */
+	private long lastGcTime = 0;
+	/** The nanoTime of the last switch */
+	private long lastSwitch = System.nanoTime();
+	
+	/**
+	 * Creates a new LoadGenerator
+	 * @param threads The number of submitting threads
+	 * @param output The output file path, without extension
+	 * @throws IOException thrown if the report files cannot be created
+	 */
+	public LoadGenerator(int threads, String output) throws IOException {
+		submitted = new AtomicLong[threads];
+		for(int i = 0; i < threads; i++) {
+			submitted[i] = new AtomicLong();
+		}
+		final File csvFile = new File(output + ".csv");
+		if(csvFile.getParentFile()!=null) csvFile.getParentFile().mkdirs();
+		csv = new PrintWriter(new FileWriter(csvFile));
+		json = new PrintWriter(new FileWriter(output + ".json"));
+		final StringBuilder header = new StringBuilder();
+		for(String column: COLUMNS) {
+			if(header.length()>0) header.append(',');
+			header.append(column);
+		}
+		csv.println(header);
+		csv.flush();
+		final long[] gc = gcTotals();
+		lastGcCount = gc[0];
+		lastGcTime = gc[1];
+	}
+	
+	/**
+	 * Runs the load generator
+	 * @param args None
+	 * @throws Exception thrown on any error
+	 */
+	public static void main(String[] args) throws Exception {
+		final int metrics = Integer.getInteger(METRICS_PROP, DEFAULT_METRICS);
+		final long rate = Long.getLong(RATE_PROP, DEFAULT_RATE);
+		final int threads = Integer.getInteger(THREADS_PROP, DEFAULT_THREADS);
+		final long duration = Long.getLong(DURATION_PROP, DEFAULT_DURATION);
+		final MetricType type = MetricType.valueOf(System.getProperty(TYPE_PROP, MetricType.AVG.name()));
+		final String output = System.getProperty(OUTPUT_PROP, "target/load/load-" + System.currentTimeMillis());
+		log("LoadGenerator: [" + metrics + "] " + type + " metrics, [" + rate + "] events/s from [" + threads + "] threads for [" + duration + "] s, interval [" + SystemClock.getInterval() + "] ms, reporting to [" + output + ".csv/.json]");
+		
+		final Controller controller = Controller.getInstance();
+		final int[] handles = new int[metrics];
+		for(int i = 0; i < metrics; i++) {
+			handles[i] = controller.getMetricHandle("load.metric." + i, type);
+		}
+		final LoadGenerator generator = new LoadGenerator(threads, output);
+		controller.addIntervalListener(generator);
+		
+		final long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(duration);
+		final CountDownLatch done = new CountDownLatch(threads);
+		for(int t = 0; t < threads; t++) {
+			final int id = t;
+			final Thread thread = new Thread("LoadGenerator#" + t) {
+				public void run() {
+					try {
+						generator.drive(controller, handles, id, rate / threads, deadline);
+					} finally {
+						done.countDown();
+					}
+				}
+			};
+			thread.setDaemon(true);
+			thread.start();
+		}
+		done.await();
+		generator.close();
+		log("LoadGenerator complete");
+	}
+	
+	/**
+	 * Submits values at the passed rate until the deadline
+	 * @param controller The controller to submit through
+	 * @param handles The metric handles
+	 * @param id The thread id
+	 * @param rate The target rate of this thread in events per second
+	 * @param deadline The nanoTime at which to stop
+	 */
+	protected void drive(Controller controller, int[] handles, int id, long rate, long deadline) {
+		final AtomicLong counter = submitted[id];
+		final long start = System.nanoTime();
+		long sent = 0, seed = 0x9E3779B97F4A7C15L * (id + 1);
+		int next = (int)(((long)handles.length * id) / submitted.length);
+		while(true) {
+			final long now = System.nanoTime();
+			if(now - deadline >= 0) break;
+			final long due = (long)((now - start) / 1e9 * rate) - sent;
+			if(due<=0) {
+				LockSupport.parkNanos(PACING_NANOS);
+				continue;
+			}
+			final int burst = (int)Math.min(due, MAX_BURST);
+			for(int i = 0; i < burst; i++) {
+				seed ^= seed << 13; seed ^= seed >>> 7; seed ^= seed << 17;
+				controller.submit(handles[next], seed & 0xFFFF);
+				if(++next==handles.length) next = 0;
+			}
+			sent += burst;
+			counter.lazySet(sent);
+		}
+	}
+	
+	/**
+	 * {@inheritDoc}
+	 * @see org.helios.jmxstats.core.IntervalListener#onIntervalSwitch(org.helios.jmxstats.core.Controller.CurrentInterval)
+	 */
+	@Override
+	public synchronized void onIntervalSwitch(CurrentInterval ci) {
+		final long now = System.nanoTime();
+		final long lag = ci.getTripNanos()<0 ? -1L : now - ci.getTripNanos();
+		long events = 0;
+		for(AtomicLong counter: submitted) {
+			events += counter.get();
+		}
+		final long[] gc = gcTotals();
+		long direct = 0, mapped = 0;
+		for(BufferPoolMXBean pool: bufferPools) {
+			if("direct".equals(pool.getName())) direct = pool.getMemoryUsed();
+			else if("mapped".equals(pool.getName())) mapped = pool.getMemoryUsed();
+		}
+		final MetricRegistry registry = MetricRegistry.getInstance();
+		final Object[] row = {
+			ci.getCurrentIntervalId(), ci.getStartTime(), events - lastEvents, Math.round((events - lastEvents) / ((now - lastSwitch) / 1e9)),
+			ms(ci.getSwitchNanos()), ms(ci.getDrainNanos()), ms(ci.getFlushNanos()), ms(lag),
+			gc[0] - lastGcCount, gc[1] - lastGcTime,
+			memory.getHeapMemoryUsage().getUsed(), memory.getHeapMemoryUsage().getCommitted(), memory.getNonHeapMemoryUsage().getUsed(), direct, mapped,
+			registry.getLiveCount(), registry.getDroppedValues()
+		};
+		lastEvents = events;
+		lastGcCount = gc[0];
+		lastGcTime = gc[1];
+		lastSwitch = now;
+		final StringBuilder line = new StringBuilder();
+		final StringBuilder obj = new StringBuilder("{");
+		for(int i = 0; i < COLUMNS.length; i++) {
+			if(i>0) {
+				line.append(',');
+				obj.append(',');
+			}
+			line.append(row[i]);
+			obj.append('"').append(COLUMNS[i]).append("\":").append(row[i]);
+		}
+		obj.append('}');
+		csv.println(line);
+		csv.flush();
+		json.println(obj);
+		json.flush();
+		log("Interval [" + ci.getCurrentIntervalId() + "] events:" + row[2] + " switch:" + row[4] + "ms flush:" + row[6] + "ms lag:" + row[7] + "ms gc:" + row[9] + "ms heap:" + (row[10]) + " bytes");
+	}
+	
+	/**
+	 * Returns the total GC count and time of all collectors
+	 * @return the total GC count and the total GC time in ms.
+	 */
+	private long[] gcTotals() {
+		long count = 0, time = 0;
+		for(GarbageCollectorMXBean gc: gcs) {
+			count += Math.max(0, gc.getCollectionCount());
+			time += Math.max(0, gc.getCollectionTime());
+		}
+		return new long[]{count, time};
+	}
+	
+	/**
+	 * Converts ns. to ms.
+	 * @param nanos The time in ns. or -1 if not available
+	 * @return the time in ms. or -1
+	 */
+	private static double ms(long nanos) {
+		return nanos<0 ? -1 : nanos / 1e6;
+	}
+	
+	/**
+	 * Closes the report files
+	 */
+	public synchronized void close() {
+		csv.close();
+		json.close();
+	}
+	
+	/**
+	 * Console logger
+	 * @param msg The message to log
+	 */
+	public static void log(Object msg) {
+		System.out.println(msg);
+	}
+}
@@ -0,0 +1,173 @@
+/**
+ * Helios, OpenSource Monitoring
+ * Brought to you by the Helios Development Group
+ *
+ * Copyright 2007, Helios Development Group and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org. 
+ *
+ */
+package org.helios.jmxstats.benchmarks;
+
+import gnu.trove.map.hash.TLongLongHashMap;
+
+import java.util.concurrent.ConcurrentHashMap;
+
+import net.sf.ehcache.Cache;
+import net.sf.ehcache.CacheManager;
+import net.sf.ehcache.Element;
+import net.sf.ehcache.config.CacheConfiguration;
+import net.sf.ehcache.config.Configuration;
+
+import org.helios.jmxstats.core.name.BloomFilter;
+import org.helios.jmxstats.core.name.NameTrie;
+
+/**
+ * <p>Title: NameIndexType</p>
+ * <p>Description: The name to index lookup strategies under benchmark. Each creates an empty {@link NameIndex} sized for the expected cardinality.</p> 
+ * <p>Company: Helios Development Group LLC</p>
+ * @author Whitehead (nwhitehead AT heliosdev DOT org)
+ * <p><code>org.helios.jmxstats.benchmarks.NameIndexType</code></p>
+ */
+public enum NameIndexType {
+	/** A ConcurrentHashMap keyed by the name string */
+	STRING_MAP {
+		@Override
+		public NameIndex create(int cardinality) {
+			final ConcurrentHashMap<String, Long> map = new ConcurrentHashMap<String, Long>(cardinality*2, 0.75f, 16);
+			return new NameIndex() {
+				public void put(String name, long value) { map.put(name, value); }
+				public long get(CharSequence name) { final Long v = map.get(name.toString()); return v==null ? NO_VALUE : v; }
+				public void close() {}
+			};
+		}
+	},
+	/** A ConcurrentHashMap keyed by the name's 64 bit hash. Collisions alias names */
+	LONG_HASH_MAP {
+		@Override
+		public NameIndex create(int cardinality) {
+			final ConcurrentHashMap<Long, Long> map = new ConcurrentHashMap<Long, Long>(cardinality*2, 0.75f, 16);
+			return new NameIndex() {
+				public void put(String name, long value) { map.put(longHashCode(name), value); }
+				public long get(CharSequence name) { final Long v = map.get(longHashCode(name)); return v==null ? NO_VALUE : v; }
+				public void close() {}
+			};
+		}
+	},
+	/** A Trove primitive map keyed by the name's 64 bit hash, read under a lock since Trove maps are not thread safe */
+	TROVE_LONG_HASH {
+		@Override
+		public NameIndex create(int cardinality) {
+			final TLongLongHashMap map = new TLongLongHashMap(cardinality*2, 0.5f, Long.MIN_VALUE, NO_VALUE);
+			return new NameIndex() {
+				public synchronized void put(String name, long value) { map.put(longHashCode(name), value); }
+				public synchronized long get(CharSequence name) { return map.get(longHashCode(name)); }
+				public void close() {}
+			};
+		}
+	},
+	/** The segment interned {@link NameTrie} used by the chronicle name index */
+	NAME_TRIE {
+		@Override
+		public NameIndex create(int cardinality) {
+			final NameTrie trie = new NameTrie(cardinality);
+			return new NameIndex() {
+				public void put(String name, long value) { trie.put(name, value); }
+				public long get(CharSequence name) { return trie.get(name); }
+				public void close() {}
+			};
+		}
+	},
+	/** The {@link NameTrie} behind a {@link BloomFilter}, as probed by the chronicle's metric existence check */
+	BLOOM_NAME_TRIE {
+		@Override
+		public NameIndex create(int cardinality) {
+			final NameTrie trie = new NameTrie(cardinality);
+			final BloomFilter filter = new BloomFilter(cardinality, BloomFilter.DEFAULT_FPP);
+			return new NameIndex() {
+				public void put(String name, long value) { trie.put(name, value); filter.add(name); }
+				public long get(CharSequence name) { return filter.mightContain(name) ? trie.get(name) : NO_VALUE; }
+				public void close() {}
+			};
+		}
+	},
+	/** An on heap ehcache keyed by the name string */
+	EHCACHE {
+		@Override
+		public NameIndex create(int cardinality) {
+			final CacheManager cacheManager = new CacheManager(new Configuration().name("NameIndexBenchmark-" + System.nanoTime()).updateCheck(false));
+			final Cache cache = new Cache(new CacheConfiguration("names", cardinality).eternal(true));
+			cacheManager.addCache(cache);
+			return new NameIndex() {
+				public void put(String name, long value) { cache.put(new Element(name, value)); }
+				public long get(CharSequence name) { final Element e = cache.get(name.toString()); return e==null ? NO_VALUE : (Long)e.getObjectValue(); }
+				public void close() { cacheManager.shutdown(); }
+			};
+		}
+	};
+	
+	/** The value returned by lookups of names that are not in the index */
+	public static final long NO_VALUE = NameTrie.NO_VALUE;
+	
+	/**
+	 * Creates an empty index of this type
+	 * @param cardinality The expected number of names
+	 * @return the empty index
+	 */
+	public abstract NameIndex create(int cardinality);
+	
+	/**
+	 * The 64 bit name hash of the original name cache performance test
+	 * @param s The name
+	 * @return the hash
+	 */
+	public static long longHashCode(CharSequence s) {
+		long h = 0;
+		final int len = s.length();
+		final int hashPrime = s.hashCode();
+		for(int i = 0; i < len; i++) {
+			h = (31*h + s.charAt(i) + (hashPrime*h));
+		}
+		return h;
+	}
+	
+	/**
+	 * <p>Title: NameIndex</p>
+	 * <p>Description: A name to chronicle index lookup under benchmark</p> 
+	 */
+	public interface NameIndex {
+		/**
+		 * Maps a name to a value
+		 * @param name The name
+		 * @param value The value
+		 */
+		public void put(String name, long value);
+		
+		/**
+		 * Looks up the value of a name
+		 * @param name The name
+		 * @return the value, or {@link NameIndexType#NO_VALUE} if the name is not in the index
+		 */
+		public long get(CharSequence name);
+		
+		/**
+		 * Releases any resources held by the index
+		 */
+		public void close();
+	}
+}
@@ -0,0 +1,147 @@
+/**
+ * Helios, OpenSource Monitoring
+ * Brought to you by the Helios Development Group
+ *
+ * Copyright 2007, Helios Development Group and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org. 
+ *
+ */
+package org.helios.jmxstats.benchmarks;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * <p>Title: NameLookupBenchmark</p>
+ * <p>Description: Benchmarks name to index lookups for every {@link NameIndexType} over names built from the <code>words.txt.gz</code> corpus
+ * in each {@link Corpus.Shape}: dotted and ObjectName keyed metric names that share long prefixes, as in production, and the bare words.
+ * Lookups of registered names (hits) and unregistered names (misses) are measured separately, in shuffled order. A miss differs from
+ * a registered name only in its last character, so it shares the registered name's prefix.
+ * Run through {@link BenchmarkRunner} to sweep thread counts and collect allocation rates.</p> 
+ * <p>Company: Helios Development Group LLC</p>
+ * @author Whitehead (nwhitehead AT heliosdev DOT org)
+ * <p><code>org.helios.jmxstats.benchmarks.NameLookupBenchmark</code></p>
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class NameLookupBenchmark {
+	/** The lookup strategy */
+	@Param
+	public NameIndexType strategy;
+	/** The shape of the names */
+	@Param({"DOTTED", "OBJECTNAME", "WORDS"})
+	public Corpus.Shape shape;
+	/** The number of registered names */
+	@Param({"10000", "100000", "500000"})
+	public int cardinality;
+	
+	/** The index under test */
+	private NameIndexType.NameIndex index;
+	/** The registered names in lookup order */
+	private String[] hits;
+	/** The unregistered names in lookup order */
+	private String[] misses;
+	
+	/**
+	 * Loads the corpus and populates the index
+	 */
+	@Setup(Level.Trial)
+	public void setup() {
+		final String[] names = shape.names(cardinality);
+		index = strategy.create(cardinality);
+		for(int i = 0; i < names.length; i++) {
+			index.put(names[i], i);
+		}
+		hits = Corpus.shuffled(names);
+		misses = Corpus.misses(names);
+	}
+	
+	/**
+	 * Releases the index
+	 */
+	@TearDown(Level.Trial)
+	public void tearDown() {
+		index.close();
+	}
+	
+	/**
+	 * <p>Title: Cursor</p>
+	 * <p>Description: A per thread position in the lookup order, started at a different offset for each thread</p> 
+	 */
+	@State(Scope.Thread)
+	public static class Cursor {
+		/** The next position */
+		int position;
+		
+		/**
+		 * Starts the cursor at a thread specific offset
+		 */
+		@Setup(Level.Trial)
+		public void setup() {
+			position = (int)(Thread.currentThread().getId() * 7919) & 0x7FFFFFFF;
+		}
+		
+		/**
+		 * Returns the next position
+		 * @param length The length of the lookup array
+		 * @return the next position
+		 */
+		int next(int length) {
+			if(++position>=length) position = 0;
+			return position;
+		}
+	}
+	
+	/**
+	 * Looks up a registered name
+	 * @param cursor The thread's lookup position
+	 * @return the name's value
+	 */
+	@Benchmark
+	public long hit(Cursor cursor) {
+		return index.get(hits[cursor.next(hits.length)]);
+	}
+	
+	/**
+	 * Looks up an unregistered name
+	 * @param cursor The thread's lookup position
+	 * @return the lookup result
+	 */
+	@Benchmark
+	public long miss(Cursor cursor) {
+		return index.get(misses[cursor.next(misses.length)]);
+	}
+}
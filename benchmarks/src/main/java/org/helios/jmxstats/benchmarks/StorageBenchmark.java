@@ -0,0 +1,233 @@
+/**
+ * Helios, OpenSource Monitoring
+ * Brought to you by the Helios Development Group
+ *
+ * Copyright 2007, Helios Development Group and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org. 
+ *
+ */
+package org.helios.jmxstats.benchmarks;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.Random;
+
+import org.helios.jmxstats.core.ChronicleController;
+import org.helios.jmxstats.core.metric.IntervalSnapshot;
+import org.helios.jmxstats.core.metric.MetricType;
+
+/**
+ * <p>Title: StorageBenchmark</p>
+ * <p>Description: Measures how fast a {@link ChronicleController} persists and reads closed intervals. For each configured chronicle data
+ * bit size and metric cardinality a chronicle is created in a temporary directory and synthetic intervals are written to it. The data bit
+ * sizes default to the production size, {@link ChronicleController#CHRONICLE_SIZE_EST}, and a large size for comparison, since the data bit
+ * size bounds the points per block and so the block count of each interval. The harness then reports:
+ * sustained write MB/s; per interval write latency; cold (just reopened) and warm read latency for single series points and
+ * single series time ranges; and on-disk bytes per point. It only touches local files. "Cold" reads follow a reopen of the
+ * chronicle, but the OS page cache is not dropped, so they measure the index reload and first touch rather than disk seeks.</p>
+ * <p>This is a plain harness rather than a JMH benchmark since each measured operation writes a whole interval of up to a million points.</p> 
+ * <p>Company: Helios Development Group LLC</p>
+ * @author Whitehead (nwhitehead AT heliosdev DOT org)
+ * <p><code>org.helios.jmxstats.benchmarks.StorageBenchmark</code></p>
+ */
+public class StorageBenchmark {
+	/** The system property that defines the comma separated metric cardinalities */
+	public static final String METRICS_PROP = "org.helios.benchmark.storage.metrics";
+	/** The default metric cardinalities */
+	public static final String DEFAULT_METRICS = "10000,100000,1000000";
+	/** The system property that defines the number of intervals written per cardinality */
+	public static final String INTERVALS_PROP = "org.helios.benchmark.storage.intervals";
+	/** The default number of intervals */
+	public static final int DEFAULT_INTERVALS = 20;
+	/** The system property that defines the number of reads per read measurement */
+	public static final String READS_PROP = "org.helios.benchmark.storage.reads";
+	/** The default number of reads */
+	public static final int DEFAULT_READS = 1000;
+	/** The system property that defines the comma separated chronicle data bit sizes */
+	public static final String DATA_BITS_PROP = "org.helios.benchmark.storage.databits";
+	/** The default chronicle data bit sizes: the size the controller uses in production and a large size */
+	public static final String DEFAULT_DATA_BITS = ChronicleController.CHRONICLE_SIZE_EST + ",24";
+	/** The synthetic interval length in ms */
+	public static final long INTERVAL = 15000;
+	/** The number of bytes in a MB */
+	public static final double MB = 1024 * 1024;
+	
+	/** A visitor that discards points */
+	private static final ChronicleController.PointVisitor SINK = new ChronicleController.PointVisitor() {
+		public void point(long nameIndex, long startTime, long endTime, long count, long average, long minimum, long maximum, double sampleRate) {
+			checksum += count;
+		}
+	};
+	/** Keeps the visited points live */
+	private static long checksum = 0;
+
+	/**
+	 * Runs the storage benchmark for each configured data bit size and cardinality
+	 * @param args None
+	 * @throws IOException thrown if the temporary directory cannot be created
+	 */
+	public static void main(String[] args) throws IOException {
+		final int intervals = Integer.getInteger(INTERVALS_PROP, DEFAULT_INTERVALS);
+		final int reads = Integer.getInteger(READS_PROP, DEFAULT_READS);
+		log(String.format("%9s %10s %10s %12s %14s %14s %14s %14s %14s %14s %12s",
+			"data bits", "metrics", "intervals", "write MB/s", "write p50 ms", "write p99 ms",
+			"cold pt us", "warm pt p99 us", "cold rng us", "warm rng p99 us", "bytes/point"));
+		for(String b: System.getProperty(DATA_BITS_PROP, DEFAULT_DATA_BITS).split(",")) {
+			for(String m: System.getProperty(METRICS_PROP, DEFAULT_METRICS).split(",")) {
+				run(Integer.parseInt(m.trim()), intervals, reads, Integer.parseInt(b.trim()));
+			}
+		}
+		log("checksum " + checksum);
+	}
+	
+	/**
+	 * Runs the storage benchmark for one data bit size and cardinality
+	 * @param metrics The number of metrics per interval
+	 * @param intervals The number of intervals to write
+	 * @param reads The number of reads per read measurement
+	 * @param dataBits The chronicle data bit size
+	 * @throws IOException thrown if the temporary directory cannot be created
+	 */
+	protected static void run(int metrics, int intervals, int reads, int dataBits) throws IOException {
+		final File dir = Files.createTempDirectory("jmxstats-storage").toFile();
+		final Random random = new Random(metrics);
+		try {
+			ChronicleController cc = ChronicleController.open(dir, "storage", dataBits);
+			final long[] nameIndexes = new long[metrics];
+			for(int i = 0; i < metrics; i++) {
+				nameIndexes[i] = cc.registerMetricName("storage.metric." + i);
+			}
+			final long firstStart = (System.currentTimeMillis() / INTERVAL) * INTERVAL;
+			final long[] writeNanos = new long[intervals];
+			long written = 0, totalNanos = 0;
+			for(int i = 0; i < intervals; i++) {
+				final IntervalSnapshot snapshot = synthesize(firstStart + i * INTERVAL, metrics, random);
+				final long start = System.nanoTime();
+				cc.writeInterval(snapshot, nameIndexes);
+				writeNanos[i] = System.nanoTime() - start;
+				totalNanos += writeNanos[i];
+				final int blocks = (metrics + cc.getPointsPerBlock() - 1) / cc.getPointsPerBlock();
+				written += ChronicleController.INTERVAL_HEADER_SIZE + (long)blocks * ChronicleController.BLOCK_HEADER_SIZE + (long)metrics * ChronicleController.POINT_SIZE;
+			}
+			final long lastStart = firstStart + (intervals-1) * INTERVAL;
+			final long[] warmPoint = readPoints(cc, nameIndexes, reads, firstStart, intervals, random);
+			final long[] warmRange = readRanges(cc, nameIndexes, reads, firstStart, lastStart, random);
+			cc.close();
+			
+			cc = ChronicleController.open(dir, "storage", dataBits);
+			long start = System.nanoTime();
+			readPoints(cc, nameIndexes, 1, firstStart, intervals, random);
+			final long coldPoint = System.nanoTime() - start;
+			cc.close();
+			cc = ChronicleController.open(dir, "storage", dataBits);
+			start = System.nanoTime();
+			readRanges(cc, nameIndexes, 1, firstStart, lastStart, random);
+			final long coldRange = System.nanoTime() - start;
+			cc.close();
+			
+			long onDisk = 0;
+			for(File f: dir.listFiles()) {
+				onDisk += f.length();
+			}
+			Arrays.sort(writeNanos);
+			log(String.format("%9d %10d %10d %12.1f %14.2f %14.2f %14.1f %14.1f %14.1f %14.1f %12.1f",
+				dataBits, metrics, intervals, (written / MB) / (totalNanos / 1e9),
+				percentile(writeNanos, 0.5) / 1e6, percentile(writeNanos, 0.99) / 1e6,
+				coldPoint / 1e3, percentile(warmPoint, 0.99) / 1e3,
+				coldRange / 1e3, percentile(warmRange, 0.99) / 1e3,
+				onDisk / ((double)metrics * intervals)));
+		} finally {
+			for(File f: dir.listFiles()) {
+				f.delete();
+			}
+			dir.delete();
+		}
+	}
+	
+	/**
+	 * Creates a synthetic closed interval
+	 * @param startTime The interval start time
+	 * @param metrics The number of metrics
+	 * @param random The value source
+	 * @return the interval snapshot
+	 */
+	protected static IntervalSnapshot synthesize(long startTime, int metrics, Random random) {
+		final IntervalSnapshot snapshot = new IntervalSnapshot(startTime, startTime + INTERVAL - 1, metrics);
+		for(int h = 0; h < metrics; h++) {
+			final long count = 1 + random.nextInt(100);
+			final long min = random.nextInt(1000);
+			final long max = min + random.nextInt(1000);
+			snapshot.set(h, MetricType.AVG, count, count * ((min + max) / 2), (min + max) / 2, min, max);
+		}
+		return snapshot;
+	}
+	
+	/**
+	 * Reads single points of random series at random intervals
+	 * @return the latency of each read in ns
+	 */
+	private static long[] readPoints(ChronicleController cc, long[] nameIndexes, int reads, long firstStart, int intervals, Random random) {
+		final long[] nanos = new long[reads];
+		for(int i = 0; i < reads; i++) {
+			final long ni = nameIndexes[random.nextInt(nameIndexes.length)];
+			final long t = firstStart + random.nextInt(intervals) * INTERVAL;
+			final long start = System.nanoTime();
+			if(cc.readSeries(ni, t, t, SINK)!=1) throw new RuntimeException("Point of series [" + ni + "] at [" + t + "] not found", new Throwable());
+			nanos[i] = System.nanoTime() - start;
+		}
+		Arrays.sort(nanos);
+		return nanos;
+	}
+	
+	/**
+	 * Reads random series over every stored interval
+	 * @return the latency of each read in ns
+	 */
+	private static long[] readRanges(ChronicleController cc, long[] nameIndexes, int reads, long firstStart, long lastStart, Random random) {
+		final long[] nanos = new long[reads];
+		for(int i = 0; i < reads; i++) {
+			final long ni = nameIndexes[random.nextInt(nameIndexes.length)];
+			final long start = System.nanoTime();
+			cc.readSeries(ni, firstStart, lastStart, SINK);
+			nanos[i] = System.nanoTime() - start;
+		}
+		Arrays.sort(nanos);
+		return nanos;
+	}
+	
+	/**
+	 * Returns the value at the passed percentile of sorted values
+	 * @param sorted The sorted values
+	 * @param p The percentile, 0 to 1
+	 * @return the value
+	 */
+	private static long percentile(long[] sorted, double p) {
+		return sorted[Math.min(sorted.length-1, (int)Math.ceil(p * sorted.length) - 1)];
+	}
+	
+	/**
+	 * Console logger
+	 * @param msg The message to log
+	 */
+	public static void log(Object msg) {
+		System.out.println(msg);
+	}
+}
@@ -24,11 +24,32 @@
  */
 package org.helios.jmxstats.core;
 
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
 import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
 import java.io.IOException;
-import java.nio.CharBuffer;
-import java.util.concurrent.ConcurrentHashMap;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import net.sf.ehcache.Cache;
+import net.sf.ehcache.CacheManager;
+import net.sf.ehcache.Element;
+import net.sf.ehcache.config.CacheConfiguration;
+import net.sf.ehcache.config.Configuration;
+import net.sf.ehcache.config.DiskStoreConfiguration;
+import net.sf.ehcache.config.PersistenceConfiguration;
+
+import org.helios.jmxstats.core.metric.IntervalSnapshot;
+import org.helios.jmxstats.core.name.BloomFilter;
+import org.helios.jmxstats.core.name.NameTrie;
 
 import vanilla.java.chronicle.Excerpt;
 import vanilla.java.chronicle.impl.IndexedChronicle;
@@ -45,11 +66,22 @@ public class ChronicleController {
 	/** The chronicle file name */
 	protected final String chronicleName;
 	/** The chronicle parth */
-	protected final String chroniclePath;	
+	protected final String chroniclePath;
+	/** The directory of the chronicle files */
+	protected final File directory;	
 	/** The chronicle */
 	protected final IndexedChronicle chronicle;
 	/** The number of entries in the chronicle */
 	protected final AtomicLong entryCount = new AtomicLong(0);
+	/** The name lookup counters, striped by thread and padded so each stripe sits on its own cache line, as the hot lookup paths
+	 * of every registering thread would otherwise contend on shared counters. Each stripe holds a hit, a miss and a filter reject count. */
+	private final AtomicLongArray lookups = new AtomicLongArray(LOOKUP_STRIPES * LOOKUP_PAD);
+	/** The number of excerpt bytes written */
+	private final AtomicLong bytesWritten = new AtomicLong(0);
+	/** The chronicle data bit size */
+	protected final int dataBitSize;
+	/** The number of interval points stored per block excerpt */
+	protected final int pointsPerBlock;
 	
 	
 	
@@ -67,8 +99,65 @@ public class ChronicleController {
 	/** The default chronicle databit size estimate */
 	public static final int CHRONICLE_SIZE_EST = 10;
 	
-	/** The lookup cache to map a metric's name to the corresponding chronicle index */
-	private final ConcurrentHashMap<CharBuffer, Long> nameIndex = new ConcurrentHashMap<CharBuffer, Long>(1024, 0.5f, 32);
+	/** The excerpt type of a metric name entry */
+	public static final byte NAME_ENTRY = 1;
+	/** The excerpt type of a closed interval header, followed by its block excerpts */
+	public static final byte INTERVAL_ENTRY = 2;
+	/** The excerpt type of a block of closed interval points */
+	public static final byte INTERVAL_BLOCK = 3;
+	/** The size of an interval header excerpt: type, start time, end time, point count, block count */
+	public static final int INTERVAL_HEADER_SIZE = 1 + 8 + 8 + 4 + 4;
+	/** The size of an interval block header: type, start time, point count */
+	public static final int BLOCK_HEADER_SIZE = 1 + 8 + 4;
+	/** The size of an interval point: name index, count, average, minimum, maximum and the sampling rate as float bits */
+	public static final int POINT_SIZE = 5 * 8 + 4;
+	/** The maximum number of points per interval block */
+	public static final int MAX_BLOCK_POINTS = 4096;
+	
+	/** The number of name lookup counter stripes */
+	private static final int LOOKUP_STRIPES = Math.min(64, Integer.highestOneBit(Math.max(2, Runtime.getRuntime().availableProcessors()) * 2));
+	/** The padding between name lookup counter stripes in longs */
+	private static final int LOOKUP_PAD = 8;
+	/** The offset of the hit count in a name lookup counter stripe */
+	private static final int HIT = 0;
+	/** The offset of the miss count, excluding filter rejects, in a name lookup counter stripe */
+	private static final int MISS = 1;
+	/** The offset of the filter reject count in a name lookup counter stripe */
+	private static final int REJECT = 2;
+	
+	/** The file extension of the persisted name filter */
+	public static final String NAME_FILTER_EXT = ".bloom";
+	/** The minimum number of names the first name filter layer is sized for */
+	public static final int NAME_FILTER_CAPACITY = 1024;
+	/** The extension of the spill cache disk store directory, appended to the chronicle name */
+	public static final String SPILL_DIR_EXT = ".spill";
+	/** The system property that defines the maximum number of metric names held in the heap name index */
+	public static final String MAX_RESIDENT_NAMES_PROP = "org.helios.jmxstat.names.max";
+	/** The maximum number of metric names held in the heap name index. Names beyond this are spilled */
+	public static final int MAX_RESIDENT_NAMES = Integer.getInteger(MAX_RESIDENT_NAMES_PROP, Integer.MAX_VALUE);
+	/** The system property that defines the number of spilled names the spill cache keeps on heap before overflowing to disk */
+	public static final String SPILL_HEAP_PROP = "org.helios.jmxstat.names.spill.heap";
+	/** The number of spilled names the spill cache keeps on heap before overflowing to disk */
+	public static final int SPILL_HEAP_ENTRIES = Integer.getInteger(SPILL_HEAP_PROP, 10000);
+	
+	/** The lookup cache to map a metric's name to the corresponding chronicle index, storing shared name prefixes once */
+	private volatile NameTrie nameIndex = new NameTrie(1024);
+	/** The tiered heap/disk cache of the name to chronicle index mappings spilled from the name index, created on first spill */
+	private volatile Cache spilledNames = null;
+	/** The filter in front of the name index that answers most "not registered" lookups without probing it */
+	private BloomFilter nameFilter = new BloomFilter(NAME_FILTER_CAPACITY, BloomFilter.DEFAULT_FPP);
+	/** The persisted name filter file */
+	private final File nameFilterFile;
+	/** Serial numbers making the spill cache manager name of each controller unique within the JVM */
+	private static final AtomicInteger spillSerial = new AtomicInteger(0);
+	/** The start times of the stored intervals in ascending order */
+	private long[] intervalStarts = new long[64];
+	/** The chronicle indexes of the stored interval headers */
+	private long[] intervalIndexes = new long[64];
+	/** The number of stored intervals */
+	private int intervalCount = 0;
+	/** Indicates if the chronicle has been closed */
+	private volatile boolean closed = false;
 	
 	/**
 	 * Acquires the ChronicleController singleton instance
@@ -86,28 +175,172 @@ public class ChronicleController {
 	}
 	
 	/**
-	 * Creates a new ChronicleController and initializes the underlying chronicle
+	 * Opens a standalone, non singleton ChronicleController on a chronicle in the passed directory, e.g. for tools and benchmarks
+	 * working on a temporary directory. Callers should {@link #close()} it when done.
+	 * @param directory The directory of the chronicle files
+	 * @param name The chronicle name
+	 * @param dataBitSize The chronicle data bit size
+	 * @return the opened ChronicleController
+	 */
+	public static ChronicleController open(File directory, String name, int dataBitSize) {
+		if(directory==null) throw new IllegalArgumentException("The passed directory was null", new Throwable());
+		if(name==null) throw new IllegalArgumentException("The passed chronicle name was null", new Throwable());
+		return new ChronicleController(directory, name, dataBitSize);
+	}
+	
+	/**
+	 * Creates a new ChronicleController and initializes the underlying chronicle in the jmxstats home directory
 	 */
 	private ChronicleController() {
-		chronicleName = System.getProperty(CHRONICLE_PROP, DEFAULT_CHRONICLE_NAME);
-		if(!CHRONICLE_HOME_DIR.exists()) {
-			if(!CHRONICLE_HOME_DIR.mkdir()) {
-				throw new RuntimeException("Failed to create jmxstats home directory [" + CHRONICLE_HOME_DIR + "]", new Throwable());
+		this(CHRONICLE_HOME_DIR, System.getProperty(CHRONICLE_PROP, DEFAULT_CHRONICLE_NAME), CHRONICLE_SIZE_EST);
+	}
+	
+	/**
+	 * Creates a new ChronicleController and initializes the underlying chronicle
+	 * @param directory The directory of the chronicle files
+	 * @param name The chronicle name
+	 * @param dataBitSize The chronicle data bit size
+	 */
+	private ChronicleController(File directory, String name, int dataBitSize) {
+		chronicleName = name;
+		this.directory = directory;
+		this.dataBitSize = dataBitSize;
+		pointsPerBlock = Math.max(1, Math.min(MAX_BLOCK_POINTS, ((1 << dataBitSize) - BLOCK_HEADER_SIZE) / POINT_SIZE));
+		if(!directory.exists()) {
+			if(!directory.mkdirs()) {
+				throw new RuntimeException("Failed to create jmxstats home directory [" + directory + "]", new Throwable());
 			}
 		} else {
-			if(!CHRONICLE_HOME_DIR.isDirectory()) {
-				throw new RuntimeException("jmxstats home directory [" + CHRONICLE_HOME_DIR + "] is a file not a directory", new Throwable());
+			if(!directory.isDirectory()) {
+				throw new RuntimeException("jmxstats home directory [" + directory + "] is a file not a directory", new Throwable());
 			}
 		}
-		chroniclePath = CHRONICLE_HOME_DIR + File.separator + chronicleName;
+		chroniclePath = directory + File.separator + chronicleName;
+		nameFilterFile = new File(chroniclePath + NAME_FILTER_EXT);
 		try {
-			chronicle = new IndexedChronicle(chroniclePath, CHRONICLE_SIZE_EST);
+			chronicle = new IndexedChronicle(chroniclePath, dataBitSize);
 		} catch (IOException e) {
 			throw new RuntimeException("Failed to create chronicle on path [" + chroniclePath + "]", e);
 		}
 		log("Initialized chronicle [" + chronicle.name() + "] on path [" + chroniclePath + "] with size [" + chronicle.size() + "]");
 		if(chronicle.size()==0) initControlBlock();
-		else updateEntryCount();
+		else {
+			updateEntryCount();
+			loadNameIndex();
+		}
+		Runtime.getRuntime().addShutdownHook(new Thread("ChronicleNameFilterSaver") {
+			@Override
+			public void run() {
+				close();
+			}
+		});
+	}
+	
+	/**
+	 * Saves the name filter and closes the chronicle
+	 */
+	public synchronized void close() {
+		if(closed) return;
+		saveNameFilter();
+		closed = true;
+		chronicle.close();
+		final Cache spill = spilledNames;
+		if(spill!=null) spill.getCacheManager().shutdown();
+	}
+	
+	/**
+	 * Loads the name index from the name entries in the chronicle and the interval index from the interval headers.
+	 * If the persisted name filter cannot be used, it is rebuilt once the names are counted, with a first layer sized for twice
+	 * the stored names, so the rebuild does not cascade through a chain of small layers that every lookup must probe.
+	 */
+	private void loadNameIndex() {
+		Excerpt<IndexedChronicle> ex = chronicle.createExcerpt();
+		final long size = chronicle.size();
+		final boolean filterLoaded = loadNameFilter(size);
+		final List<String> names = filterLoaded ? null : new ArrayList<String>();
+		for(long i = 1; i < size; i++) {
+			if(!ex.index(i)) continue;
+			final byte type = ex.readByte();
+			if(type==NAME_ENTRY) {
+				final String name = ex.readUTF();
+				if(nameIndex.size()<MAX_RESIDENT_NAMES) nameIndex.put(name, i);
+				else spill().put(new Element(name, i));
+				if(!filterLoaded) names.add(name);
+			} else if(type==INTERVAL_ENTRY) {
+				addInterval(ex.readLong(), i);
+			}
+		}
+		if(!filterLoaded) {
+			final BloomFilter filter = new BloomFilter((int)Math.min(Integer.MAX_VALUE / 2, Math.max(NAME_FILTER_CAPACITY, names.size() * 2L)), BloomFilter.DEFAULT_FPP);
+			for(String name: names) {
+				filter.add(name);
+			}
+			nameFilter = filter;
+			log("Rebuilt name filter for [" + names.size() + "] names");
+		}
+		log("Loaded [" + nameIndex.size() + "] metric names in [" + nameIndex.getSegmentCount() + "] segments and [" + intervalCount + "] intervals");
+		if(spilledNames!=null) log("Spilled [" + spilledNames.getSize() + "] metric names");
+	}
+	
+	/**
+	 * Loads the persisted name filter if it was saved when the chronicle had the passed size
+	 * @param size The current chronicle size
+	 * @return true if the filter was loaded, false if it must be rebuilt from the name entries
+	 */
+	private boolean loadNameFilter(long size) {
+		if(!nameFilterFile.exists()) return false;
+		DataInputStream in = null;
+		try {
+			in = new DataInputStream(new BufferedInputStream(new FileInputStream(nameFilterFile)));
+			final long savedSize = in.readLong();
+			if(savedSize!=size) {
+				log("Stale name filter [" + nameFilterFile + "], rebuilding");
+				return false;
+			}
+			nameFilter = BloomFilter.readFrom(in);
+			log("Loaded name filter [" + nameFilterFile + "] with [" + nameFilter.getLayerCount() + "] layers");
+			return true;
+		} catch (IOException e) {
+			log("Failed to load name filter [" + nameFilterFile + "], rebuilding:" + e);
+			return false;
+		} finally {
+			if(in!=null) try { in.close(); } catch (Exception e) {}
+		}
+	}
+	
+	/**
+	 * Persists the name filter next to the chronicle so the next startup does not need to rebuild it
+	 */
+	public synchronized void saveNameFilter() {
+		if(closed) return;
+		final File tmp = new File(nameFilterFile.getPath() + ".tmp");
+		DataOutputStream out = null;
+		try {
+			out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmp)));
+			out.writeLong(chronicle.size());
+			nameFilter.writeTo(out);
+			out.close();
+			out = null;
+			if(nameFilterFile.exists() && !nameFilterFile.delete()) {
+				throw new IOException("Failed to replace [" + nameFilterFile + "]");
+			}
+			if(!tmp.renameTo(nameFilterFile)) {
+				throw new IOException("Failed to rename [" + tmp + "] to [" + nameFilterFile + "]");
+			}
+		} catch (IOException e) {
+			log("Failed to save name filter [" + nameFilterFile + "]:" + e);
+		} finally {
+			if(out!=null) try { out.close(); } catch (Exception e) {}
+		}
+	}
+	
+	/**
+	 * Writes the current entry count to the control block
+	 */
+	private void writeEntryCount() {
+		Excerpt<IndexedChronicle> ex = chronicle.createExcerpt();
+		ex.index(0);
+		ex.writeLong(0, entryCount.get());
 	}
 	
 	private void updateEntryCount() {
@@ -134,7 +367,463 @@ public class ChronicleController {
 	 */
 	public Long getMetricNameIndex(CharSequence name) {
 		if(name==null) throw new IllegalArgumentException("The passed metric name was null", new Throwable());
-		return nameIndex.get(CharBuffer.wrap(name));
+		final long index = nameIndex.get(name);
+		final Long found = index==NameTrie.NO_VALUE ? getSpilled(name) : Long.valueOf(index);
+		lookups.getAndIncrement(stripe() + (found==null ? MISS : HIT));
+		return found;
+	}
+	
+	/**
+	 * Returns the chronicle index of the passed metric name without boxing it.
+	 * Lookups of resident names do not allocate; lookups that fall through to the spill cache do.
+	 * @param name The metric name
+	 * @param defaultValue The value to return if the name is not registered
+	 * @return the chronicle index of the passed metric name, or the default value if one is not registered
+	 */
+	public long getMetricNameIndex(CharSequence name, long defaultValue) {
+		if(name==null) throw new IllegalArgumentException("The passed metric name was null", new Throwable());
+		final long index = nameIndex.get(name);
+		if(index!=NameTrie.NO_VALUE) {
+			lookups.getAndIncrement(stripe() + HIT);
+			return index;
+		}
+		final Long spilled = getSpilled(name);
+		lookups.getAndIncrement(stripe() + (spilled==null ? MISS : HIT));
+		return spilled==null ? defaultValue : spilled;
+	}
+	
+	/**
+	 * Returns the chronicle index of a spilled metric name
+	 * @param name The metric name
+	 * @return the chronicle index or null if the name has not been spilled
+	 */
+	private Long getSpilled(CharSequence name) {
+		final Cache spill = spilledNames;
+		if(spill==null) return null;
+		final Element e = spill.get(name.toString());
+		return e==null ? null : (Long)e.getObjectValue();
+	}
+	
+	/**
+	 * Returns the spill cache, creating it on first use. The cache overflows to a directory next to this controller's chronicle,
+	 * under a cache manager name unique to this controller, so standalone controllers never share the singleton's disk store.
+	 * @return the spill cache
+	 */
+	private synchronized Cache spill() {
+		if(spilledNames==null) {
+			Configuration config = new Configuration()
+				.name("jmxstats-" + chronicleName + "-" + spillSerial.incrementAndGet())
+				.diskStore(new DiskStoreConfiguration().path(new File(directory, chronicleName + SPILL_DIR_EXT).getPath()))
+				.updateCheck(false);
+			CacheManager cacheManager = new CacheManager(config);
+			Cache cache = new Cache(new CacheConfiguration("spilledMetricNames", SPILL_HEAP_ENTRIES)
+				.eternal(true)
+				.persistence(new PersistenceConfiguration().strategy(PersistenceConfiguration.Strategy.LOCALTEMPSWAP)));
+			cacheManager.addCache(cache);
+			spilledNames = cache;
+			log("Created metric name spill cache [" + cache.getName() + "] with [" + SPILL_HEAP_ENTRIES + "] heap entries");
+		}
+		return spilledNames;
+	}
+	
+	/**
+	 * Spills the mappings of the passed metric names from the heap name index to the tiered spill cache.
+	 * The names remain registered: lookups fall through to the spill cache and re-registering a name promotes it back.
+	 * The name index is rebuilt once most of its nodes belong to spilled names.
+	 * @param names The names to spill. Null elements are ignored
+	 */
+	public synchronized void spillMetricNames(String[] names) {
+		if(names==null) return;
+		int spilled = 0;
+		for(String name: names) {
+			if(name==null) continue;
+			final long index = nameIndex.remove(name);
+			if(index!=NameTrie.NO_VALUE) {
+				spill().put(new Element(name, index));
+				spilled++;
+			}
+		}
+		if(spilled>0 && nameIndex.getNodeCount() > (nameIndex.size()+1024)*4) {
+			compactNameIndex();
+		}
+	}
+	
+	/**
+	 * Rebuilds the name index from its remaining names, releasing the nodes and segments of removed names
+	 */
+	private void compactNameIndex() {
+		final NameTrie current = nameIndex;
+		final NameTrie compacted = new NameTrie(Math.max(1024, current.size()*2));
+		final int nodes = current.getNodeCount();
+		for(int id = 0; id < nodes; id++) {
+			final long value = current.getValue(id);
+			if(value!=NameTrie.NO_VALUE) compacted.put(current.getName(id), value);
+		}
+		nameIndex = compacted;
+		log("Compacted name index from [" + nodes + "] to [" + compacted.getNodeCount() + "] nodes");
+	}
+	
+	/**
+	 * Registers a metric name, writing a name entry to the chronicle if the name has not been registered
+	 * @param name The metric name
+	 * @return the chronicle index of the name entry
+	 */
+	public synchronized long registerMetricName(CharSequence name) {
+		if(name==null) throw new IllegalArgumentException("The passed metric name was null", new Throwable());
+		long index = nameIndex.get(name);
+		if(index!=NameTrie.NO_VALUE) return index;
+		final String key = name.toString();
+		final Long spilled = getSpilled(key);
+		if(spilled!=null) {
+			nameIndex.put(key, spilled);
+			spilledNames.remove(key);
+			return spilled;
+		}
+		Excerpt<IndexedChronicle> ex = chronicle.createExcerpt();
+		index = chronicle.size();
+		ex.startExcerpt(3 + key.length()*3);
+		ex.writeByte(NAME_ENTRY);
+		ex.writeUTF(key);
+		bytesWritten.addAndGet(ex.position());
+		ex.finish();
+		nameIndex.put(key, index);
+		nameFilter.add(key);
+		entryCount.incrementAndGet();
+		writeEntryCount();
+		return index;
+	}
+	
+	/**
+	 * Writes a closed interval to the chronicle. The interval is stored as a header excerpt followed by block excerpts of
+	 * at most {@link #getPointsPerBlock()} points, sorted by name index so a series can be located by binary search.
+	 * @param closed The closed interval snapshot
+	 * @param nameIndexes The chronicle name index of each handle in the snapshot. Handles with a negative name index are not written.
+	 * @return the chronicle index of the interval header
+	 */
+	public synchronized long writeInterval(IntervalSnapshot closed, long[] nameIndexes) {
+		if(closed==null) throw new IllegalArgumentException("The passed interval snapshot was null", new Throwable());
+		if(nameIndexes==null) throw new IllegalArgumentException("The passed name index array was null", new Throwable());
+		final long startTime = closed.getStartTime();
+		if(intervalCount>0 && startTime<=intervalStarts[intervalCount-1]) throw new IllegalArgumentException("Interval start [" + startTime + "] is not after the last stored interval [" + intervalStarts[intervalCount-1] + "]", new Throwable());
+		final int size = Math.min(closed.size(), nameIndexes.length);
+		final long[] keys = new long[size];
+		int points = 0;
+		for(int h = 0; h < size; h++) {
+			final long ni = nameIndexes[h];
+			if(ni<0) continue;
+			if(ni>Integer.MAX_VALUE) throw new IllegalArgumentException("Name index [" + ni + "] out of range", new Throwable());
+			keys[points++] = (ni << 32) | h;
+		}
+		Arrays.sort(keys, 0, points);
+		final int blocks = (points + pointsPerBlock - 1) / pointsPerBlock;
+		Excerpt<IndexedChronicle> ex = chronicle.createExcerpt();
+		final long header = chronicle.size();
+		ex.startExcerpt(INTERVAL_HEADER_SIZE);
+		ex.writeByte(INTERVAL_ENTRY);
+		ex.writeLong(startTime);
+		ex.writeLong(closed.getEndTime());
+		ex.writeInt(points);
+		ex.writeInt(blocks);
+		ex.finish();
+		for(int b = 0; b < blocks; b++) {
+			final int from = b * pointsPerBlock, to = Math.min(points, from + pointsPerBlock);
+			ex.startExcerpt(BLOCK_HEADER_SIZE + (to-from) * POINT_SIZE);
+			ex.writeByte(INTERVAL_BLOCK);
+			ex.writeLong(startTime);
+			ex.writeInt(to-from);
+			for(int p = from; p < to; p++) {
+				final int h = (int)keys[p];
+				ex.writeLong(keys[p] >>> 32);
+				ex.writeLong(closed.getCount(h));
+				ex.writeLong(closed.getAverage(h));
+				ex.writeLong(closed.getMinimum(h));
+				ex.writeLong(closed.getMaximum(h));
+				ex.writeInt(Float.floatToIntBits((float)closed.getSampleRate(h)));
+			}
+			ex.finish();
+		}
+		addInterval(startTime, header);
+		bytesWritten.addAndGet(INTERVAL_HEADER_SIZE + (long)blocks * BLOCK_HEADER_SIZE + (long)points * POINT_SIZE);
+		entryCount.addAndGet(1 + blocks);
+		writeEntryCount();
+		return header;
+	}
+	
+	/**
+	 * Reads the stored points of one series for the intervals starting within the passed time range
+	 * @param nameIndex The chronicle name index of the series
+	 * @param fromTime The earliest interval start time, inclusive
+	 * @param toTime The latest interval start time, inclusive
+	 * @param visitor The visitor the points are passed to in time order
+	 * @return the number of points read
+	 */
+	public int readSeries(long nameIndex, long fromTime, long toTime, PointVisitor visitor) {
+		if(visitor==null) throw new IllegalArgumentException("The passed visitor was null", new Throwable());
+		final long[] starts, indexes;
+		final int count;
+		synchronized(this) {
+			starts = intervalStarts; indexes = intervalIndexes; count = intervalCount;
+		}
+		Excerpt<IndexedChronicle> ex = chronicle.createExcerpt();
+		int read = 0;
+		for(int i = firstInterval(starts, count, fromTime); i < count && starts[i] <= toTime; i++) {
+			final long header = indexes[i];
+			ex.index(header);
+			ex.readByte();
+			final long startTime = ex.readLong(), endTime = ex.readLong();
+			ex.readInt();
+			final int blocks = ex.readInt();
+			// the last block whose first name index is <= the series name index
+			int lo = 0, hi = blocks-1, block = -1;
+			while(lo<=hi) {
+				final int mid = (lo + hi) >>> 1;
+				ex.index(header + 1 + mid);
+				if(ex.readLong(BLOCK_HEADER_SIZE)<=nameIndex) {
+					block = mid;
+					lo = mid+1;
+				} else {
+					hi = mid-1;
+				}
+			}
+			if(block<0) continue;
+			ex.index(header + 1 + block);
+			lo = 0; hi = ex.readInt(BLOCK_HEADER_SIZE-4)-1;
+			while(lo<=hi) {
+				final int mid = (lo + hi) >>> 1;
+				final int off = BLOCK_HEADER_SIZE + mid * POINT_SIZE;
+				final long ni = ex.readLong(off);
+				if(ni<nameIndex) lo = mid+1;
+				else if(ni>nameIndex) hi = mid-1;
+				else {
+					visitor.point(ni, startTime, endTime, ex.readLong(off+8), ex.readLong(off+16), ex.readLong(off+24), ex.readLong(off+32), Float.intBitsToFloat(ex.readInt(off+40)));
+					read++;
+					break;
+				}
+			}
+		}
+		return read;
+	}
+	
+	/**
+	 * Reads every stored point of the intervals starting within the passed time range
+	 * @param fromTime The earliest interval start time, inclusive
+	 * @param toTime The latest interval start time, inclusive
+	 * @param visitor The visitor the points are passed to, in time and then name index order
+	 * @return the number of points read
+	 */
+	public long readIntervals(long fromTime, long toTime, PointVisitor visitor) {
+		if(visitor==null) throw new IllegalArgumentException("The passed visitor was null", new Throwable());
+		final long[] starts, indexes;
+		final int count;
+		synchronized(this) {
+			starts = intervalStarts; indexes = intervalIndexes; count = intervalCount;
+		}
+		Excerpt<IndexedChronicle> ex = chronicle.createExcerpt();
+		long read = 0;
+		for(int i = firstInterval(starts, count, fromTime); i < count && starts[i] <= toTime; i++) {
+			final long header = indexes[i];
+			ex.index(header);
+			ex.readByte();
+			final long startTime = ex.readLong(), endTime = ex.readLong();
+			ex.readInt();
+			final int blocks = ex.readInt();
+			for(int b = 0; b < blocks; b++) {
+				ex.index(header + 1 + b);
+				ex.readByte();
+				ex.readLong();
+				final int points = ex.readInt();
+				for(int p = 0; p < points; p++) {
+					visitor.point(ex.readLong(), startTime, endTime, ex.readLong(), ex.readLong(), ex.readLong(), ex.readLong(), Float.intBitsToFloat(ex.readInt()));
+				}
+				read += points;
+			}
+		}
+		return read;
+	}
+	
+	/**
+	 * Returns the number of stored intervals
+	 * @return the number of stored intervals
+	 */
+	public synchronized int getIntervalCount() {
+		return intervalCount;
+	}
+	
+	/**
+	 * Returns the start time of the latest stored interval
+	 * @return the start time of the latest stored interval or -1 if no interval has been stored
+	 */
+	public synchronized long getLastIntervalStart() {
+		return intervalCount==0 ? -1L : intervalStarts[intervalCount-1];
+	}
+	
+	/**
+	 * Returns the number of chronicle entries
+	 * @return the number of entries
+	 */
+	public long getEntryCount() {
+		return entryCount.get();
+	}
+	
+	/**
+	 * Returns the number of excerpt bytes written by this controller
+	 * @return the number of bytes written
+	 */
+	public long getBytesWritten() {
+		return bytesWritten.get();
+	}
+	
+	/**
+	 * Returns the number of name lookups that found the name
+	 * @return the number of hits
+	 */
+	public long getNameHits() {
+		return sumLookups(HIT);
+	}
+	
+	/**
+	 * Returns the number of name lookups that did not find the name
+	 * @return the number of misses
+	 */
+	public long getNameMisses() {
+		return sumLookups(MISS) + sumLookups(REJECT);
+	}
+	
+	/**
+	 * Returns the number of name lookups answered negatively by the name filter without consulting the name index
+	 * @return the number of filter rejections
+	 */
+	public long getFilterRejects() {
+		return sumLookups(REJECT);
+	}
+	
+	/**
+	 * Sums one name lookup counter across the stripes
+	 * @param offset The offset of the counter in a stripe
+	 * @return the summed count
+	 */
+	private long sumLookups(int offset) {
+		long total = 0;
+		for(int i = 0; i < LOOKUP_STRIPES; i++) {
+			total += lookups.get(i * LOOKUP_PAD + offset);
+		}
+		return total;
+	}
+	
+	/**
+	 * Returns the calling thread's name lookup counter stripe index
+	 * @return the stripe index
+	 */
+	private static int stripe() {
+		return (int)(Thread.currentThread().getId() & (LOOKUP_STRIPES-1)) * LOOKUP_PAD;
+	}
+	
+	/**
+	 * Returns the number of layers in the name filter. Every negative lookup probes each layer.
+	 * @return the number of name filter layers
+	 */
+	public int getNameFilterLayers() {
+		return nameFilter.getLayerCount();
+	}
+	
+	/**
+	 * Returns the number of interval points stored per block excerpt
+	 * @return the number of points per block
+	 */
+	public int getPointsPerBlock() {
+		return pointsPerBlock;
+	}
+	
+	/**
+	 * Returns the chronicle path, the base name of the chronicle files
+	 * @return the chronicle path
+	 */
+	public String getChroniclePath() {
+		return chroniclePath;
+	}
+	
+	/**
+	 * Records a stored interval header. Callers hold the instance lock or are initializing.
+	 * @param startTime The interval start time
+	 * @param index The chronicle index of the interval header
+	 */
+	private void addInterval(long startTime, long index) {
+		if(intervalCount==intervalStarts.length) {
+			intervalStarts = Arrays.copyOf(intervalStarts, intervalCount*2);
+			intervalIndexes = Arrays.copyOf(intervalIndexes, intervalCount*2);
+		}
+		intervalStarts[intervalCount] = startTime;
+		intervalIndexes[intervalCount] = index;
+		intervalCount++;
+	}
+	
+	/**
+	 * Returns the position of the first stored interval starting at or after the passed time
+	 * @param starts The interval start times
+	 * @param count The number of intervals
+	 * @param fromTime The time
+	 * @return the position
+	 */
+	private static int firstInterval(long[] starts, int count, long fromTime) {
+		int lo = 0, hi = count;
+		while(lo<hi) {
+			final int mid = (lo + hi) >>> 1;
+			if(starts[mid]<fromTime) lo = mid+1;
+			else hi = mid;
+		}
+		return lo;
+	}
+	
+	/**
+	 * <p>Title: PointVisitor</p>
+	 * <p>Description: Receives interval points read from the chronicle</p> 
+	 */
+	public interface PointVisitor {
+		/**
+		 * Callback for one stored point
+		 * @param nameIndex The chronicle name index of the series
+		 * @param startTime The interval start time
+		 * @param endTime The interval end time
+		 * @param count The interval count
+		 * @param average The interval average
+		 * @param minimum The interval minimum
+		 * @param maximum The interval maximum
+		 * @param sampleRate The fraction of values the average, minimum and maximum were computed from, 1 for metrics that are not sampled.
+		 * The count is exact.
+		 */
+		public void point(long nameIndex, long startTime, long endTime, long count, long average, long minimum, long maximum, double sampleRate);
+	}
+	
+	/**
+	 * Returns the names of the registered metrics under the passed segment aligned prefix. Spilled names are not included.
+	 * @param prefix The name prefix, e.g. <code>java.lang:type=GarbageCollector</code>
+	 * @return the matching metric names
+	 */
+	public String[] getMetricNames(CharSequence prefix) {
+		final NameTrie index = nameIndex;
+		final int[] ids = index.findByPrefix(prefix);
+		final String[] names = new String[ids.length];
+		for(int i = 0; i < ids.length; i++) {
+			names[i] = index.getName(ids[i]);
+		}
+		return names;
+	}
+	
+	/**
+	 * Returns the spilled metric names starting with the passed prefix, which {@link #getMetricNames(CharSequence)} does not return.
+	 * Scans the keys of the spill cache, so callers should only use it to account for spilled names, not on hot paths.
+	 * @param prefix The name prefix
+	 * @return the matching spilled metric names, in no particular order
+	 */
+	public String[] getSpilledMetricNames(CharSequence prefix) {
+		final Cache spill = spilledNames;
+		if(spill==null) return new String[0];
+		final String p = prefix==null ? "" : prefix.toString();
+		final List<String> names = new ArrayList<String>();
+		for(Object key: spill.getKeys()) {
+			if(key instanceof String && ((String)key).startsWith(p)) names.add((String)key);
+		}
+		return names.toArray(new String[names.size()]);
 	}
 	
 	/**
@@ -143,7 +832,14 @@ public class ChronicleController {
 	 * @return true if the metric name has been registered, false otherwise
 	 */
 	public boolean isMetricCreated(CharSequence name) {
-		return getMetricNameIndex(name)!=null;
+		if(name==null) throw new IllegalArgumentException("The passed metric name was null", new Throwable());
+		if(!nameFilter.mightContain(name)) {
+			lookups.getAndIncrement(stripe() + REJECT);
+			return false;
+		}
+		final boolean found = nameIndex.get(name)!=NameTrie.NO_VALUE || getSpilled(name)!=null;
+		lookups.getAndIncrement(stripe() + (found ? HIT : MISS));
+		return found;
 	}
 	
 	/**
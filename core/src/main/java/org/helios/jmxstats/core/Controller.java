@@ -26,6 +26,7 @@ package org.helios.jmxstats.core;
 
 import java.lang.management.ManagementFactory;
 import java.text.SimpleDateFormat;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.Date;
 import java.util.HashMap;
@@ -42,6 +43,21 @@ import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.atomic.AtomicLong;
 import java.util.concurrent.atomic.AtomicReference;
 
+import javax.management.ObjectName;
+
+import org.helios.jmxstats.core.alert.AlertEvaluator;
+import org.helios.jmxstats.core.derived.DerivedMetricEngine;
+import org.helios.jmxstats.core.ingest.IngestPipeline;
+import org.helios.jmxstats.core.ingest.WaitStrategy;
+import org.helios.jmxstats.core.metric.IMetric;
+import org.helios.jmxstats.core.metric.IntervalSnapshot;
+import org.helios.jmxstats.core.metric.MetricRegistry;
+import org.helios.jmxstats.core.metric.MetricType;
+import org.helios.jmxstats.core.metric.SamplingPolicy;
+import org.helios.jmxstats.core.name.InvertedIndex;
+import org.helios.jmxstats.core.name.MetricKey;
+import org.helios.jmxstats.core.name.ObjectNameIndex;
+
 
 /**
  * <p>Title: Controller</p>
@@ -58,6 +74,28 @@ public class Controller {
 	private static final Object lock = new Object();
 	/** The data storage chronicle */
 	private final ChronicleController chronicleController;
+	/** The live metric registry */
+	private final MetricRegistry metricRegistry;
+	/** The ObjectName keyed metric index */
+	private final ObjectNameIndex objectNameIndex;
+	/** The metric name pattern index */
+	private final InvertedIndex invertedIndex;
+	/** The self monitor, null when self monitoring is disabled */
+	private final SelfMonitor selfMonitor;
+	/** The alert rule evaluator */
+	private final AlertEvaluator alertEvaluator;
+	/** The derived metric engine */
+	private final DerivedMetricEngine derivedMetrics;
+	/** The asynchronous ingest pipeline, null when async ingest is disabled */
+	private static volatile IngestPipeline ingestPipeline = null;
+	/** The chronicle name index resolved for each slot's metric. Only accessed by the interval action thread. */
+	private long[] slotNameIndexes = new long[0];
+	/** The handle each slot's name index was resolved for, so a recycled slot is resolved again. Only accessed by the interval action thread. */
+	private int[] slotNameHandles = new int[0];
+	/** The name indexes of the slots written for the closed interval, -1 for slots not written. Only accessed by the interval action thread. */
+	private long[] writtenNameIndexes = new long[0];
+	/** The number of closed intervals that could not be written to the chronicle */
+	private final AtomicLong intervalWriteFailures = new AtomicLong(0);
 	
 	/**
 	 * Returns the Controller singleton
@@ -76,6 +114,270 @@ public class Controller {
 	
 	private Controller() {
 		chronicleController = ChronicleController.getInstance();
+		metricRegistry = MetricRegistry.getInstance();
+		objectNameIndex = ObjectNameIndex.getInstance();
+		invertedIndex = InvertedIndex.getInstance();
+		if(Boolean.getBoolean(IngestPipeline.ASYNC_PROP)) {
+			ingestPipeline = IngestPipeline.fromSystemProperties(metricRegistry);
+		}
+		selfMonitor = SelfMonitor.isEnabled() ? new SelfMonitor(this, chronicleController, metricRegistry) : null;
+		alertEvaluator = new AlertEvaluator(this);
+		derivedMetrics = new DerivedMetricEngine(this);
+	}
+	
+	/**
+	 * Returns the handle for the named metric, registering a new metric of the passed type if one does not exist.
+	 * Callers should resolve the handle once and submit values by handle.
+	 * @param name The metric name
+	 * @param type The metric type
+	 * @return the metric handle
+	 */
+	public int getMetricHandle(CharSequence name, MetricType type) {
+		return getMetricHandle(name, type, null);
+	}
+	
+	/**
+	 * Returns the handle for the named metric, registering a new sampled metric of the passed type if one does not exist.
+	 * Sampled metrics keep an exact count but estimate the average, minimum and maximum from the sampled values.
+	 * @param name The metric name
+	 * @param type The metric type
+	 * @param sampling The sampling policy, or null for an exact metric
+	 * @return the metric handle
+	 */
+	public int getMetricHandle(CharSequence name, MetricType type, SamplingPolicy sampling) {
+		final int handle = metricRegistry.getHandle(name, type, sampling);
+		if(!invertedIndex.isIndexed(handle)) {
+			invertedIndex.index(handle, name);
+		}
+		if(!chronicleController.isMetricCreated(name)) {
+			chronicleController.registerMetricName(name);
+		}
+		return handle;
+	}
+
+	/**
+	 * Returns the handle for the metric keyed by the passed MBean ObjectName and attribute, registering a new metric of the passed type if one does not exist.
+	 * The ObjectName is tokenized on first use so repeat lookups do not rebuild or rehash its canonical name.
+	 * @param objectName The ObjectName of the MBean
+	 * @param attribute The attribute name
+	 * @param type The metric type
+	 * @return the metric handle
+	 */
+	public int getMetricHandle(ObjectName objectName, String attribute, MetricType type) {
+		int handle = objectNameIndex.getHandle(objectName, attribute);
+		if(handle<0) {
+			handle = objectNameIndex.getHandle(objectName, attribute, type);
+			invertedIndex.index(handle, objectNameIndex.getKey(handle));
+			final String name = metricRegistry.getMetric(handle).getName();
+			if(!chronicleController.isMetricCreated(name)) {
+				chronicleController.registerMetricName(name);
+			}
+		}
+		return handle;
+	}
+
+	/**
+	 * Finds the handles of the metrics whose dotted names match the passed pattern
+	 * @param pattern The name pattern, e.g. <code>app.http.*.latency</code>
+	 * @return the sorted matching metric handles
+	 * @see InvertedIndex#find(CharSequence)
+	 */
+	public int[] findMetrics(CharSequence pattern) {
+		return invertedIndex.find(pattern);
+	}
+	
+	/**
+	 * Finds the handles of the ObjectName keyed metrics matching the passed ObjectName pattern and attribute
+	 * @param pattern The ObjectName pattern, e.g. <code>*:type=MemoryPool,*</code>
+	 * @param attribute The attribute name or pattern, or null to match any attribute
+	 * @return the sorted matching metric handles
+	 * @see InvertedIndex#find(ObjectName, String)
+	 */
+	public int[] findMetrics(ObjectName pattern, String attribute) {
+		return invertedIndex.find(pattern, attribute);
+	}
+	
+	/**
+	 * Removes evicted metrics from the name indexes, in one batch per index, and spills their names from the heap name index.
+	 * The name tokens released by the previous eviction are recycled first, so a token is never reused while the removals that
+	 * released it, or lookups that resolved it, may still be in flight.
+	 * @param evicted The evicted metrics
+	 */
+	private void evicted(MetricRegistry.Eviction evicted) {
+		objectNameIndex.getTokenTable().recycle();
+		final int count = evicted.size();
+		final int[] handles = new int[count];
+		final String[] names = new String[count];
+		final MetricKey[] keys = new MetricKey[count];
+		for(int i = 0; i < count; i++) {
+			handles[i] = evicted.getHandle(i);
+			names[i] = evicted.getName(i);
+			keys[i] = objectNameIndex.remove(handles[i]);
+		}
+		invertedIndex.remove(handles, names, keys, count);
+		chronicleController.spillMetricNames(names);
+		log("Evicted [" + count + "] idle metrics");
+	}
+	
+	/**
+	 * Writes the closed interval to the chronicle. Each slot's chronicle name index is resolved once per metric handle and reused until
+	 * the slot is recycled. Metrics that recorded nothing in the interval, or whose names are not registered in the chronicle, are not written.
+	 * Called by the interval action thread before idle metrics are evicted, so every metric in the snapshot is still registered.
+	 * @param closed The closed interval snapshot
+	 */
+	private void persist(IntervalSnapshot closed) {
+		final int size = closed.size();
+		if(slotNameIndexes.length<size) {
+			final int grown = Math.max(size, slotNameIndexes.length*2);
+			final int prior = slotNameHandles.length;
+			slotNameIndexes = Arrays.copyOf(slotNameIndexes, grown);
+			slotNameHandles = Arrays.copyOf(slotNameHandles, grown);
+			Arrays.fill(slotNameHandles, prior, grown, -1);
+			writtenNameIndexes = new long[grown];
+		}
+		for(int slot = 0; slot < size; slot++) {
+			writtenNameIndexes[slot] = -1;
+			final IMetric metric = metricRegistry.getMetricAt(slot);
+			if(metric==null || closed.getCount(slot)==0) continue;
+			final int handle = (int)metric.getId();
+			if(slotNameHandles[slot]!=handle) {
+				final long nameIndex = chronicleController.getMetricNameIndex(metric.getName(), -1L);
+				if(nameIndex<0) continue;
+				slotNameIndexes[slot] = nameIndex;
+				slotNameHandles[slot] = handle;
+			}
+			writtenNameIndexes[slot] = slotNameIndexes[slot];
+		}
+		chronicleController.writeInterval(closed, writtenNameIndexes);
+	}
+	
+	/**
+	 * Returns the number of closed intervals that could not be written to the chronicle
+	 * @return the number of failed interval writes
+	 */
+	public long getIntervalWriteFailures() {
+		return intervalWriteFailures.get();
+	}
+	
+	/**
+	 * Returns the alert rule evaluator, which evaluates its rules against every closed interval
+	 * @return the alert rule evaluator
+	 */
+	public AlertEvaluator getAlertEvaluator() {
+		return alertEvaluator;
+	}
+	
+	/**
+	 * Returns the derived metric engine, which writes its derived metrics into every closed interval
+	 * @return the derived metric engine
+	 */
+	public DerivedMetricEngine getDerivedMetrics() {
+		return derivedMetrics;
+	}
+	
+	/**
+	 * Returns the metric for the passed handle
+	 * @param handle The metric handle
+	 * @return the metric, or null if the metric was evicted
+	 */
+	public IMetric getMetric(int handle) {
+		return metricRegistry.getMetric(handle);
+	}
+	
+	/**
+	 * Submits a value to the metric with the passed handle
+	 * @param handle The metric handle
+	 * @param value The value to submit
+	 */
+	public void process(int handle, long value) {
+		metricRegistry.process(handle, value);
+	}
+	
+	/**
+	 * Submits a batch of values to the metric with the passed handle
+	 * @param handle The metric handle
+	 * @param values The values to submit
+	 * @param off The offset of the first value in the array
+	 * @param len The number of values to submit
+	 */
+	public void process(int handle, long[] values, int off, int len) {
+		final IMetric metric = metricRegistry.getMetric(handle);
+		if(metric!=null) metric.process(values, off, len);
+	}
+	
+	/**
+	 * Records a value for the metric with the passed handle into the calling thread's private, unsynchronized accumulators.
+	 * The value is merged into the closed interval snapshot at the interval switch.
+	 * @param handle The metric handle
+	 * @param value The value to record
+	 * @see MetricRegistry#processLocal(int, long)
+	 */
+	public void processLocal(int handle, long value) {
+		metricRegistry.processLocal(handle, value);
+	}
+	
+	/**
+	 * Returns the last closed interval snapshot
+	 * @return the last closed interval snapshot or null if no interval has closed yet
+	 */
+	public IntervalSnapshot getClosedInterval() {
+		return metricRegistry.getClosedInterval();
+	}
+	
+	/**
+	 * Submits a value to the metric with the passed handle through the asynchronous ingest pipeline if it is enabled,
+	 * otherwise processes the value synchronously.
+	 * @param handle The metric handle
+	 * @param value The value to submit
+	 */
+	public void submit(int handle, long value) {
+		final IngestPipeline pipeline = ingestPipeline;
+		if(pipeline!=null) {
+			pipeline.submit(handle, value);
+		} else {
+			metricRegistry.process(handle, value);
+		}
+	}
+	
+	/**
+	 * Enables asynchronous ingest, replacing any existing pipeline
+	 * @param shards The number of aggregator threads
+	 * @param ringSize The per producer thread ring size
+	 * @param waitStrategy The wait strategy for idle aggregators and blocked producers
+	 */
+	public synchronized void enableAsyncIngest(int shards, int ringSize, WaitStrategy waitStrategy) {
+		final IngestPipeline prior = ingestPipeline;
+		ingestPipeline = new IngestPipeline(metricRegistry, shards, ringSize, waitStrategy);
+		if(prior!=null) prior.shutdown();
+	}
+	
+	/**
+	 * Disables asynchronous ingest after applying all pending records
+	 */
+	public synchronized void disableAsyncIngest() {
+		final IngestPipeline prior = ingestPipeline;
+		ingestPipeline = null;
+		if(prior!=null) prior.shutdown();
+	}
+	
+	/**
+	 * Indicates if asynchronous ingest is enabled
+	 * @return true if asynchronous ingest is enabled
+	 */
+	public boolean isAsyncIngest() {
+		return ingestPipeline!=null;
+	}
+	
+	/**
+	 * Submits a multi-metric batch where {@code values[i]} is submitted to the metric with handle {@code handles[i]}.
+	 * Values for the same metric are merged under a single lock acquisition and metrics are visited in handle order.
+	 * @param handles The metric handles
+	 * @param values The values to submit
+	 * @param off The offset of the first entry in both arrays
+	 * @param len The number of entries to submit
+	 */
+	public void process(int[] handles, long[] values, int off, int len) {
+		metricRegistry.process(handles, values, off, len);
 	}
 	
 	/**
@@ -148,6 +450,16 @@ public class Controller {
 		}
 	}
 	
+	/**
+	 * Unregisters an {@link IntervalListener}
+	 * @param listener the {@link IntervalListener} to unregister
+	 */
+	public void removeIntervalListener(IntervalListener listener) {
+		if(listener!=null) {
+			listeners.remove(new IntervalListenerRunnable(listener));
+		}
+	}
+	
 	/**
 	 * <p>Title: CurrentInterval</p>
 	 * <p>Description: A container class for the current interval data, collected in this class so it can be maintained atomically</p> 
@@ -168,6 +480,14 @@ public class Controller {
 		private final long startTime;
 		/** The end time of the interval */
 		private final long endTime;
+		/** The {@link System#nanoTime()} at which the interval thread tripped the switch to this interval */
+		private volatile long tripNanos = -1L;
+		/** The time spent draining the ingest pipeline at the switch in ns. */
+		private volatile long drainNanos = -1L;
+		/** The time spent closing the prior interval into its snapshot in ns. */
+		private volatile long flushNanos = -1L;
+		/** The time from the trip until listeners were notified in ns. */
+		private volatile long switchNanos = -1L;
 		
 		/**
 		 * Creates the next CurrentInterval
@@ -229,6 +549,54 @@ public class Controller {
 			return endTime;
 		}
 		
+		/**
+		 * Records the timings of the switch to this interval
+		 * @param tripNanos The {@link System#nanoTime()} at which the switch was tripped
+		 * @param drainNanos The time spent draining the ingest pipeline in ns.
+		 * @param flushNanos The time spent closing the prior interval in ns.
+		 * @param switchNanos The time from the trip until listeners were notified in ns.
+		 */
+		private void switched(long tripNanos, long drainNanos, long flushNanos, long switchNanos) {
+			this.tripNanos = tripNanos;
+			this.drainNanos = drainNanos;
+			this.flushNanos = flushNanos;
+			this.switchNanos = switchNanos;
+		}
+		
+		/**
+		 * Returns the {@link System#nanoTime()} at which the interval thread tripped the switch to this interval.
+		 * A listener's lag is its notification time less this time.
+		 * @return the trip time in ns. or -1 if this interval was not started by a switch
+		 */
+		public long getTripNanos() {
+			return tripNanos;
+		}
+		
+		/**
+		 * Returns the time spent draining the asynchronous ingest pipeline at the switch to this interval
+		 * @return the drain time in ns. or -1 if this interval was not started by a switch
+		 */
+		public long getDrainNanos() {
+			return drainNanos;
+		}
+		
+		/**
+		 * Returns the time spent closing the prior interval's metrics into the closed interval snapshot
+		 * @return the flush time in ns. or -1 if this interval was not started by a switch
+		 */
+		public long getFlushNanos() {
+			return flushNanos;
+		}
+		
+		/**
+		 * Returns the time from the trip of the switch to this interval until listeners were notified, 
+		 * including the drain, the flush, the chronicle write of the closed interval and idle metric eviction
+		 * @return the switch latency in ns. or -1 if this interval was not started by a switch
+		 */
+		public long getSwitchNanos() {
+			return switchNanos;
+		}
+		
 		/**
 		 * Returns the start date of the interval 
 		 * @return the start date
@@ -340,7 +708,14 @@ public class Controller {
 		}
 		
 		public Void call() {
-			listener.onIntervalSwitch(_currentInterval);
+			final CurrentInterval ci = _currentInterval;
+			final long start = System.nanoTime();
+			listener.onIntervalSwitch(ci);
+			final Controller controller = instance;
+			final SelfMonitor monitor = controller==null ? null : controller.selfMonitor;
+			if(monitor!=null) {
+				monitor.listenerCalled(ci, start, System.nanoTime());
+			}
 			return null;
 		}
 
@@ -430,6 +805,8 @@ public class Controller {
 		public static final long startTime = ManagementFactory.getRuntimeMXBean().getStartTime();
 		/** The test time */
 		private static final AtomicLong testTime = new AtomicLong(0L);
+		/** The {@link System#nanoTime()} of the last interval trip */
+		private static volatile long tripNanos = 0L;
 		/** Holds the start timestamp of an elapsed time measurement */
 		private static final ThreadLocal<long[]> timerStart = new ThreadLocal<long[]>() {
 			protected long[] initialValue() {
@@ -450,6 +827,7 @@ public class Controller {
 				while(true) {
 					try {
 						intervalThread.join(INTERVAL);					
+						tripNanos = System.nanoTime();
 						intervalActionThread.interrupt();
 					} catch (InterruptedException ex) {
 						Thread.interrupted();
@@ -467,8 +845,49 @@ public class Controller {
 						Thread.currentThread().join();						
 					} catch (InterruptedException ex) {
 						Thread.interrupted();
+						final long tripped = tripNanos;
+						final long start = System.nanoTime();
+						final IngestPipeline pipeline = ingestPipeline;
+						if(pipeline!=null && !pipeline.drain(INTERVAL/2, TimeUnit.MILLISECONDS)) {
+							log("WARNING: Ingest pipeline drain timed out. Pending records will be applied to the next interval.");
+						}
+						final long drained = System.nanoTime();
 						final CurrentInterval ci = CurrentInterval.next();
 						CURRENT_INTERVAL.set(ci);
+						final IntervalSnapshot closed = MetricRegistry.getInstance().reset(ci.getStartTime());
+						final Controller controller = instance;
+						if(controller!=null) {
+							try {
+								controller.derivedMetrics.evaluate(closed);
+							} catch (Throwable t) {
+								log("WARNING: Derived metric evaluation failed:" + t);
+							}
+						}
+						final long flushed = System.nanoTime();
+						if(controller!=null) {
+							try {
+								controller.persist(closed);
+							} catch (Throwable t) {
+								controller.intervalWriteFailures.incrementAndGet();
+								log("WARNING: Closed interval write failed:" + t);
+							}
+						}
+						final MetricRegistry.Eviction evicted = MetricRegistry.getInstance().evictIdle();
+						if(evicted!=null && controller!=null) {
+							controller.evicted(evicted);
+						}
+						if(controller!=null) {
+							try {
+								controller.alertEvaluator.evaluate(closed);
+							} catch (Throwable t) {
+								log("WARNING: Alert evaluation failed:" + t);
+							}
+						}
+						ci.switched(tripped, drained - start, flushed - drained, System.nanoTime() - tripped);
+						final SelfMonitor monitor = controller==null ? null : controller.selfMonitor;
+						if(monitor!=null) {
+							monitor.switched(ci);
+						}
 						
 						if(!listeners.isEmpty()) {
 							IntervalListenerRunnable.update(ci);
@@ -529,6 +948,14 @@ public class Controller {
 			return currentClock.get().getTime();
 		}
 		
+		/**
+		 * Returns the database time interval in ms.
+		 * @return the database time interval
+		 */
+		public static long getInterval() {
+			return INTERVAL;
+		}
+		
 		public static long roundDownTime() {
 			long time = currentClock.get().getTime();
 			long over = time%INTERVAL;
@@ -566,6 +993,15 @@ public class Controller {
 			return st;
 		}
 		
+		/**
+		 * Returns the elapsed time since the current thread's last call to {@link #startTimer()} without ending the timer.
+		 * Unlike {@link #endTimer()}, this does not allocate.
+		 * @return the elapsed time in ns.
+		 */
+		public static long elapsedTimer() {
+			return System.nanoTime() - timerStart.get()[0];
+		}
+		
 		public static ElapsedTime endTimer() {
 			return ElapsedTime.newInstance(System.nanoTime());
 		}
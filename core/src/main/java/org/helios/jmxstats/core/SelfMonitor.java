@@ -0,0 +1,323 @@
+/**
+ * Helios, OpenSource Monitoring
+ * Brought to you by the Helios Development Group
+ *
+ * Copyright 2007, Helios Development Group and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org. 
+ *
+ */
+package org.helios.jmxstats.core;
+
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import org.helios.jmxstats.core.Controller.CurrentInterval;
+import org.helios.jmxstats.core.metric.MetricRegistry;
+import org.helios.jmxstats.core.metric.MetricType;
+
+/**
+ * <p>Title: SelfMonitor</p>
+ * <p>Description: Instruments jmxstats itself so the monitoring system can be alerted on before it degrades into dropping data.
+ * Interval switch timings, listener durations and lags, chronicle name index hits and misses, chronicle write volume and size, and
+ * registry occupancy are published through this MBean and recorded as regular metrics under {@link #PREFIX}.
+ * Hot paths only bump counters: the counters are recorded into the metrics at each interval switch, after the switch has
+ * closed the prior interval, so they appear in the following closed interval. The self metrics are pinned against idle eviction.</p> 
+ * <p>Company: Helios Development Group LLC</p>
+ * @author Whitehead (nwhitehead AT heliosdev DOT org)
+ * <p><code>org.helios.jmxstats.core.SelfMonitor</code></p>
+ */
+public class SelfMonitor implements SelfMonitorMBean {
+	/** The system property that disables self monitoring when set to false */
+	public static final String ENABLED_PROP = "org.helios.jmxstats.selfmonitor";
+	/** The name prefix of the self metrics */
+	public static final String PREFIX = "jmxstats.";
+	/** The ObjectName of the self monitor MBean */
+	public static final String OBJECT_NAME = "org.helios.jmxstats:service=SelfMonitor";
+	
+	/** The chronicle controller */
+	private final ChronicleController chronicle;
+	/** The metric registry */
+	private final MetricRegistry registry;
+	/** The switch latency metric handle */
+	private final int switchLatency;
+	/** The switch drain time metric handle */
+	private final int switchDrain;
+	/** The switch flush time metric handle */
+	private final int switchFlush;
+	/** The listener duration metric handle */
+	private final int listenerDuration;
+	/** The listener lag metric handle */
+	private final int listenerLag;
+	/** The name hit count metric handle */
+	private final int nameHits;
+	/** The name miss count metric handle */
+	private final int nameMisses;
+	/** The name filter rejection count metric handle */
+	private final int filterRejects;
+	/** The chronicle bytes written metric handle */
+	private final int chronicleBytes;
+	/** The chronicle entry count metric handle */
+	private final int chronicleEntries;
+	/** The live metric count metric handle */
+	private final int liveMetrics;
+	/** The dropped value count metric handle */
+	private final int droppedValues;
+	
+	/** The last interval switched to */
+	private volatile CurrentInterval lastInterval = null;
+	/** The longest listener call of the last switch in ns. */
+	private final AtomicLong listenerMax = new AtomicLong(0);
+	/** The longest listener lag of the last switch in ns. */
+	private final AtomicLong lagMax = new AtomicLong(0);
+	/** The number of interval switches observed */
+	private final AtomicLong switches = new AtomicLong(0);
+	
+	/**
+	 * Indicates if self monitoring is enabled
+	 * @return true unless disabled with {@link #ENABLED_PROP}
+	 */
+	public static boolean isEnabled() {
+		return !"false".equalsIgnoreCase(System.getProperty(ENABLED_PROP, "true"));
+	}
+	
+	/**
+	 * Creates a new SelfMonitor, registering its metrics and its MBean
+	 * @param controller The controller to register the self metrics through
+	 * @param chronicle The chronicle controller
+	 * @param registry The metric registry
+	 */
+	SelfMonitor(Controller controller, ChronicleController chronicle, MetricRegistry registry) {
+		this.chronicle = chronicle;
+		this.registry = registry;
+		switchLatency = handle(controller, "switch.latencyNs", MetricType.AVG);
+		switchDrain = handle(controller, "switch.drainNs", MetricType.AVG);
+		switchFlush = handle(controller, "switch.flushNs", MetricType.AVG);
+		listenerDuration = handle(controller, "listener.durationNs", MetricType.AVG);
+		listenerLag = handle(controller, "listener.lagNs", MetricType.AVG);
+		nameHits = handle(controller, "names.hits", MetricType.DELTA);
+		nameMisses = handle(controller, "names.misses", MetricType.DELTA);
+		filterRejects = handle(controller, "names.filterRejects", MetricType.DELTA);
+		chronicleBytes = handle(controller, "chronicle.bytes", MetricType.DELTA);
+		chronicleEntries = handle(controller, "chronicle.entries", MetricType.AVG);
+		liveMetrics = handle(controller, "metrics.live", MetricType.AVG);
+		droppedValues = handle(controller, "metrics.dropped", MetricType.DELTA);
+		final MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+		try {
+			final ObjectName on = new ObjectName(OBJECT_NAME);
+			if(!server.isRegistered(on)) server.registerMBean(this, on);
+		} catch (JMException e) {
+			Controller.log("WARNING: Failed to register the self monitor MBean:" + e);
+		}
+	}
+	
+	/**
+	 * Registers and pins a self metric
+	 * @param controller The controller to register through
+	 * @param name The metric name, without the prefix
+	 * @param type The metric type
+	 * @return the metric handle
+	 */
+	private int handle(Controller controller, String name, MetricType type) {
+		final int handle = controller.getMetricHandle(PREFIX + name, type);
+		registry.pin(handle);
+		return handle;
+	}
+	
+	/**
+	 * Records the timings of an interval switch and the internal counters. Called by the interval thread once the switch
+	 * has closed the prior interval and before listeners are notified.
+	 * @param ci The interval switched to
+	 */
+	void switched(CurrentInterval ci) {
+		listenerMax.set(0);
+		lagMax.set(0);
+		lastInterval = ci;
+		switches.incrementAndGet();
+		registry.process(switchLatency, ci.getSwitchNanos());
+		registry.process(switchDrain, ci.getDrainNanos());
+		registry.process(switchFlush, ci.getFlushNanos());
+		registry.process(nameHits, chronicle.getNameHits());
+		registry.process(nameMisses, chronicle.getNameMisses());
+		registry.process(filterRejects, chronicle.getFilterRejects());
+		registry.process(chronicleBytes, chronicle.getBytesWritten());
+		registry.process(chronicleEntries, chronicle.getEntryCount());
+		registry.process(liveMetrics, registry.getLiveCount());
+		registry.process(droppedValues, registry.getDroppedValues());
+	}
+	
+	/**
+	 * Records an interval listener call
+	 * @param ci The interval the listener was notified of
+	 * @param start The {@link System#nanoTime()} the call started at
+	 * @param end The {@link System#nanoTime()} the call ended at
+	 */
+	void listenerCalled(CurrentInterval ci, long start, long end) {
+		final long duration = end - start;
+		registry.process(listenerDuration, duration);
+		max(listenerMax, duration);
+		if(ci.getTripNanos()>=0) {
+			final long lag = start - ci.getTripNanos();
+			registry.process(listenerLag, lag);
+			max(lagMax, lag);
+		}
+	}
+	
+	/**
+	 * Raises the passed maximum to the passed value
+	 * @param max The maximum
+	 * @param value The value
+	 */
+	private static void max(AtomicLong max, long value) {
+		long m;
+		while((m = max.get()) < value && !max.compareAndSet(m, value)) { /* retry */ }
+	}
+	
+	/**
+	 * Converts ns. to ms.
+	 * @param nanos The time in ns. or -1 if not available
+	 * @return the time in ms. or -1
+	 */
+	private static double ms(long nanos) {
+		return nanos<0 ? -1 : nanos / 1e6;
+	}
+
+	/**
+	 * {@inheritDoc}
+	 * @see org.helios.jmxstats.core.SelfMonitorMBean#getLastSwitchLatencyMs()
+	 */
+	@Override
+	public double getLastSwitchLatencyMs() {
+		final CurrentInterval ci = lastInterval;
+		return ci==null ? -1 : ms(ci.getSwitchNanos());
+	}
+
+	/**
+	 * {@inheritDoc}
+	 * @see org.helios.jmxstats.core.SelfMonitorMBean#getLastDrainMs()
+	 */
+	@Override
+	public double getLastDrainMs() {
+		final CurrentInterval ci = lastInterval;
+		return ci==null ? -1 : ms(ci.getDrainNanos());
+	}
+
+	/**
+	 * {@inheritDoc}
+	 * @see org.helios.jmxstats.core.SelfMonitorMBean#getLastFlushMs()
+	 */
+	@Override
+	public double getLastFlushMs() {
+		final CurrentInterval ci = lastInterval;
+		return ci==null ? -1 : ms(ci.getFlushNanos());
+	}
+
+	/**
+	 * {@inheritDoc}
+	 * @see org.helios.jmxstats.core.SelfMonitorMBean#getLastListenerMaxMs()
+	 */
+	@Override
+	public double getLastListenerMaxMs() {
+		return ms(listenerMax.get());
+	}
+
+	/**
+	 * {@inheritDoc}
+	 * @see org.helios.jmxstats.core.SelfMonitorMBean#getLastListenerLagMs()
+	 */
+	@Override
+	public double getLastListenerLagMs() {
+		return ms(lagMax.get());
+	}
+
+	/**
+	 * {@inheritDoc}
+	 * @see org.helios.jmxstats.core.SelfMonitorMBean#getNameIndexHits()
+	 */
+	@Override
+	public long getNameIndexHits() {
+		return chronicle.getNameHits();
+	}
+
+	/**
+	 * {@inheritDoc}
+	 * @see org.helios.jmxstats.core.SelfMonitorMBean#getNameIndexMisses()
+	 */
+	@Override
+	public long getNameIndexMisses() {
+		return chronicle.getNameMisses();
+	}
+
+	/**
+	 * {@inheritDoc}
+	 * @see org.helios.jmxstats.core.SelfMonitorMBean#getNameFilterRejects()
+	 */
+	@Override
+	public long getNameFilterRejects() {
+		return chronicle.getFilterRejects();
+	}
+
+	/**
+	 * {@inheritDoc}
+	 * @see org.helios.jmxstats.core.SelfMonitorMBean#getChronicleBytesWritten()
+	 */
+	@Override
+	public long getChronicleBytesWritten() {
+		return chronicle.getBytesWritten();
+	}
+
+	/**
+	 * {@inheritDoc}
+	 * @see org.helios.jmxstats.core.SelfMonitorMBean#getChronicleEntryCount()
+	 */
+	@Override
+	public long getChronicleEntryCount() {
+		return chronicle.getEntryCount();
+	}
+
+	/**
+	 * {@inheritDoc}
+	 * @see org.helios.jmxstats.core.SelfMonitorMBean#getLiveMetrics()
+	 */
+	@Override
+	public int getLiveMetrics() {
+		return registry.getLiveCount();
+	}
+
+	/**
+	 * {@inheritDoc}
+	 * @see org.helios.jmxstats.core.SelfMonitorMBean#getDroppedValues()
+	 */
+	@Override
+	public long getDroppedValues() {
+		return registry.getDroppedValues();
+	}
+
+	/**
+	 * {@inheritDoc}
+	 * @see org.helios.jmxstats.core.SelfMonitorMBean#getIntervalSwitches()
+	 */
+	@Override
+	public long getIntervalSwitches() {
+		return switches.get();
+	}
+}
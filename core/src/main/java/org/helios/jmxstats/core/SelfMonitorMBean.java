@@ -0,0 +1,112 @@
+/**
+ * Helios, OpenSource Monitoring
+ * Brought to you by the Helios Development Group
+ *
+ * Copyright 2007, Helios Development Group and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org. 
+ *
+ */
+package org.helios.jmxstats.core;
+
+/**
+ * <p>Title: SelfMonitorMBean</p>
+ * <p>Description: The management interface of the jmxstats self monitor</p> 
+ * <p>Company: Helios Development Group LLC</p>
+ * @author Whitehead (nwhitehead AT heliosdev DOT org)
+ * <p><code>org.helios.jmxstats.core.SelfMonitorMBean</code></p>
+ */
+public interface SelfMonitorMBean {
+	/**
+	 * Returns the latency of the last interval switch, from the trip until listeners were notified
+	 * @return the latency in ms.
+	 */
+	public double getLastSwitchLatencyMs();
+	
+	/**
+	 * Returns the time the last interval switch spent draining the ingest pipeline
+	 * @return the drain time in ms.
+	 */
+	public double getLastDrainMs();
+	
+	/**
+	 * Returns the time the last interval switch spent closing the prior interval
+	 * @return the flush time in ms.
+	 */
+	public double getLastFlushMs();
+	
+	/**
+	 * Returns the longest interval listener call of the last interval switch
+	 * @return the duration in ms.
+	 */
+	public double getLastListenerMaxMs();
+	
+	/**
+	 * Returns the longest delay from the last interval switch's trip until an interval listener was called
+	 * @return the lag in ms.
+	 */
+	public double getLastListenerLagMs();
+	
+	/**
+	 * Returns the number of chronicle name lookups that found the name
+	 * @return the number of hits
+	 */
+	public long getNameIndexHits();
+	
+	/**
+	 * Returns the number of chronicle name lookups that did not find the name
+	 * @return the number of misses
+	 */
+	public long getNameIndexMisses();
+	
+	/**
+	 * Returns the number of chronicle name lookups answered negatively by the name filter alone
+	 * @return the number of filter rejections
+	 */
+	public long getNameFilterRejects();
+	
+	/**
+	 * Returns the number of chronicle bytes written
+	 * @return the number of bytes
+	 */
+	public long getChronicleBytesWritten();
+	
+	/**
+	 * Returns the number of chronicle entries
+	 * @return the number of entries
+	 */
+	public long getChronicleEntryCount();
+	
+	/**
+	 * Returns the number of live metrics
+	 * @return the number of live metrics
+	 */
+	public int getLiveMetrics();
+	
+	/**
+	 * Returns the number of values dropped because they were submitted to evicted metrics
+	 * @return the number of dropped values
+	 */
+	public long getDroppedValues();
+	
+	/**
+	 * Returns the number of interval switches observed
+	 * @return the number of interval switches
+	 */
+	public long getIntervalSwitches();
+}
@@ -0,0 +1,152 @@
+/**
+ * Helios, OpenSource Monitoring
+ * Brought to you by the Helios Development Group
+ *
+ * Copyright 2007, Helios Development Group and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org. 
+ *
+ */
+package org.helios.jmxstats.core.agent;
+
+import java.io.File;
+import java.lang.instrument.Instrumentation;
+
+import org.helios.jmxstats.core.Controller;
+import org.helios.jmxstats.core.Controller.SystemClock;
+import org.helios.jmxstats.core.metric.MetricRegistry;
+import org.helios.jmxstats.core.metric.MetricType;
+
+/**
+ * <p>Title: TimingAgent</p>
+ * <p>Description: A <code>java.lang.instrument</code> agent that installs a {@link TimingTransformer} to time the methods selected by a
+ * {@link TimingConfig} file. Each timed method feeds an {@link MetricType#AVG} metric of elapsed nanos, whose interval count is the number of calls.
+ * The config file is the agent argument, or if none is passed, the value of {@link #CONFIG_PROP}. e.g.:
+ * <pre>java -javaagent:jmxstats-core.jar=/etc/app/timing.conf -cp jmxstats-core.jar:&lt;dependencies&gt;:... </pre>
+ * The core jar and its dependencies must be visible to the loaders of the woven classes, which is the case when they are on the application classpath.
+ * When loaded after startup through the attach API, only classes loaded afterwards are woven.</p> 
+ * <p>Company: Helios Development Group LLC</p>
+ * @author Whitehead (nwhitehead AT heliosdev DOT org)
+ * <p><code>org.helios.jmxstats.core.agent.TimingAgent</code></p>
+ */
+public class TimingAgent {
+	/** The system property that defines the timing config file when no agent argument is passed */
+	public static final String CONFIG_PROP = "org.helios.jmxstats.agent.config";
+	
+	/** The installed transformer */
+	private static volatile TimingTransformer transformer = null;
+	
+	/**
+	 * Agent entry point when loaded with <code>-javaagent</code>
+	 * @param agentArgs The timing config file name
+	 * @param inst The instrumentation instance
+	 */
+	public static void premain(String agentArgs, Instrumentation inst) {
+		install(agentArgs, inst);
+	}
+	
+	/**
+	 * Agent entry point when loaded through the attach API
+	 * @param agentArgs The timing config file name
+	 * @param inst The instrumentation instance
+	 */
+	public static void agentmain(String agentArgs, Instrumentation inst) {
+		install(agentArgs, inst);
+	}
+	
+	/**
+	 * Reads the timing config and installs the transformer
+	 * @param agentArgs The timing config file name
+	 * @param inst The instrumentation instance
+	 */
+	private static synchronized void install(String agentArgs, Instrumentation inst) {
+		if(transformer!=null) {
+			log("TimingAgent already installed");
+			return;
+		}
+		String fileName = agentArgs==null || agentArgs.trim().length()==0 ? System.getProperty(CONFIG_PROP) : agentArgs.trim();
+		if(fileName==null || fileName.trim().length()==0) {
+			log("TimingAgent not installed: no config file passed as the agent argument or defined by [" + CONFIG_PROP + "]");
+			return;
+		}
+		final TimingConfig config;
+		try {
+			config = TimingConfig.load(new File(fileName.trim()));
+		} catch (Exception e) {
+			log("TimingAgent not installed: failed to read config file [" + fileName + "]:" + e);
+			return;
+		}
+		// The woven metrics only roll over once the interval clock is running
+		SystemClock.getInterval();
+		transformer = new TimingTransformer(config);
+		inst.addTransformer(transformer);
+		log("TimingAgent installed with " + config.getRules().size() + " rules from [" + fileName + "]");
+	}
+	
+	/**
+	 * Returns the installed transformer
+	 * @return the installed transformer or null if the agent is not installed
+	 */
+	public static TimingTransformer getTransformer() {
+		return transformer;
+	}
+	
+	/**
+	 * Resolves the handle of a timed method's metric. Called once per metric from the static initializer of a woven class.
+	 * The handle is held in a static final field for the life of the class, so the metric is pinned against idle eviction.
+	 * @param name The metric name
+	 * @return the metric handle or -1 if it could not be resolved, in which case the method's timings are discarded
+	 */
+	public static int handle(String name) {
+		try {
+			final int handle = Controller.getInstance().getMetricHandle(name, MetricType.AVG);
+			MetricRegistry.getInstance().pin(handle);
+			return handle;
+		} catch (Throwable t) {
+			log("Failed to resolve timing metric [" + name + "]:" + t);
+			return -1;
+		}
+	}
+	
+	/**
+	 * Returns {@link System#nanoTime()}. Woven code reads the clock through this method, which the JIT inlines, because compiling
+	 * a reference to <code>System</code> makes javassist parse the JDK's <code>System</code> class file, which it cannot read on newer JDKs.
+	 * @return the current value of the system timer in ns.
+	 */
+	public static long nanoTime() {
+		return System.nanoTime();
+	}
+	
+	/**
+	 * Records the elapsed time of a timed method call. Called from woven code on every exit of a timed method.
+	 * @param handle The metric handle resolved by {@link #handle(String)}
+	 * @param elapsedNanos The elapsed time in ns.
+	 */
+	public static void record(int handle, long elapsedNanos) {
+		if(handle<0) return;
+		Controller.getInstance().process(handle, elapsedNanos);
+	}
+	
+	/**
+	 * Console logger
+	 * @param msg The message to log
+	 */
+	public static void log(Object msg) {
+		System.out.println(msg);
+	}
+}
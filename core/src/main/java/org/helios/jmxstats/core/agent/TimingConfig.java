@@ -0,0 +1,246 @@
+/**
+ * Helios, OpenSource Monitoring
+ * Brought to you by the Helios Development Group
+ *
+ * Copyright 2007, Helios Development Group and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org. 
+ *
+ */
+package org.helios.jmxstats.core.agent;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileReader;
+import java.io.IOException;
+import java.io.Reader;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.regex.Pattern;
+
+/**
+ * <p>Title: TimingConfig</p>
+ * <p>Description: The method timing rules read by the {@link TimingAgent}. Each non blank line of the config file that does not start
+ * with <code>#</code> is a rule of the form <code>&lt;class pattern&gt; &lt;method pattern&gt; [metric name]</code>, where the patterns are
+ * globs in which <code>*</code> matches any sequence of characters, including package separators. The optional metric name is a template
+ * in which <code>{class}</code>, <code>{simple}</code> and <code>{method}</code> are replaced with the class name, the simple class name
+ * and the method name. It defaults to <code>{class}.{method}</code>. The first matching rule wins, so overloads of a method share a metric.
+ * e.g.:<pre>
+ * # Time every public entry point of the order services
+ * com.acme.order.*Service  *
+ * com.acme.db.Dao          exec*   db.{simple}.{method}
+ * </pre></p> 
+ * <p>Company: Helios Development Group LLC</p>
+ * @author Whitehead (nwhitehead AT heliosdev DOT org)
+ * <p><code>org.helios.jmxstats.core.agent.TimingConfig</code></p>
+ */
+public class TimingConfig {
+	/** The default metric name template */
+	public static final String DEFAULT_TEMPLATE = "{class}.{method}";
+	/** The rules in declaration order */
+	private final List<Rule> rules;
+	
+	/**
+	 * Creates a new TimingConfig
+	 * @param rules The rules in declaration order
+	 */
+	public TimingConfig(List<Rule> rules) {
+		if(rules==null) throw new IllegalArgumentException("The passed rule list was null", new Throwable());
+		this.rules = Collections.unmodifiableList(new ArrayList<Rule>(rules));
+	}
+	
+	/**
+	 * Reads a TimingConfig from the passed file
+	 * @param file The config file
+	 * @return the read config
+	 * @throws IOException thrown if the file cannot be read
+	 */
+	public static TimingConfig load(File file) throws IOException {
+		if(file==null) throw new IllegalArgumentException("The passed file was null", new Throwable());
+		final FileReader reader = new FileReader(file);
+		try {
+			return parse(reader);
+		} finally {
+			try { reader.close(); } catch (Exception e) {}
+		}
+	}
+	
+	/**
+	 * Parses a TimingConfig from the passed reader, which is not closed
+	 * @param reader The reader to read the rules from
+	 * @return the parsed config
+	 * @throws IOException thrown if the reader cannot be read
+	 */
+	public static TimingConfig parse(Reader reader) throws IOException {
+		if(reader==null) throw new IllegalArgumentException("The passed reader was null", new Throwable());
+		final BufferedReader br = new BufferedReader(reader);
+		final List<Rule> rules = new ArrayList<Rule>();
+		String line = null;
+		int lineNumber = 0;
+		while((line = br.readLine())!=null) {
+			lineNumber++;
+			line = line.trim();
+			if(line.length()==0 || line.charAt(0)=='#') continue;
+			final String[] fields = line.split("\\s+");
+			if(fields.length<2 || fields.length>3) {
+				throw new IllegalArgumentException("Invalid timing rule on line [" + lineNumber + "]: [" + line + "]. Expected <class pattern> <method pattern> [metric name]", new Throwable());
+			}
+			rules.add(new Rule(fields[0], fields[1], fields.length==3 ? fields[2] : DEFAULT_TEMPLATE));
+		}
+		return new TimingConfig(rules);
+	}
+	
+	/**
+	 * Returns the rules in declaration order
+	 * @return the rules
+	 */
+	public List<Rule> getRules() {
+		return rules;
+	}
+	
+	/**
+	 * Returns the rules whose class pattern matches the passed class name
+	 * @param className The class name
+	 * @return the matching rules in declaration order, empty if the class is not timed
+	 */
+	public List<Rule> getRules(String className) {
+		List<Rule> matched = null;
+		for(Rule rule: rules) {
+			if(rule.matchesClass(className)) {
+				if(matched==null) matched = new ArrayList<Rule>(2);
+				matched.add(rule);
+			}
+		}
+		return matched==null ? Collections.<Rule>emptyList() : matched;
+	}
+	
+	/**
+	 * Returns the metric name of the passed method using the first of the passed rules that matches it
+	 * @param rules The rules matching the method's class, as returned by {@link #getRules(String)}
+	 * @param className The class name
+	 * @param methodName The method name
+	 * @return the metric name, or null if no rule matches the method
+	 */
+	public static String getMetricName(List<Rule> rules, String className, String methodName) {
+		for(Rule rule: rules) {
+			if(rule.matchesMethod(methodName)) {
+				return rule.getMetricName(className, methodName);
+			}
+		}
+		return null;
+	}
+	
+	/**
+	 * Converts a glob in which <code>*</code> matches any sequence of characters to a regex
+	 * @param glob The glob
+	 * @return the compiled pattern
+	 */
+	static Pattern compileGlob(String glob) {
+		final StringBuilder b = new StringBuilder();
+		int start = 0;
+		for(int i = glob.indexOf('*'); i!=-1; i = glob.indexOf('*', start)) {
+			if(i>start) b.append(Pattern.quote(glob.substring(start, i)));
+			b.append(".*");
+			start = i + 1;
+		}
+		if(start<glob.length()) b.append(Pattern.quote(glob.substring(start)));
+		return Pattern.compile(b.toString());
+	}
+	
+	/**
+	 * {@inheritDoc}
+	 * @see java.lang.Object#toString()
+	 */
+	@Override
+	public String toString() {
+		return "TimingConfig " + rules;
+	}
+	
+	/**
+	 * <p>Title: Rule</p>
+	 * <p>Description: A single timing rule selecting methods by class and method name globs</p> 
+	 */
+	public static class Rule {
+		/** The class name glob */
+		private final String classGlob;
+		/** The method name glob */
+		private final String methodGlob;
+		/** The metric name template */
+		private final String template;
+		/** The compiled class name pattern */
+		private final Pattern classPattern;
+		/** The compiled method name pattern */
+		private final Pattern methodPattern;
+		
+		/**
+		 * Creates a new Rule
+		 * @param classGlob The class name glob
+		 * @param methodGlob The method name glob
+		 * @param template The metric name template
+		 */
+		public Rule(String classGlob, String methodGlob, String template) {
+			if(classGlob==null || classGlob.trim().length()==0) throw new IllegalArgumentException("The passed class pattern was null or empty", new Throwable());
+			if(methodGlob==null || methodGlob.trim().length()==0) throw new IllegalArgumentException("The passed method pattern was null or empty", new Throwable());
+			if(template==null || template.trim().length()==0) throw new IllegalArgumentException("The passed metric name template was null or empty", new Throwable());
+			this.classGlob = classGlob.trim();
+			this.methodGlob = methodGlob.trim();
+			this.template = template.trim();
+			classPattern = compileGlob(this.classGlob);
+			methodPattern = compileGlob(this.methodGlob);
+		}
+		
+		/**
+		 * Indicates if this rule matches the passed class name
+		 * @param className The class name
+		 * @return true if the class name matches
+		 */
+		public boolean matchesClass(String className) {
+			return classPattern.matcher(className).matches();
+		}
+		
+		/**
+		 * Indicates if this rule matches the passed method name
+		 * @param methodName The method name
+		 * @return true if the method name matches
+		 */
+		public boolean matchesMethod(String methodName) {
+			return methodPattern.matcher(methodName).matches();
+		}
+		
+		/**
+		 * Returns the metric name for the passed method
+		 * @param className The class name
+		 * @param methodName The method name
+		 * @return the metric name
+		 */
+		public String getMetricName(String className, String methodName) {
+			final String simple = className.substring(className.lastIndexOf('.') + 1);
+			return template.replace("{class}", className).replace("{simple}", simple).replace("{method}", methodName);
+		}
+		
+		/**
+		 * {@inheritDoc}
+		 * @see java.lang.Object#toString()
+		 */
+		@Override
+		public String toString() {
+			return classGlob + " " + methodGlob + " " + template;
+		}
+	}
+}
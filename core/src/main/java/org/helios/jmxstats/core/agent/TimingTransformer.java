@@ -0,0 +1,212 @@
+/**
+ * Helios, OpenSource Monitoring
+ * Brought to you by the Helios Development Group
+ *
+ * Copyright 2007, Helios Development Group and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org. 
+ *
+ */
+package org.helios.jmxstats.core.agent;
+
+import java.io.ByteArrayInputStream;
+import java.lang.instrument.ClassFileTransformer;
+import java.security.ProtectionDomain;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javassist.ClassPool;
+import javassist.CtClass;
+import javassist.CtField;
+import javassist.CtMethod;
+import javassist.LoaderClassPath;
+import javassist.Modifier;
+import javassist.bytecode.AccessFlag;
+
+/**
+ * <p>Title: TimingTransformer</p>
+ * <p>Description: Weaves entry/exit timing into the methods selected by a {@link TimingConfig}. For each distinct metric name in a woven class
+ * a <code>private static final int</code> field is added whose initializer resolves the metric handle once, when the class is initialized.
+ * Each selected method records {@link TimingAgent#nanoTime()} into a local on entry and, on every exit including exceptional ones, passes
+ * the field and the elapsed nanos to {@link TimingAgent#record(int, long)}, so a timed call allocates nothing. Classes that are already loaded
+ * are not retransformed since the added fields would change the class schema. Bootstrap classes, JDK classes and jmxstats' own classes
+ * are never woven.</p> 
+ * <p>Company: Helios Development Group LLC</p>
+ * @author Whitehead (nwhitehead AT heliosdev DOT org)
+ * <p><code>org.helios.jmxstats.core.agent.TimingTransformer</code></p>
+ */
+public class TimingTransformer implements ClassFileTransformer {
+	/** The prefix of the handle field names added to woven classes */
+	public static final String FIELD_PREFIX = "__jmxstats_h";
+	/** The name of the start time local added to woven methods */
+	public static final String START_VAR = "__jmxstats_t";
+	/** Package prefixes of classes that are never woven */
+	private static final String[] EXCLUDED = {"java.", "javax.", "sun.", "com.sun.", "jdk.", "javassist.", "org.helios.jmxstats.", "vanilla.java.", "gnu.trove."};
+	/** The agent class referenced by the woven code */
+	private static final String AGENT = TimingAgent.class.getName();
+	
+	/** The timing config */
+	private final TimingConfig config;
+	/** The number of woven classes */
+	private final AtomicLong wovenClasses = new AtomicLong(0);
+	/** The number of woven methods */
+	private final AtomicLong wovenMethods = new AtomicLong(0);
+	/** The number of classes that failed to weave */
+	private final AtomicLong failures = new AtomicLong(0);
+	
+	/**
+	 * Creates a new TimingTransformer
+	 * @param config The timing config
+	 */
+	public TimingTransformer(TimingConfig config) {
+		if(config==null) throw new IllegalArgumentException("The passed config was null", new Throwable());
+		this.config = config;
+	}
+
+	/**
+	 * {@inheritDoc}
+	 * @see java.lang.instrument.ClassFileTransformer#transform(java.lang.ClassLoader, java.lang.String, java.lang.Class, java.security.ProtectionDomain, byte[])
+	 */
+	@Override
+	public byte[] transform(ClassLoader loader, String className, Class<?> classBeingRedefined, ProtectionDomain protectionDomain, byte[] classfileBuffer) {
+		if(loader==null || className==null || classBeingRedefined!=null) return null;
+		final String name = className.replace('/', '.');
+		if(isExcluded(name)) return null;
+		final List<TimingConfig.Rule> rules = config.getRules(name);
+		if(rules.isEmpty()) return null;
+		try {
+			return weave(loader, name, classfileBuffer, rules);
+		} catch (Throwable t) {
+			failures.incrementAndGet();
+			log("Failed to weave timing into [" + name + "]:" + t);
+			return null;
+		}
+	}
+	
+	/**
+	 * Weaves timing into the methods of the passed class selected by the passed rules
+	 * @param loader The defining class loader
+	 * @param className The class name
+	 * @param classfileBuffer The class bytes
+	 * @param rules The rules matching the class
+	 * @return the woven class bytes or null if no method was selected
+	 * @throws Exception thrown on any weaving failure
+	 */
+	protected byte[] weave(ClassLoader loader, String className, byte[] classfileBuffer, List<TimingConfig.Rule> rules) throws Exception {
+		final ClassPool pool = new ClassPool(true);
+		pool.appendClassPath(new LoaderClassPath(loader));
+		pool.appendClassPath(new LoaderClassPath(TimingAgent.class.getClassLoader()));
+		final CtClass ctClass = pool.makeClass(new ByteArrayInputStream(classfileBuffer));
+		try {
+			if(ctClass.isInterface() || ctClass.isAnnotation()) return null;
+			final Map<String, String> fields = new HashMap<String, String>();
+			int methods = 0;
+			for(CtMethod method: ctClass.getDeclaredMethods()) {
+				final int modifiers = method.getModifiers();
+				if(Modifier.isAbstract(modifiers) || Modifier.isNative(modifiers)) continue;
+				if((method.getMethodInfo().getAccessFlags() & (AccessFlag.SYNTHETIC | AccessFlag.BRIDGE))!=0) continue;
+				final String metricName = TimingConfig.getMetricName(rules, className, method.getName());
+				if(metricName==null) continue;
+				String field = fields.get(metricName);
+				if(field==null) {
+					field = FIELD_PREFIX + fields.size();
+					final CtField ctField = new CtField(CtClass.intType, field, ctClass);
+					ctField.setModifiers(Modifier.PRIVATE | Modifier.STATIC | Modifier.FINAL);
+					ctClass.addField(ctField, CtField.Initializer.byExpr(AGENT + ".handle(\"" + escape(metricName) + "\")"));
+					fields.put(metricName, field);
+				}
+				// The exit code is woven first so the finally handler does not cover the assignment of the start time
+				method.addLocalVariable(START_VAR, CtClass.longType);
+				method.insertAfter(AGENT + ".record(" + field + ", " + AGENT + ".nanoTime() - " + START_VAR + ");", true);
+				method.insertBefore(START_VAR + " = " + AGENT + ".nanoTime();");
+				methods++;
+			}
+			if(methods==0) return null;
+			final byte[] woven = ctClass.toBytecode();
+			wovenClasses.incrementAndGet();
+			wovenMethods.addAndGet(methods);
+			log("Wove timing into [" + methods + "] methods of [" + className + "]");
+			return woven;
+		} finally {
+			ctClass.detach();
+		}
+	}
+	
+	/**
+	 * Indicates if the passed class is never woven
+	 * @param className The class name
+	 * @return true if the class is excluded
+	 */
+	protected boolean isExcluded(String className) {
+		for(String prefix: EXCLUDED) {
+			if(className.startsWith(prefix)) return true;
+		}
+		return false;
+	}
+	
+	/**
+	 * Escapes the passed string for use as a java string literal in woven source
+	 * @param s The string to escape
+	 * @return the escaped string
+	 */
+	private static String escape(String s) {
+		return s.replace("\\", "\\\\").replace("\"", "\\\"");
+	}
+	
+	/**
+	 * Returns the timing config
+	 * @return the timing config
+	 */
+	public TimingConfig getConfig() {
+		return config;
+	}
+	
+	/**
+	 * Returns the number of woven classes
+	 * @return the number of woven classes
+	 */
+	public long getWovenClasses() {
+		return wovenClasses.get();
+	}
+	
+	/**
+	 * Returns the number of woven methods
+	 * @return the number of woven methods
+	 */
+	public long getWovenMethods() {
+		return wovenMethods.get();
+	}
+	
+	/**
+	 * Returns the number of classes that failed to weave
+	 * @return the number of weaving failures
+	 */
+	public long getFailures() {
+		return failures.get();
+	}
+	
+	/**
+	 * Console logger
+	 * @param msg The message to log
+	 */
+	public static void log(Object msg) {
+		System.out.println(msg);
+	}
+}
@@ -0,0 +1,421 @@
+/**
+ * Helios, OpenSource Monitoring
+ * Brought to you by the Helios Development Group
+ *
+ * Copyright 2007, Helios Development Group and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org. 
+ *
+ */
+package org.helios.jmxstats.core.alert;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CopyOnWriteArraySet;
+
+import org.helios.jmxstats.core.Controller;
+import org.helios.jmxstats.core.metric.IMetric;
+import org.helios.jmxstats.core.metric.IntervalSnapshot;
+import org.helios.jmxstats.core.metric.MetricRegistry;
+
+/**
+ * <p>Title: AlertEvaluator</p>
+ * <p>Description: Evaluates {@link AlertRule}s against each closed interval snapshot on the interval switch, before interval listeners are
+ * notified, so alerting needs no reads of stored data. Rules are compiled when added: each rule's metric must already be registered, and its
+ * handle is resolved once and pinned against idle eviction until the rule is removed, and the rules are laid out in arrays sorted by field and operator, so evaluation is one pass per field and operator
+ * over contiguous arrays with no per rule dispatch or allocation. Each rule's last {@link AlertRule#MAX_WINDOW} intervals are kept as a bit
+ * window, so "n of m intervals" is a shift, a mask and a bit count. Only state changes are reported to the {@link AlertListener}s.</p> 
+ * <p>Company: Helios Development Group LLC</p>
+ * @author Whitehead (nwhitehead AT heliosdev DOT org)
+ * <p><code>org.helios.jmxstats.core.alert.AlertEvaluator</code></p>
+ */
+public class AlertEvaluator {
+	/** The fields */
+	private static final AlertRule.Field[] FIELDS = AlertRule.Field.values();
+	/** The operators */
+	private static final AlertRule.Operator[] OPERATORS = AlertRule.Operator.values();
+	/** Orders rules by field and then operator */
+	private static final Comparator<AlertRule> SEGMENT_ORDER = new Comparator<AlertRule>() {
+		@Override
+		public int compare(AlertRule r1, AlertRule r2) {
+			return segment(r1) - segment(r2);
+		}
+	};
+	
+	/** The controller the evaluator is attached to */
+	private final Controller controller;
+	/** The resolved metric handle of each rule */
+	private final Map<AlertRule, Integer> handles = new IdentityHashMap<AlertRule, Integer>();
+	/** The registered alert listeners */
+	private final Set<AlertListener> listeners = new CopyOnWriteArraySet<AlertListener>();
+	/** The compiled rules */
+	private volatile Compiled compiled = new Compiled(new AlertRule[0], null, null);
+	/** The number of evaluations */
+	private volatile long evaluations = 0;
+	/** The elapsed time of the last evaluation in ns. */
+	private volatile long lastEvaluationNanos = 0;
+	
+	/**
+	 * Creates a new AlertEvaluator
+	 * @param controller The controller the evaluator is attached to
+	 */
+	public AlertEvaluator(Controller controller) {
+		if(controller==null) throw new IllegalArgumentException("The passed controller was null", new Throwable());
+		this.controller = controller;
+	}
+	
+	/**
+	 * Adds an alert rule
+	 * @param rule The rule to add
+	 * @throws IllegalArgumentException thrown if the rule's metric is not registered, or is registered with another type
+	 */
+	public void addRule(AlertRule rule) {
+		addRules(Collections.singleton(rule));
+	}
+	
+	/**
+	 * Adds the passed alert rules, compiling once. Rules already added are ignored. The rules' metrics are not registered:
+	 * if any rule's metric is not registered, or is registered with another type, none of the rules are added.
+	 * @param rules The rules to add
+	 * @throws IllegalArgumentException thrown if a rule's metric is not registered, or is registered with another type
+	 */
+	public synchronized void addRules(Collection<AlertRule> rules) {
+		if(rules==null) throw new IllegalArgumentException("The passed rule collection was null", new Throwable());
+		final MetricRegistry registry = MetricRegistry.getInstance();
+		final Map<AlertRule, Integer> resolved = new IdentityHashMap<AlertRule, Integer>();
+		for(AlertRule rule: rules) {
+			if(rule==null) throw new IllegalArgumentException("The passed rule collection contained a null", new Throwable());
+			if(handles.containsKey(rule) || resolved.containsKey(rule)) continue;
+			final int handle = registry.getHandle(rule.getMetricName());
+			final IMetric metric = handle<0 ? null : registry.getMetric(handle);
+			if(metric==null) throw new IllegalArgumentException("Alert rule [" + rule.getName() + "] references unregistered metric [" + rule.getMetricName() + "]", new Throwable());
+			if(metric.getType()!=rule.getType()) throw new IllegalArgumentException("Alert rule [" + rule.getName() + "] expects metric [" + rule.getMetricName() + "] of type [" + rule.getType() + "] but it is registered as [" + metric.getType() + "]", new Throwable());
+			resolved.put(rule, handle);
+		}
+		if(resolved.isEmpty()) return;
+		for(Map.Entry<AlertRule, Integer> e: resolved.entrySet()) {
+			registry.pin(e.getValue());
+			handles.put(e.getKey(), e.getValue());
+		}
+		compile();
+	}
+	
+	/**
+	 * Removes an alert rule, releasing its pin on the rule's metric. The metric may be evicted once idle when no other rule or holder pins it.
+	 * @param rule The rule to remove
+	 * @return true if the rule was removed
+	 */
+	public synchronized boolean removeRule(AlertRule rule) {
+		final Integer handle = handles.remove(rule);
+		if(handle==null) return false;
+		compile();
+		MetricRegistry.getInstance().unpin(handle);
+		return true;
+	}
+	
+	/**
+	 * Recompiles the rules, carrying over the window and firing state of retained rules. Callers hold the instance lock.
+	 */
+	private void compile() {
+		final AlertRule[] rules = handles.keySet().toArray(new AlertRule[handles.size()]);
+		Arrays.sort(rules, SEGMENT_ORDER);
+		final int[] ruleHandles = new int[rules.length];
+		for(int i = 0; i < rules.length; i++) {
+			ruleHandles[i] = handles.get(rules[i]);
+		}
+		compiled = new Compiled(rules, ruleHandles, compiled);
+	}
+	
+	/**
+	 * Returns the segment of the passed rule, which orders rules by field and then operator
+	 * @param rule The rule
+	 * @return the segment
+	 */
+	private static int segment(AlertRule rule) {
+		return rule.getField().ordinal() * OPERATORS.length + rule.getOperator().ordinal();
+	}
+	
+	/**
+	 * Evaluates the rules against the passed closed interval snapshot and notifies listeners of state changes
+	 * @param closed The closed interval snapshot
+	 */
+	public synchronized void evaluate(IntervalSnapshot closed) {
+		if(closed==null) throw new IllegalArgumentException("The passed snapshot was null", new Throwable());
+		final long start = System.nanoTime();
+		final Compiled c = compiled;
+		if(c.rules.length==0) return;
+		for(int s = 0; s < c.segments.length-1; s++) {
+			final int from = c.segments[s], to = c.segments[s+1];
+			if(from==to) continue;
+			gather(FIELDS[s / OPERATORS.length], closed, c, from, to);
+			compare(OPERATORS[s % OPERATORS.length], c, from, to);
+		}
+		final long[] windows = c.windows, breaches = c.breaches, masks = c.masks;
+		final int[] ns = c.ns;
+		final boolean[] firing = c.firing;
+		int changes = 0;
+		for(int i = 0; i < windows.length; i++) {
+			final long w = ((windows[i] << 1) | breaches[i]) & masks[i];
+			windows[i] = w;
+			if((Long.bitCount(w)>=ns[i])!=firing[i]) {
+				firing[i] = !firing[i];
+				c.changed[changes++] = i;
+			}
+		}
+		evaluations++;
+		lastEvaluationNanos = System.nanoTime() - start;
+		if(changes>0 && !listeners.isEmpty()) {
+			final long intervalStart = closed.getStartTime();
+			for(int x = 0; x < changes; x++) {
+				final int i = c.changed[x];
+				for(AlertListener listener: listeners) {
+					try {
+						listener.onAlert(c.rules[i], firing[i], c.values[i], intervalStart);
+					} catch (Exception e) {
+						log("Alert listener failed on [" + c.rules[i] + "]:" + e);
+					}
+				}
+			}
+		}
+	}
+	
+	/**
+	 * Reads the passed field of the rules in the passed range into the value array and sets the breach array to 1 for rules
+	 * whose metric received values in the interval, or for all of them if the field is the count
+	 * @param field The field
+	 * @param closed The closed interval snapshot
+	 * @param c The compiled rules
+	 * @param from The first rule, inclusive
+	 * @param to The last rule, exclusive
+	 */
+	private static void gather(AlertRule.Field field, IntervalSnapshot closed, Compiled c, int from, int to) {
+		final int size = closed.size();
+		final int[] h = c.handles;
+		final long[] values = c.values, present = c.breaches;
+		if(field==AlertRule.Field.COUNT) {
+			for(int i = from; i < to; i++) {
+				values[i] = MetricRegistry.slot(h[i])<size ? closed.getCount(h[i]) : 0L;
+				present[i] = 1L;
+			}
+			return;
+		}
+		for(int i = from; i < to; i++) {
+			final long count = MetricRegistry.slot(h[i])<size ? closed.getCount(h[i]) : 0L;
+			present[i] = count>0 ? 1L : 0L;
+			values[i] = 0L;
+		}
+		switch(field) {
+			case TOTAL:
+				for(int i = from; i < to; i++) { if(present[i]!=0) values[i] = closed.getTotal(h[i]); }
+				break;
+			case AVERAGE:
+				for(int i = from; i < to; i++) { if(present[i]!=0) values[i] = closed.getAverage(h[i]); }
+				break;
+			case MINIMUM:
+				for(int i = from; i < to; i++) { if(present[i]!=0) values[i] = closed.getMinimum(h[i]); }
+				break;
+			default:
+				for(int i = from; i < to; i++) { if(present[i]!=0) values[i] = closed.getMaximum(h[i]); }
+				break;
+		}
+	}
+	
+	/**
+	 * Clears the breach flag of the rules in the passed range whose value does not breach their threshold
+	 * @param operator The operator
+	 * @param c The compiled rules
+	 * @param from The first rule, inclusive
+	 * @param to The last rule, exclusive
+	 */
+	private static void compare(AlertRule.Operator operator, Compiled c, int from, int to) {
+		final long[] values = c.values, thresholds = c.thresholds, breaches = c.breaches;
+		switch(operator) {
+			case GT:
+				for(int i = from; i < to; i++) { breaches[i] &= values[i]>thresholds[i] ? 1L : 0L; }
+				break;
+			case GE:
+				for(int i = from; i < to; i++) { breaches[i] &= values[i]>=thresholds[i] ? 1L : 0L; }
+				break;
+			case LT:
+				for(int i = from; i < to; i++) { breaches[i] &= values[i]<thresholds[i] ? 1L : 0L; }
+				break;
+			case LE:
+				for(int i = from; i < to; i++) { breaches[i] &= values[i]<=thresholds[i] ? 1L : 0L; }
+				break;
+			case EQ:
+				for(int i = from; i < to; i++) { breaches[i] &= values[i]==thresholds[i] ? 1L : 0L; }
+				break;
+			default:
+				for(int i = from; i < to; i++) { breaches[i] &= values[i]!=thresholds[i] ? 1L : 0L; }
+				break;
+		}
+	}
+	
+	/**
+	 * Registers an alert listener
+	 * @param listener The listener to register
+	 */
+	public void addAlertListener(AlertListener listener) {
+		if(listener==null) throw new IllegalArgumentException("The passed listener was null", new Throwable());
+		listeners.add(listener);
+	}
+	
+	/**
+	 * Unregisters an alert listener
+	 * @param listener The listener to unregister
+	 */
+	public void removeAlertListener(AlertListener listener) {
+		if(listener!=null) listeners.remove(listener);
+	}
+	
+	/**
+	 * Indicates if the passed rule is firing
+	 * @param rule The rule
+	 * @return true if the rule is firing, false if it is not or was not added
+	 */
+	public synchronized boolean isFiring(AlertRule rule) {
+		final Compiled c = compiled;
+		for(int i = 0; i < c.rules.length; i++) {
+			if(c.rules[i]==rule) return c.firing[i];
+		}
+		return false;
+	}
+	
+	/**
+	 * Returns the rules that are firing
+	 * @return the firing rules
+	 */
+	public synchronized List<AlertRule> getFiringRules() {
+		final Compiled c = compiled;
+		final List<AlertRule> firing = new ArrayList<AlertRule>();
+		for(int i = 0; i < c.rules.length; i++) {
+			if(c.firing[i]) firing.add(c.rules[i]);
+		}
+		return firing;
+	}
+	
+	/**
+	 * Returns the number of rules
+	 * @return the number of rules
+	 */
+	public int getRuleCount() {
+		return compiled.rules.length;
+	}
+	
+	/**
+	 * Returns the number of evaluations
+	 * @return the number of evaluations
+	 */
+	public long getEvaluations() {
+		return evaluations;
+	}
+	
+	/**
+	 * Returns the elapsed time of the last evaluation
+	 * @return the elapsed time of the last evaluation in ns.
+	 */
+	public long getLastEvaluationNanos() {
+		return lastEvaluationNanos;
+	}
+	
+	/**
+	 * Console logger
+	 * @param msg The message to log
+	 */
+	public static void log(Object msg) {
+		System.out.println(msg);
+	}
+	
+	/**
+	 * <p>Title: Compiled</p>
+	 * <p>Description: The rules laid out for evaluation, sorted by field and operator, with their evaluation state</p> 
+	 */
+	private static class Compiled {
+		/** The rules */
+		private final AlertRule[] rules;
+		/** The first rule of each field and operator segment, followed by the rule count */
+		private final int[] segments;
+		/** The metric handles */
+		private final int[] handles;
+		/** The thresholds */
+		private final long[] thresholds;
+		/** The window masks */
+		private final long[] masks;
+		/** The breach counts that fire */
+		private final int[] ns;
+		/** The breach windows, the latest interval in the lowest bit */
+		private final long[] windows;
+		/** The firing states */
+		private final boolean[] firing;
+		/** The field values of the last evaluation */
+		private final long[] values;
+		/** The breach flags of the last evaluation */
+		private final long[] breaches;
+		/** The rules whose state changed in the last evaluation */
+		private final int[] changed;
+		
+		/**
+		 * Creates a new Compiled
+		 * @param rules The rules sorted by field and operator
+		 * @param handles The rules' metric handles
+		 * @param previous The previously compiled rules, whose state is carried over for retained rules
+		 */
+		Compiled(AlertRule[] rules, int[] handles, Compiled previous) {
+			final int count = rules.length;
+			this.rules = rules;
+			this.handles = handles==null ? new int[0] : handles;
+			segments = new int[FIELDS.length * OPERATORS.length + 1];
+			thresholds = new long[count];
+			masks = new long[count];
+			ns = new int[count];
+			windows = new long[count];
+			firing = new boolean[count];
+			values = new long[count];
+			breaches = new long[count];
+			changed = new int[count];
+			final Map<AlertRule, Integer> retained = new IdentityHashMap<AlertRule, Integer>();
+			if(previous!=null) {
+				for(int i = 0; i < previous.rules.length; i++) {
+					retained.put(previous.rules[i], i);
+				}
+			}
+			int s = 0;
+			for(int i = 0; i < count; i++) {
+				final AlertRule rule = rules[i];
+				final int seg = segment(rule);
+				while(s<=seg) segments[s++] = i;
+				thresholds[i] = rule.getThreshold();
+				masks[i] = rule.getM()==64 ? -1L : (1L << rule.getM()) - 1;
+				ns[i] = rule.getN();
+				final Integer p = retained.get(rule);
+				if(p!=null) {
+					windows[i] = previous.windows[p];
+					firing[i] = previous.firing[p];
+				}
+			}
+			while(s<segments.length) segments[s++] = count;
+		}
+	}
+}
@@ -0,0 +1,43 @@
+/**
+ * Helios, OpenSource Monitoring
+ * Brought to you by the Helios Development Group
+ *
+ * Copyright 2007, Helios Development Group and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org. 
+ *
+ */
+package org.helios.jmxstats.core.alert;
+
+/**
+ * <p>Title: AlertListener</p>
+ * <p>Description: Receives alert rule state changes from an {@link AlertEvaluator}</p> 
+ * <p>Company: Helios Development Group LLC</p>
+ * @author Whitehead (nwhitehead AT heliosdev DOT org)
+ * <p><code>org.helios.jmxstats.core.alert.AlertListener</code></p>
+ */
+public interface AlertListener {
+	/**
+	 * Callback when a rule starts or stops firing. Called on the interval switch thread, so slow work should be handed off.
+	 * @param rule The rule
+	 * @param firing true if the rule started firing, false if it cleared
+	 * @param value The rule's field value in the interval that changed the state
+	 * @param intervalStart The start time of the closed interval that changed the state
+	 */
+	public void onAlert(AlertRule rule, boolean firing, long value, long intervalStart);
+}
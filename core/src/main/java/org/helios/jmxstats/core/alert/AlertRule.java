@@ -0,0 +1,229 @@
+/**
+ * Helios, OpenSource Monitoring
+ * Brought to you by the Helios Development Group
+ *
+ * Copyright 2007, Helios Development Group and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org. 
+ *
+ */
+package org.helios.jmxstats.core.alert;
+
+import org.helios.jmxstats.core.metric.MetricType;
+
+/**
+ * <p>Title: AlertRule</p>
+ * <p>Description: A threshold rule on one field of a metric's closed interval values, which fires when the threshold is breached in at least
+ * <code>n</code> of the last <code>m</code> intervals and clears when it is breached in fewer. e.g. a rule firing when the average latency
+ * exceeds 250ms in 3 of the last 5 intervals:
+ * <pre>new AlertRule("slow-orders", "app.orders.latency", MetricType.AVG, Field.AVERAGE, Operator.GT, 250, 3, 5)</pre>
+ * An interval in which the metric received no values never breaches a rule, unless the rule is on {@link Field#COUNT}.
+ * Rules are compared by identity.</p> 
+ * <p>Company: Helios Development Group LLC</p>
+ * @author Whitehead (nwhitehead AT heliosdev DOT org)
+ * <p><code>org.helios.jmxstats.core.alert.AlertRule</code></p>
+ */
+public class AlertRule {
+	/** The maximum window length in intervals */
+	public static final int MAX_WINDOW = 64;
+	
+	/** The rule name */
+	private final String name;
+	/** The metric name */
+	private final String metricName;
+	/** The metric type the rule expects its metric to be registered with */
+	private final MetricType type;
+	/** The compared field */
+	private final Field field;
+	/** The comparison operator */
+	private final Operator operator;
+	/** The threshold */
+	private final long threshold;
+	/** The number of breaching intervals that fire the rule */
+	private final int n;
+	/** The window length in intervals */
+	private final int m;
+	
+	/**
+	 * <p>Title: Field</p>
+	 * <p>Description: The closed interval field a rule compares</p> 
+	 */
+	public static enum Field {
+		/** The interval count */
+		COUNT,
+		/** The interval total */
+		TOTAL,
+		/** The interval average */
+		AVERAGE,
+		/** The interval minimum */
+		MINIMUM,
+		/** The interval maximum */
+		MAXIMUM;
+	}
+	
+	/**
+	 * <p>Title: Operator</p>
+	 * <p>Description: The comparison of the field value with the threshold that constitutes a breach</p> 
+	 */
+	public static enum Operator {
+		/** Breached if the value is greater than the threshold */
+		GT,
+		/** Breached if the value is greater than or equal to the threshold */
+		GE,
+		/** Breached if the value is less than the threshold */
+		LT,
+		/** Breached if the value is less than or equal to the threshold */
+		LE,
+		/** Breached if the value equals the threshold */
+		EQ,
+		/** Breached if the value does not equal the threshold */
+		NE;
+		
+		/**
+		 * Indicates if the passed value breaches the passed threshold
+		 * @param value The value
+		 * @param threshold The threshold
+		 * @return true if the threshold is breached
+		 */
+		public boolean breached(long value, long threshold) {
+			switch(this) {
+				case GT: return value>threshold;
+				case GE: return value>=threshold;
+				case LT: return value<threshold;
+				case LE: return value<=threshold;
+				case EQ: return value==threshold;
+				default: return value!=threshold;
+			}
+		}
+	}
+	
+	/**
+	 * Creates a new AlertRule that fires on every breaching interval
+	 * @param name The rule name
+	 * @param metricName The metric name
+	 * @param type The metric type the rule expects its metric to be registered with
+	 * @param field The compared field
+	 * @param operator The comparison operator
+	 * @param threshold The threshold
+	 */
+	public AlertRule(String name, CharSequence metricName, MetricType type, Field field, Operator operator, long threshold) {
+		this(name, metricName, type, field, operator, threshold, 1, 1);
+	}
+	
+	/**
+	 * Creates a new AlertRule
+	 * @param name The rule name
+	 * @param metricName The metric name
+	 * @param type The metric type the rule expects its metric to be registered with
+	 * @param field The compared field
+	 * @param operator The comparison operator
+	 * @param threshold The threshold
+	 * @param n The number of breaching intervals within the window that fire the rule
+	 * @param m The window length in intervals, at most {@link #MAX_WINDOW}
+	 */
+	public AlertRule(String name, CharSequence metricName, MetricType type, Field field, Operator operator, long threshold, int n, int m) {
+		if(name==null) throw new IllegalArgumentException("The passed rule name was null", new Throwable());
+		if(metricName==null) throw new IllegalArgumentException("The passed metric name was null", new Throwable());
+		if(type==null) throw new IllegalArgumentException("The passed metric type was null", new Throwable());
+		if(field==null) throw new IllegalArgumentException("The passed field was null", new Throwable());
+		if(operator==null) throw new IllegalArgumentException("The passed operator was null", new Throwable());
+		if(m<1 || m>MAX_WINDOW) throw new IllegalArgumentException("The passed window [" + m + "] is not between 1 and " + MAX_WINDOW, new Throwable());
+		if(n<1 || n>m) throw new IllegalArgumentException("The passed breach count [" + n + "] is not between 1 and the window [" + m + "]", new Throwable());
+		this.name = name;
+		this.metricName = metricName.toString();
+		this.type = type;
+		this.field = field;
+		this.operator = operator;
+		this.threshold = threshold;
+		this.n = n;
+		this.m = m;
+	}
+
+	/**
+	 * Returns the rule name
+	 * @return the rule name
+	 */
+	public String getName() {
+		return name;
+	}
+
+	/**
+	 * Returns the metric name
+	 * @return the metric name
+	 */
+	public String getMetricName() {
+		return metricName;
+	}
+
+	/**
+	 * Returns the metric type
+	 * @return the metric type
+	 */
+	public MetricType getType() {
+		return type;
+	}
+
+	/**
+	 * Returns the compared field
+	 * @return the compared field
+	 */
+	public Field getField() {
+		return field;
+	}
+
+	/**
+	 * Returns the comparison operator
+	 * @return the comparison operator
+	 */
+	public Operator getOperator() {
+		return operator;
+	}
+
+	/**
+	 * Returns the threshold
+	 * @return the threshold
+	 */
+	public long getThreshold() {
+		return threshold;
+	}
+
+	/**
+	 * Returns the number of breaching intervals within the window that fire the rule
+	 * @return the breach count
+	 */
+	public int getN() {
+		return n;
+	}
+
+	/**
+	 * Returns the window length in intervals
+	 * @return the window length
+	 */
+	public int getM() {
+		return m;
+	}
+
+	/**
+	 * {@inheritDoc}
+	 * @see java.lang.Object#toString()
+	 */
+	@Override
+	public String toString() {
+		return "AlertRule [" + name + ": " + metricName + " " + field + " " + operator + " " + threshold + " in " + n + " of " + m + "]";
+	}
+}
@@ -0,0 +1,256 @@
+/**
+ * Helios, OpenSource Monitoring
+ * Brought to you by the Helios Development Group
+ *
+ * Copyright 2007, Helios Development Group and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org. 
+ *
+ */
+package org.helios.jmxstats.core.derived;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import gnu.trove.list.array.TIntArrayList;
+
+import org.helios.jmxstats.core.Controller;
+import org.helios.jmxstats.core.metric.IntervalSnapshot;
+import org.helios.jmxstats.core.metric.MetricRegistry;
+import org.helios.jmxstats.core.metric.MetricType;
+
+/**
+ * <p>Title: DerivedMetricEngine</p>
+ * <p>Description: Computes derived metrics such as <code>errors@count / requests@count * 100</code> on each interval switch. Each derived
+ * metric's expression is compiled once by the {@link ExpressionCompiler} into a class reading its inputs by handle from the closed interval
+ * snapshot, and its rounded result is written into the same snapshot under the derived metric's own {@link MetricType#AVG} handle, before
+ * alert rules are evaluated and interval listeners notified, so derived metrics are read like any other metric. Derived metrics are computed
+ * in definition order, so an expression may reference a derived metric defined before it. A derived metric whose inputs received no values,
+ * or whose result is not finite (e.g. a division by zero) has no value for the interval. Inputs must be registered before the derived metric
+ * is defined, so a derived metric never registers its inputs with a type their producers did not choose. Inputs and outputs are pinned against
+ * idle eviction until the derived metric is removed.</p> 
+ * <p>Company: Helios Development Group LLC</p>
+ * @author Whitehead (nwhitehead AT heliosdev DOT org)
+ * <p><code>org.helios.jmxstats.core.derived.DerivedMetricEngine</code></p>
+ */
+public class DerivedMetricEngine {
+	/** The controller resolving metric handles */
+	private final Controller controller;
+	/** The definitions keyed by derived metric name, in definition order */
+	private final Map<String, Definition> definitions = new LinkedHashMap<String, Definition>();
+	/** The compiled definitions in definition order */
+	private volatile Definition[] compiled = new Definition[0];
+	/** The number of evaluations */
+	private volatile long evaluations = 0;
+	/** The number of derived values with no value for their interval */
+	private volatile long skipped = 0;
+	/** The elapsed time of the last evaluation in ns. */
+	private volatile long lastEvaluationNanos = 0;
+	
+	/**
+	 * Creates a new DerivedMetricEngine
+	 * @param controller The controller resolving metric handles
+	 */
+	public DerivedMetricEngine(Controller controller) {
+		if(controller==null) throw new IllegalArgumentException("The passed controller was null", new Throwable());
+		this.controller = controller;
+	}
+	
+	/**
+	 * Defines a derived metric, replacing any existing definition of the same name in place
+	 * @param name The derived metric name
+	 * @param expression The expression computing the metric
+	 * @return the derived metric's handle
+	 * @throws IllegalArgumentException thrown if the expression is invalid or references a metric that is not registered
+	 */
+	public synchronized int define(final String name, CharSequence expression) {
+		if(name==null || name.trim().length()==0) throw new IllegalArgumentException("The passed name was null or empty", new Throwable());
+		final MetricRegistry registry = MetricRegistry.getInstance();
+		final TIntArrayList inputs = new TIntArrayList();
+		final DerivedExpression compiledExpression = ExpressionCompiler.compile(expression, new ExpressionCompiler.HandleResolver() {
+			@Override
+			public int resolve(String input) {
+				final int handle = registry.getHandle(input);
+				if(handle<0) throw new IllegalArgumentException("Derived metric [" + name + "] references unregistered metric [" + input + "]", new Throwable());
+				inputs.add(handle);
+				return handle;
+			}
+		});
+		final int handle = controller.getMetricHandle(name, MetricType.AVG);
+		final Definition d = new Definition(name, expression.toString(), handle, inputs.toArray(), compiledExpression);
+		d.pin(registry);
+		final Definition prior = definitions.put(name, d);
+		if(prior!=null) prior.unpin(registry);
+		compiled = definitions.values().toArray(new Definition[definitions.size()]);
+		return handle;
+	}
+	
+	/**
+	 * Removes a derived metric, releasing the pins on the metric and its inputs
+	 * @param name The derived metric name
+	 * @return true if the derived metric was removed
+	 */
+	public synchronized boolean remove(String name) {
+		final Definition d = definitions.remove(name);
+		if(d==null) return false;
+		compiled = definitions.values().toArray(new Definition[definitions.size()]);
+		d.unpin(MetricRegistry.getInstance());
+		return true;
+	}
+	
+	/**
+	 * Returns the expression of the named derived metric
+	 * @param name The derived metric name
+	 * @return the expression or null if the name is not defined
+	 */
+	public synchronized String getExpression(String name) {
+		final Definition d = definitions.get(name);
+		return d==null ? null : d.expression;
+	}
+	
+	/**
+	 * Computes the derived metrics from the passed closed interval snapshot and writes them into it
+	 * @param closed The closed interval snapshot
+	 */
+	public void evaluate(IntervalSnapshot closed) {
+		if(closed==null) throw new IllegalArgumentException("The passed snapshot was null", new Throwable());
+		final Definition[] defs = compiled;
+		if(defs.length==0) return;
+		final long start = System.nanoTime();
+		final int size = closed.size();
+		long empty = 0;
+		for(int i = 0; i < defs.length; i++) {
+			final Definition d = defs[i];
+			if(MetricRegistry.slot(d.handle)>=size) {
+				empty++;
+				continue;
+			}
+			double v;
+			try {
+				v = d.compiled.evaluate(closed);
+			} catch (Exception e) {
+				v = Double.NaN;
+			}
+			if(Double.isNaN(v) || Double.isInfinite(v)) {
+				empty++;
+				continue;
+			}
+			final long value = Math.round(v);
+			closed.set(d.handle, MetricType.AVG, 1, value, value, value, value);
+		}
+		skipped += empty;
+		evaluations++;
+		lastEvaluationNanos = System.nanoTime() - start;
+	}
+	
+	/**
+	 * Returns the number of defined derived metrics
+	 * @return the number of defined derived metrics
+	 */
+	public int getDerivedCount() {
+		return compiled.length;
+	}
+	
+	/**
+	 * Returns the number of evaluations
+	 * @return the number of evaluations
+	 */
+	public long getEvaluations() {
+		return evaluations;
+	}
+	
+	/**
+	 * Returns the number of derived values that had no value for their interval
+	 * @return the number of skipped derived values
+	 */
+	public long getSkipped() {
+		return skipped;
+	}
+	
+	/**
+	 * Returns the elapsed time of the last evaluation in ns.
+	 * @return the elapsed time of the last evaluation
+	 */
+	public long getLastEvaluationNanos() {
+		return lastEvaluationNanos;
+	}
+	
+	/**
+	 * <p>Title: Definition</p>
+	 * <p>Description: A compiled derived metric definition</p> 
+	 */
+	private static class Definition {
+		/** The derived metric name */
+		final String name;
+		/** The expression source */
+		final String expression;
+		/** The derived metric handle */
+		final int handle;
+		/** The handles of the metrics the expression reads */
+		final int[] inputs;
+		/** The compiled expression */
+		final DerivedExpression compiled;
+		
+		/**
+		 * Creates a new Definition
+		 * @param name The derived metric name
+		 * @param expression The expression source
+		 * @param handle The derived metric handle
+		 * @param inputs The handles of the metrics the expression reads
+		 * @param compiled The compiled expression
+		 */
+		Definition(String name, String expression, int handle, int[] inputs, DerivedExpression compiled) {
+			this.name = name;
+			this.expression = expression;
+			this.handle = handle;
+			this.inputs = inputs;
+			this.compiled = compiled;
+		}
+		
+		/**
+		 * Pins the derived metric and its inputs against idle eviction
+		 * @param registry The metric registry
+		 */
+		void pin(MetricRegistry registry) {
+			registry.pin(handle);
+			for(int input: inputs) {
+				registry.pin(input);
+			}
+		}
+		
+		/**
+		 * Releases the pins taken by {@link #pin(MetricRegistry)}
+		 * @param registry The metric registry
+		 */
+		void unpin(MetricRegistry registry) {
+			registry.unpin(handle);
+			for(int input: inputs) {
+				registry.unpin(input);
+			}
+		}
+		
+		/**
+		 * {@inheritDoc}
+		 * @see java.lang.Object#toString()
+		 */
+		@Override
+		public String toString() {
+			return name + "=" + expression;
+		}
+	}
+}
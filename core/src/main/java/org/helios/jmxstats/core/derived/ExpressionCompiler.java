@@ -0,0 +1,340 @@
+/**
+ * Helios, OpenSource Monitoring
+ * Brought to you by the Helios Development Group
+ *
+ * Copyright 2007, Helios Development Group and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org. 
+ *
+ */
+package org.helios.jmxstats.core.derived;
+
+import java.security.ProtectionDomain;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javassist.ClassPool;
+import javassist.CtClass;
+import javassist.CtNewConstructor;
+import javassist.CtNewMethod;
+import javassist.LoaderClassPath;
+import javassist.Modifier;
+
+import org.helios.jmxstats.core.metric.IntervalSnapshot;
+import org.helios.jmxstats.core.metric.MetricRegistry;
+
+/**
+ * <p>Title: ExpressionCompiler</p>
+ * <p>Description: Parses derived metric expressions and compiles each into a generated {@link DerivedExpression} class whose
+ * <code>evaluate</code> method is straight-line code reading its inputs by constant handle from the closed interval snapshot.
+ * Expressions combine numbers and metric references with <code>+ - * /</code>, unary minus and parentheses, evaluated in double precision.
+ * A metric reference is a dotted name such as <code>app.http.errors</code>, or any name in brackets such as
+ * <code>[java.lang:type=Memory/HeapMemoryUsage.used]</code>, optionally followed by <code>@count</code>, <code>@total</code>,
+ * <code>@avg</code>, <code>@min</code> or <code>@max</code> to select the interval field, which defaults to the average. e.g.:
+ * <pre>
+ * app.http.errors@count / app.http.requests@count * 100
+ * [heap.used] / [heap.max] * 100
+ * </pre>
+ * If a referenced metric, other than through <code>@count</code>, received no values in the interval, the expression evaluates to NaN.
+ * Each class is defined by its own class loader, so a replaced or removed expression's class is unloaded once unreferenced.</p> 
+ * <p>Company: Helios Development Group LLC</p>
+ * @author Whitehead (nwhitehead AT heliosdev DOT org)
+ * <p><code>org.helios.jmxstats.core.derived.ExpressionCompiler</code></p>
+ */
+public class ExpressionCompiler {
+	/** The package of generated expression classes */
+	public static final String GENERATED_PACKAGE = "org.helios.jmxstats.core.derived.generated";
+	/** Serial number generator for generated class names */
+	private static final AtomicInteger serial = new AtomicInteger(0);
+	/** NaN in generated source. <code>Double.NaN</code> is not referenced since compiling it makes javassist parse the JDK's <code>Double</code> class file. */
+	private static final String NAN = "(0.0d/0.0d)";
+	
+	/**
+	 * <p>Title: HandleResolver</p>
+	 * <p>Description: Resolves the metric handles of the metrics referenced by an expression</p> 
+	 */
+	public interface HandleResolver {
+		/**
+		 * Returns the handle of the named metric
+		 * @param name The metric name
+		 * @return the metric handle
+		 */
+		public int resolve(String name);
+	}
+	
+	/**
+	 * Parses and compiles the passed expression
+	 * @param expression The expression
+	 * @param resolver Resolves the handles of referenced metrics
+	 * @return the compiled expression
+	 */
+	public static DerivedExpression compile(CharSequence expression, HandleResolver resolver) {
+		if(expression==null) throw new IllegalArgumentException("The passed expression was null", new Throwable());
+		if(resolver==null) throw new IllegalArgumentException("The passed resolver was null", new Throwable());
+		final Parser parser = new Parser(expression.toString(), resolver);
+		final String body = parser.parse();
+		try {
+			return generate(parser, body).newInstance();
+		} catch (Exception e) {
+			throw new RuntimeException("Failed to compile expression [" + expression + "]", e);
+		}
+	}
+	
+	/**
+	 * Generates the expression class
+	 * @param parser The parser holding the expression's inputs
+	 * @param body The expression's java source
+	 * @return the generated class
+	 * @throws Exception thrown on any generation failure
+	 */
+	@SuppressWarnings("unchecked")
+	private static Class<? extends DerivedExpression> generate(Parser parser, String body) throws Exception {
+		final ClassLoader loader = DerivedExpression.class.getClassLoader();
+		final ClassPool pool = new ClassPool(true);
+		pool.appendClassPath(new LoaderClassPath(loader));
+		pool.importPackage(IntervalSnapshot.class.getPackage().getName());
+		final String className = GENERATED_PACKAGE + ".Derived" + serial.incrementAndGet();
+		final CtClass ctClass = pool.makeClass(className);
+		ctClass.setModifiers(Modifier.PUBLIC | Modifier.FINAL);
+		ctClass.addInterface(pool.get(DerivedExpression.class.getName()));
+		ctClass.addConstructor(CtNewConstructor.defaultConstructor(ctClass));
+		final StringBuilder b = new StringBuilder("public double evaluate(IntervalSnapshot s) {");
+		b.append("if(s.size()<=").append(parser.maxSlot).append(") return ").append(NAN).append(";");
+		for(int i = 0; i < parser.guardCount; i++) {
+			b.append("if(s.getCount(").append(parser.guards[i]).append(")==0L) return ").append(NAN).append(";");
+		}
+		b.append("return ").append(body).append("; }");
+		ctClass.addMethod(CtNewMethod.make(b.toString(), ctClass));
+		final byte[] bytecode = ctClass.toBytecode();
+		ctClass.detach();
+		return (Class<? extends DerivedExpression>)new ExpressionClassLoader(loader, DerivedExpression.class.getProtectionDomain()).define(className, bytecode);
+	}
+	
+	/**
+	 * <p>Title: ExpressionClassLoader</p>
+	 * <p>Description: Defines one generated expression class as a child of the loader of {@link DerivedExpression}</p> 
+	 */
+	private static class ExpressionClassLoader extends ClassLoader {
+		/** The protection domain of the generated class */
+		private final ProtectionDomain domain;
+		
+		/**
+		 * Creates a new ExpressionClassLoader
+		 * @param parent The parent class loader
+		 * @param domain The protection domain of the generated class
+		 */
+		ExpressionClassLoader(ClassLoader parent, ProtectionDomain domain) {
+			super(parent);
+			this.domain = domain;
+		}
+		
+		/**
+		 * Defines the generated class
+		 * @param name The class name
+		 * @param bytecode The class bytes
+		 * @return the defined class
+		 */
+		Class<?> define(String name, byte[] bytecode) {
+			return defineClass(name, bytecode, 0, bytecode.length, domain);
+		}
+	}
+	
+	/**
+	 * <p>Title: Parser</p>
+	 * <p>Description: Recursive descent parser translating an expression to java source</p> 
+	 */
+	private static class Parser {
+		/** The expression */
+		private final String expr;
+		/** Resolves the handles of referenced metrics */
+		private final HandleResolver resolver;
+		/** The current position */
+		private int pos = 0;
+		/** The highest referenced slot */
+		private int maxSlot = -1;
+		/** The handles that must have received values */
+		private int[] guards = new int[4];
+		/** The number of guarded handles */
+		private int guardCount = 0;
+		
+		/**
+		 * Creates a new Parser
+		 * @param expr The expression
+		 * @param resolver Resolves the handles of referenced metrics
+		 */
+		Parser(String expr, HandleResolver resolver) {
+			this.expr = expr;
+			this.resolver = resolver;
+		}
+		
+		/**
+		 * Parses the expression
+		 * @return the java source of the expression
+		 */
+		String parse() {
+			final String source = expression();
+			skipSpace();
+			if(pos<expr.length()) throw error("Unexpected [" + expr.charAt(pos) + "]");
+			if(maxSlot<0) throw error("The expression references no metrics");
+			return source;
+		}
+		
+		/**
+		 * expression := term (('+' | '-') term)*
+		 * @return the java source
+		 */
+		private String expression() {
+			String left = term();
+			for(char c = peek(); c=='+' || c=='-'; c = peek()) {
+				pos++;
+				left = "(" + left + " " + c + " " + term() + ")";
+			}
+			return left;
+		}
+		
+		/**
+		 * term := factor (('*' | '/') factor)*
+		 * @return the java source
+		 */
+		private String term() {
+			String left = factor();
+			for(char c = peek(); c=='*' || c=='/'; c = peek()) {
+				pos++;
+				left = "(" + left + " " + c + " " + factor() + ")";
+			}
+			return left;
+		}
+		
+		/**
+		 * factor := number | reference | '(' expression ')' | '-' factor
+		 * @return the java source
+		 */
+		private String factor() {
+			final char c = peek();
+			if(c=='(') {
+				pos++;
+				final String inner = expression();
+				if(peek()!=')') throw error("Expected )");
+				pos++;
+				return "(" + inner + ")";
+			}
+			if(c=='-') {
+				pos++;
+				return "(-" + factor() + ")";
+			}
+			if(Character.isDigit(c) || c=='.') return number();
+			if(c=='[' || Character.isJavaIdentifierStart(c)) return reference();
+			throw error(c==0 ? "Unexpected end of expression" : "Unexpected [" + c + "]");
+		}
+		
+		/**
+		 * Parses a numeric literal
+		 * @return the java source
+		 */
+		private String number() {
+			final int start = pos;
+			while(pos<expr.length() && (Character.isDigit(expr.charAt(pos)) || expr.charAt(pos)=='.')) pos++;
+			final String literal = expr.substring(start, pos);
+			try {
+				return Double.toString(Double.parseDouble(literal)) + "d";
+			} catch (NumberFormatException e) {
+				throw error("Invalid number [" + literal + "]");
+			}
+		}
+		
+		/**
+		 * Parses a metric reference and its optional field
+		 * @return the java source
+		 */
+		private String reference() {
+			final String name;
+			if(expr.charAt(pos)=='[') {
+				final int end = expr.indexOf(']', pos);
+				if(end<0) throw error("Unterminated [");
+				name = expr.substring(pos + 1, end).trim();
+				pos = end + 1;
+			} else {
+				final int start = pos;
+				while(pos<expr.length() && (Character.isJavaIdentifierPart(expr.charAt(pos)) || expr.charAt(pos)=='.')) pos++;
+				name = expr.substring(start, pos);
+			}
+			if(name.length()==0) throw error("Empty metric name");
+			String field = "avg";
+			if(pos<expr.length() && expr.charAt(pos)=='@') {
+				final int start = ++pos;
+				while(pos<expr.length() && Character.isLetter(expr.charAt(pos))) pos++;
+				field = expr.substring(start, pos);
+			}
+			final int handle = resolver.resolve(name);
+			if(handle<0) throw error("Metric [" + name + "] could not be resolved");
+			if(MetricRegistry.slot(handle)>maxSlot) maxSlot = MetricRegistry.slot(handle);
+			final String getter;
+			if("count".equals(field)) {
+				getter = "getCount";
+			} else {
+				if("avg".equals(field)) getter = "getAverage";
+				else if("total".equals(field)) getter = "getTotal";
+				else if("min".equals(field)) getter = "getMinimum";
+				else if("max".equals(field)) getter = "getMaximum";
+				else throw error("Unknown field [@" + field + "]");
+				guard(handle);
+			}
+			return "((double)s." + getter + "(" + handle + "))";
+		}
+		
+		/**
+		 * Adds a handle that must have received values
+		 * @param handle The handle
+		 */
+		private void guard(int handle) {
+			for(int i = 0; i < guardCount; i++) {
+				if(guards[i]==handle) return;
+			}
+			if(guardCount==guards.length) {
+				final int[] tmp = new int[guardCount * 2];
+				System.arraycopy(guards, 0, tmp, 0, guardCount);
+				guards = tmp;
+			}
+			guards[guardCount++] = handle;
+		}
+		
+		/**
+		 * Skips whitespace and returns the next character
+		 * @return the next character or 0 at the end of the expression
+		 */
+		private char peek() {
+			skipSpace();
+			return pos<expr.length() ? expr.charAt(pos) : 0;
+		}
+		
+		/**
+		 * Skips whitespace
+		 */
+		private void skipSpace() {
+			while(pos<expr.length() && Character.isWhitespace(expr.charAt(pos))) pos++;
+		}
+		
+		/**
+		 * Creates a parse error
+		 * @param msg The error message
+		 * @return the exception to throw
+		 */
+		private IllegalArgumentException error(String msg) {
+			return new IllegalArgumentException(msg + " at position " + pos + " of expression [" + expr + "]", new Throwable());
+		}
+	}
+}
@@ -0,0 +1,319 @@
+/**
+ * Helios, OpenSource Monitoring
+ * Brought to you by the Helios Development Group
+ *
+ * Copyright 2007, Helios Development Group and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org. 
+ *
+ */
+package org.helios.jmxstats.core.ingest;
+
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.helios.jmxstats.core.metric.MetricRegistry;
+
+/**
+ * <p>Title: IngestPipeline</p>
+ * <p>Description: An asynchronous ingest pipeline that decouples application threads from metric aggregation.
+ * Each producer thread publishes <code>(metricHandle, value)</code> records into its own pre-allocated {@link IngestRing},
+ * and each ring is drained by one of a fixed number of shard aggregator threads which apply the records to the metrics
+ * in batches. The interval thread calls {@link #drain(long, TimeUnit)} before resetting the metrics so that records
+ * published in an interval are applied to that interval.</p>
+ * <p>Since each producer thread allocates a ring on first submission, this mode is intended for fixed thread pools.
+ * Rings of terminated threads are discarded once drained.</p>
+ * <p>Company: Helios Development Group LLC</p>
+ * @author Whitehead (nwhitehead AT heliosdev DOT org)
+ * <p><code>org.helios.jmxstats.core.ingest.IngestPipeline</code></p>
+ */
+public class IngestPipeline {
+	/** The system property that enables asynchronous ingest */
+	public static final String ASYNC_PROP = "org.helios.ingest.async";
+	/** The system property that defines the number of aggregator shards */
+	public static final String SHARDS_PROP = "org.helios.ingest.shards";
+	/** The system property that defines the per producer ring size */
+	public static final String RING_SIZE_PROP = "org.helios.ingest.ringsize";
+	/** The system property that defines the wait strategy */
+	public static final String WAIT_PROP = "org.helios.ingest.wait";
+	/** The default number of aggregator shards */
+	public static final int DEFAULT_SHARDS = Math.max(1, Runtime.getRuntime().availableProcessors()/4);
+	/** The default per producer ring size */
+	public static final int DEFAULT_RING_SIZE = 4096;
+	/** The default wait strategy */
+	public static final WaitStrategy DEFAULT_WAIT = WaitStrategy.PARK;
+	/** The maximum number of records applied from one ring in one aggregator pass */
+	public static final int DRAIN_BATCH = 1024;
+	
+	/** The thread group for aggregator threads */
+	private static final ThreadGroup AggregatorThreadGroup = new ThreadGroup("IngestPipeline");
+	/** Aggregator thread serial number factory */
+	private static final AtomicInteger aggregatorSerial = new AtomicInteger(0);
+	
+	/** The registry records are applied to */
+	private final MetricRegistry registry;
+	/** The per producer ring size */
+	private final int ringSize;
+	/** The wait strategy */
+	private final WaitStrategy waitStrategy;
+	/** The shard aggregators */
+	private final Aggregator[] aggregators;
+	/** Round robin counter to assign new rings to shards */
+	private final AtomicInteger ringSerial = new AtomicInteger(0);
+	/** The running flag */
+	private volatile boolean running = true;
+	/** The calling thread's ring */
+	private final ThreadLocal<IngestRing> rings = new ThreadLocal<IngestRing>() {
+		protected IngestRing initialValue() {
+			IngestRing ring = new IngestRing(ringSize, Thread.currentThread());
+			aggregators[(ringSerial.getAndIncrement() & Integer.MAX_VALUE) % aggregators.length].rings.add(ring);
+			return ring;
+		}
+	};
+	
+	/**
+	 * Creates a new IngestPipeline configured from system properties
+	 * @param registry The registry records are applied to
+	 * @return the started pipeline
+	 */
+	public static IngestPipeline fromSystemProperties(MetricRegistry registry) {
+		int shards, ringSize;
+		WaitStrategy waitStrategy;
+		try {
+			shards = Integer.parseInt(System.getProperty(SHARDS_PROP, "" + DEFAULT_SHARDS));
+		} catch (Exception e) {
+			shards = DEFAULT_SHARDS;
+		}
+		try {
+			ringSize = Integer.parseInt(System.getProperty(RING_SIZE_PROP, "" + DEFAULT_RING_SIZE));
+		} catch (Exception e) {
+			ringSize = DEFAULT_RING_SIZE;
+		}
+		try {
+			waitStrategy = WaitStrategy.decode(System.getProperty(WAIT_PROP, DEFAULT_WAIT.name()));
+		} catch (Exception e) {
+			waitStrategy = DEFAULT_WAIT;
+		}
+		return new IngestPipeline(registry, shards, ringSize, waitStrategy);
+	}
+	
+	/**
+	 * Creates and starts a new IngestPipeline
+	 * @param registry The registry records are applied to
+	 * @param shards The number of aggregator shards
+	 * @param ringSize The per producer ring size, rounded up to a power of 2
+	 * @param waitStrategy The wait strategy for idle aggregators and producers blocked on a full ring
+	 */
+	public IngestPipeline(MetricRegistry registry, int shards, int ringSize, WaitStrategy waitStrategy) {
+		if(registry==null) throw new IllegalArgumentException("The passed registry was null", new Throwable());
+		if(waitStrategy==null) throw new IllegalArgumentException("The passed wait strategy was null", new Throwable());
+		if(shards<1) throw new IllegalArgumentException("The passed shard count [" + shards + "] was <1", new Throwable());
+		if(ringSize<2 || ringSize>(1 << 30)) throw new IllegalArgumentException("The passed ring size [" + ringSize + "] is out of range", new Throwable());
+		this.registry = registry;
+		this.ringSize = Integer.bitCount(ringSize)==1 ? ringSize : Integer.highestOneBit(ringSize) << 1;
+		this.waitStrategy = waitStrategy;
+		aggregators = new Aggregator[shards];
+		for(int i = 0; i < shards; i++) {
+			aggregators[i] = new Aggregator();
+		}
+		for(Aggregator a: aggregators) {
+			a.start();
+		}
+		log("Started IngestPipeline with [" + shards + "] shards, ring size [" + this.ringSize + "] and wait strategy [" + waitStrategy + "]");
+	}
+	
+	/**
+	 * Publishes a value for the metric with the passed handle. If the calling thread's ring is full, the caller waits
+	 * according to the configured wait strategy. If the pipeline has been shut down, the value is processed synchronously.
+	 * @param handle The metric handle
+	 * @param value The value
+	 */
+	public void submit(int handle, long value) {
+		if(handle<0 || MetricRegistry.slot(handle)>=registry.size()) throw new IllegalArgumentException("Invalid metric handle [" + handle + "]", new Throwable());
+		if(!running) {
+			registry.process(handle, value);
+			return;
+		}
+		final IngestRing ring = rings.get();
+		if(!ring.offer(handle, value)) {
+			int idle = 0;
+			while(!ring.offer(handle, value)) {
+				if(!running) {
+					registry.process(handle, value);
+					return;
+				}
+				idle = waitStrategy.idle(idle);
+			}
+		}
+	}
+	
+	/**
+	 * Waits for every record published before this call to be applied to the registry
+	 * @param timeout The maximum time to wait
+	 * @param unit The unit of the timeout
+	 * @return true if all records were applied, false if the wait timed out
+	 */
+	public boolean drain(long timeout, TimeUnit unit) {
+		if(!running) return true;
+		final CountDownLatch latch = new CountDownLatch(aggregators.length);
+		for(Aggregator a: aggregators) {
+			a.drainRequest.set(latch);
+		}
+		try {
+			return latch.await(timeout, unit);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			return false;
+		}
+	}
+	
+	/**
+	 * Stops the aggregator threads after they apply all published records. Subsequent submissions are processed synchronously.
+	 */
+	public void shutdown() {
+		if(!running) return;
+		running = false;
+		for(Aggregator a: aggregators) {
+			try {
+				a.join();
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				break;
+			}
+		}
+		log("Stopped IngestPipeline");
+	}
+	
+	/**
+	 * Indicates if this pipeline is running
+	 * @return true if this pipeline is running
+	 */
+	public boolean isRunning() {
+		return running;
+	}
+	
+	/**
+	 * Returns the number of published records not yet applied
+	 * @return the number of pending records
+	 */
+	public long getPendingCount() {
+		long pending = 0;
+		for(Aggregator a: aggregators) {
+			for(IngestRing ring: a.rings) {
+				pending += ring.pending();
+			}
+		}
+		return pending;
+	}
+	
+	/**
+	 * Returns the wait strategy
+	 * @return the wait strategy
+	 */
+	public WaitStrategy getWaitStrategy() {
+		return waitStrategy;
+	}
+	
+	/**
+	 * Returns the number of aggregator shards
+	 * @return the number of aggregator shards
+	 */
+	public int getShardCount() {
+		return aggregators.length;
+	}
+	
+	/**
+	 * Console logger
+	 * @param msg The message to log
+	 */
+	public static void log(Object msg) {
+		System.out.println(msg);
+	}
+	
+	/**
+	 * <p>Title: Aggregator</p>
+	 * <p>Description: A shard aggregator thread which is the single consumer of the rings assigned to it</p> 
+	 * <p>Company: Helios Development Group LLC</p>
+	 * @author Whitehead (nwhitehead AT heliosdev DOT org)
+	 * <p><code>org.helios.jmxstats.core.ingest.IngestPipeline.Aggregator</code></p>
+	 */
+	private class Aggregator extends Thread {
+		/** The rings drained by this aggregator */
+		final CopyOnWriteArrayList<IngestRing> rings = new CopyOnWriteArrayList<IngestRing>();
+		/** A pending drain request from the interval thread */
+		final AtomicReference<CountDownLatch> drainRequest = new AtomicReference<CountDownLatch>(null);
+		
+		/**
+		 * Creates a new Aggregator
+		 */
+		Aggregator() {
+			super(AggregatorThreadGroup, "IngestAggregator#" + aggregatorSerial.incrementAndGet());
+			setDaemon(true);
+		}
+		
+		public void run() {
+			int idle = 0;
+			while(running) {
+				int applied = 0;
+				try {
+					final CountDownLatch latch = drainRequest.getAndSet(null);
+					if(latch!=null) {
+						applied += drainAll();
+						latch.countDown();
+					}
+					for(IngestRing ring: rings) {
+						applied += ring.drainTo(registry, DRAIN_BATCH);
+						if(ring.isRetired()) {
+							rings.remove(ring);
+						}
+					}
+				} catch (Throwable t) {
+					log("IngestAggregator [" + getName() + "] failed to apply records:" + t);
+					t.printStackTrace();
+				}
+				idle = applied==0 ? waitStrategy.idle(idle) : 0;
+			}
+			drainAll();
+			final CountDownLatch latch = drainRequest.getAndSet(null);
+			if(latch!=null) latch.countDown();
+		}
+		
+		/**
+		 * Applies every record published to this aggregator's rings as of the call
+		 * @return the number of records applied
+		 */
+		private int drainAll() {
+			int applied = 0;
+			for(IngestRing ring: rings) {
+				final long target = ring.tail;
+				long remaining;
+				while((remaining = target-ring.head)>0) {
+					try {
+						applied += ring.drainTo(registry, (int)Math.min(remaining, DRAIN_BATCH));
+					} catch (Throwable t) {
+						log("IngestAggregator [" + getName() + "] failed to apply records:" + t);
+					}
+				}
+			}
+			return applied;
+		}
+	}
+}
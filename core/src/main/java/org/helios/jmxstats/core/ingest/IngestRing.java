@@ -0,0 +1,145 @@
+/**
+ * Helios, OpenSource Monitoring
+ * Brought to you by the Helios Development Group
+ *
+ * Copyright 2007, Helios Development Group and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org. 
+ *
+ */
+package org.helios.jmxstats.core.ingest;
+
+import java.lang.ref.WeakReference;
+import java.util.concurrent.atomic.AtomicLongFieldUpdater;
+
+import org.helios.jmxstats.core.metric.MetricRegistry;
+
+/**
+ * <p>Title: IngestRing</p>
+ * <p>Description: A pre-allocated single producer, single consumer ring of <code>(metricHandle, value)</code> records.
+ * The owning producer thread publishes a record with two plain stores and an ordered (lazy) store of the tail sequence,
+ * and the shard aggregator consumes published records in place, handing contiguous ranges of the ring arrays to the
+ * {@link MetricRegistry} batch processor.</p> 
+ * <p>Company: Helios Development Group LLC</p>
+ * @author Whitehead (nwhitehead AT heliosdev DOT org)
+ * <p><code>org.helios.jmxstats.core.ingest.IngestRing</code></p>
+ */
+class IngestRing {
+	/** The tail sequence updater */
+	private static final AtomicLongFieldUpdater<IngestRing> TAIL = AtomicLongFieldUpdater.newUpdater(IngestRing.class, "tail");
+	/** The head sequence updater */
+	private static final AtomicLongFieldUpdater<IngestRing> HEAD = AtomicLongFieldUpdater.newUpdater(IngestRing.class, "head");
+	
+	/** The record metric handles */
+	final int[] handles;
+	/** The record values */
+	final long[] values;
+	/** The ring capacity */
+	final int capacity;
+	/** The ring index mask */
+	final int mask;
+	/** The producer thread that owns this ring */
+	final WeakReference<Thread> owner;
+	
+	/** Padding to keep the producer fields off the consumer's cache line */
+	protected long p1, p2, p3, p4, p5, p6, p7;
+	/** The next sequence to be published by the producer */
+	volatile long tail = 0;
+	/** The producer's last read of the consumer's head */
+	long cachedHead = 0;
+	/** Padding to keep the producer fields off the consumer's cache line */
+	protected long p11, p12, p13, p14, p15, p16, p17;
+	/** The next sequence to be consumed by the aggregator */
+	volatile long head = 0;
+	/** Padding to keep the consumer fields off the next object's cache line */
+	protected long p21, p22, p23, p24, p25, p26, p27;
+	
+	/**
+	 * Creates a new IngestRing
+	 * @param capacity The ring capacity, a power of 2
+	 * @param owner The producer thread that owns the ring
+	 */
+	IngestRing(int capacity, Thread owner) {
+		if(capacity<2 || Integer.bitCount(capacity)!=1) throw new IllegalArgumentException("The ring capacity [" + capacity + "] is not a power of 2", new Throwable());
+		this.capacity = capacity;
+		this.mask = capacity-1;
+		this.handles = new int[capacity];
+		this.values = new long[capacity];
+		this.owner = new WeakReference<Thread>(owner);
+	}
+	
+	/**
+	 * Publishes a record. Must only be called by the owning producer thread.
+	 * @param handle The metric handle
+	 * @param value The value
+	 * @return true if the record was published, false if the ring is full
+	 */
+	boolean offer(int handle, long value) {
+		final long t = tail;
+		if(t-cachedHead>=capacity) {
+			cachedHead = head;
+			if(t-cachedHead>=capacity) return false;
+		}
+		final int index = (int)t & mask;
+		handles[index] = handle;
+		values[index] = value;
+		TAIL.lazySet(this, t+1);
+		return true;
+	}
+	
+	/**
+	 * Applies up to <code>max</code> published records to the passed registry. Must only be called by the consuming aggregator thread.
+	 * @param registry The registry to apply the records to
+	 * @param max The maximum number of records to apply
+	 * @return the number of records applied
+	 */
+	int drainTo(MetricRegistry registry, int max) {
+		final long h = head;
+		final long available = tail-h;
+		if(available==0) return 0;
+		final int n = (int)Math.min(available, max);
+		final int start = (int)h & mask;
+		final int first = Math.min(n, capacity-start);
+		try {
+			registry.process(handles, values, start, first);
+			if(n>first) {
+				registry.process(handles, values, 0, n-first);
+			}
+		} finally {
+			HEAD.lazySet(this, h+n);
+		}
+		return n;
+	}
+	
+	/**
+	 * Returns the number of published records not yet consumed
+	 * @return the number of pending records
+	 */
+	int pending() {
+		return (int)(tail-head);
+	}
+	
+	/**
+	 * Indicates if the owning thread has terminated and all its records have been consumed
+	 * @return true if the ring can be discarded
+	 */
+	boolean isRetired() {
+		final Thread t = owner.get();
+		return (t==null || !t.isAlive()) && tail==head;
+	}
+}
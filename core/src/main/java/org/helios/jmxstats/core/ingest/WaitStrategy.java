@@ -0,0 +1,90 @@
+/**
+ * Helios, OpenSource Monitoring
+ * Brought to you by the Helios Development Group
+ *
+ * Copyright 2007, Helios Development Group and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org. 
+ *
+ */
+package org.helios.jmxstats.core.ingest;
+
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * <p>Title: WaitStrategy</p>
+ * <p>Description: Defines how ingest aggregator threads wait for new records and how producers wait on a full ring</p> 
+ * <p>Company: Helios Development Group LLC</p>
+ * @author Whitehead (nwhitehead AT heliosdev DOT org)
+ * <p><code>org.helios.jmxstats.core.ingest.WaitStrategy</code></p>
+ */
+public enum WaitStrategy {
+	/** Spins continuously. Lowest latency, burns a core per waiting thread so only use with more cores than producers and aggregators */
+	BUSY_SPIN {
+		@Override
+		public int idle(int counter) {
+			return counter + 1;
+		}
+	},
+	/** Spins briefly, then yields the processor on each idle pass */
+	YIELD {
+		@Override
+		public int idle(int counter) {
+			if(counter>SPIN_TRIES) {
+				Thread.yield();
+			}
+			return counter + 1;
+		}
+	},
+	/** Spins briefly, yields briefly, then parks for {@link #PARK_NANOS} on each idle pass */
+	PARK {
+		@Override
+		public int idle(int counter) {
+			if(counter>SPIN_TRIES+YIELD_TRIES) {
+				LockSupport.parkNanos(PARK_NANOS);
+			} else if(counter>SPIN_TRIES) {
+				Thread.yield();
+			}
+			return counter + 1;
+		}
+	};
+	
+	/** The number of idle passes spent spinning before backing off */
+	public static final int SPIN_TRIES = 100;
+	/** The number of idle passes spent yielding before parking */
+	public static final int YIELD_TRIES = 100;
+	/** The park time in ns. for the {@link #PARK} strategy */
+	public static final long PARK_NANOS = 50000L;
+	
+	/**
+	 * Executes one idle pass. Callers reset the counter to zero when work is found.
+	 * @param counter The number of consecutive idle passes so far
+	 * @return the updated counter
+	 */
+	public abstract int idle(int counter);
+	
+	/**
+	 * Returns the WaitStrategy that maps to the passed name, trimming and upercasing the passed name
+	 * @param name The wait strategy name to decode
+	 * @return the WaitStrategy
+	 */
+	public static WaitStrategy decode(CharSequence name) {
+		if(name==null) throw new IllegalArgumentException("The passed name was null", new Throwable());
+		return WaitStrategy.valueOf(name.toString().trim().toUpperCase());
+	}
+}
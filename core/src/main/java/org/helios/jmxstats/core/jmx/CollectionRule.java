@@ -0,0 +1,110 @@
+/**
+ * Helios, OpenSource Monitoring
+ * Brought to you by the Helios Development Group
+ *
+ * Copyright 2007, Helios Development Group and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org. 
+ *
+ */
+package org.helios.jmxstats.core.jmx;
+
+import java.util.Arrays;
+
+import javax.management.ObjectName;
+
+import org.helios.jmxstats.core.metric.MetricType;
+
+/**
+ * <p>Title: CollectionRule</p>
+ * <p>Description: Selects the MBean attributes an {@link MBeanCollector} collects: the MBeans matching an ObjectName pattern and either
+ * the named attributes or, if none are named, every readable numeric or <code>CompositeData</code> attribute. Numeric items of
+ * <code>CompositeData</code> values are collected as metrics named <code>&lt;attribute&gt;.&lt;item&gt;</code>.</p> 
+ * <p>Company: Helios Development Group LLC</p>
+ * @author Whitehead (nwhitehead AT heliosdev DOT org)
+ * <p><code>org.helios.jmxstats.core.jmx.CollectionRule</code></p>
+ */
+public class CollectionRule {
+	/** The ObjectName or ObjectName pattern of the MBeans to collect from */
+	private final ObjectName pattern;
+	/** The attribute names to collect, or null for all numeric and composite attributes */
+	private final String[] attributes;
+	/** The metric type of the collected metrics */
+	private final MetricType type;
+	
+	/**
+	 * Creates a new CollectionRule
+	 * @param pattern The ObjectName or ObjectName pattern of the MBeans to collect from
+	 * @param type The metric type of the collected metrics, e.g. {@link MetricType#DELTA} for cumulative counters
+	 * @param attributes The attribute names to collect. If none are passed, all readable numeric and composite attributes are collected
+	 */
+	public CollectionRule(ObjectName pattern, MetricType type, String...attributes) {
+		if(pattern==null) throw new IllegalArgumentException("The passed ObjectName pattern was null", new Throwable());
+		if(type==null) throw new IllegalArgumentException("The passed metric type was null", new Throwable());
+		if(attributes!=null) {
+			for(String attribute: attributes) {
+				if(attribute==null) throw new IllegalArgumentException("The passed attribute names contained a null", new Throwable());
+			}
+		}
+		this.pattern = pattern;
+		this.type = type;
+		this.attributes = attributes==null || attributes.length==0 ? null : attributes.clone();
+	}
+	
+	/**
+	 * Returns the ObjectName pattern of the MBeans to collect from
+	 * @return the ObjectName pattern
+	 */
+	public ObjectName getPattern() {
+		return pattern;
+	}
+	
+	/**
+	 * Returns the attribute names to collect
+	 * @return the attribute names, or null if all numeric and composite attributes are collected
+	 */
+	public String[] getAttributes() {
+		return attributes==null ? null : attributes.clone();
+	}
+	
+	/**
+	 * Returns the metric type of the collected metrics
+	 * @return the metric type
+	 */
+	public MetricType getType() {
+		return type;
+	}
+	
+	/**
+	 * Indicates if the passed ObjectName is selected by this rule
+	 * @param objectName The ObjectName to test
+	 * @return true if the ObjectName matches the rule's pattern
+	 */
+	public boolean matches(ObjectName objectName) {
+		return pattern.apply(objectName);
+	}
+
+	/**
+	 * {@inheritDoc}
+	 * @see java.lang.Object#toString()
+	 */
+	@Override
+	public String toString() {
+		return "CollectionRule [pattern=" + pattern + ", type=" + type + ", attributes=" + (attributes==null ? "*" : Arrays.toString(attributes)) + "]";
+	}
+}
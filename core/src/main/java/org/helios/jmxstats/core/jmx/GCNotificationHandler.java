@@ -0,0 +1,102 @@
+/**
+ * Helios, OpenSource Monitoring
+ * Brought to you by the Helios Development Group
+ *
+ * Copyright 2007, Helios Development Group and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org. 
+ *
+ */
+package org.helios.jmxstats.core.jmx;
+
+import javax.management.Notification;
+import javax.management.ObjectName;
+import javax.management.openmbean.CompositeData;
+import javax.management.openmbean.TabularData;
+
+import org.helios.jmxstats.core.Controller;
+import org.helios.jmxstats.core.metric.MetricRegistry;
+import org.helios.jmxstats.core.metric.MetricType;
+
+/**
+ * <p>Title: GCNotificationHandler</p>
+ * <p>Description: Records the pause time in ms. and the reclaimed heap bytes of every collection reported by a garbage collector MXBean's
+ * notifications. The notification's <code>CompositeData</code> is read by item name rather than through the HotSpot
+ * <code>GarbageCollectionNotificationInfo</code> class, so nothing is allocated apart from the memory usage table iterators.</p> 
+ * <p>Company: Helios Development Group LLC</p>
+ * @author Whitehead (nwhitehead AT heliosdev DOT org)
+ * <p><code>org.helios.jmxstats.core.jmx.GCNotificationHandler</code></p>
+ */
+public class GCNotificationHandler implements NotificationCollector.NotificationHandler {
+	/** The attribute name of the pause time metric */
+	public static final String PAUSE_TIME = "PauseTime";
+	/** The attribute name of the reclaimed bytes metric */
+	public static final String RECLAIMED = "Reclaimed";
+	
+	/** The controller values are submitted to */
+	private final Controller controller;
+	/** The pause time metric handle */
+	private final int pauseHandle;
+	/** The reclaimed bytes metric handle */
+	private final int reclaimedHandle;
+	
+	/**
+	 * Creates a new GCNotificationHandler
+	 * @param controller The controller values are submitted to
+	 * @param collector The ObjectName of the garbage collector MXBean, which keys the pause time and reclaimed bytes metrics
+	 */
+	public GCNotificationHandler(Controller controller, ObjectName collector) {
+		this.controller = controller;
+		pauseHandle = controller.getMetricHandle(collector, PAUSE_TIME, MetricType.AVG);
+		reclaimedHandle = controller.getMetricHandle(collector, RECLAIMED, MetricType.AVG);
+		// held for the life of the subscription, and garbage collectors can be idle for many intervals
+		final MetricRegistry registry = MetricRegistry.getInstance();
+		registry.pin(pauseHandle);
+		registry.pin(reclaimedHandle);
+	}
+	
+	/**
+	 * {@inheritDoc}
+	 * @see org.helios.jmxstats.core.jmx.NotificationCollector.NotificationHandler#handle(javax.management.Notification)
+	 */
+	@Override
+	public void handle(Notification notification) {
+		final Object userData = notification.getUserData();
+		if(!(userData instanceof CompositeData)) return;
+		final Object info = ((CompositeData)userData).get("gcInfo");
+		if(!(info instanceof CompositeData)) return;
+		final CompositeData gcInfo = (CompositeData)info;
+		controller.process(pauseHandle, ((Number)gcInfo.get("duration")).longValue());
+		controller.process(reclaimedHandle, used(gcInfo.get("memoryUsageBeforeGc")) - used(gcInfo.get("memoryUsageAfterGc")));
+	}
+	
+	/**
+	 * Sums the used bytes of a memory pool usage table
+	 * @param usage The table of memory pool name to <code>MemoryUsage</code> composite data
+	 * @return the total used bytes
+	 */
+	private static long used(Object usage) {
+		if(!(usage instanceof TabularData)) return 0;
+		long used = 0;
+		for(Object row: ((TabularData)usage).values()) {
+			final Object value = ((CompositeData)row).get("value");
+			if(value instanceof CompositeData) used += ((Number)((CompositeData)value).get("used")).longValue();
+		}
+		return used;
+	}
+}
@@ -0,0 +1,430 @@
+/**
+ * Helios, OpenSource Monitoring
+ * Brought to you by the Helios Development Group
+ *
+ * Copyright 2007, Helios Development Group and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org. 
+ *
+ */
+package org.helios.jmxstats.core.jmx;
+
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.management.InstanceNotFoundException;
+import javax.management.JMException;
+import javax.management.MBeanAttributeInfo;
+import javax.management.MBeanServerConnection;
+import javax.management.MBeanServerDelegate;
+import javax.management.MBeanServerNotification;
+import javax.management.Notification;
+import javax.management.NotificationListener;
+import javax.management.ObjectName;
+
+import org.helios.jmxstats.core.Controller;
+import org.helios.jmxstats.core.Controller.CurrentInterval;
+import org.helios.jmxstats.core.IntervalListener;
+
+/**
+ * <p>Title: MBeanCollector</p>
+ * <p>Description: Collects MBean attributes into metrics at every interval switch. The ObjectName patterns of the configured 
+ * {@link CollectionRule}s are resolved once into per MBean {@link MBeanPlan}s which cache the attribute names and metric handles,
+ * so each poll is one <code>getAttributes</code> call per MBean. Plans are re-resolved when MBeans matching a rule are registered
+ * or unregistered, or when a planned MBean disappears. MBeans are collected in parallel by the worker pool. A collection that is
+ * still running when the next interval starts causes that interval's collection to be skipped rather than queued.</p> 
+ * <p>Floating point values are truncated to longs, like all metric values.</p>
+ * <p>Company: Helios Development Group LLC</p>
+ * @author Whitehead (nwhitehead AT heliosdev DOT org)
+ * <p><code>org.helios.jmxstats.core.jmx.MBeanCollector</code></p>
+ */
+public class MBeanCollector implements IntervalListener {
+	/** The system property that defines the number of collector worker threads */
+	public static final String THREADS_PROP = "org.helios.jmx.collector.threads";
+	/** The default number of collector worker threads */
+	public static final int DEFAULT_THREADS = Runtime.getRuntime().availableProcessors();
+	/** The number of collection tasks per worker thread, so that slow MBeans do not leave workers idle */
+	public static final int TASKS_PER_THREAD = 4;
+	/** The MBean attribute types collected when a rule names no attributes */
+	public static final Set<String> COLLECTED_TYPES = Collections.unmodifiableSet(new HashSet<String>(Arrays.asList(
+		"int", "long", "short", "byte", "double", "float",
+		Integer.class.getName(), Long.class.getName(), Short.class.getName(), Byte.class.getName(), Double.class.getName(), Float.class.getName(),
+		java.math.BigInteger.class.getName(), java.math.BigDecimal.class.getName(), Number.class.getName(),
+		javax.management.openmbean.CompositeData.class.getName()
+	)));
+	
+	/** The MBeanServer collected from */
+	private final MBeanServerConnection server;
+	/** The controller values are submitted to */
+	private final Controller controller;
+	/** The worker pool MBeans are collected by, or null to collect in the calling thread */
+	private final ExecutorService workers;
+	/** The number of worker threads */
+	private final int threads;
+	/** The collection rules */
+	private final List<CollectionRule> rules = new CopyOnWriteArrayList<CollectionRule>();
+	/** The resolved MBean plans */
+	private volatile MBeanPlan[] plans = new MBeanPlan[0];
+	/** Indicates that the plans need to be resolved */
+	private final AtomicBoolean dirty = new AtomicBoolean(true);
+	/** Indicates that a collection is running */
+	private final AtomicBoolean collecting = new AtomicBoolean(false);
+	/** The thread that runs interval switch driven collections */
+	private volatile ExecutorService driver = null;
+	/** The time taken by the last collection in ns. */
+	private volatile long lastCollectNanos = -1L;
+	/** The number of values submitted by the last collection */
+	private volatile int lastCollected = 0;
+	/** The number of collections skipped because the prior collection was still running */
+	private final AtomicLong skipped = new AtomicLong(0);
+	/** The number of failed MBean polls */
+	private final AtomicLong failures = new AtomicLong(0);
+	
+	/** Marks the plans dirty when an MBean matching a rule is registered or unregistered */
+	private final NotificationListener registrationListener = new NotificationListener() {
+		public void handleNotification(Notification notification, Object handback) {
+			if(notification instanceof MBeanServerNotification) {
+				final ObjectName name = ((MBeanServerNotification)notification).getMBeanName();
+				for(CollectionRule rule: rules) {
+					if(rule.matches(name)) {
+						dirty.set(true);
+						return;
+					}
+				}
+			}
+		}
+	};
+	
+	/**
+	 * Creates a new MBeanCollector for the platform MBeanServer with {@link #DEFAULT_THREADS} worker threads, 
+	 * overridable with the {@link #THREADS_PROP} system property
+	 */
+	public MBeanCollector() {
+		this(ManagementFactory.getPlatformMBeanServer(), newWorkerPool(Integer.getInteger(THREADS_PROP, DEFAULT_THREADS)), Integer.getInteger(THREADS_PROP, DEFAULT_THREADS));
+	}
+	
+	/**
+	 * Creates a new MBeanCollector
+	 * @param server The MBeanServer to collect from
+	 * @param workers The worker pool to collect MBeans in parallel with, or null to collect in the calling thread
+	 * @param threads The number of threads in the worker pool
+	 */
+	public MBeanCollector(MBeanServerConnection server, ExecutorService workers, int threads) {
+		if(server==null) throw new IllegalArgumentException("The passed MBeanServer was null", new Throwable());
+		if(workers!=null && threads<1) throw new IllegalArgumentException("Invalid worker thread count [" + threads + "]", new Throwable());
+		this.server = server;
+		this.workers = workers;
+		this.threads = workers==null ? 1 : threads;
+		controller = Controller.getInstance();
+	}
+	
+	/**
+	 * Creates a daemon thread pool for collecting MBeans
+	 * @param threads The number of threads
+	 * @return the thread pool
+	 */
+	public static ExecutorService newWorkerPool(int threads) {
+		return Executors.newFixedThreadPool(threads, new ThreadFactory() {
+			private final AtomicInteger serial = new AtomicInteger(0);
+			public Thread newThread(Runnable r) {
+				Thread t = new Thread(r, "MBeanCollectorWorker#" + serial.incrementAndGet());
+				t.setDaemon(true);
+				return t;
+			}
+		});
+	}
+	
+	/**
+	 * Adds a collection rule. The rule's MBeans are resolved before the next collection.
+	 * @param rule The rule to add
+	 */
+	public void addRule(CollectionRule rule) {
+		if(rule==null) throw new IllegalArgumentException("The passed rule was null", new Throwable());
+		rules.add(rule);
+		dirty.set(true);
+	}
+	
+	/**
+	 * Marks the plans for resolution before the next collection, e.g. to pick up MBeans registered on a remote MBeanServer
+	 * whose registrations are not being listened to
+	 */
+	public void refresh() {
+		dirty.set(true);
+	}
+	
+	/**
+	 * Starts collecting at every interval switch and listening for MBean registrations
+	 * @throws IOException thrown if the registration listener cannot be added on a remote MBeanServer
+	 */
+	public synchronized void start() throws IOException {
+		if(driver!=null) return;
+		try {
+			server.addNotificationListener(MBeanServerDelegate.DELEGATE_NAME, registrationListener, null, null);
+		} catch (InstanceNotFoundException e) {
+			throw new RuntimeException("MBeanServer has no delegate", e);
+		}
+		driver = Executors.newSingleThreadExecutor(new ThreadFactory() {
+			public Thread newThread(Runnable r) {
+				Thread t = new Thread(r, "MBeanCollector");
+				t.setDaemon(true);
+				return t;
+			}
+		});
+		controller.addIntervalListener(this);
+	}
+	
+	/**
+	 * Stops collecting at interval switches. Worker pools passed in by the caller are not shut down.
+	 */
+	public synchronized void stop() {
+		if(driver==null) return;
+		controller.removeIntervalListener(this);
+		driver.shutdown();
+		driver = null;
+		try {
+			server.removeNotificationListener(MBeanServerDelegate.DELEGATE_NAME, registrationListener);
+		} catch (Exception e) {
+			/* No Op */
+		}
+	}
+	
+	/**
+	 * {@inheritDoc}
+	 * <p>Hands the collection to the collector thread so listener notification is not held up.
+	 * @see org.helios.jmxstats.core.IntervalListener#onIntervalSwitch(org.helios.jmxstats.core.Controller.CurrentInterval)
+	 */
+	@Override
+	public void onIntervalSwitch(CurrentInterval ci) {
+		final ExecutorService d = driver;
+		if(d==null) return;
+		if(!collecting.compareAndSet(false, true)) {
+			skipped.incrementAndGet();
+			return;
+		}
+		d.execute(new Runnable() {
+			public void run() {
+				try {
+					collect();
+				} catch (Exception e) {
+					log("WARNING: MBean collection failed:" + e);
+				} finally {
+					collecting.set(false);
+				}
+			}
+		});
+	}
+	
+	/**
+	 * Resolves the plans if needed and collects every planned MBean
+	 * @return the number of values submitted
+	 * @throws IOException thrown on a remote connection failure
+	 */
+	public int collect() throws IOException {
+		final long start = System.nanoTime();
+		if(dirty.getAndSet(false)) resolve();
+		final MBeanPlan[] ps = plans;
+		int collected = 0;
+		if(workers==null || ps.length<2) {
+			collected = collect(ps, 0, ps.length);
+		} else {
+			final int tasks = Math.min(ps.length, threads * TASKS_PER_THREAD);
+			final int chunk = (ps.length + tasks - 1) / tasks;
+			final List<Callable<Integer>> collectors = new ArrayList<Callable<Integer>>(tasks);
+			for(int lo = 0; lo < ps.length; lo += chunk) {
+				final int from = lo, to = Math.min(ps.length, lo + chunk);
+				collectors.add(new Callable<Integer>() {
+					public Integer call() throws IOException {
+						return collect(ps, from, to);
+					}
+				});
+			}
+			try {
+				for(Future<Integer> f: workers.invokeAll(collectors)) {
+					collected += f.get();
+				}
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			} catch (ExecutionException e) {
+				if(e.getCause() instanceof IOException) throw (IOException)e.getCause();
+				throw new RuntimeException("MBean collection failed", e.getCause());
+			}
+		}
+		lastCollected = collected;
+		lastCollectNanos = System.nanoTime() - start;
+		return collected;
+	}
+	
+	/**
+	 * Collects a range of plans
+	 * @param ps The plans
+	 * @param from The index of the first plan to collect
+	 * @param to One past the index of the last plan to collect
+	 * @return the number of values submitted
+	 * @throws IOException thrown on a remote connection failure
+	 */
+	private int collect(MBeanPlan[] ps, int from, int to) throws IOException {
+		int collected = 0;
+		for(int i = from; i < to; i++) {
+			try {
+				collected += ps[i].collect(server, controller);
+			} catch (JMException e) {
+				failures.incrementAndGet();
+				if(e instanceof InstanceNotFoundException) dirty.set(true);
+			} catch (RuntimeException e) {
+				// e.g. a RuntimeMBeanException thrown by the MBean: skip it and collect the remaining plans
+				failures.incrementAndGet();
+			}
+		}
+		return collected;
+	}
+	
+	/**
+	 * Resolves the ObjectName patterns of the rules into MBean plans. Plans of MBeans that are still registered are kept
+	 * so their attribute classifications and metric handles are not resolved again.
+	 * @throws IOException thrown on a remote connection failure
+	 */
+	public synchronized void resolve() throws IOException {
+		final Map<String, MBeanPlan> existing = new HashMap<String, MBeanPlan>();
+		for(MBeanPlan plan: plans) {
+			existing.put(plan.objectName.getCanonicalName() + "|" + plan.type, plan);
+		}
+		final List<MBeanPlan> resolved = new ArrayList<MBeanPlan>();
+		final Set<String> planned = new HashSet<String>();
+		for(CollectionRule rule: rules) {
+			for(ObjectName on: server.queryNames(rule.getPattern(), null)) {
+				final String key = on.getCanonicalName() + "|" + rule.getType();
+				if(!planned.add(key)) continue;
+				MBeanPlan plan = existing.get(key);
+				if(plan==null) {
+					final String[] attributes = rule.getAttributes()!=null ? rule.getAttributes() : collectableAttributes(on);
+					if(attributes==null || attributes.length==0) continue;
+					plan = new MBeanPlan(on, metricName(on), rule.getType(), attributes);
+				}
+				resolved.add(plan);
+			}
+		}
+		plans = resolved.toArray(new MBeanPlan[resolved.size()]);
+	}
+	
+	/**
+	 * Returns the ObjectName the metrics collected from the passed MBean are keyed by. 
+	 * Collectors for remote MBeanServers override this to qualify the name with the target. 
+	 * @param objectName The ObjectName of the MBean
+	 * @return the ObjectName of the metrics
+	 */
+	protected ObjectName metricName(ObjectName objectName) {
+		return objectName;
+	}
+	
+	/**
+	 * Returns the names of the readable numeric and composite attributes of the passed MBean
+	 * @param objectName The ObjectName of the MBean
+	 * @return the attribute names or null if the MBean cannot be introspected
+	 * @throws IOException thrown on a remote connection failure
+	 */
+	private String[] collectableAttributes(ObjectName objectName) throws IOException {
+		try {
+			final List<String> names = new ArrayList<String>();
+			for(MBeanAttributeInfo info: server.getMBeanInfo(objectName).getAttributes()) {
+				if(info.isReadable() && COLLECTED_TYPES.contains(info.getType())) names.add(info.getName());
+			}
+			return names.toArray(new String[names.size()]);
+		} catch (JMException e) {
+			failures.incrementAndGet();
+			return null;
+		}
+	}
+	
+	/**
+	 * Returns the number of planned MBeans
+	 * @return the number of planned MBeans
+	 */
+	public int getPlannedMBeanCount() {
+		return plans.length;
+	}
+	
+	/**
+	 * Returns the number of planned attributes
+	 * @return the number of planned attributes
+	 */
+	public int getPlannedAttributeCount() {
+		int count = 0;
+		for(MBeanPlan plan: plans) {
+			count += plan.attributes.length;
+		}
+		return count;
+	}
+	
+	/**
+	 * Returns the time taken by the last collection
+	 * @return the time in ns. or -1 if no collection has run
+	 */
+	public long getLastCollectNanos() {
+		return lastCollectNanos;
+	}
+	
+	/**
+	 * Returns the number of values submitted by the last collection
+	 * @return the number of values
+	 */
+	public int getLastCollected() {
+		return lastCollected;
+	}
+	
+	/**
+	 * Returns the number of interval collections skipped because the prior collection was still running
+	 * @return the number of skipped collections
+	 */
+	public long getSkippedCollections() {
+		return skipped.get();
+	}
+	
+	/**
+	 * Returns the number of failed MBean polls
+	 * @return the number of failed polls
+	 */
+	public long getFailures() {
+		return failures.get();
+	}
+	
+	/**
+	 * Console logger
+	 * @param msg The message to log
+	 */
+	public static void log(Object msg) {
+		System.out.println(msg);
+	}
+}
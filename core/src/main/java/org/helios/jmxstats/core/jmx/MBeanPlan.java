@@ -0,0 +1,230 @@
+/**
+ * Helios, OpenSource Monitoring
+ * Brought to you by the Helios Development Group
+ *
+ * Copyright 2007, Helios Development Group and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org. 
+ *
+ */
+package org.helios.jmxstats.core.jmx;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import javax.management.Attribute;
+import javax.management.AttributeList;
+import javax.management.JMException;
+import javax.management.MBeanServerConnection;
+import javax.management.ObjectName;
+import javax.management.openmbean.CompositeData;
+import javax.management.openmbean.CompositeType;
+import javax.management.openmbean.OpenType;
+import javax.management.openmbean.SimpleType;
+
+import org.helios.jmxstats.core.Controller;
+import org.helios.jmxstats.core.metric.MetricRegistry;
+import org.helios.jmxstats.core.metric.MetricType;
+
+/**
+ * <p>Title: MBeanPlan</p>
+ * <p>Description: The cached collection plan of one MBean for one {@link CollectionRule}: the attribute names requested in a single
+ * <code>getAttributes</code> call and, per attribute, how its value is unwrapped and the handles of the metrics it feeds.
+ * Each attribute is classified from its first non null value as a number, a <code>CompositeData</code> with numeric items, or ignored, 
+ * so later polls only cast and read. An attribute whose later values no longer fit its classification, e.g. a number attribute
+ * returning a string or a composite whose items change type, is reclassified as ignored without affecting the other attributes.
+ * Cached handles are not pinned: an attribute that returns null or is not requested for long enough to have its metric evicted
+ * is re-resolved, and so re-registered, by its next value. A plan is only collected by one thread at a time.</p> 
+ * <p>Company: Helios Development Group LLC</p>
+ * @author Whitehead (nwhitehead AT heliosdev DOT org)
+ * <p><code>org.helios.jmxstats.core.jmx.MBeanPlan</code></p>
+ */
+class MBeanPlan {
+	/** The attribute has not been classified yet */
+	static final byte UNRESOLVED = 0;
+	/** The attribute value is a {@link Number} */
+	static final byte NUMBER = 1;
+	/** The attribute value is a {@link CompositeData} with numeric items */
+	static final byte COMPOSITE = 2;
+	/** The attribute value cannot be collected */
+	static final byte IGNORED = 3;
+	
+	/** The ObjectName of the MBean polled */
+	final ObjectName objectName;
+	/** The ObjectName the collected metrics are keyed by */
+	final ObjectName metricName;
+	/** The metric type of the collected metrics */
+	final MetricType type;
+	/** The attribute names requested */
+	final String[] attributes;
+	/** The classification of each attribute */
+	private final byte[] kinds;
+	/** The metric handle of each numeric attribute */
+	private final int[] handles;
+	/** The numeric item keys of each composite attribute */
+	private final String[][] itemKeys;
+	/** The metric handles of the numeric items of each composite attribute */
+	private final int[][] itemHandles;
+	/** The registry the cached handles are checked against */
+	private final MetricRegistry registry = MetricRegistry.getInstance();
+	
+	/**
+	 * Creates a new MBeanPlan
+	 * @param objectName The ObjectName of the MBean polled
+	 * @param metricName The ObjectName the collected metrics are keyed by
+	 * @param type The metric type of the collected metrics
+	 * @param attributes The attribute names requested
+	 */
+	MBeanPlan(ObjectName objectName, ObjectName metricName, MetricType type, String[] attributes) {
+		this.objectName = objectName;
+		this.metricName = metricName;
+		this.type = type;
+		this.attributes = attributes;
+		kinds = new byte[attributes.length];
+		handles = new int[attributes.length];
+		itemKeys = new String[attributes.length][];
+		itemHandles = new int[attributes.length][];
+	}
+	
+	/**
+	 * Fetches all planned attributes in one call and submits their values
+	 * @param server The MBeanServer connection
+	 * @param controller The controller to submit values to
+	 * @return the number of values submitted
+	 * @throws JMException thrown if the MBean cannot be read, e.g. because it was unregistered
+	 * @throws IOException thrown on a remote connection failure
+	 */
+	int collect(MBeanServerConnection server, Controller controller) throws JMException, IOException {
+		final AttributeList list = server.getAttributes(objectName, attributes);
+		final int size = list.size();
+		int collected = 0;
+		for(int i = 0; i < size; i++) {
+			final Attribute attribute = (Attribute)list.get(i);
+			final int slot = slot(attribute.getName(), i);
+			if(slot<0) continue;
+			try {
+				collected += record(slot, attribute.getValue(), controller);
+			} catch (IllegalStateException ise) {
+				// the metric was evicted and cannot be registered again while the cardinality budget is exhausted
+				MBeanCollector.log("WARNING: Not collecting [" + objectName + "/" + attributes[slot] + "] this interval: " + ise.getMessage());
+			} catch (RuntimeException e) {
+				kinds[slot] = IGNORED;
+				MBeanCollector.log("WARNING: Not collecting [" + objectName + "/" + attributes[slot] + "], its value no longer matches its classification: " + e);
+			}
+		}
+		return collected;
+	}
+	
+	/**
+	 * Returns the index of the named attribute, checking the index it was requested at first since
+	 * the returned list is normally in request order
+	 * @param name The attribute name
+	 * @param hint The expected index
+	 * @return the attribute index or -1 if it was not requested
+	 */
+	private int slot(String name, int hint) {
+		if(hint<attributes.length && attributes[hint].equals(name)) return hint;
+		for(int i = 0; i < attributes.length; i++) {
+			if(attributes[i].equals(name)) return i;
+		}
+		return -1;
+	}
+	
+	/**
+	 * Submits the value of an attribute, classifying the attribute first if needed
+	 * @param slot The attribute index
+	 * @param value The attribute value
+	 * @param controller The controller to submit values to
+	 * @return the number of values submitted
+	 */
+	private int record(int slot, Object value, Controller controller) {
+		if(value==null) return 0;
+		switch(kinds[slot]) {
+			case NUMBER:
+				int h = handles[slot];
+				if(!registry.isCurrent(h)) h = handles[slot] = controller.getMetricHandle(metricName, attributes[slot], type);
+				controller.process(h, ((Number)value).longValue());
+				return 1;
+			case COMPOSITE:
+				final int[] hs = itemHandles[slot];
+				final Object[] items = ((CompositeData)value).getAll(itemKeys[slot]);
+				int collected = 0;
+				for(int i = 0; i < items.length; i++) {
+					if(items[i]!=null) {
+						if(!registry.isCurrent(hs[i])) hs[i] = controller.getMetricHandle(metricName, attributes[slot] + "." + itemKeys[slot][i], type);
+						controller.process(hs[i], ((Number)items[i]).longValue());
+						collected++;
+					}
+				}
+				return collected;
+			case UNRESOLVED:
+				classify(slot, value, controller);
+				return kinds[slot]==UNRESOLVED || kinds[slot]==IGNORED ? 0 : record(slot, value, controller);
+			default:
+				return 0;
+		}
+	}
+	
+	/**
+	 * Classifies an attribute from its value and resolves the handles of the metrics it feeds
+	 * @param slot The attribute index
+	 * @param value The attribute value
+	 * @param controller The controller to register metrics with
+	 */
+	private void classify(int slot, Object value, Controller controller) {
+		try {
+			if(value instanceof Number) {
+				handles[slot] = controller.getMetricHandle(metricName, attributes[slot], type);
+				kinds[slot] = NUMBER;
+			} else if(value instanceof CompositeData) {
+				final CompositeType ct = ((CompositeData)value).getCompositeType();
+				final List<String> keys = new ArrayList<String>();
+				for(String key: ct.keySet()) {
+					if(isNumeric(ct.getType(key))) keys.add(key);
+				}
+				if(keys.isEmpty()) {
+					kinds[slot] = IGNORED;
+					return;
+				}
+				final int[] hs = new int[keys.size()];
+				for(int i = 0; i < hs.length; i++) {
+					hs[i] = controller.getMetricHandle(metricName, attributes[slot] + "." + keys.get(i), type);
+				}
+				itemKeys[slot] = keys.toArray(new String[keys.size()]);
+				itemHandles[slot] = hs;
+				kinds[slot] = COMPOSITE;
+			} else {
+				kinds[slot] = IGNORED;
+			}
+		} catch (IllegalStateException ise) {
+			kinds[slot] = IGNORED;
+			MBeanCollector.log("WARNING: Not collecting [" + objectName + "/" + attributes[slot] + "]: " + ise.getMessage());
+		}
+	}
+	
+	/**
+	 * Indicates if the passed open type is numeric
+	 * @param type The open type
+	 * @return true if values of the type are {@link Number}s
+	 */
+	static boolean isNumeric(OpenType<?> type) {
+		return SimpleType.INTEGER.equals(type) || SimpleType.LONG.equals(type) || SimpleType.DOUBLE.equals(type) || SimpleType.FLOAT.equals(type)
+			|| SimpleType.SHORT.equals(type) || SimpleType.BYTE.equals(type) || SimpleType.BIGINTEGER.equals(type) || SimpleType.BIGDECIMAL.equals(type);
+	}
+}
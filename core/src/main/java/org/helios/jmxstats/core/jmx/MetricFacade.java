@@ -0,0 +1,491 @@
+/**
+ * Helios, OpenSource Monitoring
+ * Brought to you by the Helios Development Group
+ *
+ * Copyright 2007, Helios Development Group and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org. 
+ *
+ */
+package org.helios.jmxstats.core.jmx;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Hashtable;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+
+import javax.management.Attribute;
+import javax.management.AttributeList;
+import javax.management.AttributeNotFoundException;
+import javax.management.DynamicMBean;
+import javax.management.InstanceAlreadyExistsException;
+import javax.management.JMException;
+import javax.management.MBeanAttributeInfo;
+import javax.management.MBeanConstructorInfo;
+import javax.management.MBeanInfo;
+import javax.management.MBeanNotificationInfo;
+import javax.management.MBeanOperationInfo;
+import javax.management.MBeanRegistration;
+import javax.management.MBeanServer;
+import javax.management.MalformedObjectNameException;
+import javax.management.ObjectName;
+import javax.management.ReflectionException;
+import javax.management.openmbean.CompositeData;
+import javax.management.openmbean.CompositeDataSupport;
+import javax.management.openmbean.CompositeType;
+import javax.management.openmbean.OpenDataException;
+import javax.management.openmbean.OpenMBeanAttributeInfoSupport;
+import javax.management.openmbean.OpenType;
+import javax.management.openmbean.SimpleType;
+
+import org.helios.jmxstats.core.metric.IMetric;
+import org.helios.jmxstats.core.metric.IntervalSnapshot;
+import org.helios.jmxstats.core.metric.MetricRegistry;
+import org.helios.jmxstats.core.metric.PrefixMembership;
+
+/**
+ * <p>Title: MetricFacade</p>
+ * <p>Description: A read only {@link DynamicMBean} exposing every live metric whose name starts with a prefix as one
+ * <code>CompositeData</code> attribute, so a handful of MBeans cover the whole registry instead of one MBean per metric.
+ * Attribute values are computed on request from the live metrics or from the last closed interval. The registry tracks the facade's
+ * prefix membership as metrics are registered and evicted, so the <code>MBeanInfo</code> and the attribute to handle map are built
+ * on first use and only rebuilt, from the prefix's members alone, when a metric with the prefix comes or goes. A facade exposes at most
+ * {@link #MAX_ATTRIBUTES_PROP} metrics, the first in name order; {@link #registerPrefixes(MBeanServer, Source)} splits prefixes by
+ * segment so the facades it registers stay within the bound.</p> 
+ * <p>Company: Helios Development Group LLC</p>
+ * @author Whitehead (nwhitehead AT heliosdev DOT org)
+ * <p><code>org.helios.jmxstats.core.jmx.MetricFacade</code></p>
+ */
+public class MetricFacade implements DynamicMBean, MBeanRegistration {
+	/** The JMX domain of metric facades */
+	public static final String DOMAIN = "org.helios.jmxstats";
+	/** The ObjectName key property holding a facade's prefix */
+	public static final String PREFIX_KEY = "prefix";
+	/** The characters that end a segment of a metric name */
+	public static final String SEGMENT_DELIMITERS = ".:/";
+	/** The system property that defines the maximum number of metrics exposed by one facade */
+	public static final String MAX_ATTRIBUTES_PROP = "org.helios.jmx.facade.attributes";
+	/** The default maximum number of metrics exposed by one facade */
+	public static final int DEFAULT_MAX_ATTRIBUTES = 1000;
+	/** The maximum number of metrics exposed by one facade */
+	public static final int MAX_ATTRIBUTES = Math.max(1, Integer.getInteger(MAX_ATTRIBUTES_PROP, DEFAULT_MAX_ATTRIBUTES));
+	/** The names of the items of a metric value */
+	public static final String[] ITEM_NAMES = {"type", "startTime", "endTime", "count", "average", "minimum", "maximum"};
+	/** The composite type of a metric value */
+	public static final CompositeType METRIC_TYPE;
+	/** The ObjectName pattern matching every metric facade */
+	public static final ObjectName FACADE_PATTERN;
+	
+	static {
+		try {
+			METRIC_TYPE = new CompositeType("MetricValue", "The values of a metric for an interval", ITEM_NAMES,
+				new String[]{"The metric type", "The interval start time", "The interval end time", "The number of values", "The average value", "The minimum value", "The maximum value"},
+				new OpenType<?>[]{SimpleType.STRING, SimpleType.LONG, SimpleType.LONG, SimpleType.LONG, SimpleType.LONG, SimpleType.LONG, SimpleType.LONG});
+			FACADE_PATTERN = new ObjectName(DOMAIN + ":type=Metrics,*");
+		} catch (JMException e) {
+			throw new RuntimeException(e);
+		}
+	}
+	
+	/**
+	 * <p>Title: Source</p>
+	 * <p>Description: Enumerates where metric facade attribute values are read from</p> 
+	 */
+	public static enum Source {
+		/** The live metrics of the current interval */
+		CURRENT,
+		/** The snapshot of the last closed interval */
+		CLOSED;
+	}
+	
+	/**
+	 * <p>Title: View</p>
+	 * <p>Description: The facade's metric set as of a membership version</p> 
+	 */
+	private static class View {
+		/** The membership version the view was built at */
+		final int version;
+		/** The MBeanInfo */
+		final MBeanInfo info;
+		/** The metric handles keyed by name */
+		final Map<String, Integer> handles;
+		
+		View(int version, MBeanInfo info, Map<String, Integer> handles) {
+			this.version = version;
+			this.info = info;
+			this.handles = handles;
+		}
+	}
+	
+	/** The metric name prefix */
+	private final String prefix;
+	/** The value source */
+	private final Source source;
+	/** The metric registry */
+	private final MetricRegistry registry;
+	/** The live metrics with the prefix */
+	private final PrefixMembership members;
+	/** The current view */
+	private volatile View view = null;
+	
+	/**
+	 * Creates a new MetricFacade
+	 * @param prefix The name prefix of the exposed metrics
+	 * @param source The value source
+	 */
+	public MetricFacade(String prefix, Source source) {
+		if(prefix==null) throw new IllegalArgumentException("The passed prefix was null", new Throwable());
+		if(source==null) throw new IllegalArgumentException("The passed source was null", new Throwable());
+		this.prefix = prefix;
+		this.source = source;
+		registry = MetricRegistry.getInstance();
+		members = registry.trackPrefix(prefix);
+	}
+	
+	/**
+	 * Returns the ObjectName of the facade for the passed prefix
+	 * @param prefix The metric name prefix
+	 * @return the ObjectName
+	 */
+	public static ObjectName objectName(String prefix) {
+		final Hashtable<String, String> props = new Hashtable<String, String>();
+		props.put("type", "Metrics");
+		props.put(PREFIX_KEY, prefix.length()>0 && prefix.matches("[^,=:*?\"\\n]*") ? prefix : ObjectName.quote(prefix));
+		try {
+			return new ObjectName(DOMAIN, props);
+		} catch (MalformedObjectNameException e) {
+			throw new RuntimeException("Invalid metric prefix [" + prefix + "]", e);
+		}
+	}
+	
+	/**
+	 * Registers a facade for the passed prefix unless one is already registered
+	 * @param server The MBeanServer to register with
+	 * @param prefix The metric name prefix
+	 * @param source The value source
+	 * @return the ObjectName of the facade
+	 */
+	public static ObjectName register(MBeanServer server, String prefix, Source source) {
+		final ObjectName on = objectName(prefix);
+		if(!server.isRegistered(on)) {
+			try {
+				server.registerMBean(new MetricFacade(prefix, source), on);
+			} catch (InstanceAlreadyExistsException e) {
+				/* Registered concurrently */
+			} catch (JMException e) {
+				throw new RuntimeException("Failed to register metric facade [" + on + "]", e);
+			}
+		}
+		return on;
+	}
+	
+	/**
+	 * Registers a facade for every prefix needed to cover the live metrics that does not have one yet. Metrics are grouped by their
+	 * first name segment, and a group of more than {@link #MAX_ATTRIBUTES} metrics is split by its next segment, repeatedly, unless the
+	 * split would itself yield more than {@link #MAX_ATTRIBUTES} groups. A registered facade whose prefix is split is unregistered.
+	 * Call again, e.g. at an interval switch, to cover new prefixes.
+	 * @param server The MBeanServer to register with
+	 * @param source The value source
+	 * @return the number of facades registered
+	 */
+	public static int registerPrefixes(MBeanServer server, Source source) {
+		final MetricRegistry registry = MetricRegistry.getInstance();
+		final List<String> names = new ArrayList<String>();
+		final int size = registry.size();
+		for(int h = 0; h < size; h++) {
+			final IMetric metric = registry.getMetricAt(h);
+			if(metric!=null) names.add(metric.getName());
+		}
+		Collections.sort(names);
+		final TreeSet<String> prefixes = new TreeSet<String>();
+		partition(names, 0, names.size(), "", true, prefixes);
+		for(ObjectName on: server.queryNames(FACADE_PATTERN, null)) {
+			final String key = on.getKeyProperty(PREFIX_KEY);
+			if(key==null) continue;
+			final String registered = key.startsWith("\"") ? ObjectName.unquote(key) : key;
+			if(prefixes.contains(registered)) continue;
+			final String higher = prefixes.higher(registered);
+			if(higher!=null && higher.startsWith(registered)) {
+				try {
+					server.unregisterMBean(on);
+				} catch (JMException e) {
+					/* Unregistered concurrently */
+				}
+			}
+		}
+		int count = 0;
+		for(String prefix: prefixes) {
+			if(!server.isRegistered(objectName(prefix))) {
+				register(server, prefix, source);
+				count++;
+			}
+		}
+		return count;
+	}
+	
+	/**
+	 * Partitions a sorted run of names sharing a prefix into the prefixes of the next segment, splitting groups larger than
+	 * {@link #MAX_ATTRIBUTES} further
+	 * @param names The sorted names
+	 * @param from The first name of the run, inclusive
+	 * @param to The last name of the run, exclusive
+	 * @param prefix The prefix shared by the run
+	 * @param force true to split regardless of the number of groups, for the root of the partition
+	 * @param prefixes The set the facade prefixes are added to
+	 */
+	static void partition(List<String> names, int from, int to, String prefix, boolean force, Set<String> prefixes) {
+		final List<String> children = new ArrayList<String>();
+		final List<Integer> ends = new ArrayList<Integer>();
+		for(int i = from; i < to; ) {
+			final String child = segment(names.get(i), prefix.length());
+			int j = i + 1;
+			if(child.length()<names.get(i).length()) {
+				// names sharing a prefix are contiguous in sorted order
+				while(j<to && names.get(j).startsWith(child)) j++;
+			}
+			children.add(child);
+			ends.add(j);
+			i = j;
+		}
+		if(!force && children.size()>MAX_ATTRIBUTES) {
+			prefixes.add(prefix);
+			return;
+		}
+		int start = from;
+		for(int c = 0; c < children.size(); c++) {
+			final String child = children.get(c);
+			final int end = ends.get(c);
+			if(end - start > MAX_ATTRIBUTES && child.length()<names.get(start).length()) partition(names, start, end, child, false, prefixes);
+			else prefixes.add(child);
+			start = end;
+		}
+	}
+	
+	/**
+	 * Returns the prefix of a metric name up to and including the first delimiter at or after the passed offset
+	 * @param name The metric name
+	 * @param from The offset to search for a delimiter from
+	 * @return the prefix, or the whole name if there is no further delimiter
+	 */
+	static String segment(String name, int from) {
+		for(int i = from; i < name.length(); i++) {
+			if(SEGMENT_DELIMITERS.indexOf(name.charAt(i))!=-1) return name.substring(0, i+1);
+		}
+		return name;
+	}
+	
+	/**
+	 * Returns the current view, rebuilding it if the prefix's membership changed
+	 * @return the current view
+	 */
+	private View view() {
+		final int version = members.getVersion();
+		View v = view;
+		if(v==null || v.version!=version) {
+			v = build(version);
+			view = v;
+		}
+		return v;
+	}
+	
+	/**
+	 * Builds a view of the first {@link #MAX_ATTRIBUTES} live metrics with the prefix, in name order
+	 * @param version The membership version
+	 * @return the view
+	 */
+	private View build(int version) {
+		final Map<String, Integer> handles = new HashMap<String, Integer>();
+		final List<MBeanAttributeInfo> attrs = new ArrayList<MBeanAttributeInfo>();
+		int omitted = 0;
+		for(Map.Entry<String, Integer> member: members.getMembers().entrySet()) {
+			if(attrs.size()==MAX_ATTRIBUTES) {
+				omitted++;
+				continue;
+			}
+			final IMetric metric = registry.getMetric(member.getValue());
+			if(metric==null) continue;
+			final String name = member.getKey();
+			handles.put(name, member.getValue());
+			attrs.add(new OpenMBeanAttributeInfoSupport(name, "The " + metric.getType() + " metric [" + name + "]", METRIC_TYPE, true, false, false));
+		}
+		if(omitted>0) {
+			log("WARNING: Metric facade [" + prefix + "] exposes [" + MAX_ATTRIBUTES + "] metrics and omits [" + omitted + "]. Register narrower prefixes.");
+		}
+		final MBeanInfo info = new MBeanInfo(getClass().getName(), "The " + source + " values of the metrics with names starting with [" + prefix + "]",
+			attrs.toArray(new MBeanAttributeInfo[attrs.size()]), new MBeanConstructorInfo[0], new MBeanOperationInfo[0], new MBeanNotificationInfo[0]);
+		return new View(version, info, handles);
+	}
+	
+	/**
+	 * Returns the value of the metric with the passed handle
+	 * @param handle The metric handle
+	 * @return the metric value, or null if the metric was evicted or has no closed interval yet
+	 */
+	private CompositeData value(int handle) {
+		try {
+			if(source==Source.CLOSED) {
+				final IntervalSnapshot s = registry.getClosedInterval();
+				if(s==null || MetricRegistry.slot(handle)>=s.size() || s.getType(handle)==null) return null;
+				return new CompositeDataSupport(METRIC_TYPE, ITEM_NAMES, new Object[]{
+					s.getType(handle).name(), s.getStartTime(), s.getEndTime(), s.getCount(handle), s.getAverage(handle), s.getMinimum(handle), s.getMaximum(handle)
+				});
+			}
+			final IMetric m = registry.getMetric(handle);
+			if(m==null) return null;
+			return new CompositeDataSupport(METRIC_TYPE, ITEM_NAMES, new Object[]{
+				m.getType().name(), m.getStartTime(), m.getEndTime(), m.getCount(), m.getAverage(), m.getMinimum(), m.getMaximum()
+			});
+		} catch (OpenDataException e) {
+			throw new RuntimeException("Failed to build the value of metric [" + handle + "]", e);
+		}
+	}
+	
+	/**
+	 * {@inheritDoc}
+	 * @see javax.management.DynamicMBean#getAttribute(java.lang.String)
+	 */
+	@Override
+	public Object getAttribute(String attribute) throws AttributeNotFoundException {
+		final Integer handle = view().handles.get(attribute);
+		if(handle==null) throw new AttributeNotFoundException("No metric named [" + attribute + "] with prefix [" + prefix + "]");
+		return value(handle);
+	}
+
+	/**
+	 * {@inheritDoc}
+	 * @see javax.management.DynamicMBean#getAttributes(java.lang.String[])
+	 */
+	@Override
+	public AttributeList getAttributes(String[] attributes) {
+		final Map<String, Integer> handles = view().handles;
+		final AttributeList list = new AttributeList(attributes.length);
+		for(String attribute: attributes) {
+			final Integer handle = handles.get(attribute);
+			if(handle!=null) list.add(new Attribute(attribute, value(handle)));
+		}
+		return list;
+	}
+
+	/**
+	 * {@inheritDoc}
+	 * @see javax.management.DynamicMBean#getMBeanInfo()
+	 */
+	@Override
+	public MBeanInfo getMBeanInfo() {
+		return view().info;
+	}
+
+	/**
+	 * Metric attributes are read only
+	 * @see javax.management.DynamicMBean#setAttribute(javax.management.Attribute)
+	 */
+	@Override
+	public void setAttribute(Attribute attribute) throws AttributeNotFoundException {
+		throw new AttributeNotFoundException("Metric [" + attribute.getName() + "] is read only");
+	}
+
+	/**
+	 * Metric attributes are read only
+	 * @see javax.management.DynamicMBean#setAttributes(javax.management.AttributeList)
+	 */
+	@Override
+	public AttributeList setAttributes(AttributeList attributes) {
+		return new AttributeList();
+	}
+
+	/**
+	 * There are no operations
+	 * @see javax.management.DynamicMBean#invoke(java.lang.String, java.lang.Object[], java.lang.String[])
+	 */
+	@Override
+	public Object invoke(String actionName, Object[] params, String[] signature) throws ReflectionException {
+		throw new ReflectionException(new NoSuchMethodException(actionName), "Metric facades have no operations");
+	}
+	
+	/**
+	 * {@inheritDoc}
+	 * @see javax.management.MBeanRegistration#preRegister(javax.management.MBeanServer, javax.management.ObjectName)
+	 */
+	@Override
+	public ObjectName preRegister(MBeanServer server, ObjectName name) {
+		return name;
+	}
+
+	/**
+	 * {@inheritDoc}
+	 * @see javax.management.MBeanRegistration#postRegister(java.lang.Boolean)
+	 */
+	@Override
+	public void postRegister(Boolean registrationDone) {
+		if(!registrationDone) registry.untrackPrefix(members);
+	}
+
+	/**
+	 * {@inheritDoc}
+	 * @see javax.management.MBeanRegistration#preDeregister()
+	 */
+	@Override
+	public void preDeregister() {
+		/* No Op */
+	}
+
+	/**
+	 * Stops tracking the prefix's membership
+	 * @see javax.management.MBeanRegistration#postDeregister()
+	 */
+	@Override
+	public void postDeregister() {
+		registry.untrackPrefix(members);
+	}
+	
+	/**
+	 * Returns the number of live metrics with the prefix, which may exceed the number exposed
+	 * @return the number of metrics with the prefix
+	 */
+	public int getMemberCount() {
+		return members.size();
+	}
+	
+	/**
+	 * Returns the metric name prefix
+	 * @return the prefix
+	 */
+	public String getPrefix() {
+		return prefix;
+	}
+	
+	/**
+	 * Returns the value source
+	 * @return the value source
+	 */
+	public Source getSource() {
+		return source;
+	}
+	
+	/**
+	 * Out printer
+	 * @param msg The message to print
+	 */
+	public static void log(Object msg) {
+		System.out.println(msg);
+	}
+}
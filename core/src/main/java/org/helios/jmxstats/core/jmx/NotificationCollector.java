@@ -0,0 +1,246 @@
+/**
+ * Helios, OpenSource Monitoring
+ * Brought to you by the Helios Development Group
+ *
+ * Copyright 2007, Helios Development Group and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org. 
+ *
+ */
+package org.helios.jmxstats.core.jmx;
+
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.management.AttributeChangeNotification;
+import javax.management.InstanceNotFoundException;
+import javax.management.MBeanServerConnection;
+import javax.management.MalformedObjectNameException;
+import javax.management.Notification;
+import javax.management.NotificationFilterSupport;
+import javax.management.NotificationListener;
+import javax.management.ObjectName;
+
+import org.helios.jmxstats.core.Controller;
+import org.helios.jmxstats.core.metric.MetricRegistry;
+import org.helios.jmxstats.core.metric.MetricType;
+
+/**
+ * <p>Title: NotificationCollector</p>
+ * <p>Description: Ingests metrics from JMX notifications, capturing short lived events such as individual GC pauses that polling misses.
+ * Each subscription pairs an MBean's notification types with a {@link NotificationHandler} that submits values to metric handles
+ * it resolved when it was created. One shared listener dispatches on the subscription's handback, so delivering a notification
+ * allocates nothing beyond what the JMX implementation does.</p> 
+ * <p>Company: Helios Development Group LLC</p>
+ * @author Whitehead (nwhitehead AT heliosdev DOT org)
+ * <p><code>org.helios.jmxstats.core.jmx.NotificationCollector</code></p>
+ */
+public class NotificationCollector {
+	/** The notification type of HotSpot garbage collection notifications */
+	public static final String GC_NOTIFICATION = "com.sun.management.gc.notification";
+	/** The ObjectName pattern of the garbage collector MXBeans */
+	public static final ObjectName GC_PATTERN;
+	
+	static {
+		try {
+			GC_PATTERN = new ObjectName(ManagementFactory.GARBAGE_COLLECTOR_MXBEAN_DOMAIN_TYPE + ",*");
+		} catch (MalformedObjectNameException e) {
+			throw new RuntimeException(e);
+		}
+	}
+	
+	/** The MBeanServer subscribed to */
+	private final MBeanServerConnection server;
+	/** The controller values are submitted to */
+	private final Controller controller;
+	/** The active subscriptions */
+	private final List<Subscription> subscriptions = new CopyOnWriteArrayList<Subscription>();
+	/** The number of notifications received */
+	private final AtomicLong received = new AtomicLong(0);
+	/** The number of notifications whose handler failed */
+	private final AtomicLong errors = new AtomicLong(0);
+	
+	/** The shared listener, dispatching to the handler passed as the handback */
+	private final NotificationListener listener = new NotificationListener() {
+		public void handleNotification(Notification notification, Object handback) {
+			received.incrementAndGet();
+			try {
+				((NotificationHandler)handback).handle(notification);
+			} catch (RuntimeException e) {
+				errors.incrementAndGet();
+			}
+		}
+	};
+	
+	/**
+	 * <p>Title: NotificationHandler</p>
+	 * <p>Description: Converts notifications into metric values</p> 
+	 * <p>Company: Helios Development Group LLC</p>
+	 * @author Whitehead (nwhitehead AT heliosdev DOT org)
+	 * <p><code>org.helios.jmxstats.core.jmx.NotificationCollector.NotificationHandler</code></p>
+	 */
+	public interface NotificationHandler {
+		/**
+		 * Submits the values carried by the passed notification
+		 * @param notification The notification
+		 */
+		public void handle(Notification notification);
+	}
+	
+	/**
+	 * <p>Title: Subscription</p>
+	 * <p>Description: A registered listener, retained so it can be removed</p> 
+	 */
+	private static class Subscription {
+		/** The ObjectName of the MBean subscribed to */
+		final ObjectName objectName;
+		/** The notification filter */
+		final NotificationFilterSupport filter;
+		/** The handler, passed as the handback */
+		final NotificationHandler handler;
+		
+		Subscription(ObjectName objectName, NotificationFilterSupport filter, NotificationHandler handler) {
+			this.objectName = objectName;
+			this.filter = filter;
+			this.handler = handler;
+		}
+	}
+	
+	/**
+	 * Creates a new NotificationCollector for the platform MBeanServer
+	 */
+	public NotificationCollector() {
+		this(ManagementFactory.getPlatformMBeanServer());
+	}
+	
+	/**
+	 * Creates a new NotificationCollector
+	 * @param server The MBeanServer to subscribe to
+	 */
+	public NotificationCollector(MBeanServerConnection server) {
+		if(server==null) throw new IllegalArgumentException("The passed MBeanServer was null", new Throwable());
+		this.server = server;
+		controller = Controller.getInstance();
+	}
+	
+	/**
+	 * Subscribes a handler to notifications of the passed types emitted by an MBean
+	 * @param objectName The ObjectName of the emitting MBean
+	 * @param handler The handler
+	 * @param types The notification types or type prefixes to receive. All types are received if none are passed.
+	 * @throws InstanceNotFoundException thrown if the MBean is not registered
+	 * @throws IOException thrown on a remote connection failure
+	 */
+	public void subscribe(ObjectName objectName, NotificationHandler handler, String...types) throws InstanceNotFoundException, IOException {
+		if(objectName==null) throw new IllegalArgumentException("The passed ObjectName was null", new Throwable());
+		if(handler==null) throw new IllegalArgumentException("The passed handler was null", new Throwable());
+		NotificationFilterSupport filter = null;
+		if(types!=null && types.length>0) {
+			filter = new NotificationFilterSupport();
+			for(String type: types) {
+				filter.enableType(type);
+			}
+		}
+		server.addNotificationListener(objectName, listener, filter, handler);
+		subscriptions.add(new Subscription(objectName, filter, handler));
+	}
+	
+	/**
+	 * Subscribes to the garbage collection notifications of every garbage collector MXBean, recording each collection's
+	 * pause time and reclaimed heap bytes. JVMs that do not emit GC notifications deliver nothing.
+	 * @return the number of garbage collectors subscribed to
+	 * @throws IOException thrown on a remote connection failure
+	 */
+	public int subscribeGarbageCollectors() throws IOException {
+		int count = 0;
+		for(ObjectName on: server.queryNames(GC_PATTERN, null)) {
+			try {
+				subscribe(on, new GCNotificationHandler(controller, on), GC_NOTIFICATION);
+				count++;
+			} catch (InstanceNotFoundException e) {
+				/* Collector went away */
+			}
+		}
+		return count;
+	}
+	
+	/**
+	 * Subscribes to notifications of one type, recording the new value of attribute change notifications or the user data
+	 * of other notifications when they are numeric, and 1 otherwise. Use {@link MetricType#INTERVALCOUNT} to count notifications.
+	 * The metric is keyed by the emitting MBean's ObjectName with the notification type as the attribute.
+	 * @param objectName The ObjectName of the emitting MBean
+	 * @param type The notification type
+	 * @param metricType The metric type
+	 * @throws InstanceNotFoundException thrown if the MBean is not registered
+	 * @throws IOException thrown on a remote connection failure
+	 */
+	public void subscribeValues(ObjectName objectName, String type, MetricType metricType) throws InstanceNotFoundException, IOException {
+		if(type==null) throw new IllegalArgumentException("The passed notification type was null", new Throwable());
+		if(metricType==null) throw new IllegalArgumentException("The passed metric type was null", new Throwable());
+		final int handle = controller.getMetricHandle(objectName, type, metricType);
+		subscribe(objectName, new NotificationHandler() {
+			public void handle(Notification notification) {
+				final Object value = notification instanceof AttributeChangeNotification ? ((AttributeChangeNotification)notification).getNewValue() : notification.getUserData();
+				controller.process(handle, value instanceof Number ? ((Number)value).longValue() : 1L);
+			}
+		}, type);
+		// held by the subscription, which may see no notifications for many intervals
+		MetricRegistry.getInstance().pin(handle);
+	}
+	
+	/**
+	 * Removes all subscriptions
+	 */
+	public void close() {
+		for(Subscription s: subscriptions) {
+			try {
+				server.removeNotificationListener(s.objectName, listener, s.filter, s.handler);
+			} catch (Exception e) {
+				/* No Op */
+			}
+		}
+		subscriptions.clear();
+	}
+	
+	/**
+	 * Returns the number of active subscriptions
+	 * @return the number of subscriptions
+	 */
+	public int getSubscriptionCount() {
+		return subscriptions.size();
+	}
+	
+	/**
+	 * Returns the number of notifications received
+	 * @return the number of notifications
+	 */
+	public long getReceived() {
+		return received.get();
+	}
+	
+	/**
+	 * Returns the number of notifications whose handler failed
+	 * @return the number of failures
+	 */
+	public long getErrors() {
+		return errors.get();
+	}
+}
@@ -0,0 +1,341 @@
+/**
+ * Helios, OpenSource Monitoring
+ * Brought to you by the Helios Development Group
+ *
+ * Copyright 2007, Helios Development Group and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org. 
+ *
+ */
+package org.helios.jmxstats.core.jmx;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.management.remote.JMXServiceURL;
+
+import org.helios.jmxstats.core.Controller;
+import org.helios.jmxstats.core.Controller.CurrentInterval;
+import org.helios.jmxstats.core.Controller.SystemClock;
+import org.helios.jmxstats.core.IntervalListener;
+
+/**
+ * <p>Title: RemoteCollectorPool</p>
+ * <p>Description: Collects MBean attributes from many remote JVMs at every interval switch. Each {@link RemoteTarget} keeps a pooled,
+ * reconnecting connector and cached collection plans. At each switch every idle target's poll is scheduled on a bounded worker pool with
+ * a deadline a fraction of the way into the new interval. A poll that has not started by the deadline is skipped, a poll that finishes
+ * after it is flagged, and a target whose prior poll is still running is skipped for the interval. All three count as missed deadlines.</p> 
+ * <p>A poll still running {@link #TIMEOUT_PROP} ms. after its deadline is aborted by a watchdog: its connection is closed, it counts
+ * as a failure and the target is released for the next round, so one hung target cannot hold its slot indefinitely.</p> 
+ * <p>Company: Helios Development Group LLC</p>
+ * @author Whitehead (nwhitehead AT heliosdev DOT org)
+ * <p><code>org.helios.jmxstats.core.jmx.RemoteCollectorPool</code></p>
+ */
+public class RemoteCollectorPool implements IntervalListener {
+	/** The system property that defines the number of worker threads */
+	public static final String THREADS_PROP = "org.helios.jmx.remote.threads";
+	/** The default number of worker threads */
+	public static final int DEFAULT_THREADS = 16;
+	/** The system property that defines the poll deadline as a percentage of the interval */
+	public static final String DEADLINE_PROP = "org.helios.jmx.remote.deadline";
+	/** The default poll deadline percentage */
+	public static final int DEFAULT_DEADLINE = 80;
+	/** The system property that defines the number of intervals between re-resolutions of the rules' ObjectName patterns */
+	public static final String REFRESH_PROP = "org.helios.jmx.remote.refresh";
+	/** The default number of intervals between re-resolutions */
+	public static final int DEFAULT_REFRESH = 20;
+	/** The system property that defines the connect and request timeout in ms., after which an overrunning poll is also aborted */
+	public static final String TIMEOUT_PROP = "org.helios.jmx.remote.timeout";
+	/** The default timeout in ms. */
+	public static final long DEFAULT_TIMEOUT = 5000;
+	
+	/** The poll worker pool */
+	private final ExecutorService workers;
+	/** Aborts polls that overrun their deadline by the timeout */
+	private final ScheduledExecutorService watchdog;
+	/** The connect and request timeout in ms. */
+	private final long timeout;
+	/** The poll deadline as a percentage of the interval */
+	private final int deadlinePercent = Integer.getInteger(DEADLINE_PROP, DEFAULT_DEADLINE);
+	/** The number of intervals between re-resolutions */
+	private final int refreshIntervals = Math.max(1, Integer.getInteger(REFRESH_PROP, DEFAULT_REFRESH));
+	/** The targets keyed by name */
+	private final Map<String, RemoteTarget> targets = new ConcurrentHashMap<String, RemoteTarget>();
+	/** The collection rules applied to every target */
+	private final List<CollectionRule> rules = new CopyOnWriteArrayList<CollectionRule>();
+	/** The number of scheduled polling rounds */
+	private final AtomicLong rounds = new AtomicLong(0);
+	/** Indicates if the pool is polling at interval switches */
+	private volatile boolean started = false;
+	
+	/**
+	 * Creates a new RemoteCollectorPool with {@link #DEFAULT_THREADS} worker threads, overridable with the {@link #THREADS_PROP} system property
+	 */
+	public RemoteCollectorPool() {
+		this(Integer.getInteger(THREADS_PROP, DEFAULT_THREADS));
+	}
+	
+	/**
+	 * Creates a new RemoteCollectorPool with a {@link #DEFAULT_TIMEOUT} ms. timeout, overridable with the {@link #TIMEOUT_PROP} system property
+	 * @param threads The number of worker threads, which bounds the number of targets polled concurrently
+	 */
+	public RemoteCollectorPool(int threads) {
+		this(threads, Long.getLong(TIMEOUT_PROP, DEFAULT_TIMEOUT));
+	}
+	
+	/**
+	 * Creates a new RemoteCollectorPool
+	 * @param threads The number of worker threads, which bounds the number of targets polled concurrently
+	 * @param timeout The connect and request timeout in ms., and the time a poll may overrun its deadline before it is aborted
+	 */
+	public RemoteCollectorPool(int threads, long timeout) {
+		if(threads<1) throw new IllegalArgumentException("Invalid worker thread count [" + threads + "]", new Throwable());
+		if(timeout<1) throw new IllegalArgumentException("Invalid timeout [" + timeout + "]", new Throwable());
+		this.timeout = timeout;
+		watchdog = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+			public Thread newThread(Runnable r) {
+				Thread t = new Thread(r, "RemoteCollectorWatchdog");
+				t.setDaemon(true);
+				return t;
+			}
+		});
+		workers = Executors.newFixedThreadPool(threads, new ThreadFactory() {
+			private final AtomicInteger serial = new AtomicInteger(0);
+			public Thread newThread(Runnable r) {
+				Thread t = new Thread(r, "RemoteCollectorWorker#" + serial.incrementAndGet());
+				t.setDaemon(true);
+				return t;
+			}
+		});
+	}
+	
+	/**
+	 * Adds a target. The target connects on its first poll.
+	 * @param name The unique target name, used to qualify the target's metric names
+	 * @param serviceURL The JMX service URL of the target
+	 * @param environment The connector environment, e.g. credentials, or null
+	 * @return the added target
+	 */
+	public RemoteTarget addTarget(String name, JMXServiceURL serviceURL, Map<String, ?> environment) {
+		final RemoteTarget target = new RemoteTarget(name, serviceURL, environment, timeout);
+		synchronized(targets) {
+			if(targets.containsKey(name)) throw new IllegalArgumentException("A target named [" + name + "] already exists", new Throwable());
+			targets.put(name, target);
+		}
+		return target;
+	}
+	
+	/**
+	 * Removes a target and closes its connector
+	 * @param name The target name
+	 * @return the removed target or null if there was no target with the passed name
+	 */
+	public RemoteTarget removeTarget(String name) {
+		final RemoteTarget target = targets.remove(name);
+		if(target!=null) target.disconnect();
+		return target;
+	}
+	
+	/**
+	 * Returns the targets
+	 * @return the targets
+	 */
+	public Collection<RemoteTarget> getTargets() {
+		return Collections.unmodifiableCollection(targets.values());
+	}
+	
+	/**
+	 * Returns the named target
+	 * @param name The target name
+	 * @return the target or null if there is no target with the passed name
+	 */
+	public RemoteTarget getTarget(String name) {
+		return targets.get(name);
+	}
+	
+	/**
+	 * Adds a collection rule applied to every target
+	 * @param rule The rule to add
+	 */
+	public void addRule(CollectionRule rule) {
+		if(rule==null) throw new IllegalArgumentException("The passed rule was null", new Throwable());
+		rules.add(rule);
+		for(RemoteTarget target: targets.values()) {
+			target.addRule(rule);
+		}
+	}
+	
+	/**
+	 * Starts polling the targets at every interval switch
+	 */
+	public synchronized void start() {
+		if(started) return;
+		Controller.getInstance().addIntervalListener(this);
+		started = true;
+	}
+	
+	/**
+	 * Stops polling, closes all target connectors and shuts down the worker pool. The pool cannot be restarted.
+	 */
+	public synchronized void stop() {
+		Controller.getInstance().removeIntervalListener(this);
+		started = false;
+		watchdog.shutdownNow();
+		workers.shutdownNow();
+		for(RemoteTarget target: targets.values()) {
+			target.disconnect();
+		}
+	}
+	
+	/**
+	 * {@inheritDoc}
+	 * <p>Schedules a polling round with a deadline {@link #DEADLINE_PROP} percent of the way into the new interval.
+	 * @see org.helios.jmxstats.core.IntervalListener#onIntervalSwitch(org.helios.jmxstats.core.Controller.CurrentInterval)
+	 */
+	@Override
+	public void onIntervalSwitch(CurrentInterval ci) {
+		final long start = ci.getTripNanos()<0 ? System.nanoTime() : ci.getTripNanos();
+		schedule(start + TimeUnit.MILLISECONDS.toNanos(SystemClock.getInterval()) * deadlinePercent / 100);
+	}
+	
+	/**
+	 * Polls every target and waits for the round to complete or time out, e.g. for an ad hoc collection outside the interval switch
+	 * @param timeout The round's deadline, relative to now
+	 * @param unit The unit of the timeout
+	 * @return the number of targets polled by the deadline
+	 */
+	public int poll(long timeout, TimeUnit unit) {
+		final long deadline = System.nanoTime() + unit.toNanos(timeout);
+		int onTime = 0;
+		for(Future<Boolean> f: schedule(deadline)) {
+			try {
+				if(f.get(Math.max(0, deadline - System.nanoTime()), TimeUnit.NANOSECONDS)) onTime++;
+			} catch (TimeoutException e) {
+				/* Flagged by the poll when it completes */
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				break;
+			} catch (ExecutionException e) {
+				/* Failures are recorded by the target */
+			}
+		}
+		return onTime;
+	}
+	
+	/**
+	 * Schedules a poll of every target that is not still being polled, and the abort of any of them still running
+	 * {@link #TIMEOUT_PROP} ms. after the deadline
+	 * @param deadline The {@link System#nanoTime()} deadline of the round
+	 * @return the futures of the scheduled polls, which return true if the poll completed by the deadline
+	 */
+	protected List<Future<Boolean>> schedule(final long deadline) {
+		final long round = rounds.incrementAndGet();
+		final boolean refresh = round % refreshIntervals == 0;
+		final List<Future<Boolean>> futures = new ArrayList<Future<Boolean>>(targets.size());
+		final List<RemoteTarget> polled = new ArrayList<RemoteTarget>(targets.size());
+		for(final RemoteTarget target: targets.values()) {
+			if(!target.busy.compareAndSet(0, round)) {
+				target.deadline(true);
+				continue;
+			}
+			try {
+				futures.add(workers.submit(new Callable<Boolean>() {
+					public Boolean call() {
+						try {
+							if(System.nanoTime() - deadline > 0) {
+								target.deadline(true);
+								return false;
+							}
+							target.poll(rules, refresh, round);
+							// aborted by the watchdog, which flagged the missed deadline
+							if(target.busy.get()!=round) return false;
+							final boolean missed = System.nanoTime() - deadline > 0;
+							target.deadline(missed);
+							return !missed;
+						} finally {
+							target.busy.compareAndSet(round, 0);
+						}
+					}
+				}));
+				polled.add(target);
+			} catch (RejectedExecutionException e) {
+				target.busy.set(0);
+			}
+		}
+		if(!polled.isEmpty()) {
+			try {
+				watchdog.schedule(new Runnable() {
+					public void run() {
+						for(int i = 0; i < polled.size(); i++) {
+							final RemoteTarget target = polled.get(i);
+							// taking the round from the poll makes the worker discard its outcome, and lets the next round poll the target
+							if(!target.busy.compareAndSet(round, 0)) continue;
+							target.deadline(true);
+							target.abort(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - deadline));
+							futures.get(i).cancel(true);
+						}
+					}
+				}, deadline - System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeout), TimeUnit.NANOSECONDS);
+			} catch (RejectedExecutionException e) {
+				/* Stopped */
+			}
+		}
+		return futures;
+	}
+	
+	/**
+	 * Returns the number of connected targets
+	 * @return the number of connected targets
+	 */
+	public int getConnectedCount() {
+		int count = 0;
+		for(RemoteTarget target: targets.values()) {
+			if(target.isConnected()) count++;
+		}
+		return count;
+	}
+	
+	/**
+	 * Returns the number of targets whose last poll missed its deadline
+	 * @return the number of late targets
+	 */
+	public int getLateCount() {
+		int count = 0;
+		for(RemoteTarget target: targets.values()) {
+			if(target.isLate()) count++;
+		}
+		return count;
+	}
+}
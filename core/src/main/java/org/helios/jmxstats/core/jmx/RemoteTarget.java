@@ -0,0 +1,390 @@
+/**
+ * Helios, OpenSource Monitoring
+ * Brought to you by the Helios Development Group
+ *
+ * Copyright 2007, Helios Development Group and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org. 
+ *
+ */
+package org.helios.jmxstats.core.jmx;
+
+import java.io.IOException;
+import java.io.Serializable;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.rmi.server.RMIClientSocketFactory;
+import java.util.HashMap;
+import java.util.Hashtable;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+import javax.management.MalformedObjectNameException;
+import javax.management.ObjectName;
+import javax.management.remote.JMXConnector;
+import javax.management.remote.JMXConnectorFactory;
+import javax.management.remote.JMXServiceURL;
+
+/**
+ * <p>Title: RemoteTarget</p>
+ * <p>Description: A remote JVM polled by a {@link RemoteCollectorPool}. The target keeps one pooled {@link JMXConnector} and an
+ * {@link MBeanCollector} over its connection, reconnecting after a failure with an exponential backoff counted in intervals.
+ * Metrics collected from the target are keyed by the remote ObjectName qualified with a {@link #TARGET_KEY} key property.</p>
+ * <p>The connector environment is given connect and request timeouts unless the caller set them. A poll that still overruns is aborted
+ * by the pool: the target's connection is swapped out and closed without taking the poll's monitor, the target is released for the
+ * next round, and the result of the aborted poll is discarded if its worker ever returns.</p> 
+ * <p>Company: Helios Development Group LLC</p>
+ * @author Whitehead (nwhitehead AT heliosdev DOT org)
+ * <p><code>org.helios.jmxstats.core.jmx.RemoteTarget</code></p>
+ */
+public class RemoteTarget {
+	/** The ObjectName key property that identifies the target of a remote metric */
+	public static final String TARGET_KEY = "jmxtarget";
+	/** The maximum number of intervals skipped between reconnection attempts */
+	public static final int MAX_BACKOFF_INTERVALS = 32;
+	/** The connector environment key of the request timeout in ms. honoured by the generic connector */
+	public static final String REQUEST_TIMEOUT_KEY = "jmx.remote.x.request.waiting.timeout";
+	/** The connector environment key of the socket factory used for the RMI registry lookup of <code>/jndi/rmi:</code> service URLs */
+	public static final String RMI_SOCKET_FACTORY_KEY = "com.sun.jndi.rmi.factory.socket";
+	
+	/** The target name */
+	private final String name;
+	/** The JMX service URL of the target */
+	private final JMXServiceURL serviceURL;
+	/** The connector environment, including the timeouts */
+	private final Map<String, Object> environment;
+	/** The target name as an ObjectName key property value */
+	private final String keyValue;
+	/** The current connection, or null when disconnected */
+	private final AtomicReference<Connection> connection = new AtomicReference<Connection>(null);
+	/** The round of the poll of this target that is scheduled or running, or 0 if the target is idle */
+	final AtomicLong busy = new AtomicLong(0);
+	/** The number of consecutive failed polls. Only updated by the poll owning {@link #busy}, or by the pool when aborting it. */
+	private int consecutiveFailures = 0;
+	/** The number of intervals to skip before the next reconnection attempt */
+	private int backoff = 0;
+	/** The number of completed polls */
+	private final AtomicLong polls = new AtomicLong(0);
+	/** The number of failed polls and connection attempts */
+	private final AtomicLong failures = new AtomicLong(0);
+	/** The number of polls skipped or completed late because the target missed the interval's deadline */
+	private final AtomicLong missedDeadlines = new AtomicLong(0);
+	/** Indicates that the last poll missed its deadline */
+	private volatile boolean late = false;
+	/** The number of values submitted by the last poll */
+	private volatile int lastCollected = 0;
+	/** The time taken by the last poll in ns. */
+	private volatile long lastPollNanos = -1L;
+	/** The last failure */
+	private volatile Throwable lastError = null;
+	
+	/**
+	 * Creates a new RemoteTarget
+	 * @param name The target name, used to qualify the target's metric names
+	 * @param serviceURL The JMX service URL of the target
+	 * @param environment The connector environment, e.g. credentials, or null
+	 * @param timeout The connect and request timeout in ms. applied unless the environment sets its own
+	 */
+	RemoteTarget(String name, JMXServiceURL serviceURL, Map<String, ?> environment, long timeout) {
+		if(name==null) throw new IllegalArgumentException("The passed target name was null", new Throwable());
+		if(serviceURL==null) throw new IllegalArgumentException("The passed service URL was null", new Throwable());
+		if(timeout<1) throw new IllegalArgumentException("Invalid timeout [" + timeout + "]", new Throwable());
+		this.name = name;
+		this.serviceURL = serviceURL;
+		this.environment = new HashMap<String, Object>();
+		if(environment!=null) this.environment.putAll(environment);
+		if(!this.environment.containsKey(REQUEST_TIMEOUT_KEY)) this.environment.put(REQUEST_TIMEOUT_KEY, timeout);
+		if(!this.environment.containsKey(RMI_SOCKET_FACTORY_KEY)) this.environment.put(RMI_SOCKET_FACTORY_KEY, new TimeoutSocketFactory((int)Math.min(Integer.MAX_VALUE, timeout)));
+		keyValue = name.length()>0 && name.matches("[^,=:*?\"\\n]*") ? name : ObjectName.quote(name);
+	}
+	
+	/**
+	 * Polls the target, connecting first if required. A poll that is aborted by the pool while it runs discards its outcome.
+	 * @param rules The collection rules
+	 * @param refresh true to re-resolve the rules' ObjectName patterns before polling
+	 * @param round The polling round, which must own {@link #busy}
+	 * @return the number of values submitted
+	 */
+	int poll(List<CollectionRule> rules, boolean refresh, long round) {
+		if(connection.get()==null && backoff>0) {
+			backoff--;
+			return 0;
+		}
+		final long start = System.nanoTime();
+		Connection conn = null;
+		try {
+			conn = connection.get();
+			if(conn==null) {
+				conn = connect(rules, round);
+				if(conn==null) return 0;
+			} else if(refresh) {
+				conn.collector.refresh();
+			}
+			final int collected = conn.collector.collect();
+			if(busy.get()!=round) return 0;
+			lastCollected = collected;
+			consecutiveFailures = 0;
+			polls.incrementAndGet();
+			return collected;
+		} catch (Exception e) {
+			if(busy.get()==round) {
+				failed(e);
+				if(conn!=null && connection.compareAndSet(conn, null)) conn.close();
+			}
+			return 0;
+		} finally {
+			lastPollNanos = System.nanoTime() - start;
+		}
+	}
+	
+	/**
+	 * Connects to the target and creates its collector
+	 * @param rules The collection rules
+	 * @param round The polling round
+	 * @return the new connection, or null if the poll was aborted while connecting
+	 * @throws IOException thrown if the connection fails
+	 */
+	private Connection connect(List<CollectionRule> rules, long round) throws IOException {
+		final JMXConnector jc = JMXConnectorFactory.connect(serviceURL, environment);
+		final MBeanCollector c = new MBeanCollector(jc.getMBeanServerConnection(), null, 1) {
+			@Override
+			protected ObjectName metricName(ObjectName objectName) {
+				return qualify(objectName);
+			}
+		};
+		for(CollectionRule rule: rules) {
+			c.addRule(rule);
+		}
+		final Connection conn = new Connection(jc, c);
+		if(busy.get()!=round || !connection.compareAndSet(null, conn)) {
+			conn.close();
+			return null;
+		}
+		return conn;
+	}
+	
+	/**
+	 * Records a failed poll and backs off before the next reconnection attempt
+	 * @param e The failure
+	 */
+	private void failed(Throwable e) {
+		failures.incrementAndGet();
+		lastError = e;
+		consecutiveFailures++;
+		backoff = Math.min(MAX_BACKOFF_INTERVALS, 1 << Math.min(consecutiveFailures-1, 5)) - 1;
+	}
+	
+	/**
+	 * Aborts a poll that overran its deadline by the pool's timeout. Called by the pool after it has taken {@link #busy} from the poll,
+	 * so the poll's worker, if it ever returns, discards its outcome. The connection is closed without waiting for the poll.
+	 * @param overrun The time the poll overran its deadline by, in ms.
+	 */
+	void abort(long overrun) {
+		failed(new TimeoutException("Poll of target [" + name + "] aborted [" + overrun + "] ms. after its deadline"));
+		disconnect();
+	}
+	
+	/**
+	 * Closes the connector and discards the collector. Never blocks on a running poll.
+	 */
+	void disconnect() {
+		final Connection conn = connection.getAndSet(null);
+		if(conn!=null) conn.close();
+	}
+	
+	/**
+	 * Adds a rule to the current collector. Collectors created on reconnection get all the pool's rules.
+	 * @param rule The rule to add
+	 */
+	void addRule(CollectionRule rule) {
+		final Connection conn = connection.get();
+		if(conn!=null) conn.collector.addRule(rule);
+	}
+	
+	/**
+	 * Records the deadline outcome of a poll
+	 * @param missed true if the poll was skipped or completed after its deadline
+	 */
+	void deadline(boolean missed) {
+		late = missed;
+		if(missed) missedDeadlines.incrementAndGet();
+	}
+	
+	/**
+	 * Qualifies a remote ObjectName with this target's key property
+	 * @param objectName The remote ObjectName
+	 * @return the qualified ObjectName
+	 */
+	ObjectName qualify(ObjectName objectName) {
+		final Hashtable<String, String> props = new Hashtable<String, String>(objectName.getKeyPropertyList());
+		props.put(TARGET_KEY, keyValue);
+		try {
+			return new ObjectName(objectName.getDomain(), props);
+		} catch (MalformedObjectNameException e) {
+			throw new RuntimeException("Failed to qualify [" + objectName + "] with target [" + name + "]", e);
+		}
+	}
+	
+	/**
+	 * Returns the target name
+	 * @return the target name
+	 */
+	public String getName() {
+		return name;
+	}
+	
+	/**
+	 * Returns the JMX service URL of the target
+	 * @return the JMX service URL
+	 */
+	public JMXServiceURL getServiceURL() {
+		return serviceURL;
+	}
+	
+	/**
+	 * Indicates if the target is connected
+	 * @return true if connected
+	 */
+	public boolean isConnected() {
+		return connection.get()!=null;
+	}
+	
+	/**
+	 * Indicates if the last poll was skipped or completed after its deadline
+	 * @return true if the target is late
+	 */
+	public boolean isLate() {
+		return late;
+	}
+	
+	/**
+	 * Returns the number of completed polls
+	 * @return the number of completed polls
+	 */
+	public long getPolls() {
+		return polls.get();
+	}
+	
+	/**
+	 * Returns the number of failed polls and connection attempts
+	 * @return the number of failures
+	 */
+	public long getFailures() {
+		return failures.get();
+	}
+	
+	/**
+	 * Returns the number of polls skipped or completed late because the target missed the interval's deadline
+	 * @return the number of missed deadlines
+	 */
+	public long getMissedDeadlines() {
+		return missedDeadlines.get();
+	}
+	
+	/**
+	 * Returns the number of values submitted by the last poll
+	 * @return the number of values
+	 */
+	public int getLastCollected() {
+		return lastCollected;
+	}
+	
+	/**
+	 * Returns the time taken by the last poll, including any connection
+	 * @return the time in ns. or -1 if the target has not been polled
+	 */
+	public long getLastPollNanos() {
+		return lastPollNanos;
+	}
+	
+	/**
+	 * Returns the last failure
+	 * @return the last failure or null if the target has not failed
+	 */
+	public Throwable getLastError() {
+		return lastError;
+	}
+
+	/**
+	 * {@inheritDoc}
+	 * @see java.lang.Object#toString()
+	 */
+	@Override
+	public String toString() {
+		return "RemoteTarget [name=" + name + ", url=" + serviceURL + ", connected=" + isConnected() + ", late=" + late + ", polls=" + polls + ", failures=" + failures + ", missedDeadlines=" + missedDeadlines + "]";
+	}
+	
+	/**
+	 * <p>Title: Connection</p>
+	 * <p>Description: A connector and the collector over it, swapped in and out of the target as one</p> 
+	 */
+	private static final class Connection {
+		/** The connector */
+		final JMXConnector connector;
+		/** The collector over the connector */
+		final MBeanCollector collector;
+		
+		Connection(JMXConnector connector, MBeanCollector collector) {
+			this.connector = connector;
+			this.collector = collector;
+		}
+		
+		void close() {
+			try { connector.close(); } catch (Exception e) { /* No Op */ }
+		}
+	}
+	
+	/**
+	 * <p>Title: TimeoutSocketFactory</p>
+	 * <p>Description: An RMI client socket factory bounding connects and reads by a timeout</p> 
+	 */
+	private static final class TimeoutSocketFactory implements RMIClientSocketFactory, Serializable {
+		private static final long serialVersionUID = -2478937946318406426L;
+		/** The timeout in ms. */
+		private final int timeout;
+		
+		TimeoutSocketFactory(int timeout) {
+			this.timeout = timeout;
+		}
+		
+		public Socket createSocket(String host, int port) throws IOException {
+			final Socket socket = new Socket();
+			try {
+				socket.connect(new InetSocketAddress(host, port), timeout);
+				socket.setSoTimeout(timeout);
+			} catch (IOException e) {
+				try { socket.close(); } catch (Exception x) { /* No Op */ }
+				throw e;
+			}
+			return socket;
+		}
+		
+		@Override
+		public int hashCode() {
+			return timeout;
+		}
+		
+		@Override
+		public boolean equals(Object obj) {
+			return obj instanceof TimeoutSocketFactory && ((TimeoutSocketFactory)obj).timeout==timeout;
+		}
+	}
+}
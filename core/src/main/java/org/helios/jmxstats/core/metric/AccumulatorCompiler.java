@@ -0,0 +1,272 @@
+/**
+ * Helios, OpenSource Monitoring
+ * Brought to you by the Helios Development Group
+ *
+ * Copyright 2007, Helios Development Group and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org. 
+ *
+ */
+package org.helios.jmxstats.core.metric;
+
+import java.lang.reflect.Constructor;
+import java.security.ProtectionDomain;
+import java.util.EnumMap;
+import java.util.Map;
+
+import javassist.ClassPool;
+import javassist.CtClass;
+import javassist.CtField;
+import javassist.CtNewConstructor;
+import javassist.CtNewMethod;
+import javassist.LoaderClassPath;
+import javassist.Modifier;
+
+/**
+ * <p>Title: AccumulatorCompiler</p>
+ * <p>Description: Generates, at registration time, a final {@link SpecializedMetric} subclass per {@link MetricType}
+ * which declares only the accumulator fields the type needs and implements <code>process</code> and <code>reset</code>
+ * as straight-line code with no branching on the type. Counters carry a single count field, delta types add the last
+ * value, sticky types add the retained average. Each class is generated once, on first registration of its type.
+ * The classes are defined through a private class loader rather than <code>CtClass.toClass</code>, which needs reflective access to
+ * <code>ClassLoader.defineClass</code> that Java 9+ denies without <code>--add-opens</code>.
+ * If generation is disabled or fails, metrics fall back to {@link BaseMetric}.</p> 
+ * <p>Company: Helios Development Group LLC</p>
+ * @author Whitehead (nwhitehead AT heliosdev DOT org)
+ * <p><code>org.helios.jmxstats.core.metric.AccumulatorCompiler</code></p>
+ */
+public class AccumulatorCompiler {
+	/** The system property that enables accumulator generation */
+	public static final String COMPILE_PROP = "org.helios.metric.compile";
+	/** The package of generated accumulator classes */
+	public static final String GENERATED_PACKAGE = "org.helios.jmxstats.core.metric.generated";
+	/** Indicates if accumulator generation is enabled */
+	private static final boolean ENABLED = !"false".equalsIgnoreCase(System.getProperty(COMPILE_PROP, "true").trim());
+	/** The generated class constructors keyed by metric type. A null value marks a type that failed to generate. */
+	private static final Map<MetricType, Constructor<? extends IMetric>> constructors = new EnumMap<MetricType, Constructor<? extends IMetric>>(MetricType.class);
+	/** The class loader defining the generated classes, created on first generation */
+	private static GeneratedClassLoader generatedLoader = null;
+	
+	/**
+	 * Creates a new metric, using the generated accumulator class for the type if one is available
+	 * @param handle The metric handle
+	 * @param name The metric name
+	 * @param type The metric type
+	 * @return the new metric
+	 */
+	public static IMetric newMetric(int handle, String name, MetricType type) {
+		final Constructor<? extends IMetric> ctor = ENABLED ? getConstructor(type) : null;
+		if(ctor!=null) {
+			try {
+				return ctor.newInstance(Long.valueOf(handle), name, type);
+			} catch (Exception e) {
+				log("Failed to instantiate generated accumulator for [" + type + "]:" + e);
+			}
+		}
+		return new BaseMetric(handle, name, type);
+	}
+	
+	/**
+	 * Indicates if a generated accumulator class is in use for the passed type
+	 * @param type The metric type
+	 * @return true if metrics of the passed type use a generated class
+	 */
+	public static synchronized boolean isGenerated(MetricType type) {
+		return constructors.get(type)!=null;
+	}
+	
+	/**
+	 * Returns the generated class constructor for the passed type, generating the class on first call
+	 * @param type The metric type
+	 * @return the constructor or null if generation failed
+	 */
+	private static synchronized Constructor<? extends IMetric> getConstructor(MetricType type) {
+		if(constructors.containsKey(type)) return constructors.get(type);
+		Constructor<? extends IMetric> ctor = null;
+		try {
+			ctor = compile(type).getConstructor(long.class, String.class, MetricType.class);
+			log("Generated accumulator [" + ctor.getDeclaringClass().getName() + "]");
+		} catch (Throwable t) {
+			log("Failed to generate accumulator for [" + type + "]. Falling back to BaseMetric:" + t);
+		}
+		constructors.put(type, ctor);
+		return ctor;
+	}
+	
+	/**
+	 * Generates the accumulator class for the passed type
+	 * @param type The metric type
+	 * @return the generated class
+	 * @throws Exception thrown on any generation failure
+	 */
+	@SuppressWarnings("unchecked")
+	private static Class<? extends IMetric> compile(MetricType type) throws Exception {
+		final boolean delta = type.isDelta(), sticky = type.isSticky(), counter = type.isCounter();
+		final ClassLoader loader = SpecializedMetric.class.getClassLoader();
+		final ClassPool pool = new ClassPool(true);
+		pool.appendClassPath(new LoaderClassPath(loader));
+		pool.importPackage(SpecializedMetric.class.getPackage().getName());
+		final String className = GENERATED_PACKAGE + "." + type.name().charAt(0) + type.name().substring(1).toLowerCase() + "Accumulator";
+		final CtClass ctClass = pool.makeClass(className, pool.get(SpecializedMetric.class.getName()));
+		ctClass.setModifiers(Modifier.PUBLIC | Modifier.FINAL);
+		
+		ctClass.addField(CtField.make("private long count;", ctClass));
+		if(!counter) {
+			ctClass.addField(CtField.make("private long total;", ctClass));
+			ctClass.addField(CtField.make("private long minimum;", ctClass));
+			ctClass.addField(CtField.make("private long maximum;", ctClass));
+		}
+		if(sticky && !counter) {
+			ctClass.addField(CtField.make("private long average;", ctClass));
+		}
+		if(delta) {
+			ctClass.addField(CtField.make("private long lastValue;", ctClass));
+			ctClass.addField(CtField.make("private boolean primed;", ctClass));
+		}
+		ctClass.addConstructor(CtNewConstructor.make("public " + ctClass.getSimpleName() + "(long id, String name, MetricType type) { super(id, name, type); }", ctClass));
+		
+		// Merge of a pre-reduced batch. The caller holds the lock.
+		if(counter) {
+			ctClass.addMethod(CtNewMethod.make("private synchronized void add(long n) { count += n; }", ctClass));
+		} else {
+			ctClass.addMethod(CtNewMethod.make(
+				"private void mergeLocked(long n, long sum, long min, long max) {" +
+				"  if(count==0L) { minimum = min; maximum = max; }" +
+				"  else { if(min<minimum) minimum = min; if(max>maximum) maximum = max; }" +
+				"  total += sum; count += n;" +
+				"}", ctClass));
+			ctClass.addMethod(CtNewMethod.make("private synchronized void merge(long n, long sum, long min, long max) { mergeLocked(n, sum, min, max); }", ctClass));
+		}
+		
+		// Single value process
+		StringBuilder b = new StringBuilder("public synchronized IMetric process(long value) {");
+		if(delta) {
+			b.append("if(!primed) { lastValue = value; primed = true; return this; }");
+			b.append("long delta = value - lastValue; lastValue = value; value = delta;");
+		}
+		if(counter) {
+			b.append("count += value;");
+		} else {
+			b.append("if(count==0L) { minimum = value; maximum = value; }");
+			b.append("else { if(value<minimum) minimum = value; if(value>maximum) maximum = value; }");
+			b.append("total += value; count++;");
+		}
+		b.append("return this; }");
+		ctClass.addMethod(CtNewMethod.make(b.toString(), ctClass));
+		
+		// Batch process. Delta batches are reduced under the lock since they depend on the last value.
+		if(delta) {
+			b = new StringBuilder("private synchronized void processDeltas(long[] values, int i, int end) {");
+			b.append("if(!primed) { lastValue = values[i]; primed = true; i++; }");
+			b.append("if(i==end) return;");
+			b.append("long last = lastValue; long sum = 0L; long n = (long)(end - i);");
+			if(counter) {
+				b.append("while(i<end) { long v = values[i]; sum += v - last; last = v; i++; }");
+				b.append("lastValue = last; count += sum; }");
+			} else {
+				b.append("long min = Long.MAX_VALUE; long max = Long.MIN_VALUE;");
+				b.append("while(i<end) { long v = values[i]; long d = v - last; last = v; sum += d; if(d<min) min = d; if(d>max) max = d; i++; }");
+				b.append("lastValue = last; mergeLocked(n, sum, min, max); }");
+			}
+			ctClass.addMethod(CtNewMethod.make(b.toString(), ctClass));
+		}
+		b = new StringBuilder("public IMetric process(long[] values, int off, int len) {");
+		b.append("checkBatch(values, off, len); if(len==0) return this;");
+		if(delta) {
+			b.append("processDeltas(values, off, off + len); return this; }");
+		} else {
+			b.append("int end = off + len; long sum = 0L;");
+			if(counter) {
+				b.append("for(int i = off; i < end; i++) { sum += values[i]; }");
+				b.append("add(sum); return this; }");
+			} else {
+				b.append("long min = Long.MAX_VALUE; long max = Long.MIN_VALUE;");
+				b.append("for(int i = off; i < end; i++) { long v = values[i]; sum += v; if(v<min) min = v; if(v>max) max = v; }");
+				b.append("merge((long)len, sum, min, max); return this; }");
+			}
+		}
+		ctClass.addMethod(CtNewMethod.make(b.toString(), ctClass));
+		
+		// Reset
+		b = new StringBuilder("public synchronized IMetric reset(long currentTime, IntervalSnapshot closed) {");
+		if(counter) {
+			b.append("if(closed!=null) closed.set((int)id, type, count, 0L, 0L, 0L, 0L);");
+		} else {
+			b.append("if(closed!=null) closed.set((int)id, type, count, total, getAverage(), minimum, maximum);");
+			if(sticky) {
+				b.append("if(count>0L) average = total/count;");
+			} else {
+				b.append("minimum = 0L; maximum = 0L;");
+			}
+			b.append("total = 0L;");
+		}
+		b.append("count = 0L; setIntervalTimes(currentTime); return this; }");
+		ctClass.addMethod(CtNewMethod.make(b.toString(), ctClass));
+		
+		// Getters
+		ctClass.addMethod(CtNewMethod.make("public long getCount() { return count; }", ctClass));
+		if(!counter) {
+			ctClass.addMethod(CtNewMethod.make("public long getMinimum() { return minimum; }", ctClass));
+			ctClass.addMethod(CtNewMethod.make("public long getMaximum() { return maximum; }", ctClass));
+			ctClass.addMethod(CtNewMethod.make("public long getAverage() { long c = count; if(c==0L) return " + (sticky ? "average" : "0L") + "; return total/c; }", ctClass));
+		}
+		final byte[] bytecode = ctClass.toBytecode();
+		ctClass.detach();
+		if(generatedLoader==null) {
+			generatedLoader = new GeneratedClassLoader(loader, SpecializedMetric.class.getProtectionDomain());
+		}
+		return (Class<? extends IMetric>)generatedLoader.define(className, bytecode);
+	}
+	
+	/**
+	 * <p>Title: GeneratedClassLoader</p>
+	 * <p>Description: Defines the generated accumulator classes as children of the loader of {@link SpecializedMetric}</p> 
+	 */
+	private static class GeneratedClassLoader extends ClassLoader {
+		/** The protection domain of the generated classes */
+		private final ProtectionDomain domain;
+		
+		/**
+		 * Creates a new GeneratedClassLoader
+		 * @param parent The parent class loader
+		 * @param domain The protection domain of the generated classes
+		 */
+		GeneratedClassLoader(ClassLoader parent, ProtectionDomain domain) {
+			super(parent);
+			this.domain = domain;
+		}
+		
+		/**
+		 * Defines a generated class
+		 * @param name The class name
+		 * @param bytecode The class bytes
+		 * @return the defined class
+		 */
+		Class<?> define(String name, byte[] bytecode) {
+			return defineClass(name, bytecode, 0, bytecode.length, domain);
+		}
+	}
+	
+	/**
+	 * Console logger
+	 * @param msg The message to log
+	 */
+	public static void log(Object msg) {
+		System.out.println(msg);
+	}
+}
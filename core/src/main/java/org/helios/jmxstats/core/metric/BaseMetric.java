@@ -56,24 +56,150 @@ public class BaseMetric implements IMetric {
 	protected long maximum;
 	/** The minimum value for the current interval */
 	protected long minimum;
+	/** The total of all values for the current interval */
+	protected long total;
+	/** The last raw value submitted to a delta metric */
+	protected long lastValue;
+	/** Indicates if a delta metric has received its first raw value */
+	protected boolean primed = false;
+	
+	/**
+	 * Creates a new BaseMetric
+	 * @param id The ID of the metric
+	 * @param name The metric name
+	 * @param type The metric type
+	 */
+	public BaseMetric(long id, String name, MetricType type) {
+		if(name==null) throw new IllegalArgumentException("The passed metric name was null", new Throwable());
+		if(type==null) throw new IllegalArgumentException("The passed metric type was null", new Throwable());
+		this.id = id;
+		this.name = name;
+		this.type = type;
+	}
 	
 	/**
 	 * {@inheritDoc}
 	 * @see org.helios.jmxstats.core.metric.IMetric#process(long)
 	 */
 	@Override
-	public IMetric process(long value) {
-		
+	public synchronized IMetric process(long value) {
+		if(type.isDelta()) {
+			if(!primed) {
+				lastValue = value;
+				primed = true;
+				return this;
+			}
+			long delta = value - lastValue;
+			lastValue = value;
+			value = delta;
+		}
+		if(type.isCounter()) {
+			count += value;
+		} else {
+			merge(1, value, value, value);
+		}
 		return this;
 	}
+	
+	/**
+	 * {@inheritDoc}
+	 * <p>Non-delta values are reduced to a count, total, minimum and maximum outside the lock.
+	 * Delta values depend on the retained last value so they are reduced inside the lock, but still in one acquisition.</p>
+	 * @see org.helios.jmxstats.core.metric.IMetric#process(long[], int, int)
+	 */
+	@Override
+	public IMetric process(long[] values, int off, int len) {
+		if(values==null) throw new IllegalArgumentException("The passed value array was null", new Throwable());
+		if(off<0 || len<0 || off+len>values.length || off+len<0) throw new IllegalArgumentException("Invalid offset/length [" + off + "/" + len + "] for value array of length [" + values.length + "]", new Throwable());
+		if(len==0) return this;
+		final int end = off + len;
+		if(type.isDelta()) {
+			synchronized(this) {
+				int i = off;
+				if(!primed) {
+					lastValue = values[i++];
+					primed = true;
+				}
+				if(i==end) return this;
+				final int first = i;
+				long last = lastValue, sum = 0, min = Long.MAX_VALUE, max = Long.MIN_VALUE;
+				for(; i < end; i++) {
+					final long v = values[i];
+					final long delta = v - last;
+					last = v;
+					sum += delta;
+					if(delta<min) min = delta;
+					if(delta>max) max = delta;
+				}
+				lastValue = last;
+				if(type.isCounter()) count += sum;
+				else merge(end - first, sum, min, max);
+			}
+			return this;
+		}
+		long sum = 0, min = Long.MAX_VALUE, max = Long.MIN_VALUE;
+		for(int i = off; i < end; i++) {
+			final long v = values[i];
+			sum += v;
+			if(v<min) min = v;
+			if(v>max) max = v;
+		}
+		synchronized(this) {
+			if(type.isCounter()) count += sum;
+			else merge(len, sum, min, max);
+		}
+		return this;
+	}
+	
+	/**
+	 * Merges a pre-reduced set of values into this metric's interval state. The caller must hold this metric's lock.
+	 * @param n The number of values reduced
+	 * @param sum The total of the values
+	 * @param min The minimum of the values
+	 * @param max The maximum of the values
+	 */
+	protected void merge(long n, long sum, long min, long max) {
+		if(count==0) {
+			minimum = min;
+			maximum = max;
+		} else {
+			if(min<minimum) minimum = min;
+			if(max>maximum) maximum = max;
+		}
+		total += sum;
+		count += n;
+	}
  
 	/**
 	 * {@inheritDoc}
+	 * <p>Sticky metrics retain the closed interval's average, minimum and maximum until the next value arrives.</p>
 	 * @see org.helios.jmxstats.core.metric.IMetric#reset(long)
 	 */
 	@Override
 	public IMetric reset(long currentTime) {
-		
+		return reset(currentTime, null);
+	}
+	
+	/**
+	 * {@inheritDoc}
+	 * @see org.helios.jmxstats.core.metric.IMetric#reset(long, org.helios.jmxstats.core.metric.IntervalSnapshot)
+	 */
+	@Override
+	public synchronized IMetric reset(long currentTime, IntervalSnapshot closed) {
+		if(closed!=null) {
+			closed.set((int)id, type, count, total, getAverage(), minimum, maximum);
+		}
+		if(type.isSticky()) {
+			if(count>0) average = total/count;
+		} else {
+			average = 0;
+			minimum = 0;
+			maximum = 0;
+		}
+		count = 0;
+		total = 0;
+		startTime = currentTime;
+		endTime = currentTime + SystemClock.getInterval() - 1;
 		return this;
 	}
 	/**
@@ -123,7 +249,8 @@ public class BaseMetric implements IMetric {
 	 */
 	@Override
 	public long getAverage() {
-		return average;
+		final long c = count;
+		return c==0 ? average : total/c;
 	}
 	/**
 	 * {@inheritDoc}
@@ -233,7 +360,7 @@ public class BaseMetric implements IMetric {
 		builder.append(", count=");
 		builder.append(count);
 		builder.append(", average=");
-		builder.append(average);
+		builder.append(getAverage());
 		builder.append(", maximum=");
 		builder.append(maximum);
 		builder.append(", minimum=");
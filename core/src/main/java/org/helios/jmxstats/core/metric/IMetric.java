@@ -39,6 +39,16 @@ public interface IMetric {
 	 * @return this metric
 	 */
 	public abstract IMetric process(long value);
+	
+	/**
+	 * Processes a batch of new interval values for the current interval.
+	 * The batch is accumulated locally and merged into the metric under a single lock acquisition.
+	 * @param values The array of values to process
+	 * @param off The offset in the array of the first value to process
+	 * @param len The number of values to process
+	 * @return this metric
+	 */
+	public abstract IMetric process(long[] values, int off, int len);
 
 	/**
 	 * Executes an interval reset on this metric
@@ -46,6 +56,14 @@ public interface IMetric {
 	 * @return this metric
 	 */
 	public abstract IMetric reset(long currentTime);
+	
+	/**
+	 * Executes an interval reset on this metric, atomically recording the closing interval's values into the passed snapshot
+	 * @param currentTime The common interval time
+	 * @param closed The snapshot to record the closing values into. Ignored if null.
+	 * @return this metric
+	 */
+	public abstract IMetric reset(long currentTime, IntervalSnapshot closed);
 
 	/**
 	 * Returns the globally unique metric id
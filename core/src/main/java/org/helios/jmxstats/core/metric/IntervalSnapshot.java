@@ -0,0 +1,249 @@
+/**
+ * Helios, OpenSource Monitoring
+ * Brought to you by the Helios Development Group
+ *
+ * Copyright 2007, Helios Development Group and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org. 
+ *
+ */
+package org.helios.jmxstats.core.metric;
+
+/**
+ * <p>Title: IntervalSnapshot</p>
+ * <p>Description: The values of every registered metric for a closed interval, held in dense arrays indexed by metric slot.
+ * A snapshot is populated by the registry during the interval switch and is effectively immutable once published.</p>
+ * <p>Every accessor accepts either a slot or a full metric handle, whose generation bits are ignored (see {@link MetricRegistry#SLOT_BITS}).</p> 
+ * <p>Company: Helios Development Group LLC</p>
+ * @author Whitehead (nwhitehead AT heliosdev DOT org)
+ * <p><code>org.helios.jmxstats.core.metric.IntervalSnapshot</code></p>
+ */
+public class IntervalSnapshot {
+	/** The interval start time */
+	protected final long startTime;
+	/** The interval end time */
+	protected final long endTime;
+	/** The number of metrics in the snapshot */
+	protected final int size;
+	/** The metric type ordinals */
+	protected final byte[] types;
+	/** The interval event counts */
+	protected final long[] counts;
+	/** The interval value totals */
+	protected final long[] totals;
+	/** The interval averages */
+	protected final long[] averages;
+	/** The interval minimums */
+	protected final long[] minimums;
+	/** The interval maximums */
+	protected final long[] maximums;
+	/** The sampling rates of sampled metrics. Zero for metrics that are not sampled. */
+	protected final float[] sampleRates;
+	
+	/**
+	 * Creates a new IntervalSnapshot
+	 * @param startTime The interval start time
+	 * @param endTime The interval end time
+	 * @param size The number of metrics in the snapshot
+	 */
+	public IntervalSnapshot(long startTime, long endTime, int size) {
+		if(size<0) throw new IllegalArgumentException("The passed size [" + size + "] was <0", new Throwable());
+		this.startTime = startTime;
+		this.endTime = endTime;
+		this.size = size;
+		types = new byte[size];
+		counts = new long[size];
+		totals = new long[size];
+		averages = new long[size];
+		minimums = new long[size];
+		maximums = new long[size];
+		sampleRates = new float[size];
+	}
+	
+	/**
+	 * Records the closing values of a metric. Called by the metric during its interval reset.
+	 * @param handle The metric handle
+	 * @param type The metric type
+	 * @param count The interval event count
+	 * @param total The interval value total
+	 * @param average The interval average
+	 * @param minimum The interval minimum
+	 * @param maximum The interval maximum
+	 */
+	public void set(int handle, MetricType type, long count, long total, long average, long minimum, long maximum) {
+		if(handle<0) return;
+		handle &= MetricRegistry.SLOT_MASK;
+		if(handle>=size) return;
+		types[handle] = (byte)type.ordinal();
+		counts[handle] = count;
+		totals[handle] = total;
+		averages[handle] = average;
+		minimums[handle] = minimum;
+		maximums[handle] = maximum;
+	}
+	
+	/**
+	 * Records the sampling of a sampled metric. Called by the metric during its interval reset, after its sampled values are set.
+	 * @param handle The metric handle
+	 * @param skipped The number of values counted but not sampled
+	 * @param rate The fraction of values sampled
+	 */
+	public void setSampling(int handle, long skipped, float rate) {
+		if(handle<0) return;
+		handle &= MetricRegistry.SLOT_MASK;
+		if(handle>=size) return;
+		counts[handle] += skipped;
+		sampleRates[handle] = rate;
+	}
+	
+	/**
+	 * Merges pre-reduced values into a metric's closing values. Callers must ensure no two threads merge the same handle concurrently.
+	 * Must not be called for sampled metrics, whose counts include skipped values that are not in the total.
+	 * @param handle The metric handle
+	 * @param n The number of values reduced, or the counter increment for counter metrics
+	 * @param sum The total of the values
+	 * @param min The minimum of the values
+	 * @param max The maximum of the values
+	 */
+	void merge(int handle, long n, long sum, long min, long max) {
+		if(n==0 || handle<0) return;
+		handle &= MetricRegistry.SLOT_MASK;
+		if(handle>=size) return;
+		final long c = counts[handle];
+		if(MetricType.decode(types[handle]).isCounter()) {
+			counts[handle] = c + n;
+			return;
+		}
+		if(c==0) {
+			minimums[handle] = min;
+			maximums[handle] = max;
+		} else {
+			if(min<minimums[handle]) minimums[handle] = min;
+			if(max>maximums[handle]) maximums[handle] = max;
+		}
+		counts[handle] = c + n;
+		totals[handle] += sum;
+		averages[handle] = totals[handle]/counts[handle];
+	}
+
+	/**
+	 * Returns the interval start time
+	 * @return the startTime
+	 */
+	public long getStartTime() {
+		return startTime;
+	}
+
+	/**
+	 * Returns the interval end time
+	 * @return the endTime
+	 */
+	public long getEndTime() {
+		return endTime;
+	}
+	
+	/**
+	 * Returns the number of metrics in the snapshot
+	 * @return the number of metrics in the snapshot
+	 */
+	public int size() {
+		return size;
+	}
+	
+	/**
+	 * Returns the type of the metric with the passed handle
+	 * @param handle The metric handle
+	 * @return the metric type
+	 */
+	public MetricType getType(int handle) {
+		return MetricType.decode(types[handle & MetricRegistry.SLOT_MASK]);
+	}
+	
+	/**
+	 * Returns the fraction of the metric's values that were accumulated. For a sampled metric the count is exact, while the
+	 * total, average, minimum and maximum are computed from the sampled values only.
+	 * @param handle The metric handle
+	 * @return the sampling rate, 1 for metrics that are not sampled
+	 */
+	public double getSampleRate(int handle) {
+		final float rate = sampleRates[handle & MetricRegistry.SLOT_MASK];
+		return rate==0f ? 1d : rate;
+	}
+	
+	/**
+	 * Returns the interval event count of the metric with the passed handle
+	 * @param handle The metric handle
+	 * @return the count
+	 */
+	public long getCount(int handle) {
+		return counts[handle & MetricRegistry.SLOT_MASK];
+	}
+	
+	/**
+	 * Returns the interval value total of the metric with the passed handle
+	 * @param handle The metric handle
+	 * @return the total
+	 */
+	public long getTotal(int handle) {
+		return totals[handle & MetricRegistry.SLOT_MASK];
+	}
+	
+	/**
+	 * Returns the interval average of the metric with the passed handle
+	 * @param handle The metric handle
+	 * @return the average
+	 */
+	public long getAverage(int handle) {
+		return averages[handle & MetricRegistry.SLOT_MASK];
+	}
+	
+	/**
+	 * Returns the interval minimum of the metric with the passed handle
+	 * @param handle The metric handle
+	 * @return the minimum
+	 */
+	public long getMinimum(int handle) {
+		return minimums[handle & MetricRegistry.SLOT_MASK];
+	}
+	
+	/**
+	 * Returns the interval maximum of the metric with the passed handle
+	 * @param handle The metric handle
+	 * @return the maximum
+	 */
+	public long getMaximum(int handle) {
+		return maximums[handle & MetricRegistry.SLOT_MASK];
+	}
+
+	/**
+	 * {@inheritDoc}
+	 * @see java.lang.Object#toString()
+	 */
+	@Override
+	public String toString() {
+		StringBuilder builder = new StringBuilder();
+		builder.append("IntervalSnapshot [startTime=");
+		builder.append(startTime);
+		builder.append(", endTime=");
+		builder.append(endTime);
+		builder.append(", size=");
+		builder.append(size);
+		builder.append("]");
+		return builder.toString();
+	}
+}
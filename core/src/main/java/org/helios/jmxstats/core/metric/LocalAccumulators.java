@@ -0,0 +1,196 @@
+/**
+ * Helios, OpenSource Monitoring
+ * Brought to you by the Helios Development Group
+ *
+ * Copyright 2007, Helios Development Group and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org. 
+ *
+ */
+package org.helios.jmxstats.core.metric;
+
+import java.lang.ref.WeakReference;
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicIntegerFieldUpdater;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * <p>Title: LocalAccumulators</p>
+ * <p>Description: A thread's private, unsynchronized accumulators for the metrics it records thread locally.
+ * The accumulators are double banked by the registry's local epoch: the owning thread records into the bank for the
+ * current epoch with plain stores while the interval thread harvests the other bank into the closed interval snapshot.</p>
+ * <p>The owning thread acknowledges epochs through {@link #active}: before recording it publishes the epoch it read with a volatile
+ * store, re-reads the epoch and retries until the two agree, and after recording it clears the marker with an ordered store.
+ * The interval thread flips the epoch and then waits in {@link #awaitRetired(int)} until the marker no longer holds the retired epoch.
+ * Since both sides store before they load, either the recording thread sees the new epoch, or the interval thread sees the marker and
+ * waits for the record to complete. The ordered clear then publishes the retired bank, including any growth of its arrays and limit,
+ * to the harvest.</p>
+ * <p>The volatile store in {@link #enter(int)} is the one fence on the record path, a full StoreLoad fence. It cannot be relaxed to an
+ * ordered store: an ordered store may be reordered after the following load of the epoch, so a thread could read the old epoch while the
+ * interval thread still sees the marker idle, and record into a bank that has already been harvested. The store is on a padded, thread
+ * private cache line, so the fence is uncontended, and recording uses no locks or read-modify-write instructions.</p> 
+ * <p>Company: Helios Development Group LLC</p>
+ * @author Whitehead (nwhitehead AT heliosdev DOT org)
+ * <p><code>org.helios.jmxstats.core.metric.LocalAccumulators</code></p>
+ */
+class LocalAccumulators {
+	/** The initial bank capacity */
+	static final int INITIAL_CAPACITY = 64;
+	/** The {@link #active} marker value when the owning thread is not recording */
+	static final int IDLE = -1;
+	/** The number of spins on a recording thread before parking between checks */
+	static final int SPINS = 1000;
+	/** Ordered updater for the active marker */
+	private static final AtomicIntegerFieldUpdater<LocalAccumulators> ACTIVE = AtomicIntegerFieldUpdater.newUpdater(LocalAccumulators.class, "active");
+	/** The owning thread */
+	final WeakReference<Thread> owner;
+	/** The two accumulator banks */
+	final Bank[] banks = new Bank[]{new Bank(), new Bank()};
+	/** Padding ahead of the active marker */
+	long p0, p1, p2, p3, p4, p5, p6, p7;
+	/** The epoch the owning thread is recording under, or {@link #IDLE} */
+	volatile int active = IDLE;
+	/** Padding behind the active marker */
+	long q0, q1, q2, q3, q4, q5, q6, q7;
+	
+	/**
+	 * Creates a new LocalAccumulators
+	 * @param owner The owning thread
+	 */
+	LocalAccumulators(Thread owner) {
+		this.owner = new WeakReference<Thread>(owner);
+	}
+	
+	/**
+	 * Indicates if the owning thread has terminated
+	 * @return true if the owning thread has terminated
+	 */
+	boolean isOrphaned() {
+		final Thread t = owner.get();
+		return t==null || !t.isAlive();
+	}
+	
+	/**
+	 * Publishes the passed epoch as the one the owning thread is about to record under. Must only be called by the owning thread.
+	 * This is a volatile, not an ordered, store: it must be visible before the caller re-reads the epoch.
+	 * @param epoch The epoch read by the owning thread
+	 */
+	void enter(int epoch) {
+		active = epoch;
+	}
+	
+	/**
+	 * Clears the active marker after recording, publishing the recorded values. Must only be called by the owning thread.
+	 */
+	void exit() {
+		ACTIVE.lazySet(this, IDLE);
+	}
+	
+	/**
+	 * Waits until the owning thread is no longer recording under the passed retired epoch, or has terminated
+	 * @param retired The retired epoch
+	 */
+	void awaitRetired(int retired) {
+		int spins = 0;
+		while(active==retired && !isOrphaned()) {
+			if(spins<SPINS) spins++;
+			else LockSupport.parkNanos(1000L);
+		}
+	}
+	
+	/**
+	 * Records a value. Must only be called by the owning thread between {@link #enter(int)} and {@link #exit()}.
+	 * @param bank The bank for the current epoch
+	 * @param slot The metric slot
+	 * @param value The value to record
+	 * @param counter true if the metric is a counter
+	 */
+	static void record(Bank bank, int slot, long value, boolean counter) {
+		if(slot>=bank.limit) bank.ensure(slot);
+		final long c = bank.counts[slot];
+		if(counter) {
+			bank.counts[slot] = c + value;
+			return;
+		}
+		if(c==0) {
+			bank.minimums[slot] = value;
+			bank.maximums[slot] = value;
+		} else {
+			if(value<bank.minimums[slot]) bank.minimums[slot] = value;
+			if(value>bank.maximums[slot]) bank.maximums[slot] = value;
+		}
+		bank.totals[slot] += value;
+		bank.counts[slot] = c + 1;
+	}
+	
+	/**
+	 * Merges a range of slots from the passed bank into the closed interval snapshot and clears them
+	 * @param bankIndex The index of the bank to harvest
+	 * @param closed The closed interval snapshot
+	 * @param lo The lowest slot to harvest
+	 * @param hi One past the highest slot to harvest
+	 */
+	void harvest(int bankIndex, IntervalSnapshot closed, int lo, int hi) {
+		final Bank bank = banks[bankIndex];
+		final long[] counts = bank.counts, totals = bank.totals;
+		final int end = Math.min(hi, Math.min(bank.limit, counts.length));
+		for(int h = lo; h < end; h++) {
+			final long n = counts[h];
+			if(n!=0) {
+				closed.merge(h, n, totals[h], bank.minimums[h], bank.maximums[h]);
+				counts[h] = 0;
+				totals[h] = 0;
+			}
+		}
+	}
+	
+	/**
+	 * <p>Title: Bank</p>
+	 * <p>Description: One bank of accumulators indexed by metric slot</p> 
+	 * <p>Company: Helios Development Group LLC</p>
+	 * @author Whitehead (nwhitehead AT heliosdev DOT org)
+	 * <p><code>org.helios.jmxstats.core.metric.LocalAccumulators.Bank</code></p>
+	 */
+	static final class Bank {
+		/** The event counts */
+		long[] counts = new long[INITIAL_CAPACITY];
+		/** The value totals */
+		long[] totals = new long[INITIAL_CAPACITY];
+		/** The minimums */
+		long[] minimums = new long[INITIAL_CAPACITY];
+		/** The maximums */
+		long[] maximums = new long[INITIAL_CAPACITY];
+		/** One past the highest slot recorded */
+		int limit = 0;
+		
+		/**
+		 * Ensures the bank can hold the passed slot
+		 * @param slot The slot to accommodate
+		 */
+		void ensure(int slot) {
+			if(slot>=counts.length) {
+				final int cap = Integer.highestOneBit(slot) << 1;
+				counts = Arrays.copyOf(counts, cap);
+				totals = Arrays.copyOf(totals, cap);
+				minimums = Arrays.copyOf(minimums, cap);
+				maximums = Arrays.copyOf(maximums, cap);
+			}
+			limit = slot+1;
+		}
+	}
+}
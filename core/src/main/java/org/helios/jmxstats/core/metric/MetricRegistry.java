@@ -0,0 +1,719 @@
+/**
+ * Helios, OpenSource Monitoring
+ * Brought to you by the Helios Development Group
+ *
+ * Copyright 2007, Helios Development Group and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org. 
+ *
+ */
+package org.helios.jmxstats.core.metric;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.helios.jmxstats.core.Controller.SystemClock;
+
+/**
+ * <p>Title: MetricRegistry</p>
+ * <p>Description: The registry of live metrics. Each metric is assigned an int handle on registration whose low {@link #SLOT_BITS} bits
+ * are its slot, its index in a dense array, so callers that resolve the handle once can submit values without any name lookup.</p>
+ * <p>The number of live metrics can be bounded with {@link #MAX_METRICS_PROP}, and metrics that record nothing for
+ * {@link #IDLE_INTERVALS_PROP} intervals are evicted by {@link #evictIdle()}. The slot of an evicted metric is quarantined
+ * for the same number of intervals before it is recycled for a new registration. The recycled handle carries the next generation
+ * of the slot in its high bits, so values submitted by holders of the evicted metric's handle are dropped rather than recorded
+ * into the new metric. A slot whose generations are exhausted is retired.</p>
+ * <p>{@link IntervalSnapshot}s are indexed by slot and accept either a slot or a handle.</p>
+ * <p>Company: Helios Development Group LLC</p>
+ * @author Whitehead (nwhitehead AT heliosdev DOT org)
+ * <p><code>org.helios.jmxstats.core.metric.MetricRegistry</code></p>
+ */
+public class MetricRegistry {
+	/** The singleton instance */
+	private static volatile MetricRegistry instance = null;
+	/** The singleton instance ctor lock */
+	private static final Object lock = new Object();
+
+	/** The initial capacity of the metric array */
+	public static final int INITIAL_CAPACITY = 1024;
+	/** The minimum number of accumulator slots (threads x metrics) per parallel harvest task */
+	public static final int HARVEST_CHUNK = 65536;
+	/** The number of harvest threads */
+	public static final int HARVEST_THREADS = Runtime.getRuntime().availableProcessors();
+	/** The system property that defines the maximum number of live metrics */
+	public static final String MAX_METRICS_PROP = "org.helios.metric.max";
+	/** The system property that defines the number of intervals a metric can stay idle before it is evicted. 0 disables eviction */
+	public static final String IDLE_INTERVALS_PROP = "org.helios.metric.idle.intervals";
+	/** The number of low handle bits holding the slot */
+	public static final int SLOT_BITS = 24;
+	/** The mask of the slot bits of a handle */
+	public static final int SLOT_MASK = (1 << SLOT_BITS) - 1;
+	/** The highest slot generation. Generations occupy the high handle bits below the sign bit */
+	public static final int MAX_GENERATION = (1 << (31 - SLOT_BITS)) - 1;
+	/** The maximum number of live metrics */
+	public static final int MAX_METRICS = Integer.getInteger(MAX_METRICS_PROP, Integer.MAX_VALUE);
+	/** The number of intervals a metric can stay idle before it is evicted */
+	public static final int IDLE_INTERVALS = Integer.getInteger(IDLE_INTERVALS_PROP, 0);
+	
+	/** The thread group for registry threads */
+	private static final ThreadGroup RegistryThreadGroup = new ThreadGroup("MetricRegistry");
+	/** Thread pool for harvesting thread local accumulators in parallel */
+	private static final ExecutorService harvestExecutor = Executors.newFixedThreadPool(HARVEST_THREADS, new ThreadFactory(){
+		private final AtomicInteger serial = new AtomicInteger(0);
+		@Override
+		public Thread newThread(Runnable r) {
+			Thread t = new Thread(RegistryThreadGroup, r, "HarvestWorker#" + serial.incrementAndGet());
+			t.setDaemon(true);
+			return t;
+		}
+	});
+
+	/** The metric name to handle map */
+	private final ConcurrentHashMap<String, Integer> handles = new ConcurrentHashMap<String, Integer>(INITIAL_CAPACITY, 0.75f, 32);
+	/** The registered metrics indexed by slot */
+	private volatile IMetric[] metrics = new IMetric[INITIAL_CAPACITY];
+	/** The number of allocated slots */
+	private volatile int size = 0;
+	/** The number of live (not evicted) metrics */
+	private volatile int liveCount = 0;
+	/** The sequence of the last closed interval */
+	private int intervalSeq = 0;
+	/** The sequence of the last interval each slot recorded a value in, or of its eviction for an evicted slot */
+	private int[] lastActive = new int[INITIAL_CAPACITY];
+	/** The handles of evicted metrics in eviction order, awaiting recycling of their slots */
+	private int[] quarantine = new int[64];
+	/** The number of handles in quarantine */
+	private int quarantined = 0;
+	/** The next generation handles of the recycled slots available for registration */
+	private int[] freeHandles = new int[64];
+	/** The number of recycled handles */
+	private int freeCount = 0;
+	/** The number of slots retired because their generations were exhausted */
+	private int retiredSlots = 0;
+	/** The number of values dropped because they were submitted to an evicted handle */
+	private final AtomicLong droppedValues = new AtomicLong(0);
+	/** The registration lock */
+	private final Object registrationLock = new Object();
+	/** The metric set version, incremented whenever metrics are registered or evicted */
+	private volatile int version = 0;
+	/** The tracked prefix memberships, updated under the registration lock */
+	private final CopyOnWriteArrayList<PrefixMembership> memberships = new CopyOnWriteArrayList<PrefixMembership>();
+	/** The number of holders pinning each slot's metric against eviction, guarded by the registration lock */
+	private int[] pins = new int[INITIAL_CAPACITY];
+	/** The last closed interval snapshot */
+	private volatile IntervalSnapshot closedInterval = null;
+	/** The thread local accumulator epoch. The low bit selects the bank threads record into */
+	private volatile int localEpoch = 0;
+	/** Serializes interval resets, so only one harvest flips the local epoch at a time */
+	private final Object resetLock = new Object();
+	/** The number of interval resets */
+	private volatile long resetCount = 0;
+	/** All thread local accumulators */
+	private final CopyOnWriteArrayList<LocalAccumulators> locals = new CopyOnWriteArrayList<LocalAccumulators>();
+	/** The calling thread's local accumulators */
+	private final ThreadLocal<LocalAccumulators> localAccumulators = new ThreadLocal<LocalAccumulators>() {
+		protected LocalAccumulators initialValue() {
+			LocalAccumulators la = new LocalAccumulators(Thread.currentThread());
+			locals.add(la);
+			return la;
+		}
+	};
+	/** Per thread scratch arrays for sorting batch submissions by handle */
+	private final ThreadLocal<long[][]> batchScratch = new ThreadLocal<long[][]>() {
+		protected long[][] initialValue() {
+			return new long[][]{new long[256], new long[256]};
+		}
+	};
+
+	/**
+	 * Acquires the MetricRegistry singleton instance
+	 * @return the MetricRegistry singleton instance
+	 */
+	public static MetricRegistry getInstance() {
+		if(instance == null) {
+			synchronized(lock) {
+				if(instance == null) {
+					instance = new MetricRegistry();
+				}
+			}
+		}
+		return instance;
+	}
+
+	private MetricRegistry() {
+	}
+
+	/**
+	 * Returns the handle for the named metric, registering a new metric of the passed type if one does not exist
+	 * @param name The metric name
+	 * @param type The metric type to register with if the metric does not exist
+	 * @return the metric handle
+	 */
+	public int getHandle(CharSequence name, MetricType type) {
+		return getHandle(name, type, null);
+	}
+	
+	/**
+	 * Returns the handle for the named metric, registering a new metric of the passed type and sampling if one does not exist.
+	 * Sampling is only applied on registration: an existing metric is returned as is.
+	 * @param name The metric name
+	 * @param type The metric type to register with if the metric does not exist
+	 * @param sampling The sampling policy to register with if the metric does not exist, or null for an exact metric
+	 * @return the metric handle
+	 * @throws IllegalStateException thrown if the metric does not exist and {@link #MAX_METRICS} metrics are live
+	 */
+	public int getHandle(CharSequence name, MetricType type, SamplingPolicy sampling) {
+		if(name==null) throw new IllegalArgumentException("The passed metric name was null", new Throwable());
+		if(type==null) throw new IllegalArgumentException("The passed metric type was null", new Throwable());
+		if(sampling!=null && (type.isDelta() || type.isCounter())) throw new IllegalArgumentException("Metric type [" + type + "] cannot be sampled", new Throwable());
+		final String key = name.toString();
+		Integer handle = handles.get(key);
+		if(handle==null) {
+			synchronized(registrationLock) {
+				handle = handles.get(key);
+				if(handle==null) {
+					if(liveCount>=MAX_METRICS) throw new IllegalStateException("Metric cardinality budget [" + MAX_METRICS + "] exhausted registering [" + key + "]");
+					if(freeCount==0 && size>SLOT_MASK) throw new IllegalStateException("Metric slots exhausted registering [" + key + "]");
+					final int h = freeCount>0 ? freeHandles[--freeCount] : size;
+					final int slot = h & SLOT_MASK;
+					IMetric[] arr = metrics;
+					if(slot==arr.length) {
+						arr = Arrays.copyOf(arr, arr.length*2);
+						lastActive = Arrays.copyOf(lastActive, arr.length);
+						pins = Arrays.copyOf(pins, arr.length);
+					}
+					final IMetric metric = AccumulatorCompiler.newMetric(h, key, type);
+					arr[slot] = sampling==null ? metric : new SampledMetric(metric, sampling);
+					lastActive[slot] = intervalSeq;
+					metrics = arr;
+					if(slot==size) size = slot+1;
+					liveCount++;
+					handle = h;
+					handles.put(key, handle);
+					version++;
+					for(PrefixMembership membership: memberships) {
+						membership.registered(key, h);
+					}
+				}
+			}
+		}
+		return handle;
+	}
+
+	/**
+	 * Returns the handle for the named metric
+	 * @param name The metric name
+	 * @return the metric handle or -1 if the metric is not registered
+	 */
+	public int getHandle(CharSequence name) {
+		if(name==null) throw new IllegalArgumentException("The passed metric name was null", new Throwable());
+		Integer handle = handles.get(name.toString());
+		return handle==null ? -1 : handle;
+	}
+
+	/**
+	 * Returns the metric for the passed handle
+	 * @param handle The metric handle
+	 * @return the metric, or null if the metric was evicted
+	 */
+	public IMetric getMetric(int handle) {
+		final int slot = handle & SLOT_MASK;
+		if(handle<0 || slot>=size) throw new IllegalArgumentException("Invalid metric handle [" + handle + "]", new Throwable());
+		return current(metrics[slot], handle);
+	}
+	
+	/**
+	 * Returns the metric occupying the passed slot, e.g. for iterating every live metric
+	 * @param slot The slot, less than {@link #size()}
+	 * @return the metric, or null if the slot is free
+	 */
+	public IMetric getMetricAt(int slot) {
+		if(slot<0 || slot>=size) throw new IllegalArgumentException("Invalid metric slot [" + slot + "]", new Throwable());
+		return metrics[slot];
+	}
+	
+	/**
+	 * Returns the slot of the passed handle, its index in the registry and in {@link IntervalSnapshot}s
+	 * @param handle The metric handle
+	 * @return the slot
+	 */
+	public static int slot(int handle) {
+		return handle & SLOT_MASK;
+	}
+	
+	/**
+	 * Indicates if the passed handle is the handle of a live metric, rather than of an evicted metric or of an older generation of its slot
+	 * @param handle The metric handle
+	 * @return true if the handle is current
+	 */
+	public boolean isCurrent(int handle) {
+		final int slot = handle & SLOT_MASK;
+		return handle>=0 && slot<size && current(metrics[slot], handle)!=null;
+	}
+
+	/**
+	 * Returns the number of allocated slots, which is one more than the highest slot
+	 * @return the number of allocated slots
+	 */
+	public int size() {
+		return size;
+	}
+	
+	/**
+	 * Returns the number of slots retired because their generations were exhausted
+	 * @return the number of retired slots
+	 */
+	public int getRetiredSlots() {
+		synchronized(registrationLock) {
+			return retiredSlots;
+		}
+	}
+	
+	/**
+	 * Returns the passed metric if it was registered with the passed handle
+	 * @param metric The metric occupying the handle's slot, or null
+	 * @param handle The handle
+	 * @return the metric, or null if the slot is free or holds another generation
+	 */
+	private static IMetric current(IMetric metric, int handle) {
+		return metric!=null && (int)metric.getId()==handle ? metric : null;
+	}
+	
+	/**
+	 * Exempts the metric with the passed handle from idle eviction, e.g. for metrics that are only recorded occasionally
+	 * by holders of the handle that cannot re-resolve it. Pins are counted, so each holder that stops using the handle
+	 * should call {@link #unpin(int)} once for each pin.
+	 * @param handle The metric handle
+	 */
+	public void pin(int handle) {
+		final int slot = handle & SLOT_MASK;
+		if(handle<0 || slot>=size) throw new IllegalArgumentException("Invalid metric handle [" + handle + "]", new Throwable());
+		synchronized(registrationLock) {
+			if(current(metrics[slot], handle)!=null) pins[slot]++;
+		}
+	}
+	
+	/**
+	 * Releases a pin of the metric with the passed handle. The metric may be evicted once idle after its last pin is released.
+	 * @param handle The metric handle
+	 */
+	public void unpin(int handle) {
+		final int slot = handle & SLOT_MASK;
+		if(handle<0 || slot>=size) throw new IllegalArgumentException("Invalid metric handle [" + handle + "]", new Throwable());
+		synchronized(registrationLock) {
+			if(current(metrics[slot], handle)!=null && pins[slot]>0) pins[slot]--;
+		}
+	}
+	
+	/**
+	 * Indicates if the metric with the passed handle is pinned against idle eviction
+	 * @param handle The metric handle
+	 * @return true if the handle is current and its metric is pinned
+	 */
+	public boolean isPinned(int handle) {
+		if(handle<0) return false;
+		final int slot = handle & SLOT_MASK;
+		synchronized(registrationLock) {
+			return slot<size && current(metrics[slot], handle)!=null && pins[slot]>0;
+		}
+	}
+	
+	/**
+	 * Starts tracking the live metrics whose names start with the passed prefix. The returned membership holds the matching
+	 * live metrics and is updated on every registration and eviction until it is passed to {@link #untrackPrefix(PrefixMembership)}.
+	 * Each tracked prefix adds a prefix test to every registration and eviction, so only a handful should be tracked.
+	 * @param prefix The name prefix
+	 * @return the membership
+	 */
+	public PrefixMembership trackPrefix(String prefix) {
+		if(prefix==null) throw new IllegalArgumentException("The passed prefix was null", new Throwable());
+		final PrefixMembership membership = new PrefixMembership(prefix);
+		synchronized(registrationLock) {
+			final IMetric[] arr = metrics;
+			for(int i = 0; i < size; i++) {
+				if(arr[i]!=null) membership.registered(arr[i].getName(), (int)arr[i].getId());
+			}
+			memberships.add(membership);
+		}
+		return membership;
+	}
+	
+	/**
+	 * Stops updating a prefix membership
+	 * @param membership The membership returned by {@link #trackPrefix(String)}
+	 */
+	public void untrackPrefix(PrefixMembership membership) {
+		memberships.remove(membership);
+	}
+	
+	/**
+	 * Returns the metric set version, which changes whenever metrics are registered or evicted.
+	 * Callers caching views of the metric set compare versions to detect a stale view.
+	 * @return the metric set version
+	 */
+	public int getVersion() {
+		return version;
+	}
+	
+	/**
+	 * Returns the number of live metrics
+	 * @return the number of live metrics
+	 */
+	public int getLiveCount() {
+		return liveCount;
+	}
+	
+	/**
+	 * Returns the number of values dropped because they were submitted to an evicted metric's handle, including handles of older generations
+	 * @return the number of dropped values
+	 */
+	public long getDroppedValues() {
+		return droppedValues.get();
+	}
+
+	/**
+	 * Processes a single value for the metric with the passed handle
+	 * @param handle The metric handle
+	 * @param value The value to process
+	 */
+	public void process(int handle, long value) {
+		final IMetric metric = getMetric(handle);
+		if(metric!=null) metric.process(value);
+		else droppedValues.incrementAndGet();
+	}
+
+	/**
+	 * Records a value for the metric with the passed handle into the calling thread's private accumulators.
+	 * No locks or read-modify-write instructions are used. The one fence is the volatile store to the thread's own padded epoch marker,
+	 * which is uncontended but is a full StoreLoad fence, see {@link LocalAccumulators}. The accumulators
+	 * are merged into the closed interval snapshot at the interval switch, so the value is visible in {@link #getClosedInterval()} but not
+	 * in the live {@link IMetric}. A value recorded while the interval switch is in progress may be attributed to the following interval,
+	 * but is never lost.
+	 * Delta metrics cannot be recorded thread locally since their deltas depend on a shared last value, and sampled metrics cannot
+	 * since thread local values would bypass the sampling policy and be averaged with the sampled metric's skipped count.
+	 * @param handle The metric handle
+	 * @param value The value to record
+	 */
+	public void processLocal(int handle, long value) {
+		final int slot = handle & SLOT_MASK;
+		if(handle<0 || slot>=size) throw new IllegalArgumentException("Invalid metric handle [" + handle + "]", new Throwable());
+		final IMetric metric = current(metrics[slot], handle);
+		if(metric==null) {
+			droppedValues.incrementAndGet();
+			return;
+		}
+		final MetricType type = metric.getType();
+		if(type.isDelta()) throw new IllegalArgumentException("Delta metric [" + metric.getName() + "] cannot be recorded thread locally", new Throwable());
+		if(metric instanceof SampledMetric) throw new IllegalArgumentException("Sampled metric [" + metric.getName() + "] cannot be recorded thread locally", new Throwable());
+		final LocalAccumulators la = localAccumulators.get();
+		int epoch = localEpoch;
+		la.enter(epoch);
+		for(int current = localEpoch; current!=epoch; current = localEpoch) {
+			epoch = current;
+			la.enter(epoch);
+		}
+		try {
+			LocalAccumulators.record(la.banks[epoch & 1], slot, value, type.isCounter());
+		} finally {
+			la.exit();
+		}
+	}
+
+	/**
+	 * Processes a batch of values for a batch of metrics, where {@code values[i]} is submitted to the metric with handle {@code handles[i]}.
+	 * Consecutive values for the same handle are processed under one metric lock acquisition. If the batch is not already
+	 * ordered by handle it is stably sorted by handle first (in per-thread scratch arrays) so that each metric is visited once, in
+	 * ascending handle order. The relative order of values for the same handle is preserved so delta metrics remain correct.
+	 * Values submitted to a handle of an evicted metric or of an older generation of its slot are dropped.
+	 * @param handles The metric handles
+	 * @param values The values to process
+	 * @param off The offset of the first entry in both arrays
+	 * @param len The number of entries to process
+	 */
+	public void process(int[] handles, long[] values, int off, int len) {
+		if(handles==null) throw new IllegalArgumentException("The passed handle array was null", new Throwable());
+		if(values==null) throw new IllegalArgumentException("The passed value array was null", new Throwable());
+		if(off<0 || len<0 || off+len<0 || off+len>handles.length || off+len>values.length) throw new IllegalArgumentException("Invalid offset/length [" + off + "/" + len + "] for handle array of length [" + handles.length + "] and value array of length [" + values.length + "]", new Throwable());
+		if(len==0) return;
+		final int end = off + len;
+		final int sz = size;
+		final IMetric[] arr = metrics;
+		boolean sorted = true;
+		int prior = Integer.MIN_VALUE;
+		for(int i = off; i < end; i++) {
+			final int h = handles[i];
+			if(h<0 || (h & SLOT_MASK)>=sz) throw new IllegalArgumentException("Invalid metric handle [" + h + "] at index [" + i + "]", new Throwable());
+			if(h<prior) sorted = false;
+			prior = h;
+		}
+		if(sorted) {
+			int runStart = off;
+			for(int i = off+1; i <= end; i++) {
+				if(i==end || handles[i]!=handles[runStart]) {
+					final int h = handles[runStart];
+					final IMetric metric = current(arr[h & SLOT_MASK], h);
+					if(metric!=null) metric.process(values, runStart, i-runStart);
+					else droppedValues.addAndGet(i-runStart);
+					runStart = i;
+				}
+			}
+			return;
+		}
+		long[][] scratch = batchScratch.get();
+		if(scratch[0].length<len) {
+			int cap = Integer.highestOneBit(len) << 1;
+			scratch = new long[][]{new long[cap], new long[cap]};
+			batchScratch.set(scratch);
+		}
+		final long[] keys = scratch[0], sortedValues = scratch[1];
+		for(int i = 0; i < len; i++) {
+			keys[i] = ((long)handles[off+i] << 32) | i;
+		}
+		Arrays.sort(keys, 0, len);
+		for(int i = 0; i < len; i++) {
+			sortedValues[i] = values[off + (int)keys[i]];
+		}
+		int runStart = 0;
+		for(int i = 1; i <= len; i++) {
+			if(i==len || (keys[i] >>> 32)!=(keys[runStart] >>> 32)) {
+				final int h = (int)(keys[runStart] >>> 32);
+				final IMetric metric = current(arr[h & SLOT_MASK], h);
+				if(metric!=null) metric.process(sortedValues, runStart, i-runStart);
+				else droppedValues.addAndGet(i-runStart);
+				runStart = i;
+			}
+		}
+	}
+
+	/**
+	 * Executes an interval reset on all registered metrics, merges the thread local accumulators and publishes the closed interval snapshot
+	 * @param currentTime The start time of the new interval
+	 * @return the closed interval snapshot
+	 */
+	public IntervalSnapshot reset(long currentTime) {
+		synchronized(resetLock) {
+			final int sz = size;
+			final IMetric[] arr = metrics;
+			final IntervalSnapshot closed = new IntervalSnapshot(currentTime - SystemClock.getInterval(), currentTime - 1, sz);
+			for(int i = 0; i < sz; i++) {
+				if(arr[i]!=null) arr[i].reset(currentTime, closed);
+			}
+			if(!locals.isEmpty()) {
+				harvestLocals(closed);
+			}
+			if(IDLE_INTERVALS>0) {
+				synchronized(registrationLock) {
+					final int seq = ++intervalSeq;
+					for(int i = 0; i < sz; i++) {
+						if(arr[i]!=null && closed.getCount(i)!=0) lastActive[i] = seq;
+					}
+				}
+			}
+			closedInterval = closed;
+			resetCount++;
+			return closed;
+		}
+	}
+	
+	/**
+	 * Returns the number of interval resets executed
+	 * @return the number of interval resets
+	 */
+	public long getResetCount() {
+		return resetCount;
+	}
+	
+	/**
+	 * Evicts every metric that has not recorded a value for {@link #IDLE_INTERVALS} intervals and recycles the slots
+	 * of metrics evicted {@link #IDLE_INTERVALS} intervals ago with the next generation handle. Called by the interval thread after {@link #reset(long)}.
+	 * @return the evicted metrics, or null if nothing was evicted
+	 */
+	public Eviction evictIdle() {
+		if(IDLE_INTERVALS<1) return null;
+		synchronized(registrationLock) {
+			final int seq = intervalSeq;
+			// recycle quarantined slots whose quarantine has expired
+			int q = 0;
+			while(q<quarantined && seq - lastActive[quarantine[q] & SLOT_MASK] >= IDLE_INTERVALS) {
+				final int prior = quarantine[q++];
+				if((prior >>> SLOT_BITS)==MAX_GENERATION) {
+					retiredSlots++;
+					continue;
+				}
+				if(freeCount==freeHandles.length) freeHandles = Arrays.copyOf(freeHandles, freeCount*2);
+				freeHandles[freeCount++] = prior + (1 << SLOT_BITS);
+			}
+			if(q>0) {
+				System.arraycopy(quarantine, q, quarantine, 0, quarantined-q);
+				quarantined -= q;
+			}
+			final int sz = size;
+			final IMetric[] arr = metrics;
+			Eviction evicted = null;
+			for(int i = 0; i < sz; i++) {
+				final IMetric metric = arr[i];
+				if(metric==null || seq - lastActive[i] < IDLE_INTERVALS || pins[i]>0) continue;
+				if(evicted==null) evicted = new Eviction();
+				final int handle = (int)metric.getId();
+				evicted.add(handle, metric.getName());
+				for(PrefixMembership membership: memberships) {
+					membership.evicted(metric.getName());
+				}
+				handles.remove(metric.getName());
+				arr[i] = null;
+				lastActive[i] = seq;
+				liveCount--;
+				if(quarantined==quarantine.length) quarantine = Arrays.copyOf(quarantine, quarantined*2);
+				quarantine[quarantined++] = handle;
+			}
+			metrics = arr;
+			if(evicted!=null) version++;
+			return evicted;
+		}
+	}
+	
+	/**
+	 * Returns the last closed interval snapshot
+	 * @return the last closed interval snapshot or null if no interval has closed yet
+	 */
+	public IntervalSnapshot getClosedInterval() {
+		return closedInterval;
+	}
+	
+	/**
+	 * Flips the local epoch, waits until every thread has acknowledged the flip by leaving any record under the retired epoch, and merges
+	 * the retired bank of every thread's local accumulators into the closed interval snapshot.
+	 * The slot range is partitioned across the harvest threads so no two threads merge the same slot.
+	 * @param closed The closed interval snapshot
+	 */
+	private void harvestLocals(final IntervalSnapshot closed) {
+		final int retired = localEpoch;
+		final int bank = retired & 1;
+		localEpoch = retired + 1;
+		final LocalAccumulators[] las = locals.toArray(new LocalAccumulators[0]);
+		for(int i = 0; i < las.length; i++) {
+			las[i].awaitRetired(retired);
+		}
+		final boolean[] orphaned = new boolean[las.length];
+		for(int i = 0; i < las.length; i++) {
+			orphaned[i] = las[i].isOrphaned();
+		}
+		final int sz = closed.size();
+		final int tasks = (int)Math.min(HARVEST_THREADS, Math.max(1L, ((long)las.length * sz) / HARVEST_CHUNK));
+		if(tasks==1) {
+			harvestRange(las, orphaned, bank, closed, 0, sz);
+		} else {
+			final int chunk = (sz + tasks - 1) / tasks;
+			List<Callable<Void>> harvesters = new ArrayList<Callable<Void>>(tasks);
+			for(int lo = 0; lo < sz; lo += chunk) {
+				final int from = lo, to = Math.min(sz, lo + chunk);
+				harvesters.add(new Callable<Void>() {
+					public Void call() {
+						harvestRange(las, orphaned, bank, closed, from, to);
+						return null;
+					}
+				});
+			}
+			try {
+				harvestExecutor.invokeAll(harvesters);
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+		}
+		for(int i = 0; i < las.length; i++) {
+			if(orphaned[i]) locals.remove(las[i]);
+		}
+	}
+	
+	/**
+	 * Merges a range of slots from the passed accumulators into the closed interval snapshot.
+	 * Both banks of orphaned accumulators are merged since their threads can no longer record.
+	 * @param las The accumulators to harvest
+	 * @param orphaned Indicates which accumulators belong to terminated threads
+	 * @param bank The index of the retired bank
+	 * @param closed The closed interval snapshot
+	 * @param lo The lowest slot to harvest
+	 * @param hi One past the highest slot to harvest
+	 */
+	private static void harvestRange(LocalAccumulators[] las, boolean[] orphaned, int bank, IntervalSnapshot closed, int lo, int hi) {
+		for(int i = 0; i < las.length; i++) {
+			las[i].harvest(bank, closed, lo, hi);
+			if(orphaned[i]) las[i].harvest(bank ^ 1, closed, lo, hi);
+		}
+	}
+	
+	/**
+	 * <p>Title: Eviction</p>
+	 * <p>Description: The metrics evicted by one {@link MetricRegistry#evictIdle()} call, in ascending slot order</p> 
+	 */
+	public static final class Eviction {
+		/** The evicted handles */
+		private int[] handles = new int[16];
+		/** The evicted names */
+		private String[] names = new String[16];
+		/** The number of evicted metrics */
+		private int count = 0;
+		
+		private Eviction() {
+		}
+		
+		private void add(int handle, String name) {
+			if(count==handles.length) {
+				handles = Arrays.copyOf(handles, count*2);
+				names = Arrays.copyOf(names, count*2);
+			}
+			handles[count] = handle;
+			names[count++] = name;
+		}
+		
+		/**
+		 * Returns the number of evicted metrics
+		 * @return the number of evicted metrics
+		 */
+		public int size() {
+			return count;
+		}
+		
+		/**
+		 * Returns the handle of an evicted metric
+		 * @param index The index of the evicted metric, less than {@link #size()}
+		 * @return the evicted metric's handle
+		 */
+		public int getHandle(int index) {
+			return handles[index];
+		}
+		
+		/**
+		 * Returns the name of an evicted metric
+		 * @param index The index of the evicted metric, less than {@link #size()}
+		 * @return the evicted metric's name
+		 */
+		public String getName(int index) {
+			return names[index];
+		}
+	}
+}
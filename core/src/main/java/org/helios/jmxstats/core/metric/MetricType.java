@@ -24,10 +24,6 @@
  */
 package org.helios.jmxstats.core.metric;
 
-import java.util.Collections;
-import java.util.HashMap;
-import java.util.Map;
-
 /**
  * <p>Title: MetricType</p>
  * <p>Description: Defines the metric types and related variant behavior</p> 
@@ -49,14 +45,30 @@ public enum MetricType {
 	INTERVALCOUNT;
 	
 	/** Decodes of ordinal to MetricType */
-	private static final Map<Integer, MetricType> ORD2TYPE;
+	private static final MetricType[] ORD2TYPE = MetricType.values();
+	
+	/**
+	 * Indicates if this type retains the last closed interval's average, minimum and maximum across an interval switch
+	 * @return true if this type is sticky
+	 */
+	public boolean isSticky() {
+		return this==STICKY || this==DELTASTICKY;
+	}
+	
+	/**
+	 * Indicates if this type processes the delta between consecutive submitted values rather than the values themselves
+	 * @return true if this is a delta type
+	 */
+	public boolean isDelta() {
+		return this==DELTA || this==DELTASTICKY;
+	}
 	
-	static {
-		Map<Integer, MetricType> tmp = new HashMap<Integer, MetricType>(MetricType.values().length);
-		for(MetricType mt: MetricType.values()) {
-			tmp.put(mt.ordinal(), mt);
-		}
-		ORD2TYPE = Collections.unmodifiableMap(new HashMap<Integer, MetricType>(tmp));
+	/**
+	 * Indicates if this type only counts, ignoring average, minimum and maximum
+	 * @return true if this is a counter type
+	 */
+	public boolean isCounter() {
+		return this==INTERVALCOUNT;
 	}
 	
 	/**
@@ -65,9 +77,8 @@ public enum MetricType {
 	 * @return the MetricType
 	 */
 	public static MetricType decode(int ord) {
-		MetricType mt = ORD2TYPE.get(ord);
-		if(mt==null) throw new IllegalArgumentException("The passed ordinal [" + ord + "] does not map to a MetricType", new Throwable());
-		return mt;
+		if(ord<0 || ord>=ORD2TYPE.length) throw new IllegalArgumentException("The passed ordinal [" + ord + "] does not map to a MetricType", new Throwable());
+		return ORD2TYPE[ord];
 	}
 	
 	/**
@@ -0,0 +1,107 @@
+/**
+ * Helios, OpenSource Monitoring
+ * Brought to you by the Helios Development Group
+ *
+ * Copyright 2007, Helios Development Group and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org. 
+ *
+ */
+package org.helios.jmxstats.core.metric;
+
+import java.util.Collections;
+import java.util.Map;
+import java.util.concurrent.ConcurrentSkipListMap;
+
+/**
+ * <p>Title: PrefixMembership</p>
+ * <p>Description: The live metrics whose names start with a prefix, kept up to date by the {@link MetricRegistry} as metrics are
+ * registered and evicted, so a view of one prefix is rebuilt only when that prefix's membership changes and without scanning the registry.
+ * Created with {@link MetricRegistry#trackPrefix(String)} and released with {@link MetricRegistry#untrackPrefix(PrefixMembership)}.</p> 
+ * <p>Company: Helios Development Group LLC</p>
+ * @author Whitehead (nwhitehead AT heliosdev DOT org)
+ * <p><code>org.helios.jmxstats.core.metric.PrefixMembership</code></p>
+ */
+public final class PrefixMembership {
+	/** The name prefix */
+	private final String prefix;
+	/** The member metric handles keyed and sorted by name */
+	private final ConcurrentSkipListMap<String, Integer> members = new ConcurrentSkipListMap<String, Integer>();
+	/** The membership version, incremented whenever a member is added or removed */
+	private volatile int version = 0;
+	
+	/**
+	 * Creates a new PrefixMembership
+	 * @param prefix The name prefix
+	 */
+	PrefixMembership(String prefix) {
+		this.prefix = prefix;
+	}
+	
+	/**
+	 * Adds a registered metric if its name starts with the prefix. Called by the registry under its registration lock.
+	 * @param name The metric name
+	 * @param handle The metric handle
+	 */
+	void registered(String name, int handle) {
+		if(!name.startsWith(prefix)) return;
+		members.put(name, handle);
+		version++;
+	}
+	
+	/**
+	 * Removes an evicted metric if its name starts with the prefix. Called by the registry under its registration lock.
+	 * @param name The metric name
+	 */
+	void evicted(String name) {
+		if(!name.startsWith(prefix)) return;
+		if(members.remove(name)!=null) version++;
+	}
+	
+	/**
+	 * Returns the name prefix
+	 * @return the prefix
+	 */
+	public String getPrefix() {
+		return prefix;
+	}
+	
+	/**
+	 * Returns the membership version. Read it before the members, so a change made while they are read shows as a newer version.
+	 * @return the membership version
+	 */
+	public int getVersion() {
+		return version;
+	}
+	
+	/**
+	 * Returns the member metric handles keyed by name, in name order. The map is live and read only.
+	 * @return the members
+	 */
+	public Map<String, Integer> getMembers() {
+		return Collections.unmodifiableMap(members);
+	}
+	
+	/**
+	 * Returns the number of members
+	 * @return the number of members
+	 */
+	public int size() {
+		return members.size();
+	}
+}
@@ -0,0 +1,341 @@
+/**
+ * Helios, OpenSource Monitoring
+ * Brought to you by the Helios Development Group
+ *
+ * Copyright 2007, Helios Development Group and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org. 
+ *
+ */
+package org.helios.jmxstats.core.metric;
+
+import java.lang.ref.WeakReference;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicLongFieldUpdater;
+
+/**
+ * <p>Title: SampledMetric</p>
+ * <p>Description: A metric decorator for very high rate sources which only passes a fraction of values, selected by a
+ * {@link SamplingPolicy}, to the underlying accumulator. Values that are not sampled are only counted, in a running count
+ * private to the recording thread and advanced with an ordered store, so skipping a value takes no atomic instruction and no fence.
+ * The interval reset sums the growth of every thread's count since the last reset, so the interval event count stays exact while the
+ * average, minimum and maximum are estimated from the sample. A skip still in flight on another core when the interval closes is
+ * counted in the next interval. The sampling rate is recorded in the closed interval snapshot so readers know the precision.</p> 
+ * <p>Company: Helios Development Group LLC</p>
+ * @author Whitehead (nwhitehead AT heliosdev DOT org)
+ * <p><code>org.helios.jmxstats.core.metric.SampledMetric</code></p>
+ */
+public class SampledMetric implements IMetric {
+	/** Ordered updater for a thread's running skipped count */
+	private static final AtomicLongFieldUpdater<Recorder> SKIPPED = AtomicLongFieldUpdater.newUpdater(Recorder.class, "skipped");
+	
+	/** Per thread scratch array for gathering the sampled values of a batch */
+	private static final ThreadLocal<long[][]> batchScratch = new ThreadLocal<long[][]>() {
+		protected long[][] initialValue() {
+			return new long[][]{new long[256]};
+		}
+	};
+	
+	/** The underlying accumulator */
+	private final IMetric delegate;
+	/** The sampling policy */
+	private final SamplingPolicy policy;
+	/** Indicates if the policy is random */
+	private final boolean random;
+	/** The random sampling threshold */
+	private final long threshold;
+	/** The Nth sampling period */
+	private final int period;
+	/** The recorders of every thread that has recorded to this metric */
+	private final CopyOnWriteArrayList<Recorder> recorders = new CopyOnWriteArrayList<Recorder>();
+	/** The calling thread's recorder */
+	private final ThreadLocal<Recorder> recorder = new ThreadLocal<Recorder>() {
+		protected Recorder initialValue() {
+			final Recorder rec = new Recorder(Thread.currentThread());
+			recorders.add(rec);
+			return rec;
+		}
+	};
+	/** The Nth sampling tick. Deliberately unsynchronized: a lost update only shifts the sampling phase, the count stays exact. */
+	private int tick = 0;
+	
+	/**
+	 * Creates a new SampledMetric
+	 * @param delegate The underlying accumulator
+	 * @param policy The sampling policy
+	 */
+	public SampledMetric(IMetric delegate, SamplingPolicy policy) {
+		if(delegate==null) throw new IllegalArgumentException("The passed delegate was null", new Throwable());
+		if(policy==null) throw new IllegalArgumentException("The passed sampling policy was null", new Throwable());
+		if(delegate.getType().isDelta() || delegate.getType().isCounter()) throw new IllegalArgumentException("Metric type [" + delegate.getType() + "] cannot be sampled", new Throwable());
+		this.delegate = delegate;
+		this.policy = policy;
+		this.random = policy.getMode()==SamplingPolicy.Mode.RANDOM;
+		this.threshold = policy.threshold;
+		this.period = policy.getPeriod();
+	}
+	
+	/**
+	 * Decides if the next value is sampled
+	 * @param rec The calling thread's recorder
+	 * @return true to sample the value
+	 */
+	private boolean sample(Recorder rec) {
+		if(random) {
+			long x = rec.seed;
+			x ^= x << 13;
+			x ^= x >>> 7;
+			x ^= x << 17;
+			rec.seed = x;
+			return (x >>> 11) < threshold;
+		}
+		final int t = tick + 1;
+		if(t>=period) {
+			tick = 0;
+			return true;
+		}
+		tick = t;
+		return false;
+	}
+	
+	/**
+	 * Returns the number of values skipped in the current interval
+	 * @return the number of skipped values
+	 */
+	public long getSkippedCount() {
+		long total = 0;
+		for(Recorder rec: recorders) {
+			total += rec.skipped - rec.harvested;
+		}
+		return total;
+	}
+
+	/**
+	 * {@inheritDoc}
+	 * @see org.helios.jmxstats.core.metric.IMetric#process(long)
+	 */
+	@Override
+	public IMetric process(long value) {
+		final Recorder rec = recorder.get();
+		if(sample(rec)) {
+			delegate.process(value);
+		} else {
+			SKIPPED.lazySet(rec, rec.skipped + 1);
+		}
+		return this;
+	}
+
+	/**
+	 * {@inheritDoc}
+	 * <p>The sampled values of the batch are gathered and passed to the accumulator as one batch, and the skipped values are counted with one store.</p>
+	 * @see org.helios.jmxstats.core.metric.IMetric#process(long[], int, int)
+	 */
+	@Override
+	public IMetric process(long[] values, int off, int len) {
+		SpecializedMetric.checkBatch(values, off, len);
+		if(len==0) return this;
+		long[][] scratch = batchScratch.get();
+		if(scratch[0].length<len) {
+			scratch[0] = new long[Integer.highestOneBit(len) << 1];
+		}
+		final long[] sampled = scratch[0];
+		final Recorder rec = recorder.get();
+		final int end = off + len;
+		int k = 0;
+		for(int i = off; i < end; i++) {
+			if(sample(rec)) sampled[k++] = values[i];
+		}
+		if(k>0) delegate.process(sampled, 0, k);
+		if(k<len) SKIPPED.lazySet(rec, rec.skipped + len - k);
+		return this;
+	}
+
+	/**
+	 * {@inheritDoc}
+	 * @see org.helios.jmxstats.core.metric.IMetric#reset(long)
+	 */
+	@Override
+	public IMetric reset(long currentTime) {
+		return reset(currentTime, null);
+	}
+
+	/**
+	 * {@inheritDoc}
+	 * <p>Adds the skipped count to the closed interval count and records the sampling rate. The recorders of terminated threads
+	 * are harvested one last time and dropped.</p>
+	 * @see org.helios.jmxstats.core.metric.IMetric#reset(long, org.helios.jmxstats.core.metric.IntervalSnapshot)
+	 */
+	@Override
+	public IMetric reset(long currentTime, IntervalSnapshot closed) {
+		delegate.reset(currentTime, closed);
+		long skippedCount = 0;
+		for(Recorder rec: recorders) {
+			// read liveness first: a terminated thread's final count is then visible
+			final boolean orphaned = rec.isOrphaned();
+			final long total = rec.skipped;
+			skippedCount += total - rec.harvested;
+			rec.harvested = total;
+			if(orphaned) recorders.remove(rec);
+		}
+		if(closed!=null) {
+			closed.setSampling((int)delegate.getId(), skippedCount, (float)policy.getRate());
+		}
+		return this;
+	}
+	
+	/**
+	 * Returns the sampling policy
+	 * @return the sampling policy
+	 */
+	public SamplingPolicy getSamplingPolicy() {
+		return policy;
+	}
+
+	/**
+	 * {@inheritDoc}
+	 * @see org.helios.jmxstats.core.metric.IMetric#getId()
+	 */
+	@Override
+	public long getId() {
+		return delegate.getId();
+	}
+
+	/**
+	 * {@inheritDoc}
+	 * @see org.helios.jmxstats.core.metric.IMetric#getName()
+	 */
+	@Override
+	public String getName() {
+		return delegate.getName();
+	}
+
+	/**
+	 * {@inheritDoc}
+	 * @see org.helios.jmxstats.core.metric.IMetric#getStartTime()
+	 */
+	@Override
+	public long getStartTime() {
+		return delegate.getStartTime();
+	}
+
+	/**
+	 * {@inheritDoc}
+	 * @see org.helios.jmxstats.core.metric.IMetric#getEndTime()
+	 */
+	@Override
+	public long getEndTime() {
+		return delegate.getEndTime();
+	}
+
+	/**
+	 * {@inheritDoc}
+	 * <p>The exact count: sampled plus skipped values</p>
+	 * @see org.helios.jmxstats.core.metric.IMetric#getCount()
+	 */
+	@Override
+	public long getCount() {
+		return delegate.getCount() + getSkippedCount();
+	}
+
+	/**
+	 * {@inheritDoc}
+	 * <p>An estimate from the sampled values</p>
+	 * @see org.helios.jmxstats.core.metric.IMetric#getAverage()
+	 */
+	@Override
+	public long getAverage() {
+		return delegate.getAverage();
+	}
+
+	/**
+	 * {@inheritDoc}
+	 * <p>An estimate from the sampled values</p>
+	 * @see org.helios.jmxstats.core.metric.IMetric#getMaximum()
+	 */
+	@Override
+	public long getMaximum() {
+		return delegate.getMaximum();
+	}
+
+	/**
+	 * {@inheritDoc}
+	 * <p>An estimate from the sampled values</p>
+	 * @see org.helios.jmxstats.core.metric.IMetric#getMinimum()
+	 */
+	@Override
+	public long getMinimum() {
+		return delegate.getMinimum();
+	}
+
+	/**
+	 * {@inheritDoc}
+	 * @see org.helios.jmxstats.core.metric.IMetric#getType()
+	 */
+	@Override
+	public MetricType getType() {
+		return delegate.getType();
+	}
+
+	/**
+	 * {@inheritDoc}
+	 * @see java.lang.Object#toString()
+	 */
+	@Override
+	public String toString() {
+		return "SampledMetric [" + policy + ", skipped=" + getSkippedCount() + ", " + delegate + "]";
+	}
+	
+	/**
+	 * <p>Title: Recorder</p>
+	 * <p>Description: One thread's sampling state for a sampled metric: its PRNG state and its running count of skipped values.
+	 * Only the owning thread writes the seed and the skipped count. Only the interval thread writes the harvested count.</p> 
+	 */
+	static final class Recorder {
+		/** The owning thread */
+		private final WeakReference<Thread> owner;
+		/** The xorshift PRNG state */
+		long seed;
+		/** Padding ahead of the skipped count */
+		long p0, p1, p2, p3, p4, p5, p6, p7;
+		/** The number of values the owning thread has skipped */
+		volatile long skipped = 0;
+		/** The skipped count at the last interval reset */
+		long harvested = 0;
+		/** Padding behind the skipped count */
+		long q0, q1, q2, q3, q4, q5, q6, q7;
+		
+		/**
+		 * Creates a new Recorder
+		 * @param owner The owning thread
+		 */
+		Recorder(Thread owner) {
+			this.owner = new WeakReference<Thread>(owner);
+			final long s = System.nanoTime() ^ (owner.getId() * 0x9E3779B97F4A7C15L) ^ System.identityHashCode(this);
+			seed = s==0 ? 0x9E3779B97F4A7C15L : s;
+		}
+		
+		/**
+		 * Indicates if the owning thread has terminated
+		 * @return true if the owning thread has terminated
+		 */
+		boolean isOrphaned() {
+			final Thread t = owner.get();
+			return t==null || !t.isAlive();
+		}
+	}
+}
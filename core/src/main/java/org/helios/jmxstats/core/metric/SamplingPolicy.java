@@ -0,0 +1,125 @@
+/**
+ * Helios, OpenSource Monitoring
+ * Brought to you by the Helios Development Group
+ *
+ * Copyright 2007, Helios Development Group and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org. 
+ *
+ */
+package org.helios.jmxstats.core.metric;
+
+/**
+ * <p>Title: SamplingPolicy</p>
+ * <p>Description: Defines how a sampled metric selects the values it accumulates. Either a random fraction of values is selected
+ * through a fast thread local PRNG, or every Nth value is selected. The event count of a sampled metric stays exact while the
+ * average, minimum and maximum become estimates.</p> 
+ * <p>Company: Helios Development Group LLC</p>
+ * @author Whitehead (nwhitehead AT heliosdev DOT org)
+ * <p><code>org.helios.jmxstats.core.metric.SamplingPolicy</code></p>
+ */
+public class SamplingPolicy {
+	/** The sampling mode */
+	private final Mode mode;
+	/** The fraction of values sampled */
+	private final double rate;
+	/** The sampling period for {@link Mode#NTH} */
+	private final int period;
+	/** The PRNG threshold for {@link Mode#RANDOM}, a 53 bit fraction */
+	final long threshold;
+	
+	/**
+	 * <p>Title: Mode</p>
+	 * <p>Description: Enumerates the sampling modes</p> 
+	 * <p>Company: Helios Development Group LLC</p>
+	 * @author Whitehead (nwhitehead AT heliosdev DOT org)
+	 * <p><code>org.helios.jmxstats.core.metric.SamplingPolicy.Mode</code></p>
+	 */
+	public static enum Mode {
+		/** Each value is sampled with a fixed probability */
+		RANDOM,
+		/** Every Nth value is sampled */
+		NTH;
+	}
+	
+	/**
+	 * Creates a policy that samples each value with the passed probability
+	 * @param fraction The probability of sampling a value, greater than 0 and at most 1
+	 * @return the sampling policy
+	 */
+	public static SamplingPolicy random(double fraction) {
+		if(!(fraction>0d && fraction<=1d)) throw new IllegalArgumentException("The passed sampling fraction [" + fraction + "] is not in (0, 1]", new Throwable());
+		return new SamplingPolicy(Mode.RANDOM, fraction, 0);
+	}
+	
+	/**
+	 * Creates a policy that samples every Nth value
+	 * @param period The sampling period N
+	 * @return the sampling policy
+	 */
+	public static SamplingPolicy everyNth(int period) {
+		if(period<1) throw new IllegalArgumentException("The passed sampling period [" + period + "] was <1", new Throwable());
+		return new SamplingPolicy(Mode.NTH, 1d/period, period);
+	}
+	
+	/**
+	 * Creates a new SamplingPolicy
+	 * @param mode The sampling mode
+	 * @param rate The fraction of values sampled
+	 * @param period The sampling period for {@link Mode#NTH}
+	 */
+	private SamplingPolicy(Mode mode, double rate, int period) {
+		this.mode = mode;
+		this.rate = rate;
+		this.period = period;
+		this.threshold = (long)(rate * (1L << 53));
+	}
+
+	/**
+	 * Returns the sampling mode
+	 * @return the mode
+	 */
+	public Mode getMode() {
+		return mode;
+	}
+
+	/**
+	 * Returns the fraction of values sampled
+	 * @return the rate
+	 */
+	public double getRate() {
+		return rate;
+	}
+
+	/**
+	 * Returns the sampling period for {@link Mode#NTH}, or zero for {@link Mode#RANDOM}
+	 * @return the period
+	 */
+	public int getPeriod() {
+		return period;
+	}
+
+	/**
+	 * {@inheritDoc}
+	 * @see java.lang.Object#toString()
+	 */
+	@Override
+	public String toString() {
+		return mode==Mode.NTH ? "SamplingPolicy [every " + period + "]" : "SamplingPolicy [random " + rate + "]";
+	}
+}
@@ -0,0 +1,231 @@
+/**
+ * Helios, OpenSource Monitoring
+ * Brought to you by the Helios Development Group
+ *
+ * Copyright 2007, Helios Development Group and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org. 
+ *
+ */
+package org.helios.jmxstats.core.metric;
+
+import org.helios.jmxstats.core.Controller.SystemClock;
+
+/**
+ * <p>Title: SpecializedMetric</p>
+ * <p>Description: The abstract base for metric classes generated by the {@link AccumulatorCompiler}.
+ * It holds only the metric identity and interval times: each generated subclass declares the accumulator fields its
+ * {@link MetricType} needs and implements straight-line <code>process</code> and <code>reset</code> code for it.</p> 
+ * <p>Company: Helios Development Group LLC</p>
+ * @author Whitehead (nwhitehead AT heliosdev DOT org)
+ * <p><code>org.helios.jmxstats.core.metric.SpecializedMetric</code></p>
+ */
+public abstract class SpecializedMetric implements IMetric {
+	/** The ID of the metric */
+	protected final long id;
+	/** The metric name */
+	protected final String name;
+	/** The metric type */
+	protected final MetricType type;
+	/** The interval start time */
+	protected long startTime;
+	/** The interval end time */
+	protected long endTime;
+	
+	/**
+	 * Creates a new SpecializedMetric
+	 * @param id The ID of the metric
+	 * @param name The metric name
+	 * @param type The metric type
+	 */
+	protected SpecializedMetric(long id, String name, MetricType type) {
+		if(name==null) throw new IllegalArgumentException("The passed metric name was null", new Throwable());
+		if(type==null) throw new IllegalArgumentException("The passed metric type was null", new Throwable());
+		this.id = id;
+		this.name = name;
+		this.type = type;
+	}
+	
+	/**
+	 * Validates the bounds of a batch
+	 * @param values The array of values
+	 * @param off The offset of the first value
+	 * @param len The number of values
+	 */
+	protected static void checkBatch(long[] values, int off, int len) {
+		if(values==null) throw new IllegalArgumentException("The passed value array was null", new Throwable());
+		if(off<0 || len<0 || off+len>values.length || off+len<0) throw new IllegalArgumentException("Invalid offset/length [" + off + "/" + len + "] for value array of length [" + values.length + "]", new Throwable());
+	}
+	
+	/**
+	 * Sets the interval times for the interval starting at the passed time
+	 * @param currentTime The interval start time
+	 */
+	protected void setIntervalTimes(long currentTime) {
+		startTime = currentTime;
+		endTime = currentTime + SystemClock.getInterval() - 1;
+	}
+	
+	/**
+	 * {@inheritDoc}
+	 * @see org.helios.jmxstats.core.metric.IMetric#reset(long)
+	 */
+	@Override
+	public IMetric reset(long currentTime) {
+		return reset(currentTime, null);
+	}
+
+	/**
+	 * {@inheritDoc}
+	 * @see org.helios.jmxstats.core.metric.IMetric#getId()
+	 */
+	@Override
+	public long getId() {
+		return id;
+	}
+
+	/**
+	 * {@inheritDoc}
+	 * @see org.helios.jmxstats.core.metric.IMetric#getName()
+	 */
+	@Override
+	public String getName() {
+		return name;
+	}
+
+	/**
+	 * {@inheritDoc}
+	 * @see org.helios.jmxstats.core.metric.IMetric#getType()
+	 */
+	@Override
+	public MetricType getType() {
+		return type;
+	}
+
+	/**
+	 * {@inheritDoc}
+	 * @see org.helios.jmxstats.core.metric.IMetric#getStartTime()
+	 */
+	@Override
+	public long getStartTime() {
+		return startTime;
+	}
+
+	/**
+	 * {@inheritDoc}
+	 * @see org.helios.jmxstats.core.metric.IMetric#getEndTime()
+	 */
+	@Override
+	public long getEndTime() {
+		return endTime;
+	}
+	
+	/**
+	 * {@inheritDoc}
+	 * <p>Returns zero unless the generated class tracks averages</p>
+	 * @see org.helios.jmxstats.core.metric.IMetric#getAverage()
+	 */
+	@Override
+	public long getAverage() {
+		return 0L;
+	}
+
+	/**
+	 * {@inheritDoc}
+	 * <p>Returns zero unless the generated class tracks maximums</p>
+	 * @see org.helios.jmxstats.core.metric.IMetric#getMaximum()
+	 */
+	@Override
+	public long getMaximum() {
+		return 0L;
+	}
+
+	/**
+	 * {@inheritDoc}
+	 * <p>Returns zero unless the generated class tracks minimums</p>
+	 * @see org.helios.jmxstats.core.metric.IMetric#getMinimum()
+	 */
+	@Override
+	public long getMinimum() {
+		return 0L;
+	}
+
+	/**
+	 * {@inheritDoc}
+	 * @see java.lang.Object#toString()
+	 */
+	@Override
+	public String toString() {
+		StringBuilder builder = new StringBuilder();
+		builder.append(getClass().getSimpleName());
+		builder.append(" [id=");
+		builder.append(id);
+		builder.append(", name=");
+		builder.append(name);
+		builder.append(", type=");
+		builder.append(type);
+		builder.append(", startTime=");
+		builder.append(startTime);
+		builder.append(", endTime=");
+		builder.append(endTime);
+		builder.append(", count=");
+		builder.append(getCount());
+		builder.append(", average=");
+		builder.append(getAverage());
+		builder.append(", maximum=");
+		builder.append(getMaximum());
+		builder.append(", minimum=");
+		builder.append(getMinimum());
+		builder.append("]");
+		return builder.toString();
+	}
+
+	/**
+	 * {@inheritDoc}
+	 * @see java.lang.Object#hashCode()
+	 */
+	@Override
+	public int hashCode() {
+		final int prime = 31;
+		int result = 1;
+		result = prime * result + (int) (id ^ (id >>> 32));
+		return result;
+	}
+
+	/**
+	 * {@inheritDoc}
+	 * @see java.lang.Object#equals(java.lang.Object)
+	 */
+	@Override
+	public boolean equals(Object obj) {
+		if (this == obj) {
+			return true;
+		}
+		if (obj == null) {
+			return false;
+		}
+		if (getClass() != obj.getClass()) {
+			return false;
+		}
+		SpecializedMetric other = (SpecializedMetric) obj;
+		if (id != other.id) {
+			return false;
+		}
+		return true;
+	}
+}
@@ -0,0 +1,302 @@
+/**
+ * Helios, OpenSource Monitoring
+ * Brought to you by the Helios Development Group
+ *
+ * Copyright 2007, Helios Development Group and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org. 
+ *
+ */
+package org.helios.jmxstats.core.name;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * <p>Title: BloomFilter</p>
+ * <p>Description: A scalable Bloom filter over names, used to answer "not registered" without probing the name index.
+ * Membership tests hash the passed {@link CharSequence} in place and read <code>k</code> words, so they allocate nothing
+ * and take no locks. Bits are set with CAS, and when the newest layer reaches its capacity a new layer of twice
+ * the capacity and half the false positive rate is added, keeping the compound false positive rate bounded.</p> 
+ * <p>Company: Helios Development Group LLC</p>
+ * @author Whitehead (nwhitehead AT heliosdev DOT org)
+ * <p><code>org.helios.jmxstats.core.name.BloomFilter</code></p>
+ */
+public class BloomFilter {
+	/** The serialization format marker */
+	private static final int MAGIC = 0x4A4D5842;
+	/** The default target false positive rate */
+	public static final double DEFAULT_FPP = 0.01d;
+	
+	/** The target false positive rate */
+	private final double fpp;
+	/** The filter layers, oldest first */
+	private volatile Layer[] layers;
+	
+	/**
+	 * Creates a new BloomFilter
+	 * @param capacity The number of names the first layer is sized for
+	 * @param fpp The target false positive rate
+	 */
+	public BloomFilter(int capacity, double fpp) {
+		if(capacity<1) throw new IllegalArgumentException("Invalid capacity [" + capacity + "]", new Throwable());
+		if(fpp<=0d || fpp>=1d) throw new IllegalArgumentException("Invalid false positive rate [" + fpp + "]", new Throwable());
+		this.fpp = fpp;
+		layers = new Layer[]{new Layer(capacity, fpp/2)};
+	}
+	
+	private BloomFilter(double fpp, Layer[] layers) {
+		this.fpp = fpp;
+		this.layers = layers;
+	}
+	
+	/**
+	 * Indicates if the passed name may have been added. A false return is definitive.
+	 * @param name The name to test
+	 * @return false if the name has definitely not been added, true if it probably has
+	 */
+	public boolean mightContain(CharSequence name) {
+		if(name==null) throw new IllegalArgumentException("The passed name was null", new Throwable());
+		final long h = hash(name);
+		final long h1 = mix(h);
+		final long h2 = mix(h ^ 0xC2B2AE3D27D4EB4FL) | 1L;
+		final Layer[] ls = layers;
+		for(int i = ls.length-1; i >= 0; i--) {
+			if(ls[i].contains(h1, h2)) return true;
+		}
+		return false;
+	}
+	
+	/**
+	 * Adds a name to the filter
+	 * @param name The name to add
+	 * @return true if the filter changed, false if the name was probably already present
+	 */
+	public boolean add(CharSequence name) {
+		if(mightContain(name)) return false;
+		final long h = hash(name);
+		final long h1 = mix(h);
+		final long h2 = mix(h ^ 0xC2B2AE3D27D4EB4FL) | 1L;
+		Layer[] ls = layers;
+		Layer last = ls[ls.length-1];
+		last.add(h1, h2);
+		if(last.count.incrementAndGet()>=last.capacity) {
+			synchronized(this) {
+				ls = layers;
+				if(ls[ls.length-1]==last) {
+					final Layer[] grown = Arrays.copyOf(ls, ls.length+1);
+					grown[ls.length] = new Layer(last.capacity*2, last.fpp/2);
+					layers = grown;
+				}
+			}
+		}
+		return true;
+	}
+	
+	/**
+	 * Returns the approximate number of names added
+	 * @return the approximate number of names added
+	 */
+	public int size() {
+		int total = 0;
+		for(Layer l: layers) {
+			total += l.count.get();
+		}
+		return total;
+	}
+	
+	/**
+	 * Returns the number of layers
+	 * @return the number of layers
+	 */
+	public int getLayerCount() {
+		return layers.length;
+	}
+	
+	/**
+	 * Returns the size of the bit arrays in bytes
+	 * @return the size in bytes
+	 */
+	public long getSizeInBytes() {
+		long total = 0;
+		for(Layer l: layers) {
+			total += l.bits.length() * 8L;
+		}
+		return total;
+	}
+	
+	/**
+	 * Returns the target false positive rate
+	 * @return the target false positive rate
+	 */
+	public double getFpp() {
+		return fpp;
+	}
+	
+	/**
+	 * Writes the filter to the passed output
+	 * @param out The output to write to
+	 * @throws IOException thrown on any IO error
+	 */
+	public synchronized void writeTo(DataOutput out) throws IOException {
+		final Layer[] ls = layers;
+		out.writeInt(MAGIC);
+		out.writeDouble(fpp);
+		out.writeInt(ls.length);
+		for(Layer l: ls) {
+			out.writeInt(l.capacity);
+			out.writeDouble(l.fpp);
+			out.writeInt(l.k);
+			out.writeInt(l.count.get());
+			out.writeInt(l.bits.length());
+			for(int i = 0; i < l.bits.length(); i++) {
+				out.writeLong(l.bits.get(i));
+			}
+		}
+	}
+	
+	/**
+	 * Reads a filter written by {@link #writeTo(DataOutput)}
+	 * @param in The input to read from
+	 * @return the read filter
+	 * @throws IOException thrown on any IO error or if the input is not a serialized filter
+	 */
+	public static BloomFilter readFrom(DataInput in) throws IOException {
+		if(in.readInt()!=MAGIC) throw new IOException("Input is not a serialized BloomFilter");
+		final double fpp = in.readDouble();
+		final Layer[] ls = new Layer[in.readInt()];
+		for(int i = 0; i < ls.length; i++) {
+			final int capacity = in.readInt();
+			final double lfpp = in.readDouble();
+			final int k = in.readInt();
+			final int count = in.readInt();
+			final long[] words = new long[in.readInt()];
+			for(int w = 0; w < words.length; w++) {
+				words[w] = in.readLong();
+			}
+			ls[i] = new Layer(capacity, lfpp, k, count, new AtomicLongArray(words));
+		}
+		return new BloomFilter(fpp, ls);
+	}
+	
+	/**
+	 * Hashes the passed name without allocating
+	 * @param name The name to hash
+	 * @return the 64 bit hash
+	 */
+	private static long hash(CharSequence name) {
+		long h = 0xCBF29CE484222325L;
+		final int len = name.length();
+		for(int i = 0; i < len; i++) {
+			h ^= name.charAt(i);
+			h *= 0x100000001B3L;
+		}
+		return h ^ len;
+	}
+	
+	/**
+	 * The 64 bit finalizer of MurmurHash3
+	 * @param h The value to mix
+	 * @return the mixed value
+	 */
+	private static long mix(long h) {
+		h ^= h >>> 33;
+		h *= 0xFF51AFD7ED558CCDL;
+		h ^= h >>> 33;
+		h *= 0xC4CEB9FE1A85EC53L;
+		h ^= h >>> 33;
+		return h;
+	}
+	
+	/**
+	 * <p>Title: Layer</p>
+	 * <p>Description: One fixed size Bloom filter in the chain</p> 
+	 */
+	private static class Layer {
+		/** The number of names the layer is sized for */
+		final int capacity;
+		/** The layer's false positive rate */
+		final double fpp;
+		/** The number of hash functions */
+		final int k;
+		/** The bit index mask */
+		final long mask;
+		/** The bits */
+		final AtomicLongArray bits;
+		/** The number of names added */
+		final AtomicInteger count;
+		
+		Layer(int capacity, double fpp) {
+			this(capacity, fpp, optimalK(capacity, fpp), 0, new AtomicLongArray(optimalWords(capacity, fpp)));
+		}
+		
+		Layer(int capacity, double fpp, int k, int count, AtomicLongArray bits) {
+			this.capacity = capacity;
+			this.fpp = fpp;
+			this.k = k;
+			this.bits = bits;
+			this.mask = bits.length() * 64L - 1;
+			this.count = new AtomicInteger(count);
+		}
+		
+		boolean contains(long h1, long h2) {
+			long h = h1;
+			for(int i = 0; i < k; i++) {
+				final long bit = h & mask;
+				if((bits.get((int)(bit >>> 6)) & (1L << bit))==0) return false;
+				h += h2;
+			}
+			return true;
+		}
+		
+		void add(long h1, long h2) {
+			long h = h1;
+			for(int i = 0; i < k; i++) {
+				final long bit = h & mask;
+				final int word = (int)(bit >>> 6);
+				final long m = 1L << bit;
+				long w;
+				while(((w = bits.get(word)) & m)==0) {
+					if(bits.compareAndSet(word, w, w | m)) break;
+				}
+				h += h2;
+			}
+		}
+		
+		/**
+		 * Computes the number of 64 bit words for the passed capacity and false positive rate, rounded up to a power of 2
+		 */
+		static int optimalWords(int capacity, double fpp) {
+			final double bits = -capacity * Math.log(fpp) / (Math.log(2) * Math.log(2));
+			final int words = (int)Math.max(1, Math.ceil(bits / 64));
+			return Integer.highestOneBit(words)==words ? words : Integer.highestOneBit(words) << 1;
+		}
+		
+		/**
+		 * Computes the number of hash functions for the passed capacity and false positive rate
+		 */
+		static int optimalK(int capacity, double fpp) {
+			final double bits = -capacity * Math.log(fpp) / (Math.log(2) * Math.log(2));
+			return Math.max(1, (int)Math.round(bits / capacity * Math.log(2)));
+		}
+	}
+}
@@ -0,0 +1,619 @@
+/**
+ * Helios, OpenSource Monitoring
+ * Brought to you by the Helios Development Group
+ *
+ * Copyright 2007, Helios Development Group and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org. 
+ *
+ */
+package org.helios.jmxstats.core.name;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Hashtable;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+import javax.management.ObjectName;
+
+import gnu.trove.list.array.TIntArrayList;
+
+import org.helios.jmxstats.core.metric.MetricRegistry;
+
+/**
+ * <p>Title: InvertedIndex</p>
+ * <p>Description: An inverted index from metric name terms to compressed, sorted sets of metric handles, used to answer
+ * pattern queries such as <code>app.http.*.latency</code> or <code>*:type=MemoryPool,*</code> by set intersection rather than
+ * a scan of every registered name.</p>
+ * <p>Dotted names are indexed by <code>(position, segment)</code> and segment count. ObjectName keyed metrics are indexed by domain,
+ * each <code>key=value</code> property, property count and attribute. Wildcards that cover a whole term are answered by omitting
+ * the term; partial wildcards (e.g. <code>http*</code>) union the postings of every matching term, found through a per group
+ * index of terms (e.g. every segment term at one position) rather than a scan of the whole term map.</p>
+ * <p>Queries are answered smallest first: only the smallest term's postings are decoded, and every other term filters those
+ * candidates by seeking through its skip entries, so a broad term such as the segment count is never materialised when a
+ * narrower term exists.</p> 
+ * <p>Company: Helios Development Group LLC</p>
+ * @author Whitehead (nwhitehead AT heliosdev DOT org)
+ * <p><code>org.helios.jmxstats.core.name.InvertedIndex</code></p>
+ */
+public class InvertedIndex {
+	/** The singleton instance */
+	private static volatile InvertedIndex instance = null;
+	/** The singleton instance ctor lock */
+	private static final Object lock = new Object();
+	
+	/** The name segment delimiter */
+	public static final char SEGMENT_DELIM = '.';
+	
+	/** Term kind: every dotted name */
+	private static final int ALL_NAMES = 1;
+	/** Term kind: a dotted name segment at a position */
+	private static final int SEGMENT = 2;
+	/** Term kind: a dotted name segment count */
+	private static final int SEGMENT_COUNT = 3;
+	/** Term kind: every ObjectName keyed metric */
+	private static final int ALL_OBJECTNAMES = 4;
+	/** Term kind: an ObjectName domain */
+	private static final int DOMAIN = 5;
+	/** Term kind: an ObjectName key property */
+	private static final int PROPERTY = 6;
+	/** Term kind: an ObjectName key property count */
+	private static final int PROPERTY_COUNT = 7;
+	/** Term kind: an ObjectName attribute */
+	private static final int ATTRIBUTE = 8;
+	/** The mask of the two 28 bit term operands */
+	private static final long OPERAND_MASK = 0xFFFFFFFL;
+	
+	/** The token table, shared with the {@link ObjectNameIndex} */
+	private final TokenTable tokens;
+	/** The postings keyed by term */
+	private final ConcurrentHashMap<Long, PostingList> postings = new ConcurrentHashMap<Long, PostingList>(1024, 0.75f, 16);
+	/** Flags for the slots of the handles that have been indexed */
+	private volatile boolean[] indexed = new boolean[1024];
+	/** The terms of each wildcard group, keyed by the group term */
+	private final ConcurrentHashMap<Long, Set<Long>> groups = new ConcurrentHashMap<Long, Set<Long>>(256, 0.75f, 16);
+	/** Orders filters by ascending size */
+	private static final Comparator<PostingList[]> BY_SIZE = new Comparator<PostingList[]>() {
+		@Override
+		public int compare(PostingList[] a, PostingList[] b) {
+			final long sa = size(a), sb = size(b);
+			return sa<sb ? -1 : sa==sb ? 0 : 1;
+		}
+	};
+	
+	/**
+	 * Returns the InvertedIndex singleton
+	 * @return the InvertedIndex singleton
+	 */
+	public static InvertedIndex getInstance() {
+		if(instance==null) {
+			synchronized(lock) {
+				if(instance==null) {
+					instance = new InvertedIndex(ObjectNameIndex.getInstance().getTokenTable());
+				}
+			}
+		}
+		return instance;
+	}
+	
+	private InvertedIndex(TokenTable tokens) {
+		this.tokens = tokens;
+	}
+	
+	/**
+	 * Indicates if the passed handle has been indexed
+	 * @param handle The metric handle
+	 * @return true if the handle has been indexed
+	 */
+	public boolean isIndexed(int handle) {
+		final boolean[] ix = indexed;
+		final int slot = MetricRegistry.slot(handle);
+		return handle>=0 && slot<ix.length && ix[slot];
+	}
+	
+	/**
+	 * Indexes a dotted metric name. The name's segment tokens are referenced until the name is removed.
+	 * @param handle The metric handle
+	 * @param name The metric name
+	 */
+	public synchronized void index(int handle, CharSequence name) {
+		if(name==null) throw new IllegalArgumentException("The passed name was null", new Throwable());
+		if(!markIndexed(handle)) return;
+		final String[] segments = split(name.toString());
+		post(term(ALL_NAMES, 0, 0), handle);
+		post(term(SEGMENT_COUNT, segments.length, 0), handle);
+		for(int i = 0; i < segments.length; i++) {
+			post(term(SEGMENT, i, tokens.intern(segments[i])), handle);
+		}
+	}
+	
+	/**
+	 * Indexes an ObjectName keyed metric
+	 * @param handle The metric handle
+	 * @param key The metric key
+	 */
+	public synchronized void index(int handle, MetricKey key) {
+		if(key==null) throw new IllegalArgumentException("The passed key was null", new Throwable());
+		if(!markIndexed(handle)) return;
+		final int n = key.getPropertyCount();
+		post(term(ALL_OBJECTNAMES, 0, 0), handle);
+		post(term(DOMAIN, key.getDomain(), 0), handle);
+		post(term(ATTRIBUTE, key.getAttribute(), 0), handle);
+		post(term(PROPERTY_COUNT, n, 0), handle);
+		for(int i = 0; i < n; i++) {
+			post(term(PROPERTY, key.getPropertyKey(i), key.getPropertyValue(i)), handle);
+		}
+	}
+	
+	/**
+	 * Removes a dotted metric name from the index
+	 * @param handle The metric handle
+	 * @param name The metric name
+	 */
+	public synchronized void remove(int handle, CharSequence name) {
+		if(name==null) throw new IllegalArgumentException("The passed name was null", new Throwable());
+		if(!clearIndexed(handle)) return;
+		final String[] segments = split(name.toString());
+		unpost(term(ALL_NAMES, 0, 0), handle);
+		unpost(term(SEGMENT_COUNT, segments.length, 0), handle);
+		for(int i = 0; i < segments.length; i++) {
+			final int token = tokens.get(segments[i]);
+			if(token>=0) {
+				unpost(term(SEGMENT, i, token), handle);
+				tokens.release(token);
+			}
+		}
+	}
+	
+	/**
+	 * Removes an ObjectName keyed metric from the index
+	 * @param handle The metric handle
+	 * @param key The metric key
+	 */
+	public synchronized void remove(int handle, MetricKey key) {
+		if(key==null) throw new IllegalArgumentException("The passed key was null", new Throwable());
+		if(!clearIndexed(handle)) return;
+		final int n = key.getPropertyCount();
+		unpost(term(ALL_OBJECTNAMES, 0, 0), handle);
+		unpost(term(DOMAIN, key.getDomain(), 0), handle);
+		unpost(term(ATTRIBUTE, key.getAttribute(), 0), handle);
+		unpost(term(PROPERTY_COUNT, n, 0), handle);
+		for(int i = 0; i < n; i++) {
+			unpost(term(PROPERTY, key.getPropertyKey(i), key.getPropertyValue(i)), handle);
+		}
+	}
+	
+	/**
+	 * Removes a batch of metrics from the index, e.g. the metrics evicted at one interval switch. The handles are grouped by term
+	 * so each affected posting list is re-encoded once, rather than once per handle.
+	 * @param handles The metric handles
+	 * @param names The dotted metric names, used for handles that have no key
+	 * @param keys The metric keys of ObjectName keyed metrics, null elements for dotted names
+	 * @param count The number of metrics to remove
+	 */
+	public synchronized void remove(int[] handles, String[] names, MetricKey[] keys, int count) {
+		if(handles==null) throw new IllegalArgumentException("The passed handle array was null", new Throwable());
+		if(names==null) throw new IllegalArgumentException("The passed name array was null", new Throwable());
+		if(keys==null) throw new IllegalArgumentException("The passed key array was null", new Throwable());
+		final Map<Long, int[]> removals = new HashMap<Long, int[]>();
+		final TIntArrayList released = new TIntArrayList();
+		for(int i = 0; i < count; i++) {
+			final int handle = handles[i];
+			final MetricKey key = keys[i];
+			if(key==null && names[i]==null) continue;
+			if(!clearIndexed(handle)) continue;
+			if(key!=null) {
+				final int n = key.getPropertyCount();
+				collect(removals, term(ALL_OBJECTNAMES, 0, 0), handle);
+				collect(removals, term(DOMAIN, key.getDomain(), 0), handle);
+				collect(removals, term(ATTRIBUTE, key.getAttribute(), 0), handle);
+				collect(removals, term(PROPERTY_COUNT, n, 0), handle);
+				for(int p = 0; p < n; p++) {
+					collect(removals, term(PROPERTY, key.getPropertyKey(p), key.getPropertyValue(p)), handle);
+				}
+			} else {
+				final String[] segments = split(names[i]);
+				collect(removals, term(ALL_NAMES, 0, 0), handle);
+				collect(removals, term(SEGMENT_COUNT, segments.length, 0), handle);
+				for(int s = 0; s < segments.length; s++) {
+					final int token = tokens.get(segments[s]);
+					if(token>=0) {
+						collect(removals, term(SEGMENT, s, token), handle);
+						released.add(token);
+					}
+				}
+			}
+		}
+		for(Map.Entry<Long, int[]> e: removals.entrySet()) {
+			final long term = e.getKey();
+			final PostingList pl = postings.get(term);
+			if(pl==null) continue;
+			final int[] ids = e.getValue();
+			final int n = ids[0];
+			Arrays.sort(ids, 1, n+1);
+			pl.removeAll(ids, 1, n);
+			if(pl.size()==0) drop(term);
+		}
+		for(int i = 0; i < released.size(); i++) {
+			tokens.release(released.get(i));
+		}
+	}
+	
+	/**
+	 * Finds the handles of the dotted metric names matching the passed pattern. Each pattern segment is matched against
+	 * the name segment at the same position and may contain the wildcards <code>*</code> and <code>?</code>.
+	 * @param pattern The name pattern, e.g. <code>app.http.*.latency</code>
+	 * @return the sorted matching handles
+	 */
+	public int[] find(CharSequence pattern) {
+		if(pattern==null) throw new IllegalArgumentException("The passed pattern was null", new Throwable());
+		final String[] segments = split(pattern.toString());
+		final List<PostingList[]> filters = new ArrayList<PostingList[]>(segments.length+1);
+		if(!add(filters, term(SEGMENT_COUNT, segments.length, 0))) return PostingList.EMPTY;
+		for(int i = 0; i < segments.length; i++) {
+			final String seg = segments[i];
+			if("*".equals(seg)) continue;
+			if(isWildcard(seg)) {
+				if(!add(filters, matching(SEGMENT, i, seg, true))) return PostingList.EMPTY;
+			} else {
+				final int token = tokens.get(seg);
+				if(token<0 || !add(filters, term(SEGMENT, i, token))) return PostingList.EMPTY;
+			}
+		}
+		return select(filters);
+	}
+	
+	/**
+	 * Finds the handles of the ObjectName keyed metrics matching the passed ObjectName pattern and attribute pattern
+	 * @param pattern The ObjectName pattern, e.g. <code>*:type=MemoryPool,*</code>
+	 * @param attribute The attribute name or pattern, or null to match any attribute
+	 * @return the sorted matching handles
+	 */
+	public int[] find(ObjectName pattern, String attribute) {
+		if(pattern==null) throw new IllegalArgumentException("The passed ObjectName was null", new Throwable());
+		final List<PostingList[]> filters = new ArrayList<PostingList[]>();
+		final String domain = pattern.getDomain();
+		if(!pattern.isDomainPattern()) {
+			final int token = tokens.get(domain);
+			if(token<0 || !add(filters, term(DOMAIN, token, 0))) return PostingList.EMPTY;
+		} else if(!"*".equals(domain)) {
+			if(!add(filters, matching(DOMAIN, -1, domain, false))) return PostingList.EMPTY;
+		}
+		final Hashtable<String, String> props = pattern.getKeyPropertyList();
+		for(Map.Entry<String, String> p: props.entrySet()) {
+			final int key = tokens.get(p.getKey());
+			if(key<0) return PostingList.EMPTY;
+			if(pattern.isPropertyValuePattern(p.getKey())) {
+				if(!add(filters, matching(PROPERTY, key, p.getValue(), true))) return PostingList.EMPTY;
+			} else {
+				final int value = tokens.get(p.getValue());
+				if(value<0 || !add(filters, term(PROPERTY, key, value))) return PostingList.EMPTY;
+			}
+		}
+		if(!pattern.isPropertyListPattern()) {
+			if(!add(filters, term(PROPERTY_COUNT, props.size(), 0))) return PostingList.EMPTY;
+		}
+		if(attribute!=null && !"*".equals(attribute)) {
+			if(isWildcard(attribute)) {
+				if(!add(filters, matching(ATTRIBUTE, -1, attribute, false))) return PostingList.EMPTY;
+			} else {
+				final int token = tokens.get(attribute);
+				if(token<0 || !add(filters, term(ATTRIBUTE, token, 0))) return PostingList.EMPTY;
+			}
+		}
+		if(filters.isEmpty()) return get(term(ALL_OBJECTNAMES, 0, 0));
+		return select(filters);
+	}
+	
+	/**
+	 * Returns the number of distinct terms
+	 * @return the number of terms
+	 */
+	public int getTermCount() {
+		return postings.size();
+	}
+	
+	/**
+	 * Returns the total number of bytes used by the encoded postings
+	 * @return the encoded postings size in bytes
+	 */
+	public long getEncodedSize() {
+		long total = 0;
+		for(PostingList pl: postings.values()) {
+			total += pl.getEncodedSize();
+		}
+		return total;
+	}
+	
+	/**
+	 * Indicates if the passed string contains the wildcards <code>*</code> or <code>?</code>
+	 * @param s The string to test
+	 * @return true if the string contains a wildcard
+	 */
+	static boolean isWildcard(String s) {
+		return s.indexOf('*')!=-1 || s.indexOf('?')!=-1;
+	}
+	
+	/**
+	 * Matches the passed string against a pattern containing the wildcards <code>*</code> and <code>?</code>
+	 * @param pattern The pattern
+	 * @param s The string to match
+	 * @return true if the string matches
+	 */
+	static boolean matches(String pattern, String s) {
+		int p = 0, i = 0, star = -1, mark = 0;
+		while(i<s.length()) {
+			if(p<pattern.length() && (pattern.charAt(p)=='?' || pattern.charAt(p)==s.charAt(i))) {
+				p++; i++;
+			} else if(p<pattern.length() && pattern.charAt(p)=='*') {
+				star = p++;
+				mark = i;
+			} else if(star!=-1) {
+				p = star+1;
+				i = ++mark;
+			} else {
+				return false;
+			}
+		}
+		while(p<pattern.length() && pattern.charAt(p)=='*') p++;
+		return p==pattern.length();
+	}
+	
+	/**
+	 * Intersects the passed filters, smallest first. Only the smallest filter is decoded; every other filter retains the
+	 * candidates it contains by seeking through its postings.
+	 * @param filters The filters, each the postings of one term or the postings unioned by one wildcard
+	 * @return the sorted intersection
+	 */
+	private static int[] select(List<PostingList[]> filters) {
+		Collections.sort(filters, BY_SIZE);
+		final PostingList[] first = filters.get(0);
+		int[] ids = first.length==1 ? first[0].toArray() : union(first);
+		int n = ids.length;
+		for(int i = 1; i < filters.size() && n>0; i++) {
+			final PostingList[] filter = filters.get(i);
+			if(filter.length==1) {
+				n = filter[0].retain(ids, n);
+			} else {
+				final boolean[] found = new boolean[n];
+				for(PostingList pl: filter) {
+					pl.mark(ids, n, found);
+				}
+				int kept = 0;
+				for(int j = 0; j < n; j++) {
+					if(found[j]) ids[kept++] = ids[j];
+				}
+				n = kept;
+			}
+		}
+		return n==ids.length ? ids : Arrays.copyOf(ids, n);
+	}
+	
+	/**
+	 * Unions the passed postings
+	 * @param lists The postings to union
+	 * @return the sorted union
+	 */
+	private static int[] union(PostingList[] lists) {
+		final BitSet union = new BitSet();
+		for(PostingList pl: lists) {
+			final int[] ids = pl.toArray();
+			for(int i = 0; i < ids.length; i++) {
+				union.set(ids[i]);
+			}
+		}
+		final int[] result = new int[union.cardinality()];
+		int n = 0;
+		for(int id = union.nextSetBit(0); id >= 0; id = union.nextSetBit(id+1)) {
+			result[n++] = id;
+		}
+		return result;
+	}
+	
+	/**
+	 * Returns the postings of every term of the passed kind and operand whose string token matches the passed pattern
+	 * @param kind The term kind
+	 * @param a The first term operand to match, or -1 to match the pattern against the first operand
+	 * @param pattern The wildcard pattern
+	 * @param second true to match the pattern against the second operand
+	 * @return the matching postings
+	 */
+	private PostingList[] matching(int kind, int a, String pattern, boolean second) {
+		final Set<Long> terms = groups.get(group(kind, second ? a : 0));
+		if(terms==null) return null;
+		final List<PostingList> matched = new ArrayList<PostingList>();
+		for(Long t: terms) {
+			final int ta = (int)((t >>> 28) & OPERAND_MASK);
+			final int tb = (int)(t & OPERAND_MASK);
+			if(!matches(pattern, tokens.getString(second ? tb : ta))) continue;
+			final PostingList pl = postings.get(t);
+			if(pl!=null) matched.add(pl);
+		}
+		return matched.toArray(new PostingList[matched.size()]);
+	}
+	
+	/**
+	 * Adds the postings of the passed term to the filters
+	 * @param filters The filters to add to
+	 * @param term The term
+	 * @return false if the term has no postings, so nothing can match
+	 */
+	private boolean add(List<PostingList[]> filters, long term) {
+		final PostingList pl = postings.get(term);
+		return add(filters, pl==null ? null : new PostingList[]{pl});
+	}
+	
+	/**
+	 * Adds the passed postings to the filters
+	 * @param filters The filters to add to
+	 * @param lists The postings, matching if any one contains an id
+	 * @return false if there are no postings, so nothing can match
+	 */
+	private static boolean add(List<PostingList[]> filters, PostingList[] lists) {
+		if(lists==null || lists.length==0) return false;
+		filters.add(lists);
+		return true;
+	}
+	
+	private static long size(PostingList[] lists) {
+		long size = 0;
+		for(PostingList pl: lists) {
+			size += pl.size();
+		}
+		return size;
+	}
+	
+	private int[] get(long term) {
+		final PostingList pl = postings.get(term);
+		return pl==null ? PostingList.EMPTY : pl.toArray();
+	}
+	
+	private void post(long term, int handle) {
+		PostingList pl = postings.get(term);
+		if(pl==null) {
+			pl = new PostingList();
+			postings.put(term, pl);
+			final long group = group(term);
+			if(group!=0) {
+				Set<Long> terms = groups.get(group);
+				if(terms==null) {
+					terms = Collections.newSetFromMap(new ConcurrentHashMap<Long, Boolean>(16, 0.75f, 4));
+					groups.put(group, terms);
+				}
+				terms.add(term);
+			}
+		}
+		pl.add(handle);
+	}
+	
+	private void unpost(long term, int handle) {
+		final PostingList pl = postings.get(term);
+		if(pl!=null && pl.remove(handle) && pl.size()==0) {
+			drop(term);
+		}
+	}
+	
+	/**
+	 * Removes an emptied term from the postings and its wildcard group
+	 * @param term The term
+	 */
+	private void drop(long term) {
+		postings.remove(term);
+		final Set<Long> terms = groups.get(group(term));
+		if(terms!=null) terms.remove(term);
+	}
+	
+	/**
+	 * Appends a handle to the removals of the passed term. The first element of each removal array is its count.
+	 * @param removals The removals keyed by term
+	 * @param term The term
+	 * @param handle The handle to remove
+	 */
+	private static void collect(Map<Long, int[]> removals, long term, int handle) {
+		int[] ids = removals.get(term);
+		if(ids==null) {
+			ids = new int[8];
+			removals.put(term, ids);
+		} else if(ids[0]+1==ids.length) {
+			ids = Arrays.copyOf(ids, ids.length*2);
+			removals.put(term, ids);
+		}
+		ids[++ids[0]] = handle;
+	}
+	
+	/**
+	 * Flags the passed handle as indexed
+	 * @param handle The metric handle
+	 * @return true if the handle was flagged, false if it had already been indexed
+	 */
+	private synchronized boolean markIndexed(int handle) {
+		if(handle<0) throw new IllegalArgumentException("Invalid handle [" + handle + "]", new Throwable());
+		final int slot = MetricRegistry.slot(handle);
+		boolean[] ix = indexed;
+		if(slot<ix.length && ix[slot]) return false;
+		if(slot>=ix.length) ix = Arrays.copyOf(ix, Math.max(ix.length*2, slot+1));
+		ix[slot] = true;
+		indexed = ix;
+		return true;
+	}
+	
+	/**
+	 * Clears the indexed flag of the passed handle
+	 * @param handle The metric handle
+	 * @return true if the flag was cleared, false if the handle was not indexed
+	 */
+	private boolean clearIndexed(int handle) {
+		if(!isIndexed(handle)) return false;
+		indexed[MetricRegistry.slot(handle)] = false;
+		indexed = indexed;
+		return true;
+	}
+	
+	private static long term(int kind, int a, int b) {
+		return ((long)kind << 56) | ((a & OPERAND_MASK) << 28) | (b & OPERAND_MASK);
+	}
+	
+	/**
+	 * Returns the wildcard group of the passed term
+	 * @param term The term
+	 * @return the group term, or 0 if terms of this kind are never matched by wildcards
+	 */
+	private static long group(long term) {
+		final int kind = (int)(term >>> 56);
+		return group(kind, (int)((term >>> 28) & OPERAND_MASK));
+	}
+	
+	/**
+	 * Returns the wildcard group of the terms of the passed kind and first operand
+	 * @param kind The term kind
+	 * @param a The first term operand
+	 * @return the group term, or 0 if terms of this kind are never matched by wildcards
+	 */
+	private static long group(int kind, int a) {
+		switch(kind) {
+			case SEGMENT:
+			case PROPERTY:
+				return term(kind, a, 0);
+			case DOMAIN:
+			case ATTRIBUTE:
+				return term(kind, 0, 0);
+			default:
+				return 0;
+		}
+	}
+	
+	private static String[] split(String name) {
+		final List<String> segments = new ArrayList<String>();
+		int start = 0;
+		for(int i = 0; i < name.length(); i++) {
+			if(name.charAt(i)==SEGMENT_DELIM) {
+				segments.add(name.substring(start, i));
+				start = i+1;
+			}
+		}
+		segments.add(name.substring(start));
+		return segments.toArray(new String[segments.size()]);
+	}
+}
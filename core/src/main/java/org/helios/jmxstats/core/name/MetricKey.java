@@ -0,0 +1,171 @@
+/**
+ * Helios, OpenSource Monitoring
+ * Brought to you by the Helios Development Group
+ *
+ * Copyright 2007, Helios Development Group and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org. 
+ *
+ */
+package org.helios.jmxstats.core.name;
+
+import java.util.Arrays;
+
+/**
+ * <p>Title: MetricKey</p>
+ * <p>Description: A compact, token based key for a metric derived from a JMX ObjectName and attribute.
+ * The key is a single int array holding the domain token, the attribute token and the key property
+ * <code>(key, value)</code> token pairs sorted by key token, so equality and hashing never touch strings.</p> 
+ * <p>Company: Helios Development Group LLC</p>
+ * @author Whitehead (nwhitehead AT heliosdev DOT org)
+ * <p><code>org.helios.jmxstats.core.name.MetricKey</code></p>
+ */
+public final class MetricKey {
+	/** The tokens: domain, attribute, then sorted key/value pairs */
+	private final int[] tokens;
+	/** The precomputed hash code */
+	private final int hash;
+	
+	/**
+	 * Creates a new MetricKey
+	 * @param domain The domain token
+	 * @param attribute The attribute token
+	 * @param properties The key property tokens as <code>(key, value)</code> pairs sorted by key token
+	 */
+	MetricKey(int domain, int attribute, int[] properties) {
+		tokens = new int[2 + properties.length];
+		tokens[0] = domain;
+		tokens[1] = attribute;
+		System.arraycopy(properties, 0, tokens, 2, properties.length);
+		hash = Arrays.hashCode(tokens);
+	}
+	
+	/**
+	 * Returns the domain token
+	 * @return the domain token
+	 */
+	public int getDomain() {
+		return tokens[0];
+	}
+	
+	/**
+	 * Returns the attribute token
+	 * @return the attribute token
+	 */
+	public int getAttribute() {
+		return tokens[1];
+	}
+	
+	/**
+	 * Returns the number of key properties
+	 * @return the number of key properties
+	 */
+	public int getPropertyCount() {
+		return (tokens.length-2) >> 1;
+	}
+	
+	/**
+	 * Returns the key token of the key property at the passed position
+	 * @param index The position, ordered by key token
+	 * @return the key token
+	 */
+	public int getPropertyKey(int index) {
+		return tokens[2 + (index << 1)];
+	}
+	
+	/**
+	 * Returns the value token of the key property at the passed position
+	 * @param index The position, ordered by key token
+	 * @return the value token
+	 */
+	public int getPropertyValue(int index) {
+		return tokens[3 + (index << 1)];
+	}
+	
+	/**
+	 * Returns the value token of the key property with the passed key token
+	 * @param key The key token
+	 * @return the value token or -1 if the key has no property
+	 */
+	public int getValueFor(int key) {
+		int lo = 0, hi = getPropertyCount()-1;
+		while(lo<=hi) {
+			final int mid = (lo + hi) >>> 1;
+			final int k = tokens[2 + (mid << 1)];
+			if(k<key) lo = mid+1;
+			else if(k>key) hi = mid-1;
+			else return tokens[3 + (mid << 1)];
+		}
+		return -1;
+	}
+	
+	/**
+	 * Renders the key as a metric name in the form <code>domain:key=value,...,key=value/attribute</code>,
+	 * with the key properties in canonical (lexicographic) order
+	 * @param table The token table the key was built from
+	 * @return the metric name
+	 */
+	public String toName(TokenTable table) {
+		final int n = getPropertyCount();
+		final String[] pairs = new String[n];
+		for(int i = 0; i < n; i++) {
+			pairs[i] = table.getString(getPropertyKey(i)) + "=" + table.getString(getPropertyValue(i));
+		}
+		Arrays.sort(pairs);
+		StringBuilder b = new StringBuilder(table.getString(getDomain())).append(':');
+		for(int i = 0; i < n; i++) {
+			if(i>0) b.append(',');
+			b.append(pairs[i]);
+		}
+		return b.append('/').append(table.getString(getAttribute())).toString();
+	}
+
+	/**
+	 * {@inheritDoc}
+	 * @see java.lang.Object#hashCode()
+	 */
+	@Override
+	public int hashCode() {
+		return hash;
+	}
+
+	/**
+	 * {@inheritDoc}
+	 * @see java.lang.Object#equals(java.lang.Object)
+	 */
+	@Override
+	public boolean equals(Object obj) {
+		if (this == obj) {
+			return true;
+		}
+		if (obj == null || getClass() != obj.getClass()) {
+			return false;
+		}
+		MetricKey other = (MetricKey) obj;
+		return hash==other.hash && Arrays.equals(tokens, other.tokens);
+	}
+
+	/**
+	 * {@inheritDoc}
+	 * @see java.lang.Object#toString()
+	 */
+	@Override
+	public String toString() {
+		return "MetricKey " + Arrays.toString(tokens);
+	}
+}
@@ -0,0 +1,650 @@
+/**
+ * Helios, OpenSource Monitoring
+ * Brought to you by the Helios Development Group
+ *
+ * Copyright 2007, Helios Development Group and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org. 
+ *
+ */
+package org.helios.jmxstats.core.name;
+
+import java.util.Arrays;
+
+/**
+ * <p>Title: NameTrie</p>
+ * <p>Description: A segment interned store of hierarchical metric names, mapping each name to a long value.
+ * Names are split into segments on the delimiters <code>. : , = /</code> and each distinct segment is stored once in a
+ * shared character arena. A name is a path of trie nodes, each holding its parent, an interned segment id and the
+ * delimiter preceding the segment, so names sharing long prefixes such as <code>java.lang:type=GarbageCollector,name=</code>
+ * share the storage of the prefix and each name is represented by its leaf node id.</p>
+ * <p>Insertion is serialized. Lookups are lock free and allocation free: all state is published through the volatile
+ * {@link #state} and {@link #nodeCount} fields, written last by the inserting thread and read first by lookups.
+ * The inserting thread writes in this order:<ol>
+ * <li>A new segment's chars, offset and length, and then its segment table entry.</li>
+ * <li>If any array must grow, a new {@link State} holding copies of the arrays, published through {@link #state}.</li>
+ * <li>A new node's parent, segment key, value and sibling link, then the parent's first child link and the node's child table entry.</li>
+ * <li>The node count, incremented past the new node. This volatile store publishes everything above.</li>
+ * <li>For a value change on an existing node, the value followed by a volatile self write of the node count.</li></ol>
+ * Readers read the node count and then the state, so every node below the count read is fully visible in the state read, which is the
+ * one current when the count was written or a later copy. Table entries may be seen before they are published: entries for nodes at or
+ * above the count read are ignored, and a segment entry seen early can only match through such a node. Sibling chains are prepended to,
+ * so an unpublished node at the head of a chain hides the published chain behind it until its sibling link is visible: prefix scans that
+ * meet one wait for the insertion to publish it.</p>
+ * <p>Company: Helios Development Group LLC</p>
+ * @author Whitehead (nwhitehead AT heliosdev DOT org)
+ * <p><code>org.helios.jmxstats.core.name.NameTrie</code></p>
+ */
+public class NameTrie {
+	/** The value returned for names that are not in the trie */
+	public static final long NO_VALUE = Long.MIN_VALUE;
+	/** The segment delimiters. The delimiter code of a segment is its index in this string plus one, zero meaning no delimiter. */
+	public static final String DELIMITERS = ".:,=/";
+	/** The root node id */
+	public static final int ROOT = 0;
+	
+	/** The current state */
+	private volatile State state;
+	/** The number of nodes, written after all other state for a new node */
+	private volatile int nodeCount;
+	/** The number of names with a value */
+	private volatile int nameCount = 0;
+	
+	/**
+	 * Creates a new NameTrie
+	 * @param initialCapacity The initial node capacity
+	 */
+	public NameTrie(int initialCapacity) {
+		state = new State(Math.max(16, initialCapacity));
+		nodeCount = 1;
+	}
+	
+	/**
+	 * Creates a new NameTrie with an initial capacity of 1024 nodes
+	 */
+	public NameTrie() {
+		this(1024);
+	}
+	
+	/**
+	 * Returns the delimiter code for the passed char
+	 * @param c The char to test
+	 * @return the delimiter code, or zero if the char is not a delimiter
+	 */
+	private static int delimiter(char c) {
+		switch(c) {
+			case '.': return 1;
+			case ':': return 2;
+			case ',': return 3;
+			case '=': return 4;
+			case '/': return 5;
+			default: return 0;
+		}
+	}
+	
+	/**
+	 * Hashes a char range
+	 * @param cs The chars
+	 * @param start The start index
+	 * @param end The end index (exclusive)
+	 * @return the hash code
+	 */
+	private static int hash(CharSequence cs, int start, int end) {
+		int h = 0;
+		for(int i = start; i < end; i++) {
+			h = 31*h + cs.charAt(i);
+		}
+		return mix(h);
+	}
+	
+	/**
+	 * Spreads the bits of a hash code
+	 * @param h The hash code
+	 * @return the spread hash code
+	 */
+	private static int mix(int h) {
+		h ^= (h >>> 16);
+		h *= 0x85ebca6b;
+		h ^= (h >>> 13);
+		return h;
+	}
+	
+	/**
+	 * Hashes a child node key
+	 * @param parent The parent node id
+	 * @param segmentKey The segment key of the child
+	 * @return the hash code
+	 */
+	private static int childHash(int parent, int segmentKey) {
+		return mix(parent * 0x9E3779B9 + segmentKey);
+	}
+	
+	/**
+	 * Returns the value of the passed name
+	 * @param name The name
+	 * @return the value, or {@link #NO_VALUE} if the name is not in the trie
+	 */
+	public long get(CharSequence name) {
+		final int node = find(name);
+		if(node<0) return NO_VALUE;
+		return state.values[node];
+	}
+	
+	/**
+	 * Returns the node id of the passed name if it has a value
+	 * @param name The name
+	 * @return the name id, or -1 if the name is not in the trie
+	 */
+	public int getId(CharSequence name) {
+		final int node = find(name);
+		if(node<0 || state.values[node]==NO_VALUE) return -1;
+		return node;
+	}
+	
+	/**
+	 * Returns the value of the name with the passed id
+	 * @param id The name id
+	 * @return the value, or {@link #NO_VALUE} if the id has no value
+	 */
+	public long getValue(int id) {
+		if(id<0 || id>=nodeCount) return NO_VALUE;
+		return state.values[id];
+	}
+	
+	/**
+	 * Indicates if the passed name has a value
+	 * @param name The name
+	 * @return true if the name has a value
+	 */
+	public boolean containsName(CharSequence name) {
+		return get(name)!=NO_VALUE;
+	}
+	
+	/**
+	 * Associates the passed value with the passed name, interning any new segments and nodes
+	 * @param name The name
+	 * @param value The value. May not be {@link #NO_VALUE}
+	 * @return the name id
+	 */
+	public synchronized int put(CharSequence name, long value) {
+		if(name==null) throw new IllegalArgumentException("The passed name was null", new Throwable());
+		if(value==NO_VALUE) throw new IllegalArgumentException("The passed value is reserved", new Throwable());
+		final int len = name.length();
+		int node = ROOT;
+		int delim = 0;
+		int start = 0;
+		for(int i = 0; i <= len; i++) {
+			final int d = i==len ? 0 : delimiter(name.charAt(i));
+			if(i==len || d!=0) {
+				final int segment = internSegment(name, start, i);
+				node = internChild(node, (segment << 3) | delim);
+				delim = d;
+				start = i+1;
+			}
+		}
+		final State s = state;
+		if(s.values[node]==NO_VALUE) nameCount++;
+		s.values[node] = value;
+		// republish so lock free readers see the value
+		nodeCount = nodeCount;
+		return node;
+	}
+	
+	/**
+	 * Removes the value of the passed name. The name's nodes and segments are retained, so a trie with many removals
+	 * should be rebuilt from its remaining names to reclaim them.
+	 * @param name The name
+	 * @return the removed value, or {@link #NO_VALUE} if the name was not in the trie
+	 */
+	public synchronized long remove(CharSequence name) {
+		final int node = find(name);
+		if(node<0) return NO_VALUE;
+		final State s = state;
+		final long value = s.values[node];
+		if(value!=NO_VALUE) {
+			s.values[node] = NO_VALUE;
+			nameCount--;
+			nodeCount = nodeCount;
+		}
+		return value;
+	}
+	
+	/**
+	 * Locates the node of the passed name without modifying the trie
+	 * @param name The name
+	 * @return the node id or -1 if the name's path does not exist
+	 */
+	private int find(CharSequence name) {
+		if(name==null) throw new IllegalArgumentException("The passed name was null", new Throwable());
+		final int count = nodeCount;
+		final State s = state;
+		final int len = name.length();
+		int node = ROOT;
+		int delim = 0;
+		int start = 0;
+		for(int i = 0; i <= len; i++) {
+			final int d = i==len ? 0 : delimiter(name.charAt(i));
+			if(i==len || d!=0) {
+				final int segment = s.findSegment(name, start, i);
+				if(segment<0) return -1;
+				node = s.findChild(node, (segment << 3) | delim, count);
+				if(node<0) return -1;
+				delim = d;
+				start = i+1;
+			}
+		}
+		return node;
+	}
+	
+	/**
+	 * Returns the ids of all names under the passed prefix. The prefix is matched on whole segments, so
+	 * <code>java.lang:type=Memory</code> matches <code>java.lang:type=Memory</code> and <code>java.lang:type=MemoryPool,name=...</code>
+	 * is not matched. A trailing delimiter on the prefix is ignored.
+	 * @param prefix The name prefix
+	 * @return the name ids under the prefix, including the prefix itself if it is a name
+	 */
+	public int[] findByPrefix(CharSequence prefix) {
+		if(prefix==null) throw new IllegalArgumentException("The passed prefix was null", new Throwable());
+		int len = prefix.length();
+		if(len>0 && delimiter(prefix.charAt(len-1))!=0) len--;
+		final int node = len==0 ? ROOT : find(prefix.subSequence(0, len));
+		if(node<0) return new int[0];
+		final int count = nodeCount;
+		final State s = state;
+		int[] ids = new int[16];
+		int found = 0;
+		int[] stack = new int[16];
+		int top = 0;
+		stack[top++] = node;
+		while(top>0) {
+			final int n = stack[--top];
+			if(n!=ROOT && s.values[n]!=NO_VALUE) {
+				if(found==ids.length) ids = Arrays.copyOf(ids, found*2);
+				ids[found++] = n;
+			}
+			for(int c = s.firstChild[n]; c>0; c = s.nextSibling[c]) {
+				if(c>=count) awaitPublished(c);
+				if(top==stack.length) stack = Arrays.copyOf(stack, top*2);
+				stack[top++] = c;
+			}
+		}
+		return Arrays.copyOf(ids, found);
+	}
+	
+	/**
+	 * Waits until the node count passes the passed node, which a concurrent insertion has linked into a sibling chain
+	 * but not yet published. The insertion holds the trie lock and only has its child table entry left to write.
+	 * @param node The node id
+	 */
+	private void awaitPublished(int node) {
+		while(nodeCount<=node) {
+			Thread.yield();
+		}
+	}
+	
+	/**
+	 * Rebuilds the full name of the passed name id
+	 * @param id The name id
+	 * @return the name or null if the id is not a valid node
+	 */
+	public String getName(int id) {
+		final int count = nodeCount;
+		if(id<=ROOT || id>=count) return null;
+		final State s = state;
+		int length = 0;
+		for(int n = id; n!=ROOT; n = s.parents[n]) {
+			final int key = s.segmentKeys[n];
+			length += s.segmentLengths[key >>> 3] + ((key & 7)==0 ? 0 : 1);
+		}
+		final char[] chars = new char[length];
+		int pos = length;
+		for(int n = id; n!=ROOT; n = s.parents[n]) {
+			final int key = s.segmentKeys[n];
+			final int seg = key >>> 3;
+			final int segLength = s.segmentLengths[seg];
+			pos -= segLength;
+			System.arraycopy(s.chars, s.segmentOffsets[seg], chars, pos, segLength);
+			if((key & 7)!=0) {
+				chars[--pos] = DELIMITERS.charAt((key & 7)-1);
+			}
+		}
+		return new String(chars);
+	}
+	
+	/**
+	 * Returns the number of names with a value
+	 * @return the number of names
+	 */
+	public int size() {
+		return nameCount;
+	}
+	
+	/**
+	 * Returns the number of trie nodes, including the root
+	 * @return the number of nodes
+	 */
+	public int getNodeCount() {
+		return nodeCount;
+	}
+	
+	/**
+	 * Returns the number of distinct interned segments
+	 * @return the number of segments
+	 */
+	public int getSegmentCount() {
+		return state.segmentCount;
+	}
+	
+	/**
+	 * Returns the number of chars stored in the segment arena
+	 * @return the number of stored chars
+	 */
+	public int getSegmentChars() {
+		return state.charCount;
+	}
+	
+	/**
+	 * Returns an estimate of the bytes of heap used by the trie arrays
+	 * @return the estimated heap usage in bytes
+	 */
+	public long getEstimatedSize() {
+		final State s = state;
+		return (long)s.chars.length*2 + (long)s.segmentOffsets.length*8 + (long)s.segmentTable.length*4
+			+ (long)s.parents.length*(4+4+4+4+8) + (long)s.nodeTable.length*4;
+	}
+	
+	/**
+	 * Interns the segment in the passed char range. The caller holds the trie lock.
+	 * @param name The name
+	 * @param start The segment start index
+	 * @param end The segment end index (exclusive)
+	 * @return the segment id
+	 */
+	private int internSegment(CharSequence name, int start, int end) {
+		State s = state;
+		int seg = s.findSegment(name, start, end);
+		if(seg>=0) return seg;
+		final int segLength = end-start;
+		if(s.segmentCount*2>=s.segmentTable.length || s.charCount+segLength>s.chars.length || s.segmentCount==s.segmentOffsets.length) {
+			s = s.growSegments(segLength);
+			state = s;
+		}
+		seg = s.segmentCount;
+		final int offset = s.charCount;
+		for(int i = start; i < end; i++) {
+			s.chars[offset + i - start] = name.charAt(i);
+		}
+		s.segmentOffsets[seg] = offset;
+		s.segmentLengths[seg] = segLength;
+		s.charCount = offset + segLength;
+		s.insertSegment(seg, hash(name, start, end));
+		s.segmentCount = seg+1;
+		return seg;
+	}
+	
+	/**
+	 * Returns the child of the passed node with the passed segment key, creating it if it does not exist. The caller holds the trie lock.
+	 * @param parent The parent node id
+	 * @param segmentKey The segment key: the segment id shifted left 3 bits or'ed with the delimiter code
+	 * @return the child node id
+	 */
+	private int internChild(int parent, int segmentKey) {
+		final int count = nodeCount;
+		State s = state;
+		int child = s.findChild(parent, segmentKey, count);
+		if(child>=0) return child;
+		if(count==s.parents.length || count*2>=s.nodeTable.length) {
+			s = s.growNodes(count);
+			state = s;
+		}
+		child = count;
+		s.parents[child] = parent;
+		s.segmentKeys[child] = segmentKey;
+		s.values[child] = NO_VALUE;
+		s.firstChild[child] = 0;
+		s.nextSibling[child] = s.firstChild[parent];
+		s.firstChild[parent] = child;
+		s.insertNode(child);
+		nodeCount = count+1;
+		return child;
+	}
+	
+	/**
+	 * <p>Title: State</p>
+	 * <p>Description: The arrays holding the trie state. A new State is published when any array must grow.</p> 
+	 * <p>Company: Helios Development Group LLC</p>
+	 * @author Whitehead (nwhitehead AT heliosdev DOT org)
+	 * <p><code>org.helios.jmxstats.core.name.NameTrie.State</code></p>
+	 */
+	private static final class State {
+		/** The segment char arena */
+		char[] chars;
+		/** The number of used chars in the arena */
+		int charCount = 0;
+		/** The arena offset of each segment */
+		int[] segmentOffsets;
+		/** The length of each segment */
+		int[] segmentLengths;
+		/** The number of segments */
+		int segmentCount = 0;
+		/** Open addressed segment hash table of segment id + 1 */
+		int[] segmentTable;
+		/** The parent of each node */
+		int[] parents;
+		/** The segment key of each node */
+		int[] segmentKeys;
+		/** The value of each node */
+		long[] values;
+		/** The first child of each node, 0 for none */
+		int[] firstChild;
+		/** The next sibling of each node, 0 for none */
+		int[] nextSibling;
+		/** Open addressed child hash table of node id, 0 for empty since the root is never a child */
+		int[] nodeTable;
+		
+		/**
+		 * Creates a new empty State with a root node
+		 * @param capacity The initial node capacity
+		 */
+		State(int capacity) {
+			final int cap = Integer.highestOneBit(capacity-1) << 1;
+			chars = new char[cap*4];
+			segmentOffsets = new int[cap];
+			segmentLengths = new int[cap];
+			segmentTable = new int[cap*2];
+			parents = new int[cap];
+			segmentKeys = new int[cap];
+			values = new long[cap];
+			firstChild = new int[cap];
+			nextSibling = new int[cap];
+			nodeTable = new int[cap*2];
+			parents[ROOT] = -1;
+			values[ROOT] = NO_VALUE;
+		}
+		
+		/**
+		 * Creates a copy of the passed State
+		 * @param s The state to copy
+		 */
+		private State(State s) {
+			chars = s.chars; charCount = s.charCount;
+			segmentOffsets = s.segmentOffsets; segmentLengths = s.segmentLengths; segmentCount = s.segmentCount; segmentTable = s.segmentTable;
+			parents = s.parents; segmentKeys = s.segmentKeys; values = s.values; firstChild = s.firstChild; nextSibling = s.nextSibling; nodeTable = s.nodeTable;
+		}
+		
+		/**
+		 * Returns a new State with grown segment storage
+		 * @param segLength The length of the segment about to be added
+		 * @return the new State
+		 */
+		State growSegments(int segLength) {
+			final State s = new State(this);
+			if(charCount+segLength>chars.length) {
+				s.chars = Arrays.copyOf(chars, Math.max(chars.length*2, charCount+segLength));
+			}
+			if(segmentCount==segmentOffsets.length) {
+				s.segmentOffsets = Arrays.copyOf(segmentOffsets, segmentOffsets.length*2);
+				s.segmentLengths = Arrays.copyOf(segmentLengths, segmentLengths.length*2);
+			}
+			if(segmentCount*2>=segmentTable.length) {
+				s.segmentTable = new int[segmentTable.length*2];
+				for(int seg = 0; seg < segmentCount; seg++) {
+					s.insertSegment(seg, hash(CharBufferView.of(s.chars, s.segmentOffsets[seg], s.segmentLengths[seg]), 0, s.segmentLengths[seg]));
+				}
+			}
+			return s;
+		}
+		
+		/**
+		 * Returns a new State with grown node storage
+		 * @param count The current node count
+		 * @return the new State
+		 */
+		State growNodes(int count) {
+			final State s = new State(this);
+			if(count==parents.length) {
+				final int cap = parents.length*2;
+				s.parents = Arrays.copyOf(parents, cap);
+				s.segmentKeys = Arrays.copyOf(segmentKeys, cap);
+				s.values = Arrays.copyOf(values, cap);
+				s.firstChild = Arrays.copyOf(firstChild, cap);
+				s.nextSibling = Arrays.copyOf(nextSibling, cap);
+			}
+			if(count*2>=nodeTable.length) {
+				s.nodeTable = new int[nodeTable.length*2];
+				for(int n = 1; n < count; n++) {
+					s.insertNode(n);
+				}
+			}
+			return s;
+		}
+		
+		/**
+		 * Finds an interned segment
+		 * @param cs The chars
+		 * @param start The segment start index
+		 * @param end The segment end index (exclusive)
+		 * @return the segment id or -1 if it is not interned
+		 */
+		int findSegment(CharSequence cs, int start, int end) {
+			final int[] table = segmentTable;
+			final int mask = table.length-1;
+			final int segLength = end-start;
+			for(int i = hash(cs, start, end) & mask; ; i = (i+1) & mask) {
+				final int entry = table[i];
+				if(entry==0) return -1;
+				final int seg = entry-1;
+				if(segmentLengths[seg]==segLength) {
+					final int offset = segmentOffsets[seg];
+					int j = 0;
+					while(j<segLength && chars[offset+j]==cs.charAt(start+j)) j++;
+					if(j==segLength) return seg;
+				}
+			}
+		}
+		
+		/**
+		 * Inserts a segment into the segment table
+		 * @param seg The segment id
+		 * @param hash The segment hash
+		 */
+		void insertSegment(int seg, int hash) {
+			final int mask = segmentTable.length-1;
+			int i = hash & mask;
+			while(segmentTable[i]!=0) i = (i+1) & mask;
+			segmentTable[i] = seg+1;
+		}
+		
+		/**
+		 * Finds a child node
+		 * @param parent The parent node id
+		 * @param segmentKey The child's segment key
+		 * @param count The published node count. Nodes at or above it are ignored.
+		 * @return the child node id or -1 if it does not exist
+		 */
+		int findChild(int parent, int segmentKey, int count) {
+			final int[] table = nodeTable;
+			final int mask = table.length-1;
+			for(int i = childHash(parent, segmentKey) & mask; ; i = (i+1) & mask) {
+				final int n = table[i];
+				if(n==0) return -1;
+				if(n<count && parents[n]==parent && segmentKeys[n]==segmentKey) return n;
+			}
+		}
+		
+		/**
+		 * Inserts a node into the child table
+		 * @param n The node id
+		 */
+		void insertNode(int n) {
+			final int mask = nodeTable.length-1;
+			int i = childHash(parents[n], segmentKeys[n]) & mask;
+			while(nodeTable[i]!=0) i = (i+1) & mask;
+			nodeTable[i] = n;
+		}
+	}
+	
+	/**
+	 * <p>Title: CharBufferView</p>
+	 * <p>Description: A minimal CharSequence over a char array range, used to rehash arena segments</p> 
+	 * <p>Company: Helios Development Group LLC</p>
+	 * @author Whitehead (nwhitehead AT heliosdev DOT org)
+	 * <p><code>org.helios.jmxstats.core.name.NameTrie.CharBufferView</code></p>
+	 */
+	private static final class CharBufferView implements CharSequence {
+		/** The chars */
+		private final char[] chars;
+		/** The offset */
+		private final int offset;
+		/** The length */
+		private final int length;
+		
+		/**
+		 * Creates a view of the passed char range
+		 * @param chars The chars
+		 * @param offset The offset
+		 * @param length The length
+		 * @return the view
+		 */
+		static CharBufferView of(char[] chars, int offset, int length) {
+			return new CharBufferView(chars, offset, length);
+		}
+		
+		private CharBufferView(char[] chars, int offset, int length) {
+			this.chars = chars;
+			this.offset = offset;
+			this.length = length;
+		}
+		
+		public int length() {
+			return length;
+		}
+		
+		public char charAt(int index) {
+			return chars[offset+index];
+		}
+		
+		public CharSequence subSequence(int start, int end) {
+			return new CharBufferView(chars, offset+start, end-start);
+		}
+		
+		public String toString() {
+			return new String(chars, offset, length);
+		}
+	}
+}
@@ -0,0 +1,327 @@
+/**
+ * Helios, OpenSource Monitoring
+ * Brought to you by the Helios Development Group
+ *
+ * Copyright 2007, Helios Development Group and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org. 
+ *
+ */
+package org.helios.jmxstats.core.name;
+
+import java.util.Arrays;
+import java.util.Hashtable;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import javax.management.ObjectName;
+
+import org.helios.jmxstats.core.metric.MetricRegistry;
+import org.helios.jmxstats.core.metric.MetricType;
+
+/**
+ * <p>Title: ObjectNameIndex</p>
+ * <p>Description: Resolves metrics keyed by a JMX {@link ObjectName} and attribute to metric registry handles.
+ * Each distinct ObjectName is tokenized once (domain and key properties interned in a {@link TokenTable}); subsequent
+ * lookups use the ObjectName's cached hash and a short scan of the attribute tokens already seen for it, so the
+ * canonical name is never rebuilt or rehashed on the hot path.</p> 
+ * <p>Company: Helios Development Group LLC</p>
+ * @author Whitehead (nwhitehead AT heliosdev DOT org)
+ * <p><code>org.helios.jmxstats.core.name.ObjectNameIndex</code></p>
+ */
+public class ObjectNameIndex {
+	/** The singleton instance */
+	private static volatile ObjectNameIndex instance = null;
+	/** The singleton instance ctor lock */
+	private static final Object lock = new Object();
+	
+	/** The token table */
+	private final TokenTable tokens = new TokenTable();
+	/** The metric registry handles are allocated from */
+	private final MetricRegistry registry;
+	/** The tokenized ObjectNames */
+	private final ConcurrentHashMap<ObjectName, Entry> entries = new ConcurrentHashMap<ObjectName, Entry>(1024, 0.75f, 16);
+	/** The metric key to handle map */
+	private final ConcurrentHashMap<MetricKey, Integer> handles = new ConcurrentHashMap<MetricKey, Integer>(1024, 0.75f, 16);
+	/** The metric keys indexed by slot */
+	private volatile MetricKey[] keys = new MetricKey[MetricRegistry.INITIAL_CAPACITY];
+	/** The ObjectName entries indexed by slot */
+	private Entry[] owners = new Entry[MetricRegistry.INITIAL_CAPACITY];
+	
+	/**
+	 * Returns the ObjectNameIndex singleton
+	 * @return the ObjectNameIndex singleton
+	 */
+	public static ObjectNameIndex getInstance() {
+		if(instance==null) {
+			synchronized(lock) {
+				if(instance==null) {
+					instance = new ObjectNameIndex(MetricRegistry.getInstance());
+				}
+			}
+		}
+		return instance;
+	}
+	
+	private ObjectNameIndex(MetricRegistry registry) {
+		this.registry = registry;
+	}
+	
+	/**
+	 * Returns the handle for the metric keyed by the passed ObjectName and attribute, registering a new metric of the passed type if one does not exist.
+	 * The new metric is named <code>domain:key=value,...,key=value/attribute</code>.
+	 * @param objectName The ObjectName of the MBean
+	 * @param attribute The attribute name
+	 * @param type The metric type
+	 * @return the metric handle
+	 */
+	public int getHandle(ObjectName objectName, String attribute, MetricType type) {
+		if(attribute==null) throw new IllegalArgumentException("The passed attribute was null", new Throwable());
+		if(type==null) throw new IllegalArgumentException("The passed metric type was null", new Throwable());
+		while(true) {
+			final Entry entry = getEntry(objectName);
+			int handle = entry.getHandle(tokens.get(attribute));
+			if(handle>=0) return handle;
+			synchronized(entry) {
+				// the entry was dropped by a concurrent removal of its last attribute, so retry with a new one
+				if(entries.get(objectName)!=entry) continue;
+				final int token = tokens.intern(attribute);
+				final MetricKey key = new MetricKey(entry.domain, token, entry.properties);
+				Integer h = handles.get(key);
+				if(h==null) {
+					h = registry.getHandle(key.toName(tokens), type);
+					setKey(h, key, entry);
+					handles.put(key, h);
+				} else {
+					tokens.release(token);
+				}
+				entry.addHandle(token, h);
+				return h;
+			}
+		}
+	}
+	
+	/**
+	 * Returns the handle for the metric keyed by the passed ObjectName and attribute
+	 * @param objectName The ObjectName of the MBean
+	 * @param attribute The attribute name
+	 * @return the metric handle or -1 if no metric has been registered
+	 */
+	public int getHandle(ObjectName objectName, String attribute) {
+		if(objectName==null) throw new IllegalArgumentException("The passed ObjectName was null", new Throwable());
+		if(attribute==null) throw new IllegalArgumentException("The passed attribute was null", new Throwable());
+		final Entry entry = entries.get(objectName);
+		if(entry==null) return -1;
+		return entry.getHandle(tokens.get(attribute));
+	}
+	
+	/**
+	 * Returns the metric key for the passed handle
+	 * @param handle The metric handle
+	 * @return the metric key or null if the handle was not registered through this index, or its slot has been recycled
+	 */
+	public MetricKey getKey(int handle) {
+		final MetricKey[] k = keys;
+		final int slot = MetricRegistry.slot(handle);
+		final MetricKey key = handle>=0 && slot<k.length ? k[slot] : null;
+		if(key==null) return null;
+		final Integer h = handles.get(key);
+		return h!=null && h==handle ? key : null;
+	}
+	
+	/**
+	 * Removes the metric with the passed handle from the index, dropping the ObjectName's tokenized entry once it has no attributes left.
+	 * Called when the metric is evicted from the registry. The tokens only the removed metric referenced are released.
+	 * @param handle The metric handle
+	 * @return the removed metric's key, or null if the handle was not registered through this index
+	 */
+	public MetricKey remove(int handle) {
+		final MetricKey key;
+		final Entry entry;
+		synchronized(this) {
+			key = getKey(handle);
+			if(key==null) return null;
+			final int slot = MetricRegistry.slot(handle);
+			entry = owners[slot];
+			keys[slot] = null;
+			owners[slot] = null;
+			keys = keys;
+		}
+		synchronized(entry) {
+			handles.remove(key);
+			tokens.release(key.getAttribute());
+			if(entry.removeHandle(key.getAttribute()) && entries.remove(entry.objectName, entry)) {
+				entry.release(tokens);
+			}
+		}
+		return key;
+	}
+	
+	/**
+	 * Returns the token table used to intern ObjectName parts
+	 * @return the token table
+	 */
+	public TokenTable getTokenTable() {
+		return tokens;
+	}
+	
+	/**
+	 * Returns the number of distinct ObjectNames tokenized
+	 * @return the number of distinct ObjectNames
+	 */
+	public int getObjectNameCount() {
+		return entries.size();
+	}
+	
+	/**
+	 * Returns the number of metrics registered through this index
+	 * @return the number of metrics
+	 */
+	public int size() {
+		return handles.size();
+	}
+	
+	/**
+	 * Returns the tokenized entry for the passed ObjectName, creating it if this is the first time the ObjectName has been seen.
+	 * A new entry holds a reference on its domain and key property tokens until it is dropped.
+	 * @param objectName The ObjectName
+	 * @return the entry
+	 */
+	private Entry getEntry(ObjectName objectName) {
+		if(objectName==null) throw new IllegalArgumentException("The passed ObjectName was null", new Throwable());
+		Entry entry = entries.get(objectName);
+		if(entry==null) {
+			if(objectName.isPattern()) throw new IllegalArgumentException("The passed ObjectName [" + objectName + "] is a pattern", new Throwable());
+			final Hashtable<String, String> props = objectName.getKeyPropertyList();
+			final long[] pairs = new long[props.size()];
+			int i = 0;
+			for(Map.Entry<String, String> p: props.entrySet()) {
+				pairs[i++] = ((long)tokens.intern(p.getKey()) << 32) | tokens.intern(p.getValue());
+			}
+			Arrays.sort(pairs);
+			final int[] properties = new int[pairs.length*2];
+			for(i = 0; i < pairs.length; i++) {
+				properties[i*2] = (int)(pairs[i] >>> 32);
+				properties[i*2+1] = (int)pairs[i];
+			}
+			entry = new Entry(objectName, tokens.intern(objectName.getDomain()), properties);
+			final Entry prior = entries.putIfAbsent(objectName, entry);
+			if(prior!=null) {
+				entry.release(tokens);
+				entry = prior;
+			}
+		}
+		return entry;
+	}
+	
+	/**
+	 * Records the metric key and ObjectName entry for the passed handle
+	 * @param handle The metric handle
+	 * @param key The metric key
+	 * @param entry The ObjectName entry
+	 */
+	private synchronized void setKey(int handle, MetricKey key, Entry entry) {
+		final int slot = MetricRegistry.slot(handle);
+		MetricKey[] k = keys;
+		if(slot>=k.length) {
+			k = Arrays.copyOf(k, Math.max(k.length*2, slot+1));
+			owners = Arrays.copyOf(owners, k.length);
+		}
+		k[slot] = key;
+		owners[slot] = entry;
+		keys = k;
+	}
+	
+	/**
+	 * <p>Title: Entry</p>
+	 * <p>Description: The tokenized form of one ObjectName and the handles of the attributes registered for it</p> 
+	 */
+	private static class Entry {
+		/** The ObjectName */
+		final ObjectName objectName;
+		/** The domain token */
+		final int domain;
+		/** The key property tokens as (key, value) pairs sorted by key token */
+		final int[] properties;
+		/** The attribute tokens and handles interleaved, replaced on write */
+		volatile int[] attributes = new int[0];
+		
+		Entry(ObjectName objectName, int domain, int[] properties) {
+			this.objectName = objectName;
+			this.domain = domain;
+			this.properties = properties;
+		}
+		
+		/**
+		 * Releases the entry's references on its domain and key property tokens
+		 * @param tokens The token table
+		 */
+		void release(TokenTable tokens) {
+			tokens.release(domain);
+			for(int i = 0; i < properties.length; i++) {
+				tokens.release(properties[i]);
+			}
+		}
+		
+		/**
+		 * Returns the handle registered for the passed attribute token
+		 * @param attribute The attribute token
+		 * @return the handle or -1 if none is registered
+		 */
+		int getHandle(int attribute) {
+			if(attribute<0) return -1;
+			final int[] a = attributes;
+			for(int i = 0; i < a.length; i += 2) {
+				if(a[i]==attribute) return a[i+1];
+			}
+			return -1;
+		}
+		
+		/**
+		 * Adds an attribute handle. Callers synchronize on the entry.
+		 * @param attribute The attribute token
+		 * @param handle The metric handle
+		 */
+		void addHandle(int attribute, int handle) {
+			if(getHandle(attribute)>=0) return;
+			final int[] a = Arrays.copyOf(attributes, attributes.length+2);
+			a[a.length-2] = attribute;
+			a[a.length-1] = handle;
+			attributes = a;
+		}
+		
+		/**
+		 * Removes an attribute handle. Callers synchronize on the entry.
+		 * @param attribute The attribute token
+		 * @return true if the entry has no attributes left
+		 */
+		boolean removeHandle(int attribute) {
+			final int[] a = attributes;
+			for(int i = 0; i < a.length; i += 2) {
+				if(a[i]==attribute) {
+					final int[] r = new int[a.length-2];
+					System.arraycopy(a, 0, r, 0, i);
+					System.arraycopy(a, i+2, r, i, a.length-i-2);
+					attributes = r;
+					return r.length==0;
+				}
+			}
+			return a.length==0;
+		}
+	}
+}
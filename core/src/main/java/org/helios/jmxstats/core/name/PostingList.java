@@ -0,0 +1,265 @@
+/**
+ * Helios, OpenSource Monitoring
+ * Brought to you by the Helios Development Group
+ *
+ * Copyright 2007, Helios Development Group and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org. 
+ *
+ */
+package org.helios.jmxstats.core.name;
+
+import java.util.Arrays;
+
+/**
+ * <p>Title: PostingList</p>
+ * <p>Description: A compressed, sorted set of int ids. Ids are stored as variable length encoded deltas,
+ * so the dense, mostly ascending metric handles of one term typically cost a byte each. Every {@link #SKIP}th id is also
+ * recorded with its byte offset, so membership of a sorted run of candidates is tested by seeking between skip entries and
+ * decoding at most one block per candidate, rather than decoding the whole list.</p> 
+ * <p>Company: Helios Development Group LLC</p>
+ * @author Whitehead (nwhitehead AT heliosdev DOT org)
+ * <p><code>org.helios.jmxstats.core.name.PostingList</code></p>
+ */
+final class PostingList {
+	/** An empty id array */
+	static final int[] EMPTY = new int[0];
+	/** The number of ids between skip entries */
+	static final int SKIP = 64;
+	/** The encoded deltas */
+	private byte[] bytes = new byte[8];
+	/** The number of used bytes */
+	private int length = 0;
+	/** The number of ids */
+	private int size = 0;
+	/** The largest id */
+	private int last = -1;
+	/** The id at each multiple of {@link #SKIP} */
+	private int[] skipIds = new int[4];
+	/** The byte offset following the id at each multiple of {@link #SKIP} */
+	private int[] skipOffsets = new int[4];
+	
+	/**
+	 * Adds an id to the set
+	 * @param id The id to add
+	 * @return true if the id was added, false if it was already present
+	 */
+	synchronized boolean add(int id) {
+		if(id<0) throw new IllegalArgumentException("Invalid id [" + id + "]", new Throwable());
+		if(id>last) {
+			append(id);
+			return true;
+		}
+		// out of order registration: rare, so re-encode
+		final int[] ids = decode();
+		final int pos = Arrays.binarySearch(ids, id);
+		if(pos>=0) return false;
+		final int ins = -pos - 1;
+		final int[] merged = new int[ids.length+1];
+		System.arraycopy(ids, 0, merged, 0, ins);
+		merged[ins] = id;
+		System.arraycopy(ids, ins, merged, ins+1, ids.length-ins);
+		encode(merged, merged.length);
+		return true;
+	}
+	
+	/**
+	 * Removes an id from the set
+	 * @param id The id to remove
+	 * @return true if the id was removed, false if it was not present
+	 */
+	synchronized boolean remove(int id) {
+		if(id<0 || id>last) return false;
+		final int[] ids = decode();
+		final int pos = Arrays.binarySearch(ids, id);
+		if(pos<0) return false;
+		System.arraycopy(ids, pos+1, ids, pos, ids.length-pos-1);
+		encode(ids, ids.length-1);
+		return true;
+	}
+	
+	/**
+	 * Removes a sorted run of ids from the set, re-encoding once
+	 * @param ids The sorted ids to remove
+	 * @param off The offset of the first id
+	 * @param n The number of ids
+	 * @return the number of ids removed
+	 */
+	synchronized int removeAll(int[] ids, int off, int n) {
+		if(n==0 || size==0) return 0;
+		final int[] current = decode();
+		int kept = 0, j = off;
+		final int end = off + n;
+		for(int i = 0; i < current.length; i++) {
+			final int id = current[i];
+			while(j<end && ids[j]<id) j++;
+			if(j<end && ids[j]==id) continue;
+			current[kept++] = id;
+		}
+		final int removed = current.length - kept;
+		if(removed>0) encode(current, kept);
+		return removed;
+	}
+
+	/**
+	 * Returns the ids as a sorted array
+	 * @return the sorted ids
+	 */
+	synchronized int[] toArray() {
+		return decode();
+	}
+	
+	/**
+	 * Retains the candidates that are in this set, compacting them to the front of the array
+	 * @param ids The sorted candidate ids
+	 * @param n The number of candidates
+	 * @return the number of candidates retained
+	 */
+	synchronized int retain(int[] ids, int n) {
+		final Cursor c = new Cursor();
+		int kept = 0;
+		for(int i = 0; i < n; i++) {
+			final int id = ids[i];
+			if(id>last) break;
+			if(c.seek(id)) ids[kept++] = id;
+		}
+		return kept;
+	}
+	
+	/**
+	 * Flags the candidates that are in this set
+	 * @param ids The sorted candidate ids
+	 * @param n The number of candidates
+	 * @param found The flags, set for each candidate in this set
+	 */
+	synchronized void mark(int[] ids, int n, boolean[] found) {
+		final Cursor c = new Cursor();
+		for(int i = 0; i < n; i++) {
+			final int id = ids[i];
+			if(id>last) break;
+			if(!found[i] && c.seek(id)) found[i] = true;
+		}
+	}
+	
+	/**
+	 * Returns the number of ids
+	 * @return the number of ids
+	 */
+	synchronized int size() {
+		return size;
+	}
+	
+	/**
+	 * Returns the number of bytes used to encode the ids
+	 * @return the encoded size in bytes
+	 */
+	synchronized int getEncodedSize() {
+		return length;
+	}
+	
+	/**
+	 * Appends an id greater than the current largest id
+	 * @param id The id to append
+	 */
+	private void append(int id) {
+		int delta = id - last;
+		if(length+5>bytes.length) bytes = Arrays.copyOf(bytes, Math.max(bytes.length*2, length+5));
+		while((delta & ~0x7F)!=0) {
+			bytes[length++] = (byte)((delta & 0x7F) | 0x80);
+			delta >>>= 7;
+		}
+		bytes[length++] = (byte)delta;
+		if(size % SKIP==0) {
+			final int k = size / SKIP;
+			if(k==skipIds.length) {
+				skipIds = Arrays.copyOf(skipIds, k*2);
+				skipOffsets = Arrays.copyOf(skipOffsets, k*2);
+			}
+			skipIds[k] = id;
+			skipOffsets[k] = length;
+		}
+		last = id;
+		size++;
+	}
+	
+	private void encode(int[] ids, int count) {
+		length = 0; size = 0; last = -1;
+		for(int i = 0; i < count; i++) {
+			append(ids[i]);
+		}
+	}
+	
+	private int[] decode() {
+		if(size==0) return EMPTY;
+		final int[] ids = new int[size];
+		int id = -1, pos = 0;
+		for(int i = 0; i < size; i++) {
+			int delta = 0, shift = 0;
+			byte b;
+			do {
+				b = bytes[pos++];
+				delta |= (b & 0x7F) << shift;
+				shift += 7;
+			} while(b<0);
+			id += delta;
+			ids[i] = id;
+		}
+		return ids;
+	}
+	
+	/**
+	 * <p>Title: Cursor</p>
+	 * <p>Description: A forward only position in the encoded ids, used under the list lock</p> 
+	 */
+	private final class Cursor {
+		/** The id at the position, -1 before the first */
+		private int id = -1;
+		/** The number of ids decoded up to and including the position */
+		private int index = 0;
+		/** The byte offset following the position */
+		private int pos = 0;
+		
+		/**
+		 * Advances to the first id not less than the passed id, jumping to the closest skip entry first
+		 * @param target The id to seek, not less than any previously sought id
+		 * @return true if the target is in the set
+		 */
+		boolean seek(int target) {
+			if(id>=target) return id==target;
+			int k = Arrays.binarySearch(skipIds, 0, (size + SKIP - 1) / SKIP, target);
+			if(k<0) k = -k - 2;
+			if(k>=0 && k*SKIP + 1>index) {
+				id = skipIds[k];
+				index = k*SKIP + 1;
+				pos = skipOffsets[k];
+			}
+			while(id<target && index<size) {
+				int delta = 0, shift = 0;
+				byte b;
+				do {
+					b = bytes[pos++];
+					delta |= (b & 0x7F) << shift;
+					shift += 7;
+				} while(b<0);
+				id += delta;
+				index++;
+			}
+			return id==target;
+		}
+	}
+}
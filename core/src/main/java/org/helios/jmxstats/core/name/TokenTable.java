@@ -0,0 +1,148 @@
+/**
+ * Helios, OpenSource Monitoring
+ * Brought to you by the Helios Development Group
+ *
+ * Copyright 2007, Helios Development Group and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org. 
+ *
+ */
+package org.helios.jmxstats.core.name;
+
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentHashMap;
+
+import gnu.trove.list.array.TIntArrayList;
+
+/**
+ * <p>Title: TokenTable</p>
+ * <p>Description: Interns strings such as ObjectName domains, key property keys and values, attribute names and dotted name segments
+ * to dense int tokens. Each {@link #intern(String)} takes a reference on the token which the holder gives back with {@link #release(int)}.
+ * A token whose last reference is released is unmapped at once, but is only reused after the next {@link #recycle()}, so holders
+ * that look the token up after releasing it (e.g. the inverted index removing the postings of an evicted metric) still resolve its string.</p> 
+ * <p>Company: Helios Development Group LLC</p>
+ * @author Whitehead (nwhitehead AT heliosdev DOT org)
+ * <p><code>org.helios.jmxstats.core.name.TokenTable</code></p>
+ */
+public class TokenTable {
+	/** The string to token map */
+	private final ConcurrentHashMap<String, Integer> tokens = new ConcurrentHashMap<String, Integer>(1024, 0.75f, 16);
+	/** The interned strings indexed by token */
+	private volatile String[] strings = new String[1024];
+	/** The reference counts indexed by token */
+	private int[] refs = new int[1024];
+	/** The number of tokens allocated */
+	private volatile int allocated = 0;
+	/** The released tokens that become reusable at the next recycle */
+	private final TIntArrayList released = new TIntArrayList();
+	/** The reusable tokens */
+	private final TIntArrayList free = new TIntArrayList();
+	
+	/**
+	 * Returns the token for the passed string, assigning a new token if the string has not been interned, and takes a reference on it
+	 * @param s The string to intern
+	 * @return the token
+	 */
+	public synchronized int intern(String s) {
+		if(s==null) throw new IllegalArgumentException("The passed string was null", new Throwable());
+		final Integer token = tokens.get(s);
+		if(token!=null) {
+			refs[token]++;
+			return token;
+		}
+		final int t;
+		String[] arr = strings;
+		if(!free.isEmpty()) {
+			t = free.removeAt(free.size()-1);
+		} else {
+			t = allocated;
+			if(t==arr.length) {
+				arr = Arrays.copyOf(arr, arr.length*2);
+				refs = Arrays.copyOf(refs, arr.length);
+			}
+			allocated = t+1;
+		}
+		arr[t] = s;
+		strings = arr;
+		refs[t] = 1;
+		tokens.put(s, t);
+		return t;
+	}
+	
+	/**
+	 * Releases a reference on the passed token, unmapping its string when no references remain
+	 * @param token The token
+	 */
+	public synchronized void release(int token) {
+		if(token<0 || token>=allocated || refs[token]<=0) throw new IllegalArgumentException("Invalid token [" + token + "]", new Throwable());
+		if(--refs[token]==0) {
+			tokens.remove(strings[token]);
+			released.add(token);
+		}
+	}
+	
+	/**
+	 * Makes the tokens released since the last recycle available for reuse
+	 * @return the number of tokens recycled
+	 */
+	public synchronized int recycle() {
+		final int n = released.size();
+		for(int i = 0; i < n; i++) {
+			free.add(released.get(i));
+		}
+		released.resetQuick();
+		return n;
+	}
+	
+	/**
+	 * Returns the token for the passed string
+	 * @param s The string to look up
+	 * @return the token or -1 if the string has not been interned
+	 */
+	public int get(String s) {
+		if(s==null) throw new IllegalArgumentException("The passed string was null", new Throwable());
+		final Integer token = tokens.get(s);
+		return token==null ? -1 : token;
+	}
+	
+	/**
+	 * Returns the string for the passed token
+	 * @param token The token
+	 * @return the interned string
+	 */
+	public String getString(int token) {
+		if(token<0 || token>=allocated) throw new IllegalArgumentException("Invalid token [" + token + "]", new Throwable());
+		return strings[token];
+	}
+	
+	/**
+	 * Returns the number of interned strings
+	 * @return the number of interned strings
+	 */
+	public int size() {
+		return tokens.size();
+	}
+	
+	/**
+	 * Returns the number of tokens allocated, which bounds the token values and is not reduced when tokens are released
+	 * @return the number of tokens allocated
+	 */
+	public int getAllocated() {
+		return allocated;
+	}
+}
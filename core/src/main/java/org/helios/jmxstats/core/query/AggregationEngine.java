@@ -0,0 +1,332 @@
+/**
+ * Helios, OpenSource Monitoring
+ * Brought to you by the Helios Development Group
+ *
+ * Copyright 2007, Helios Development Group and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org. 
+ *
+ */
+package org.helios.jmxstats.core.query;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.RecursiveTask;
+
+import org.helios.jmxstats.core.ChronicleController;
+
+/**
+ * <p>Title: AggregationEngine</p>
+ * <p>Description: Executes {@link AggregationQuery}s against the intervals stored by a {@link ChronicleController} on a <code>ForkJoinPool</code>.
+ * The matching series are resolved and grouped once, then every group is aggregated as its own task, which recursively splits the group's
+ * series until at most {@link #SPLIT_PROP} remain and reads them. The series read by one worker thread for a group accumulate into that
+ * thread's partial result for the group, so a group holds at most one partial per worker rather than one per split, and the partials are
+ * merged when the group completes. Each group's result is passed to the {@link GroupHandler} as soon as the group completes, so large groups
+ * do not hold back small ones and query time scales with the pool's parallelism. Points of intervals in which a series received no values
+ * are skipped. Only names resident in the chronicle's name index are aggregated; matching spilled names are counted in each group's
+ * {@link GroupResult#getSkippedSeries()}.</p> 
+ * <p>Company: Helios Development Group LLC</p>
+ * @author Whitehead (nwhitehead AT heliosdev DOT org)
+ * <p><code>org.helios.jmxstats.core.query.AggregationEngine</code></p>
+ */
+public class AggregationEngine {
+	/** The system property that defines the aggregation pool's parallelism */
+	public static final String PARALLELISM_PROP = "org.helios.query.parallelism";
+	/** The system property that defines the maximum number of series read by one task */
+	public static final String SPLIT_PROP = "org.helios.query.split";
+	/** The default maximum number of series read by one task */
+	public static final int DEFAULT_SPLIT = 8;
+	
+	/** The chronicle to read the series from */
+	private final ChronicleController chronicle;
+	/** The aggregation pool */
+	private final ForkJoinPool pool;
+	/** The maximum number of series read by one task */
+	private final int split;
+	
+	/**
+	 * Creates a new AggregationEngine with the parallelism defined by {@link #PARALLELISM_PROP}, defaulting to the number of processors
+	 * @param chronicle The chronicle to read the series from
+	 */
+	public AggregationEngine(ChronicleController chronicle) {
+		this(chronicle, Integer.getInteger(PARALLELISM_PROP, Runtime.getRuntime().availableProcessors()));
+	}
+	
+	/**
+	 * Creates a new AggregationEngine
+	 * @param chronicle The chronicle to read the series from
+	 * @param parallelism The aggregation pool's parallelism
+	 */
+	public AggregationEngine(ChronicleController chronicle, int parallelism) {
+		if(chronicle==null) throw new IllegalArgumentException("The passed chronicle was null", new Throwable());
+		if(parallelism<1) throw new IllegalArgumentException("The passed parallelism [" + parallelism + "] was <1", new Throwable());
+		this.chronicle = chronicle;
+		pool = new ForkJoinPool(parallelism);
+		split = Math.max(1, Integer.getInteger(SPLIT_PROP, DEFAULT_SPLIT));
+	}
+	
+	/**
+	 * Executes the passed query, passing each group's result to the passed handler as the group completes
+	 * @param query The query to execute
+	 * @param handler The handler to pass the group results to
+	 * @return the number of series aggregated
+	 */
+	public int execute(AggregationQuery query, GroupHandler handler) {
+		if(query==null) throw new IllegalArgumentException("The passed query was null", new Throwable());
+		if(handler==null) throw new IllegalArgumentException("The passed handler was null", new Throwable());
+		final Map<String, Integer> skipped = new TreeMap<String, Integer>();
+		final Map<String, long[]> groups = resolve(query, skipped);
+		if(groups.isEmpty()) return 0;
+		final List<GroupTask> tasks = new ArrayList<GroupTask>(groups.size());
+		int series = 0;
+		for(Map.Entry<String, long[]> group: groups.entrySet()) {
+			final Integer skip = skipped.get(group.getKey());
+			tasks.add(new GroupTask(query, group.getKey(), group.getValue(), skip==null ? 0 : skip, handler));
+			series += group.getValue().length;
+		}
+		pool.invoke(new RecursiveAction() {
+			private static final long serialVersionUID = -6027343254513934577L;
+			@Override
+			protected void compute() {
+				invokeAll(tasks);
+			}
+		});
+		return series;
+	}
+	
+	/**
+	 * Executes the passed query and returns the group results
+	 * @param query The query to execute
+	 * @return the group results in group key order
+	 */
+	public List<GroupResult> execute(AggregationQuery query) {
+		final Map<String, GroupResult> results = new TreeMap<String, GroupResult>();
+		execute(query, new GroupHandler() {
+			@Override
+			public void onGroup(GroupResult result) {
+				results.put(result.getKey(), result);
+			}
+		});
+		return new ArrayList<GroupResult>(results.values());
+	}
+	
+	/**
+	 * Resolves the chronicle name indexes of the series matching the passed query, by group key. Matching names spilled from the
+	 * chronicle's name index are not resolved but counted, and a group whose series are all spilled is returned with no series.
+	 * @param query The query
+	 * @param skipped The map the number of matching spilled series of each group is put in, by group key
+	 * @return the sorted name indexes of each group's series, by group key
+	 */
+	protected Map<String, long[]> resolve(AggregationQuery query, Map<String, Integer> skipped) {
+		final Map<String, long[]> groups = new TreeMap<String, long[]>();
+		final Map<String, Integer> sizes = new TreeMap<String, Integer>();
+		for(String name: chronicle.getMetricNames(query.getLiteralPrefix())) {
+			final String key = query.getGroupKey(name);
+			if(key==null) continue;
+			final long nameIndex = chronicle.getMetricNameIndex(name, -1L);
+			if(nameIndex<0) continue;
+			long[] indexes = groups.get(key);
+			final int size = indexes==null ? 0 : sizes.get(key);
+			if(indexes==null) {
+				indexes = new long[8];
+			} else if(size==indexes.length) {
+				indexes = Arrays.copyOf(indexes, size*2);
+			}
+			indexes[size] = nameIndex;
+			groups.put(key, indexes);
+			sizes.put(key, size+1);
+		}
+		for(String name: chronicle.getSpilledMetricNames(query.getLiteralPrefix())) {
+			final String key = query.getGroupKey(name);
+			if(key==null) continue;
+			final Integer count = skipped.get(key);
+			skipped.put(key, count==null ? 1 : count+1);
+			if(!groups.containsKey(key)) {
+				groups.put(key, new long[0]);
+				sizes.put(key, 0);
+			}
+		}
+		for(Map.Entry<String, long[]> group: groups.entrySet()) {
+			final long[] indexes = Arrays.copyOf(group.getValue(), sizes.get(group.getKey()));
+			Arrays.sort(indexes);
+			group.setValue(indexes);
+		}
+		return groups;
+	}
+	
+	/**
+	 * Shuts down the aggregation pool
+	 */
+	public void shutdown() {
+		pool.shutdown();
+	}
+	
+	/**
+	 * Returns the chronicle the series are read from
+	 * @return the chronicle
+	 */
+	public ChronicleController getChronicle() {
+		return chronicle;
+	}
+	
+	/**
+	 * Returns the aggregation pool's parallelism
+	 * @return the parallelism
+	 */
+	public int getParallelism() {
+		return pool.getParallelism();
+	}
+	
+	/**
+	 * <p>Title: GroupTask</p>
+	 * <p>Description: Aggregates one group and passes its result to the handler</p> 
+	 */
+	private class GroupTask extends RecursiveAction {
+		private static final long serialVersionUID = 2405312948165462264L;
+		/** The query */
+		private final AggregationQuery query;
+		/** The group key */
+		private final String key;
+		/** The name indexes of the group's series */
+		private final long[] series;
+		/** The number of the group's series skipped because their names were spilled */
+		private final int skipped;
+		/** The handler to pass the result to */
+		private final GroupHandler handler;
+		/** The partial result of each worker thread that read some of the group's series */
+		private final Map<Thread, GroupResult> partials = new ConcurrentHashMap<Thread, GroupResult>();
+		
+		/**
+		 * Creates a new GroupTask
+		 * @param query The query
+		 * @param key The group key
+		 * @param series The name indexes of the group's series
+		 * @param skipped The number of the group's series skipped because their names were spilled
+		 * @param handler The handler to pass the result to
+		 */
+		GroupTask(AggregationQuery query, String key, long[] series, int skipped, GroupHandler handler) {
+			this.query = query;
+			this.key = key;
+			this.series = series;
+			this.skipped = skipped;
+			this.handler = handler;
+		}
+		
+		/**
+		 * Returns the calling worker thread's partial result, creating it on first use. Only the owning thread adds to a partial.
+		 * @return the calling thread's partial result
+		 */
+		GroupResult partial() {
+			final Thread current = Thread.currentThread();
+			GroupResult partial = partials.get(current);
+			if(partial==null) {
+				partial = new GroupResult(key, query);
+				partials.put(current, partial);
+			}
+			return partial;
+		}
+
+		/**
+		 * {@inheritDoc}
+		 * @see java.util.concurrent.RecursiveAction#compute()
+		 */
+		@Override
+		protected void compute() {
+			if(series.length>0) new SeriesTask(this, 0, series.length).compute();
+			GroupResult result = null;
+			for(GroupResult partial: partials.values()) {
+				if(result==null) result = partial;
+				else result.merge(partial);
+			}
+			if(result==null) result = new GroupResult(key, query);
+			result.addSeries(series.length);
+			result.addSkippedSeries(skipped);
+			synchronized(handler) {
+				handler.onGroup(result);
+			}
+		}
+	}
+	
+	/**
+	 * <p>Title: SeriesTask</p>
+	 * <p>Description: Aggregates a range of a group's series, splitting it in halves until it is small enough to read</p> 
+	 */
+	private class SeriesTask extends RecursiveAction implements ChronicleController.PointVisitor {
+		private static final long serialVersionUID = -2312960281962826393L;
+		/** The group being aggregated */
+		private final GroupTask group;
+		/** The first series of the range, inclusive */
+		private final int from;
+		/** The last series of the range, exclusive */
+		private final int to;
+		/** The partial result of the worker thread reading the range */
+		private GroupResult partial = null;
+		/** The last bucket the series being read had a point in */
+		private int lastBucket = -1;
+		
+		/**
+		 * Creates a new SeriesTask
+		 * @param group The group being aggregated
+		 * @param from The first series of the range, inclusive
+		 * @param to The last series of the range, exclusive
+		 */
+		SeriesTask(GroupTask group, int from, int to) {
+			this.group = group;
+			this.from = from;
+			this.to = to;
+		}
+
+		/**
+		 * {@inheritDoc}
+		 * @see java.util.concurrent.RecursiveAction#compute()
+		 */
+		@Override
+		protected void compute() {
+			if(to - from > split) {
+				final int mid = (from + to) >>> 1;
+				invokeAll(new SeriesTask(group, from, mid), new SeriesTask(group, mid, to));
+				return;
+			}
+			// a leaf does not fork or join, so no other task runs on this thread and adds to its partial while the leaf reads
+			partial = group.partial();
+			final AggregationQuery query = group.query;
+			for(int i = from; i < to; i++) {
+				lastBucket = -1;
+				chronicle.readSeries(group.series[i], query.getFromTime(), query.getToTime(), this);
+			}
+		}
+
+		/**
+		 * {@inheritDoc}
+		 * @see org.helios.jmxstats.core.ChronicleController.PointVisitor#point(long, long, long, long, long, long, long, double)
+		 */
+		@Override
+		public void point(long nameIndex, long startTime, long endTime, long count, long average, long minimum, long maximum, double sampleRate) {
+			if(count==0) return;
+			final int bucket = partial.bucket(startTime);
+			partial.add(bucket, bucket!=lastBucket, count, average, minimum, maximum);
+			lastBucket = bucket;
+		}
+	}
+}
@@ -0,0 +1,207 @@
+/**
+ * Helios, OpenSource Monitoring
+ * Brought to you by the Helios Development Group
+ *
+ * Copyright 2007, Helios Development Group and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org. 
+ *
+ */
+package org.helios.jmxstats.core.query;
+
+import java.util.Arrays;
+
+/**
+ * <p>Title: AggregationQuery</p>
+ * <p>Description: A group-by aggregation over the stored series whose dotted names match a segment pattern. Each segment of the pattern
+ * is either a literal or <code>*</code>, which matches any one segment, and a matching name must have as many segments as the pattern.
+ * Series are grouped by the values of the group-by segments, given by position, and aggregated per time bucket. e.g. the query
+ * <code>new AggregationQuery("app.*.*.requests", from, to, 60000, false, 2)</code> sums the request rate of every app instance
+ * per endpoint and minute. With no group-by segments all matching series fall into a single group with an empty key.</p> 
+ * <p>Company: Helios Development Group LLC</p>
+ * @author Whitehead (nwhitehead AT heliosdev DOT org)
+ * <p><code>org.helios.jmxstats.core.query.AggregationQuery</code></p>
+ */
+public class AggregationQuery {
+	/** The segment delimiter */
+	public static final char SEGMENT_DELIM = '.';
+	/** The wildcard segment */
+	public static final String WILDCARD = "*";
+	
+	/** The name pattern */
+	private final String pattern;
+	/** The name pattern segments */
+	private final String[] segments;
+	/** The positions of the group-by segments */
+	private final int[] groupBy;
+	/** The earliest interval start time, inclusive */
+	private final long fromTime;
+	/** The latest interval start time, inclusive */
+	private final long toTime;
+	/** The bucket size in ms. */
+	private final long bucketSize;
+	/** Indicates if a histogram of point averages is accumulated per bucket */
+	private final boolean histograms;
+	
+	/**
+	 * Creates a new AggregationQuery
+	 * @param pattern The series name pattern, e.g. <code>app.*.*.requests</code>
+	 * @param fromTime The earliest interval start time, inclusive
+	 * @param toTime The latest interval start time, inclusive
+	 * @param bucketSize The bucket size in ms. Intervals are assigned to the bucket their start time falls in, counting from <code>fromTime</code>
+	 * @param histograms true to accumulate a histogram of point averages per bucket
+	 * @param groupBy The zero based positions of the segments to group by
+	 */
+	public AggregationQuery(CharSequence pattern, long fromTime, long toTime, long bucketSize, boolean histograms, int...groupBy) {
+		if(pattern==null || pattern.length()==0) throw new IllegalArgumentException("The passed pattern was null or empty", new Throwable());
+		if(toTime<fromTime) throw new IllegalArgumentException("The passed to time [" + toTime + "] is before the from time [" + fromTime + "]", new Throwable());
+		if(bucketSize<1) throw new IllegalArgumentException("The passed bucket size [" + bucketSize + "] was <1", new Throwable());
+		if((toTime - fromTime) / bucketSize >= Integer.MAX_VALUE) throw new IllegalArgumentException("The time range spans too many buckets", new Throwable());
+		this.pattern = pattern.toString();
+		segments = split(this.pattern);
+		this.groupBy = groupBy==null ? new int[0] : groupBy.clone();
+		for(int position: this.groupBy) {
+			if(position<0 || position>=segments.length) throw new IllegalArgumentException("The group-by position [" + position + "] is not a segment of [" + pattern + "]", new Throwable());
+		}
+		this.fromTime = fromTime;
+		this.toTime = toTime;
+		this.bucketSize = bucketSize;
+		this.histograms = histograms;
+	}
+	
+	/**
+	 * Splits the passed name into segments
+	 * @param name The name to split
+	 * @return the segments
+	 */
+	static String[] split(String name) {
+		int count = 1;
+		for(int i = 0; i < name.length(); i++) {
+			if(name.charAt(i)==SEGMENT_DELIM) count++;
+		}
+		final String[] split = new String[count];
+		int start = 0, s = 0;
+		for(int i = 0; i < name.length(); i++) {
+			if(name.charAt(i)==SEGMENT_DELIM) {
+				split[s++] = name.substring(start, i);
+				start = i + 1;
+			}
+		}
+		split[s] = name.substring(start);
+		return split;
+	}
+	
+	/**
+	 * Returns the literal segments preceding the first wildcard, which all matching names start with
+	 * @return the literal prefix, empty if the pattern starts with a wildcard
+	 */
+	public String getLiteralPrefix() {
+		final StringBuilder b = new StringBuilder();
+		for(String segment: segments) {
+			if(WILDCARD.equals(segment)) break;
+			if(b.length()>0) b.append(SEGMENT_DELIM);
+			b.append(segment);
+		}
+		return b.toString();
+	}
+	
+	/**
+	 * Returns the group key of the passed name
+	 * @param name The series name
+	 * @return the group key or null if the name does not match the pattern
+	 */
+	public String getGroupKey(String name) {
+		final String[] split = split(name);
+		if(split.length!=segments.length) return null;
+		for(int i = 0; i < split.length; i++) {
+			if(!WILDCARD.equals(segments[i]) && !segments[i].equals(split[i])) return null;
+		}
+		if(groupBy.length==1) return split[groupBy[0]];
+		final StringBuilder b = new StringBuilder();
+		for(int i = 0; i < groupBy.length; i++) {
+			if(i>0) b.append(SEGMENT_DELIM);
+			b.append(split[groupBy[i]]);
+		}
+		return b.toString();
+	}
+	
+	/**
+	 * Returns the number of buckets spanned by the query
+	 * @return the number of buckets
+	 */
+	public int getBucketCount() {
+		return (int)((toTime - fromTime) / bucketSize) + 1;
+	}
+	
+	/**
+	 * Returns the series name pattern
+	 * @return the series name pattern
+	 */
+	public String getPattern() {
+		return pattern;
+	}
+	
+	/**
+	 * Returns the positions of the group-by segments
+	 * @return the positions of the group-by segments
+	 */
+	public int[] getGroupBy() {
+		return groupBy.clone();
+	}
+	
+	/**
+	 * Returns the earliest interval start time, inclusive
+	 * @return the from time
+	 */
+	public long getFromTime() {
+		return fromTime;
+	}
+	
+	/**
+	 * Returns the latest interval start time, inclusive
+	 * @return the to time
+	 */
+	public long getToTime() {
+		return toTime;
+	}
+	
+	/**
+	 * Returns the bucket size in ms.
+	 * @return the bucket size
+	 */
+	public long getBucketSize() {
+		return bucketSize;
+	}
+	
+	/**
+	 * Indicates if a histogram of point averages is accumulated per bucket
+	 * @return true if histograms are accumulated
+	 */
+	public boolean isHistograms() {
+		return histograms;
+	}
+
+	/**
+	 * {@inheritDoc}
+	 * @see java.lang.Object#toString()
+	 */
+	@Override
+	public String toString() {
+		return "AggregationQuery [pattern=" + pattern + ", groupBy=" + Arrays.toString(groupBy) + ", fromTime=" + fromTime + ", toTime=" + toTime + ", bucketSize=" + bucketSize + ", histograms=" + histograms + "]";
+	}
+}
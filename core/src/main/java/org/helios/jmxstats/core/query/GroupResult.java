@@ -0,0 +1,390 @@
+/**
+ * Helios, OpenSource Monitoring
+ * Brought to you by the Helios Development Group
+ *
+ * Copyright 2007, Helios Development Group and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org. 
+ *
+ */
+package org.helios.jmxstats.core.query;
+
+/**
+ * <p>Title: GroupResult</p>
+ * <p>Description: The per bucket aggregate of one group of an {@link AggregationQuery}. For each bucket it holds the number of contributing
+ * series, the summed interval counts, the sum of the point averages, the summed totals (count x average), the lowest minimum and the highest
+ * maximum. When the bucket size equals the interval, the sum of averages is the cross series sum, e.g. the total request rate of all instances.
+ * If requested, a histogram of point averages is kept per bucket in {@link #HISTOGRAM_BINS} power of two bins, from which percentiles across
+ * series are estimated. Partial results computed for disjoint sets of series are merged, so results are exact regardless of how the series
+ * are split. Empty buckets have a series count of zero and a minimum and maximum of zero. Matching series whose names were spilled from the
+ * chronicle's name index are not aggregated; their number is reported by {@link #getSkippedSeries()}.</p> 
+ * <p>Company: Helios Development Group LLC</p>
+ * @author Whitehead (nwhitehead AT heliosdev DOT org)
+ * <p><code>org.helios.jmxstats.core.query.GroupResult</code></p>
+ */
+public class GroupResult {
+	/** The number of histogram bins per bucket. Bin <code>b</code> holds averages in <code>[2^(b-1), 2^b)</code>, bin 0 holds averages &lt;= 0. */
+	public static final int HISTOGRAM_BINS = 64;
+	
+	/** The group key */
+	private final String key;
+	/** The start time of the first bucket */
+	private final long fromTime;
+	/** The bucket size in ms. */
+	private final long bucketSize;
+	/** The number of series in the group */
+	private int seriesCount = 0;
+	/** The number of matching series not aggregated because their names were spilled */
+	private int skippedSeries = 0;
+	/** The number of contributing series per bucket */
+	private final int[] series;
+	/** The summed interval counts per bucket */
+	private final long[] counts;
+	/** The sum of the point averages per bucket */
+	private final long[] sums;
+	/** The summed totals per bucket */
+	private final long[] totals;
+	/** The lowest minimum per bucket */
+	private final long[] minimums;
+	/** The highest maximum per bucket */
+	private final long[] maximums;
+	/** The histogram bin counts, by bucket then bin, or null if histograms are not accumulated */
+	private final long[] histograms;
+	
+	/**
+	 * Creates a new empty GroupResult
+	 * @param key The group key
+	 * @param query The query
+	 */
+	GroupResult(String key, AggregationQuery query) {
+		this(key, query.getFromTime(), query.getBucketSize(), query.getBucketCount(), query.isHistograms());
+	}
+	
+	/**
+	 * Creates a new empty GroupResult
+	 * @param key The group key
+	 * @param fromTime The start time of the first bucket
+	 * @param bucketSize The bucket size in ms.
+	 * @param buckets The number of buckets
+	 * @param histograms true to accumulate histograms
+	 */
+	GroupResult(String key, long fromTime, long bucketSize, int buckets, boolean histograms) {
+		this.key = key;
+		this.fromTime = fromTime;
+		this.bucketSize = bucketSize;
+		series = new int[buckets];
+		counts = new long[buckets];
+		sums = new long[buckets];
+		totals = new long[buckets];
+		minimums = new long[buckets];
+		maximums = new long[buckets];
+		this.histograms = histograms ? new long[buckets * HISTOGRAM_BINS] : null;
+	}
+	
+	/**
+	 * Returns the bucket the passed interval start time falls in
+	 * @param startTime The interval start time
+	 * @return the bucket
+	 */
+	int bucket(long startTime) {
+		return (int)((startTime - fromTime) / bucketSize);
+	}
+	
+	/**
+	 * Adds a stored point of a series
+	 * @param bucket The bucket of the point
+	 * @param newSeries true if this is the series' first point in the bucket
+	 * @param count The interval count
+	 * @param average The interval average
+	 * @param minimum The interval minimum
+	 * @param maximum The interval maximum
+	 */
+	void add(int bucket, boolean newSeries, long count, long average, long minimum, long maximum) {
+		if(series[bucket]==0) {
+			minimums[bucket] = minimum;
+			maximums[bucket] = maximum;
+		} else {
+			if(minimum<minimums[bucket]) minimums[bucket] = minimum;
+			if(maximum>maximums[bucket]) maximums[bucket] = maximum;
+		}
+		if(newSeries) series[bucket]++;
+		counts[bucket] += count;
+		sums[bucket] += average;
+		totals[bucket] += count * average;
+		if(histograms!=null) {
+			histograms[bucket * HISTOGRAM_BINS + bin(average)]++;
+		}
+	}
+	
+	/**
+	 * Adds the passed number of series to the group's series count
+	 * @param count The number of series
+	 */
+	void addSeries(int count) {
+		seriesCount += count;
+	}
+	
+	/**
+	 * Adds the passed number of series to the group's count of skipped series
+	 * @param count The number of skipped series
+	 */
+	void addSkippedSeries(int count) {
+		skippedSeries += count;
+	}
+	
+	/**
+	 * Merges a partial result computed for a disjoint set of the group's series into this result
+	 * @param other The partial result to merge
+	 */
+	void merge(GroupResult other) {
+		seriesCount += other.seriesCount;
+		skippedSeries += other.skippedSeries;
+		for(int b = 0; b < series.length; b++) {
+			if(other.series[b]==0) continue;
+			if(series[b]==0) {
+				minimums[b] = other.minimums[b];
+				maximums[b] = other.maximums[b];
+			} else {
+				if(other.minimums[b]<minimums[b]) minimums[b] = other.minimums[b];
+				if(other.maximums[b]>maximums[b]) maximums[b] = other.maximums[b];
+			}
+			series[b] += other.series[b];
+			counts[b] += other.counts[b];
+			sums[b] += other.sums[b];
+			totals[b] += other.totals[b];
+		}
+		if(histograms!=null) {
+			for(int i = 0; i < histograms.length; i++) {
+				histograms[i] += other.histograms[i];
+			}
+		}
+	}
+	
+	/**
+	 * Returns a copy of this result over the passed buckets, which need not lie within this result's buckets.
+	 * Buckets this result does not hold are empty in the copy.
+	 * @param from The start time of the copy's first bucket, which must be aligned to this result's buckets
+	 * @param buckets The number of buckets of the copy
+	 * @return the copy
+	 */
+	GroupResult slice(long from, int buckets) {
+		final GroupResult slice = new GroupResult(key, from, bucketSize, buckets, histograms!=null);
+		slice.seriesCount = seriesCount;
+		slice.skippedSeries = skippedSeries;
+		slice.copy(this);
+		return slice;
+	}
+	
+	/**
+	 * Replaces the buckets of this result held by the passed result, which covers the same group with aligned buckets,
+	 * and takes its series counts. Buckets of the passed result outside this result's buckets are ignored.
+	 * @param other The result to copy the buckets of
+	 */
+	void overlay(GroupResult other) {
+		seriesCount = other.seriesCount;
+		skippedSeries = other.skippedSeries;
+		copy(other);
+	}
+	
+	/**
+	 * Copies the buckets the passed result shares with this result
+	 * @param other The result to copy from
+	 */
+	private void copy(GroupResult other) {
+		final long offset = (other.fromTime - fromTime) / bucketSize;
+		final int first = (int)Math.max(0, offset), last = (int)Math.min(series.length, offset + other.series.length);
+		for(int b = first; b < last; b++) {
+			final int o = (int)(b - offset);
+			series[b] = other.series[o];
+			counts[b] = other.counts[o];
+			sums[b] = other.sums[o];
+			totals[b] = other.totals[o];
+			minimums[b] = other.minimums[o];
+			maximums[b] = other.maximums[o];
+			if(histograms!=null && other.histograms!=null) {
+				System.arraycopy(other.histograms, o * HISTOGRAM_BINS, histograms, b * HISTOGRAM_BINS, HISTOGRAM_BINS);
+			}
+		}
+	}
+	
+	/**
+	 * Returns the histogram bin of the passed value
+	 * @param value The value
+	 * @return the bin
+	 */
+	static int bin(long value) {
+		return value<=0 ? 0 : HISTOGRAM_BINS - Long.numberOfLeadingZeros(value);
+	}
+	
+	/**
+	 * Returns the group key
+	 * @return the group key
+	 */
+	public String getKey() {
+		return key;
+	}
+	
+	/**
+	 * Returns the number of buckets
+	 * @return the number of buckets
+	 */
+	public int getBucketCount() {
+		return series.length;
+	}
+	
+	/**
+	 * Returns the start time of the passed bucket
+	 * @param bucket The bucket
+	 * @return the bucket start time
+	 */
+	public long getBucketTime(int bucket) {
+		return fromTime + bucket * bucketSize;
+	}
+	
+	/**
+	 * Returns the number of series in the group
+	 * @return the number of series
+	 */
+	public int getSeriesCount() {
+		return seriesCount;
+	}
+	
+	/**
+	 * Returns the number of series matching the group that were not aggregated because their names were spilled from the chronicle's
+	 * name index, e.g. after the metrics were evicted as idle
+	 * @return the number of skipped series
+	 */
+	public int getSkippedSeries() {
+		return skippedSeries;
+	}
+	
+	/**
+	 * Returns the number of series with points in the passed bucket
+	 * @param bucket The bucket
+	 * @return the number of contributing series
+	 */
+	public int getSeries(int bucket) {
+		return series[bucket];
+	}
+	
+	/**
+	 * Returns the summed interval counts of the passed bucket
+	 * @param bucket The bucket
+	 * @return the summed counts
+	 */
+	public long getCount(int bucket) {
+		return counts[bucket];
+	}
+	
+	/**
+	 * Returns the sum of the point averages of the passed bucket
+	 * @param bucket The bucket
+	 * @return the sum of averages
+	 */
+	public long getSum(int bucket) {
+		return sums[bucket];
+	}
+	
+	/**
+	 * Returns the summed totals (count x average) of the passed bucket
+	 * @param bucket The bucket
+	 * @return the summed totals
+	 */
+	public long getTotal(int bucket) {
+		return totals[bucket];
+	}
+	
+	/**
+	 * Returns the count weighted mean of the passed bucket
+	 * @param bucket The bucket
+	 * @return the mean, or zero if the bucket is empty
+	 */
+	public long getMean(int bucket) {
+		return counts[bucket]==0 ? 0 : totals[bucket] / counts[bucket];
+	}
+	
+	/**
+	 * Returns the lowest minimum of the passed bucket
+	 * @param bucket The bucket
+	 * @return the lowest minimum
+	 */
+	public long getMinimum(int bucket) {
+		return minimums[bucket];
+	}
+	
+	/**
+	 * Returns the highest maximum of the passed bucket
+	 * @param bucket The bucket
+	 * @return the highest maximum
+	 */
+	public long getMaximum(int bucket) {
+		return maximums[bucket];
+	}
+	
+	/**
+	 * Indicates if histograms were accumulated
+	 * @return true if histograms were accumulated
+	 */
+	public boolean hasHistograms() {
+		return histograms!=null;
+	}
+	
+	/**
+	 * Returns the count of point averages in the passed histogram bin of the passed bucket
+	 * @param bucket The bucket
+	 * @param bin The bin
+	 * @return the bin count
+	 */
+	public long getHistogramCount(int bucket, int bin) {
+		if(histograms==null) throw new IllegalStateException("Histograms were not accumulated for this query");
+		return histograms[bucket * HISTOGRAM_BINS + bin];
+	}
+	
+	/**
+	 * Estimates a percentile of the point averages of the passed bucket as the exclusive upper bound of the bin it falls in
+	 * @param bucket The bucket
+	 * @param percentile The percentile, from 0 to 100
+	 * @return the estimated percentile, or zero if the bucket is empty
+	 */
+	public long getPercentile(int bucket, double percentile) {
+		if(histograms==null) throw new IllegalStateException("Histograms were not accumulated for this query");
+		if(percentile<0 || percentile>100) throw new IllegalArgumentException("The passed percentile [" + percentile + "] is not between 0 and 100", new Throwable());
+		final int offset = bucket * HISTOGRAM_BINS;
+		long points = 0;
+		for(int b = 0; b < HISTOGRAM_BINS; b++) {
+			points += histograms[offset + b];
+		}
+		if(points==0) return 0;
+		final long rank = Math.max(1, (long)Math.ceil(points * percentile / 100d));
+		long seen = 0;
+		for(int b = 0; b < HISTOGRAM_BINS; b++) {
+			seen += histograms[offset + b];
+			if(seen>=rank) return b==0 ? 0 : b==HISTOGRAM_BINS-1 ? Long.MAX_VALUE : 1L << b;
+		}
+		return Long.MAX_VALUE;
+	}
+
+	/**
+	 * {@inheritDoc}
+	 * @see java.lang.Object#toString()
+	 */
+	@Override
+	public String toString() {
+		return "GroupResult [key=" + key + ", series=" + seriesCount + ", skipped=" + skippedSeries + ", buckets=" + series.length + "]";
+	}
+}
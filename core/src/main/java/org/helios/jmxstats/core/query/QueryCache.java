@@ -0,0 +1,277 @@
+/**
+ * Helios, OpenSource Monitoring
+ * Brought to you by the Helios Development Group
+ *
+ * Copyright 2007, Helios Development Group and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org. 
+ *
+ */
+package org.helios.jmxstats.core.query;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import net.sf.ehcache.Cache;
+import net.sf.ehcache.CacheManager;
+import net.sf.ehcache.Element;
+import net.sf.ehcache.config.CacheConfiguration;
+import net.sf.ehcache.config.Configuration;
+import net.sf.ehcache.config.PersistenceConfiguration;
+import net.sf.ehcache.store.MemoryStoreEvictionPolicy;
+
+import org.helios.jmxstats.core.ChronicleController;
+
+/**
+ * <p>Title: QueryCache</p>
+ * <p>Description: Caches the results of {@link AggregationQuery}s executed by an {@link AggregationEngine}, keyed by the query normalized to
+ * its pattern, group-by segments, bucket size and histogram flag, so a dashboard whose time window slides forward on every refresh hits the
+ * same entry. Cached queries use buckets aligned to multiples of the bucket size: the from time is rounded down to a bucket boundary.
+ * Intervals are only cached once closed, i.e. once the interval written at a <code>CurrentInterval</code> switch is stored in the chronicle.
+ * When newer intervals have been stored since an entry was computed, only the buckets from the last, possibly partial, cached bucket onwards
+ * are recomputed and spliced in, and buckets that slid out of the window are dropped. Entries are evicted least recently used beyond
+ * {@link #MAX_ENTRIES_PROP} entries. Returned results are copies and may be retained by the caller.</p> 
+ * <p>Company: Helios Development Group LLC</p>
+ * @author Whitehead (nwhitehead AT heliosdev DOT org)
+ * <p><code>org.helios.jmxstats.core.query.QueryCache</code></p>
+ */
+public class QueryCache {
+	/** The system property that defines the maximum number of cached queries */
+	public static final String MAX_ENTRIES_PROP = "org.helios.query.cache.entries";
+	/** The default maximum number of cached queries */
+	public static final int DEFAULT_MAX_ENTRIES = 256;
+	/** Serial number generator for cache manager names */
+	private static final AtomicInteger serial = new AtomicInteger(0);
+	
+	/** The engine executing cache misses and extensions */
+	private final AggregationEngine engine;
+	/** The chronicle the engine reads from */
+	private final ChronicleController chronicle;
+	/** The cache manager */
+	private final CacheManager cacheManager;
+	/** The cache of entries by normalized query key */
+	private final Cache cache;
+	/** The number of queries answered entirely from the cache */
+	private final AtomicLong hits = new AtomicLong(0);
+	/** The number of queries answered by extending a cached entry */
+	private final AtomicLong extensions = new AtomicLong(0);
+	/** The number of queries computed in full */
+	private final AtomicLong misses = new AtomicLong(0);
+	/** The number of buckets computed by the engine */
+	private final AtomicLong bucketsComputed = new AtomicLong(0);
+	
+	/**
+	 * Creates a new QueryCache holding at most the number of queries defined by {@link #MAX_ENTRIES_PROP}
+	 * @param engine The engine executing cache misses and extensions
+	 */
+	public QueryCache(AggregationEngine engine) {
+		this(engine, Integer.getInteger(MAX_ENTRIES_PROP, DEFAULT_MAX_ENTRIES));
+	}
+	
+	/**
+	 * Creates a new QueryCache
+	 * @param engine The engine executing cache misses and extensions
+	 * @param maxEntries The maximum number of cached queries
+	 */
+	public QueryCache(AggregationEngine engine, int maxEntries) {
+		if(engine==null) throw new IllegalArgumentException("The passed engine was null", new Throwable());
+		if(maxEntries<1) throw new IllegalArgumentException("The passed maximum entries [" + maxEntries + "] was <1", new Throwable());
+		this.engine = engine;
+		chronicle = engine.getChronicle();
+		cacheManager = new CacheManager(new Configuration().name("jmxstats-query-" + serial.incrementAndGet()).updateCheck(false));
+		cache = new Cache(new CacheConfiguration("queryResults", maxEntries)
+			.eternal(true)
+			.memoryStoreEvictionPolicy(MemoryStoreEvictionPolicy.LRU)
+			.persistence(new PersistenceConfiguration().strategy(PersistenceConfiguration.Strategy.NONE)));
+		cacheManager.addCache(cache);
+	}
+	
+	/**
+	 * Executes the passed query, answering it from the cache where possible
+	 * @param query The query to execute
+	 * @return the group results in group key order
+	 */
+	public List<GroupResult> execute(AggregationQuery query) {
+		if(query==null) throw new IllegalArgumentException("The passed query was null", new Throwable());
+		final long bucketSize = query.getBucketSize();
+		final long from = bucketStart(query.getFromTime(), bucketSize);
+		final int buckets = (int)((query.getToTime() - from) / bucketSize) + 1;
+		final long to = Math.min(query.getToTime(), chronicle.getLastIntervalStart());
+		if(to<from) {
+			// nothing in range is closed yet
+			misses.incrementAndGet();
+			return engine.execute(new AggregationQuery(query.getPattern(), from, query.getToTime(), bucketSize, query.isHistograms(), query.getGroupBy()));
+		}
+		final Entry entry = getEntry(getKey(query));
+		synchronized(entry) {
+			if(entry.groups==null || from<entry.fromTime) {
+				entry.groups = new TreeMap<String, GroupResult>();
+				for(GroupResult result: compute(query, from, to)) {
+					entry.groups.put(result.getKey(), result);
+				}
+				entry.fromTime = from;
+				entry.coveredTo = to;
+				misses.incrementAndGet();
+			} else {
+				final int held = (int)((Math.max(to, entry.coveredTo) - from) / bucketSize) + 1;
+				for(Map.Entry<String, GroupResult> group: entry.groups.entrySet()) {
+					group.setValue(group.getValue().slice(from, held));
+				}
+				entry.fromTime = from;
+				if(to>entry.coveredTo) {
+					// the last cached bucket may be partial so it is recomputed
+					final long deltaFrom = Math.max(from, bucketStart(entry.coveredTo, bucketSize));
+					for(GroupResult delta: compute(query, deltaFrom, to)) {
+						final GroupResult result = entry.groups.get(delta.getKey());
+						if(result==null) {
+							entry.groups.put(delta.getKey(), delta.slice(from, held));
+						} else {
+							result.overlay(delta);
+						}
+					}
+					entry.coveredTo = to;
+					extensions.incrementAndGet();
+				} else {
+					hits.incrementAndGet();
+				}
+			}
+			final List<GroupResult> results = new ArrayList<GroupResult>(entry.groups.size());
+			for(GroupResult result: entry.groups.values()) {
+				results.add(result.slice(from, buckets));
+			}
+			return results;
+		}
+	}
+	
+	/**
+	 * Executes the passed query over the passed range with the engine
+	 * @param query The query
+	 * @param from The bucket aligned from time
+	 * @param to The to time
+	 * @return the group results
+	 */
+	private List<GroupResult> compute(AggregationQuery query, long from, long to) {
+		final AggregationQuery q = new AggregationQuery(query.getPattern(), from, to, query.getBucketSize(), query.isHistograms(), query.getGroupBy());
+		bucketsComputed.addAndGet(q.getBucketCount());
+		return engine.execute(q);
+	}
+	
+	/**
+	 * Returns the cache entry for the passed key, creating it if it does not exist
+	 * @param key The normalized query key
+	 * @return the entry
+	 */
+	private Entry getEntry(String key) {
+		final Element e = cache.get(key);
+		if(e!=null) return (Entry)e.getObjectValue();
+		final Entry entry = new Entry();
+		final Element existing = cache.putIfAbsent(new Element(key, entry));
+		return existing==null ? entry : (Entry)existing.getObjectValue();
+	}
+	
+	/**
+	 * Returns the normalized key of the passed query, which excludes its time range
+	 * @param query The query
+	 * @return the key
+	 */
+	public static String getKey(AggregationQuery query) {
+		return query.getPattern().trim() + "|" + Arrays.toString(query.getGroupBy()) + "|" + query.getBucketSize() + "|" + query.isHistograms();
+	}
+	
+	/**
+	 * Returns the start time of the bucket the passed time falls in
+	 * @param time The time
+	 * @param bucketSize The bucket size
+	 * @return the bucket start time
+	 */
+	private static long bucketStart(long time, long bucketSize) {
+		return time - (time % bucketSize);
+	}
+	
+	/**
+	 * Removes all cached queries
+	 */
+	public void clear() {
+		cache.removeAll();
+	}
+	
+	/**
+	 * Removes all cached queries and shuts down the cache
+	 */
+	public void shutdown() {
+		cacheManager.shutdown();
+	}
+	
+	/**
+	 * Returns the number of cached queries
+	 * @return the number of cached queries
+	 */
+	public int getSize() {
+		return cache.getSize();
+	}
+	
+	/**
+	 * Returns the number of queries answered entirely from the cache
+	 * @return the number of hits
+	 */
+	public long getHits() {
+		return hits.get();
+	}
+	
+	/**
+	 * Returns the number of queries answered by extending a cached entry with newly closed intervals
+	 * @return the number of extensions
+	 */
+	public long getExtensions() {
+		return extensions.get();
+	}
+	
+	/**
+	 * Returns the number of queries computed in full
+	 * @return the number of misses
+	 */
+	public long getMisses() {
+		return misses.get();
+	}
+	
+	/**
+	 * Returns the number of buckets computed by the engine for cache misses and extensions
+	 * @return the number of computed buckets
+	 */
+	public long getBucketsComputed() {
+		return bucketsComputed.get();
+	}
+	
+	/**
+	 * <p>Title: Entry</p>
+	 * <p>Description: The cached results of one normalized query</p> 
+	 */
+	private static class Entry {
+		/** The start time of the first cached bucket */
+		private long fromTime = -1L;
+		/** The start time of the latest interval included in the cached results */
+		private long coveredTo = -1L;
+		/** The cached results by group key, null until first computed */
+		private Map<String, GroupResult> groups = null;
+	}
+}
@@ -0,0 +1,91 @@
+/**
+ * Helios, OpenSource Monitoring
+ * Brought to you by the Helios Development Group
+ *
+ * Copyright 2007, Helios Development Group and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org. 
+ *
+ */
+package test.org.helios.jmxstats;
+
+import java.util.Random;
+
+import org.helios.jmxstats.core.metric.AccumulatorCompiler;
+import org.helios.jmxstats.core.metric.BaseMetric;
+import org.helios.jmxstats.core.metric.IMetric;
+import org.helios.jmxstats.core.metric.IntervalSnapshot;
+import org.helios.jmxstats.core.metric.MetricType;
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * <p>Title: AccumulatorCompilerTest</p>
+ * <p>Description: Tests that generated accumulators are in use and close the same interval values as {@link BaseMetric} for every {@link MetricType}</p> 
+ * <p>Company: Helios Development Group LLC</p>
+ * @author Whitehead (nwhitehead AT heliosdev DOT org)
+ * <p><code>test.org.helios.jmxstats.AccumulatorCompilerTest</code></p>
+ */
+public class AccumulatorCompilerTest {
+	/** The number of intervals driven per type */
+	public static final int INTERVALS = 20;
+	
+	/**
+	 * Tests that every type is generated and matches {@link BaseMetric} over single value and batch submissions across interval switches, 
+	 * including intervals with no values, which exercise sticky retention 
+	 */
+	@Test
+	public void testEquivalence() {
+		for(MetricType type: MetricType.values()) {
+			final IMetric generated = AccumulatorCompiler.newMetric(0, "accumulator.test." + type, type);
+			Assert.assertTrue("Accumulator for [" + type + "] was not generated", AccumulatorCompiler.isGenerated(type));
+			Assert.assertFalse("Accumulator for [" + type + "] is a BaseMetric", generated instanceof BaseMetric);
+			final IMetric base = new BaseMetric(0, "accumulator.test." + type, type);
+			final Random random = new Random(type.ordinal());
+			long time = 1350000000000L;
+			for(int interval = 0; interval < INTERVALS; interval++) {
+				final int singles = interval % 5==3 ? 0 : random.nextInt(50);
+				for(int i = 0; i < singles; i++) {
+					final long value = random.nextInt(20000) - 5000;
+					generated.process(value);
+					base.process(value);
+				}
+				if(interval % 2==0) {
+					final long[] batch = new long[random.nextInt(40) + 2];
+					for(int i = 0; i < batch.length; i++) batch[i] = random.nextInt(20000) - 5000;
+					generated.process(batch, 1, batch.length-1);
+					base.process(batch, 1, batch.length-1);
+				}
+				time += 15000;
+				final IntervalSnapshot g = new IntervalSnapshot(time - 15000, time, 1);
+				final IntervalSnapshot b = new IntervalSnapshot(time - 15000, time, 1);
+				generated.reset(time, g);
+				base.reset(time, b);
+				final String at = type + " interval " + interval;
+				Assert.assertEquals(at, b.getType(0), g.getType(0));
+				Assert.assertEquals(at + " count", b.getCount(0), g.getCount(0));
+				Assert.assertEquals(at + " total", b.getTotal(0), g.getTotal(0));
+				Assert.assertEquals(at + " average", b.getAverage(0), g.getAverage(0));
+				Assert.assertEquals(at + " minimum", b.getMinimum(0), g.getMinimum(0));
+				Assert.assertEquals(at + " maximum", b.getMaximum(0), g.getMaximum(0));
+				Assert.assertEquals(at + " live average", base.getAverage(), generated.getAverage());
+				Assert.assertEquals(at + " start", base.getStartTime(), generated.getStartTime());
+			}
+		}
+	}
+}
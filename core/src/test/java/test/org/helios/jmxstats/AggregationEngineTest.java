@@ -0,0 +1,290 @@
+/**
+ * Helios, OpenSource Monitoring
+ * Brought to you by the Helios Development Group
+ *
+ * Copyright 2007, Helios Development Group and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org. 
+ *
+ */
+package test.org.helios.jmxstats;
+
+import java.io.File;
+import java.util.List;
+
+import org.helios.jmxstats.core.ChronicleController;
+import org.helios.jmxstats.core.metric.IntervalSnapshot;
+import org.helios.jmxstats.core.metric.MetricType;
+import org.helios.jmxstats.core.query.AggregationEngine;
+import org.helios.jmxstats.core.query.AggregationQuery;
+import org.helios.jmxstats.core.query.GroupHandler;
+import org.helios.jmxstats.core.query.GroupResult;
+import org.junit.AfterClass;
+import org.junit.Assert;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+/**
+ * <p>Title: AggregationEngineTest</p>
+ * <p>Description: Tests group-by aggregation against a temporary chronicle holding a request rate series per app instance and endpoint.
+ * The aggregates are checked against values computed directly from the synthesized points.</p> 
+ * <p>Company: Helios Development Group LLC</p>
+ * @author Whitehead (nwhitehead AT heliosdev DOT org)
+ * <p><code>test.org.helios.jmxstats.AggregationEngineTest</code></p>
+ */
+public class AggregationEngineTest {
+	/** The number of app instances */
+	public static final int INSTANCES = 40;
+	/** The number of endpoints per instance */
+	public static final int ENDPOINTS = 5;
+	/** The number of stored intervals */
+	public static final int INTERVALS = 12;
+	/** The interval length in ms. */
+	public static final long INTERVAL = 15000;
+	/** The first interval start time */
+	public static final long FIRST_START = 1350000000000L;
+	/** The temporary chronicle */
+	private static ChronicleController chronicle;
+	/** The temporary chronicle directory */
+	private static File chronicleDir;
+	/** The engine */
+	private static AggregationEngine engine;
+	
+	/**
+	 * Returns the synthesized point average of a series in an interval
+	 * @param instance The app instance
+	 * @param endpoint The endpoint
+	 * @param interval The interval
+	 * @return the average
+	 */
+	private static long average(int instance, int endpoint, int interval) {
+		return (instance + 1) * (endpoint + 1) + interval;
+	}
+	
+	/**
+	 * Writes the series
+	 * @throws Exception thrown on any error
+	 */
+	@BeforeClass
+	public static void setUp() throws Exception {
+		chronicleDir = new File(System.getProperty("java.io.tmpdir"), "jmxstats-agg-" + System.nanoTime());
+		chronicle = ChronicleController.open(chronicleDir, "agg", 20);
+		final int size = INSTANCES * ENDPOINTS + 1;
+		final long[] nameIndexes = new long[size];
+		for(int i = 0; i < INSTANCES; i++) {
+			for(int e = 0; e < ENDPOINTS; e++) {
+				nameIndexes[i * ENDPOINTS + e] = chronicle.registerMetricName("app.instance" + i + ".endpoint" + e + ".requests");
+			}
+		}
+		// same prefix, different segment count: must not match
+		nameIndexes[size-1] = chronicle.registerMetricName("app.instance0.endpoint0.requests.errors");
+		for(int t = 0; t < INTERVALS; t++) {
+			final long start = FIRST_START + t * INTERVAL;
+			final IntervalSnapshot snapshot = new IntervalSnapshot(start, start + INTERVAL - 1, size);
+			for(int i = 0; i < INSTANCES; i++) {
+				for(int e = 0; e < ENDPOINTS; e++) {
+					// instance 0 is down for the first interval
+					if(i==0 && t==0) continue;
+					final long avg = average(i, e, t);
+					snapshot.set(i * ENDPOINTS + e, MetricType.AVG, 2, 2 * avg, avg, avg - 1, avg + 1);
+				}
+			}
+			snapshot.set(size-1, MetricType.AVG, 1, 1000000, 1000000, 1000000, 1000000);
+			chronicle.writeInterval(snapshot, nameIndexes);
+		}
+		engine = new AggregationEngine(chronicle, 4);
+	}
+	
+	/**
+	 * Shuts down the engine and deletes the temporary chronicle
+	 */
+	@AfterClass
+	public static void tearDown() {
+		if(engine!=null) engine.shutdown();
+		if(chronicle!=null) chronicle.close();
+		if(chronicleDir!=null && chronicleDir.listFiles()!=null) {
+			for(File f: chronicleDir.listFiles()) {
+				f.delete();
+			}
+			chronicleDir.delete();
+		}
+	}
+	
+	/**
+	 * Tests grouping by endpoint with one bucket per interval
+	 */
+	@Test
+	public void testGroupByEndpoint() {
+		final AggregationQuery query = new AggregationQuery("app.*.*.requests", FIRST_START, FIRST_START + (INTERVALS-1) * INTERVAL, INTERVAL, false, 2);
+		final List<GroupResult> results = engine.execute(query);
+		Assert.assertEquals(ENDPOINTS, results.size());
+		for(int e = 0; e < ENDPOINTS; e++) {
+			final GroupResult result = results.get(e);
+			Assert.assertEquals("endpoint" + e, result.getKey());
+			Assert.assertEquals(INSTANCES, result.getSeriesCount());
+			Assert.assertEquals(INTERVALS, result.getBucketCount());
+			for(int t = 0; t < INTERVALS; t++) {
+				final int firstInstance = t==0 ? 1 : 0;
+				long sum = 0;
+				for(int i = firstInstance; i < INSTANCES; i++) {
+					sum += average(i, e, t);
+				}
+				Assert.assertEquals(FIRST_START + t * INTERVAL, result.getBucketTime(t));
+				Assert.assertEquals(INSTANCES - firstInstance, result.getSeries(t));
+				Assert.assertEquals(2 * (INSTANCES - firstInstance), result.getCount(t));
+				Assert.assertEquals(sum, result.getSum(t));
+				Assert.assertEquals(2 * sum, result.getTotal(t));
+				Assert.assertEquals(average(firstInstance, e, t) - 1, result.getMinimum(t));
+				Assert.assertEquals(average(INSTANCES-1, e, t) + 1, result.getMaximum(t));
+			}
+		}
+	}
+	
+	/**
+	 * Tests a single group with buckets spanning several intervals and a histogram of point averages
+	 */
+	@Test
+	public void testBucketsAndHistogram() {
+		final long bucketSize = 4 * INTERVAL;
+		final AggregationQuery query = new AggregationQuery("app.*.endpoint0.requests", FIRST_START, FIRST_START + (INTERVALS-1) * INTERVAL, bucketSize, true);
+		final List<GroupResult> results = engine.execute(query);
+		Assert.assertEquals(1, results.size());
+		final GroupResult result = results.get(0);
+		Assert.assertEquals("", result.getKey());
+		Assert.assertEquals(INSTANCES, result.getSeriesCount());
+		Assert.assertEquals(INTERVALS / 4, result.getBucketCount());
+		for(int b = 0; b < result.getBucketCount(); b++) {
+			Assert.assertEquals(INSTANCES, result.getSeries(b));
+			long points = 0, below64 = 0;
+			for(int bin = 0; bin < GroupResult.HISTOGRAM_BINS; bin++) {
+				points += result.getHistogramCount(b, bin);
+			}
+			for(int t = b * 4; t < (b+1) * 4; t++) {
+				for(int i = t==0 ? 1 : 0; i < INSTANCES; i++) {
+					if(average(i, 0, t)<64) below64++;
+				}
+			}
+			Assert.assertEquals(b==0 ? 4 * INSTANCES - 1 : 4 * INSTANCES, points);
+			Assert.assertEquals(below64, points - countAtLeast(result, b, 64));
+			Assert.assertTrue(result.getPercentile(b, 50) <= result.getPercentile(b, 99));
+			Assert.assertTrue(result.getPercentile(b, 99) >= 32);
+		}
+	}
+	
+	/**
+	 * Returns the number of histogram points of the passed bucket in bins at or above the passed power of two
+	 * @param result The group result
+	 * @param bucket The bucket
+	 * @param powerOfTwo The power of two
+	 * @return the number of points
+	 */
+	private static long countAtLeast(GroupResult result, int bucket, long powerOfTwo) {
+		long count = 0;
+		for(int bin = 64 - Long.numberOfLeadingZeros(powerOfTwo); bin < GroupResult.HISTOGRAM_BINS; bin++) {
+			count += result.getHistogramCount(bucket, bin);
+		}
+		return count;
+	}
+	
+	/**
+	 * Tests that results are streamed once per group and that splitting does not change them
+	 */
+	@Test
+	public void testStreamingMatchesSerial() {
+		final AggregationQuery query = new AggregationQuery("app.*.*.requests", FIRST_START, FIRST_START + (INTERVALS-1) * INTERVAL, INTERVAL, true, 1);
+		final int[] calls = new int[1];
+		final int series = engine.execute(query, new GroupHandler() {
+			@Override
+			public void onGroup(GroupResult result) {
+				calls[0]++;
+				Assert.assertEquals(ENDPOINTS, result.getSeriesCount());
+			}
+		});
+		Assert.assertEquals(INSTANCES * ENDPOINTS, series);
+		Assert.assertEquals(INSTANCES, calls[0]);
+		final AggregationEngine serial = new AggregationEngine(chronicle, 1);
+		try {
+			final List<GroupResult> expected = serial.execute(query), actual = engine.execute(query);
+			Assert.assertEquals(expected.size(), actual.size());
+			for(int g = 0; g < expected.size(); g++) {
+				for(int b = 0; b < expected.get(g).getBucketCount(); b++) {
+					Assert.assertEquals(expected.get(g).getSum(b), actual.get(g).getSum(b));
+					Assert.assertEquals(expected.get(g).getMinimum(b), actual.get(g).getMinimum(b));
+					Assert.assertEquals(expected.get(g).getPercentile(b, 90), actual.get(g).getPercentile(b, 90));
+				}
+			}
+		} finally {
+			serial.shutdown();
+		}
+	}
+	
+	/**
+	 * Tests that matching series whose names were spilled are counted as skipped in their groups, including groups with no other series
+	 */
+	@Test
+	public void testSpilledSeriesSkipped() {
+		final File dir = new File(System.getProperty("java.io.tmpdir"), "jmxstats-aggspill-" + System.nanoTime());
+		final ChronicleController spilling = ChronicleController.open(dir, "aggspill", 20);
+		final AggregationEngine spillEngine = new AggregationEngine(spilling, 2);
+		try {
+			final long[] nameIndexes = new long[INSTANCES];
+			final IntervalSnapshot snapshot = new IntervalSnapshot(FIRST_START, FIRST_START + INTERVAL - 1, INSTANCES);
+			for(int i = 0; i < INSTANCES; i++) {
+				nameIndexes[i] = spilling.registerMetricName("svc.instance" + i + ".endpoint" + (i % 2) + ".requests");
+				snapshot.set(i, MetricType.AVG, 1, i, i, i, i);
+			}
+			spilling.writeInterval(snapshot, nameIndexes);
+			// spill every odd instance, i.e. every endpoint1 series, and instance0
+			final String[] spilled = new String[INSTANCES / 2 + 1];
+			for(int i = 1; i < INSTANCES; i += 2) {
+				spilled[i / 2] = "svc.instance" + i + ".endpoint1.requests";
+			}
+			spilled[INSTANCES / 2] = "svc.instance0.endpoint0.requests";
+			spilling.spillMetricNames(spilled);
+			final List<GroupResult> results = spillEngine.execute(new AggregationQuery("svc.*.*.requests", FIRST_START, FIRST_START, INTERVAL, false, 2));
+			Assert.assertEquals(2, results.size());
+			Assert.assertEquals("endpoint0", results.get(0).getKey());
+			Assert.assertEquals(INSTANCES / 2 - 1, results.get(0).getSeriesCount());
+			Assert.assertEquals(1, results.get(0).getSkippedSeries());
+			Assert.assertEquals(INSTANCES / 2 - 1, results.get(0).getSeries(0));
+			Assert.assertEquals("endpoint1", results.get(1).getKey());
+			Assert.assertEquals(0, results.get(1).getSeriesCount());
+			Assert.assertEquals(INSTANCES / 2, results.get(1).getSkippedSeries());
+			Assert.assertEquals(0, results.get(1).getSeries(0));
+		} finally {
+			spillEngine.shutdown();
+			spilling.close();
+			deleteAll(dir);
+		}
+	}
+	
+	/**
+	 * Deletes a directory and its contents
+	 * @param dir The directory to delete
+	 */
+	private static void deleteAll(File dir) {
+		final File[] files = dir.listFiles();
+		if(files!=null) {
+			for(File f: files) {
+				if(f.isDirectory()) deleteAll(f);
+				else f.delete();
+			}
+		}
+		dir.delete();
+	}
+}
@@ -0,0 +1,268 @@
+/**
+ * Helios, OpenSource Monitoring
+ * Brought to you by the Helios Development Group
+ *
+ * Copyright 2007, Helios Development Group and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org. 
+ *
+ */
+package test.org.helios.jmxstats;
+
+import static test.org.helios.jmxstats.AllocationAssert.assertAllocationFree;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.helios.jmxstats.core.Controller;
+import org.helios.jmxstats.core.alert.AlertEvaluator;
+import org.helios.jmxstats.core.alert.AlertListener;
+import org.helios.jmxstats.core.alert.AlertRule;
+import org.helios.jmxstats.core.alert.AlertRule.Field;
+import org.helios.jmxstats.core.alert.AlertRule.Operator;
+import org.helios.jmxstats.core.metric.IntervalSnapshot;
+import org.helios.jmxstats.core.metric.MetricRegistry;
+import org.helios.jmxstats.core.metric.MetricType;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * <p>Title: AlertEvaluatorTest</p>
+ * <p>Description: Tests alert rule evaluation against synthesized closed interval snapshots</p> 
+ * <p>Company: Helios Development Group LLC</p>
+ * @author Whitehead (nwhitehead AT heliosdev DOT org)
+ * <p><code>test.org.helios.jmxstats.AlertEvaluatorTest</code></p>
+ */
+public class AlertEvaluatorTest {
+	/** The interval length used for the synthesized snapshots */
+	public static final long INTERVAL = 15000;
+	/** The controller */
+	private Controller controller;
+	/** The evaluator */
+	private AlertEvaluator evaluator;
+	/** The received state changes as <code>rule name:firing:value</code> */
+	private final List<String> events = new ArrayList<String>();
+	/** The start time of the next synthesized interval */
+	private long intervalStart = 1350000000000L;
+	
+	/**
+	 * Creates the evaluator
+	 */
+	@Before
+	public void setUp() {
+		controller = Controller.getInstance();
+		evaluator = new AlertEvaluator(controller);
+		evaluator.addAlertListener(new AlertListener() {
+			@Override
+			public void onAlert(AlertRule rule, boolean firing, long value, long start) {
+				events.add(rule.getName() + ":" + firing + ":" + value);
+			}
+		});
+	}
+	
+	/**
+	 * Returns a closed interval snapshot in which the passed metric received one value
+	 * @param handle The metric handle
+	 * @param value The value, or -1 for no values
+	 * @return the snapshot
+	 */
+	private IntervalSnapshot interval(int handle, long value) {
+		final IntervalSnapshot closed = new IntervalSnapshot(intervalStart, intervalStart + INTERVAL - 1, MetricRegistry.getInstance().size());
+		intervalStart += INTERVAL;
+		if(value>=0) closed.set(handle, MetricType.AVG, 1, value, value, value, value);
+		return closed;
+	}
+	
+	/**
+	 * Tests that a rule fires on n of m breaching intervals and clears when fewer breach
+	 */
+	@Test
+	public void testNofM() {
+		final int handle = controller.getMetricHandle("test.alert.latency", MetricType.AVG);
+		final AlertRule rule = new AlertRule("latency", "test.alert.latency", MetricType.AVG, Field.AVERAGE, Operator.GT, 100, 2, 3);
+		evaluator.addRule(rule);
+		evaluator.evaluate(interval(handle, 150));
+		Assert.assertFalse(evaluator.isFiring(rule));
+		evaluator.evaluate(interval(handle, 50));
+		evaluator.evaluate(interval(handle, 160));
+		Assert.assertTrue(evaluator.isFiring(rule));
+		evaluator.evaluate(interval(handle, 170));
+		evaluator.evaluate(interval(handle, 50));
+		Assert.assertTrue("2 of the last 3 intervals still breach", evaluator.isFiring(rule));
+		evaluator.evaluate(interval(handle, 50));
+		Assert.assertFalse(evaluator.isFiring(rule));
+		Assert.assertEquals("[latency:true:160, latency:false:50]", events.toString());
+		Assert.assertEquals(6, evaluator.getEvaluations());
+	}
+	
+	/**
+	 * Tests that intervals without values only breach count rules
+	 */
+	@Test
+	public void testNoData() {
+		final int handle = controller.getMetricHandle("test.alert.heartbeat", MetricType.AVG);
+		final AlertRule low = new AlertRule("low", "test.alert.heartbeat", MetricType.AVG, Field.MINIMUM, Operator.LT, 10);
+		final AlertRule silent = new AlertRule("silent", "test.alert.heartbeat", MetricType.AVG, Field.COUNT, Operator.LT, 1);
+		final List<AlertRule> rules = new ArrayList<AlertRule>();
+		rules.add(low);
+		rules.add(silent);
+		evaluator.addRules(rules);
+		evaluator.evaluate(interval(handle, -1));
+		Assert.assertFalse(evaluator.isFiring(low));
+		Assert.assertTrue(evaluator.isFiring(silent));
+		evaluator.evaluate(interval(handle, 5));
+		Assert.assertTrue(evaluator.isFiring(low));
+		Assert.assertFalse(evaluator.isFiring(silent));
+		Assert.assertEquals(1, evaluator.getFiringRules().size());
+	}
+	
+	/**
+	 * Tests that recompiling on rule changes keeps the state of retained rules
+	 */
+	@Test
+	public void testStateRetainedAcrossChanges() {
+		final int handle = controller.getMetricHandle("test.alert.queue", MetricType.AVG);
+		final AlertRule high = new AlertRule("high", "test.alert.queue", MetricType.AVG, Field.MAXIMUM, Operator.GE, 1000, 3, 4);
+		final AlertRule other = new AlertRule("other", "test.alert.queue", MetricType.AVG, Field.TOTAL, Operator.NE, 0);
+		evaluator.addRule(high);
+		evaluator.evaluate(interval(handle, 1000));
+		evaluator.evaluate(interval(handle, 2000));
+		evaluator.addRule(other);
+		Assert.assertEquals(2, evaluator.getRuleCount());
+		evaluator.evaluate(interval(handle, 3000));
+		Assert.assertTrue(evaluator.isFiring(high));
+		Assert.assertTrue(evaluator.isFiring(other));
+		Assert.assertTrue(evaluator.removeRule(other));
+		Assert.assertFalse(evaluator.removeRule(other));
+		Assert.assertTrue(evaluator.isFiring(high));
+		Assert.assertFalse(evaluator.isFiring(other));
+	}
+	
+	/**
+	 * Tests that rules referencing unregistered metrics, or metrics registered with another type, are rejected without registering
+	 * the metric, and that a rejected batch adds and pins none of its rules
+	 */
+	@Test
+	public void testUnknownMetricRejected() {
+		final MetricRegistry registry = MetricRegistry.getInstance();
+		final String unknown = "test.alert.unknown." + System.nanoTime();
+		try {
+			evaluator.addRule(new AlertRule("unknown", unknown, MetricType.AVG, Field.AVERAGE, Operator.GT, 1));
+			Assert.fail("Rule on an unregistered metric was added");
+		} catch (IllegalArgumentException expected) {
+		}
+		Assert.assertEquals("Rule registered its metric", -1, registry.getHandle(unknown));
+		final int handle = controller.getMetricHandle("test.alert.typed", MetricType.DELTA);
+		try {
+			evaluator.addRule(new AlertRule("typed", "test.alert.typed", MetricType.AVG, Field.AVERAGE, Operator.GT, 1));
+			Assert.fail("Rule expecting another type was added");
+		} catch (IllegalArgumentException expected) {
+		}
+		final List<AlertRule> rules = new ArrayList<AlertRule>();
+		rules.add(new AlertRule("known", "test.alert.typed", MetricType.DELTA, Field.AVERAGE, Operator.GT, 1));
+		rules.add(new AlertRule("unknown", unknown, MetricType.AVG, Field.AVERAGE, Operator.GT, 1));
+		final boolean pinned = registry.isPinned(handle);
+		try {
+			evaluator.addRules(rules);
+			Assert.fail("Batch with a rule on an unregistered metric was added");
+		} catch (IllegalArgumentException expected) {
+		}
+		Assert.assertEquals(0, evaluator.getRuleCount());
+		Assert.assertEquals(pinned, registry.isPinned(handle));
+		Assert.assertEquals(-1, registry.getHandle(unknown));
+	}
+	
+	/**
+	 * Tests that each rule pins its metric, and that the metric is unpinned once the last rule referencing it is removed
+	 */
+	@Test
+	public void testRemoveReleasesPins() {
+		final MetricRegistry registry = MetricRegistry.getInstance();
+		final String name = "test.alert.pinned." + System.nanoTime();
+		final int handle = controller.getMetricHandle(name, MetricType.AVG);
+		Assert.assertFalse(registry.isPinned(handle));
+		final AlertRule first = new AlertRule("first", name, MetricType.AVG, Field.MAXIMUM, Operator.GT, 10);
+		final AlertRule second = new AlertRule("second", name, MetricType.AVG, Field.MINIMUM, Operator.LT, 1);
+		evaluator.addRule(first);
+		evaluator.addRule(second);
+		evaluator.addRule(first);
+		Assert.assertTrue(registry.isPinned(handle));
+		Assert.assertTrue(evaluator.removeRule(first));
+		Assert.assertTrue("Metric unpinned while a rule references it", registry.isPinned(handle));
+		Assert.assertFalse(evaluator.removeRule(first));
+		Assert.assertTrue(registry.isPinned(handle));
+		Assert.assertTrue(evaluator.removeRule(second));
+		Assert.assertFalse(registry.isPinned(handle));
+		Assert.assertEquals(0, evaluator.getRuleCount());
+	}
+	
+	/**
+	 * Tests evaluation of 100k rules, which must take milliseconds
+	 */
+	@Test
+	public void testManyRules() {
+		final int metrics = 1000, rulesPerMetric = 100;
+		final int[] handles = new int[metrics];
+		final List<AlertRule> rules = new ArrayList<AlertRule>(metrics * rulesPerMetric);
+		final Field[] fields = Field.values();
+		final Operator[] operators = Operator.values();
+		for(int m = 0; m < metrics; m++) {
+			handles[m] = controller.getMetricHandle("test.alert.many.metric" + m, MetricType.AVG);
+			for(int r = 0; r < rulesPerMetric; r++) {
+				rules.add(new AlertRule("rule" + m + "." + r, "test.alert.many.metric" + m, MetricType.AVG, fields[r % fields.length], operators[r % operators.length], r * 10, 1 + r % 3, 3 + r % 5));
+			}
+		}
+		evaluator.addRules(rules);
+		Assert.assertEquals(metrics * rulesPerMetric, evaluator.getRuleCount());
+		final IntervalSnapshot closed = new IntervalSnapshot(intervalStart, intervalStart + INTERVAL - 1, MetricRegistry.getInstance().size());
+		for(int m = 0; m < metrics; m++) {
+			closed.set(handles[m], MetricType.AVG, 2, 2 * m, m, m - 1, m + 1);
+		}
+		long best = Long.MAX_VALUE;
+		for(int i = 0; i < 200; i++) {
+			evaluator.evaluate(closed);
+			best = Math.min(best, evaluator.getLastEvaluationNanos());
+		}
+		AllocationAssert.log("Evaluated [" + evaluator.getRuleCount() + "] rules in " + (best / 1000) + " us");
+		Assert.assertTrue("Evaluation took [" + best + "] ns", best < 100000000L);
+	}
+	
+	/**
+	 * Tests that evaluation does not allocate when no rule changes state
+	 */
+	@Test
+	public void testEvaluationAllocationFree() {
+		final Field[] fields = Field.values();
+		final Operator[] operators = Operator.values();
+		final int handle = controller.getMetricHandle("test.alert.alloc", MetricType.AVG);
+		final List<AlertRule> rules = new ArrayList<AlertRule>();
+		for(int r = 0; r < 60; r++) {
+			rules.add(new AlertRule("alloc" + r, "test.alert.alloc", MetricType.AVG, fields[r % fields.length], operators[r % operators.length], r, 2, 4));
+		}
+		evaluator.addRules(rules);
+		final IntervalSnapshot closed = interval(handle, 30);
+		evaluator.evaluate(closed);
+		assertAllocationFree("Alert evaluation", new AllocationAssert.Operation() {
+			@Override
+			public void run(int iteration) {
+				evaluator.evaluate(closed);
+			}
+		});
+	}
+}
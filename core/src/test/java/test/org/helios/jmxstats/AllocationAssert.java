@@ -0,0 +1,166 @@
+/**
+ * Helios, OpenSource Monitoring
+ * Brought to you by the Helios Development Group
+ *
+ * Copyright 2007, Helios Development Group and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org. 
+ *
+ */
+package test.org.helios.jmxstats;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+
+import org.junit.Assert;
+import org.junit.Assume;
+
+/**
+ * <p>Title: AllocationAssert</p>
+ * <p>Description: Measures the heap bytes allocated by the calling thread while it repeatedly runs an operation, using the
+ * HotSpot {@link com.sun.management.ThreadMXBean}, and fails when an operation allocates more than it is declared to.
+ * Each operation is first run enough times for the JIT to compile it, so allocations removed by escape analysis are not counted.
+ * The bytes allocated by the measurement itself are calibrated out. Assertions are skipped on JVMs that do not support
+ * per thread allocation accounting.</p> 
+ * <p>Company: Helios Development Group LLC</p>
+ * @author Whitehead (nwhitehead AT heliosdev DOT org)
+ * <p><code>test.org.helios.jmxstats.AllocationAssert</code></p>
+ */
+public class AllocationAssert {
+	/** The system property that defines the number of warmup iterations */
+	public static final String WARMUP_PROP = "org.helios.alloc.warmup";
+	/** The system property that defines the number of measured iterations */
+	public static final String ITERATIONS_PROP = "org.helios.alloc.iterations";
+	/** The system property that defines the total bytes an allocation free operation may allocate across all measured iterations */
+	public static final String SLACK_PROP = "org.helios.alloc.slack";
+	/** The number of warmup iterations */
+	public static final int WARMUP = Integer.getInteger(WARMUP_PROP, 50000);
+	/** The number of measured iterations */
+	public static final int ITERATIONS = Integer.getInteger(ITERATIONS_PROP, 100000);
+	/** The total bytes an allocation free operation may allocate across all measured iterations */
+	public static final long SLACK = Long.getLong(SLACK_PROP, 1024);
+	/** The number of measurements taken, of which the lowest is reported */
+	public static final int TRIALS = 3;
+	
+	/** The HotSpot thread MXBean, or null if per thread allocation accounting is not supported */
+	private static final com.sun.management.ThreadMXBean threadMXBean;
+	
+	static {
+		com.sun.management.ThreadMXBean tmx = null;
+		final ThreadMXBean platform = ManagementFactory.getThreadMXBean();
+		if(platform instanceof com.sun.management.ThreadMXBean) {
+			tmx = (com.sun.management.ThreadMXBean)platform;
+			if(tmx.isThreadAllocatedMemorySupported()) {
+				if(!tmx.isThreadAllocatedMemoryEnabled()) tmx.setThreadAllocatedMemoryEnabled(true);
+			} else {
+				tmx = null;
+			}
+		}
+		threadMXBean = tmx;
+	}
+	
+	/**
+	 * <p>Title: Operation</p>
+	 * <p>Description: An operation whose allocations are measured</p> 
+	 */
+	public interface Operation {
+		/**
+		 * Runs the operation once
+		 * @param iteration The iteration number, which the operation can use to vary its input without allocating
+		 */
+		public void run(int iteration);
+	}
+	
+	/**
+	 * Indicates if per thread allocation accounting is supported by this JVM
+	 * @return true if allocations can be measured
+	 */
+	public static boolean isSupported() {
+		return threadMXBean!=null;
+	}
+	
+	/**
+	 * Returns the bytes allocated by the calling thread so far
+	 * @return the allocated bytes
+	 */
+	private static long allocated() {
+		return threadMXBean.getThreadAllocatedBytes(Thread.currentThread().getId());
+	}
+	
+	/**
+	 * Measures the bytes allocated by the calling thread while it runs the passed operation for {@link #ITERATIONS} iterations,
+	 * after {@link #WARMUP} warmup iterations. The lowest of {@link #TRIALS} measurements is returned.
+	 * @param op The operation to measure
+	 * @return the bytes allocated across all measured iterations
+	 */
+	public static long measure(Operation op) {
+		if(op==null) throw new IllegalArgumentException("The passed operation was null", new Throwable());
+		if(!isSupported()) throw new UnsupportedOperationException("Thread allocation accounting is not supported by this JVM");
+		for(int i = 0; i < WARMUP; i++) {
+			op.run(i);
+		}
+		long lowest = Long.MAX_VALUE;
+		for(int t = 0; t < TRIALS; t++) {
+			final long overhead = allocated() - allocated();
+			final long start = allocated();
+			for(int i = 0; i < ITERATIONS; i++) {
+				op.run(i);
+			}
+			final long end = allocated();
+			lowest = Math.min(lowest, end - start + overhead);
+		}
+		return Math.max(0, lowest);
+	}
+	
+	/**
+	 * Fails if the passed operation allocates
+	 * @param name The operation name, used in the failure message
+	 * @param op The operation
+	 */
+	public static void assertAllocationFree(String name, Operation op) {
+		Assume.assumeTrue(isSupported());
+		final long bytes = measure(op);
+		log("Allocation [" + name + "]: " + bytes + " bytes in " + ITERATIONS + " iterations");
+		if(bytes > SLACK) {
+			Assert.fail("Allocation free operation [" + name + "] allocated [" + bytes + "] bytes in [" + ITERATIONS + "] iterations (" + ((double)bytes/ITERATIONS) + " bytes/op)");
+		}
+	}
+	
+	/**
+	 * Fails if the passed operation allocates more than the passed number of bytes per iteration on average
+	 * @param name The operation name, used in the failure message
+	 * @param bytesPerOp The maximum average bytes allocated per iteration
+	 * @param op The operation
+	 */
+	public static void assertAllocatesAtMost(String name, long bytesPerOp, Operation op) {
+		Assume.assumeTrue(isSupported());
+		final long bytes = measure(op);
+		log("Allocation [" + name + "]: " + bytes + " bytes in " + ITERATIONS + " iterations");
+		if(bytes > bytesPerOp * ITERATIONS + SLACK) {
+			Assert.fail("Operation [" + name + "] allocated [" + ((double)bytes/ITERATIONS) + "] bytes/op, more than the declared [" + bytesPerOp + "]");
+		}
+	}
+	
+	/**
+	 * Console logger
+	 * @param msg The message to log
+	 */
+	public static void log(Object msg) {
+		System.out.println(msg);
+	}
+}
@@ -0,0 +1,124 @@
+/**
+ * Helios, OpenSource Monitoring
+ * Brought to you by the Helios Development Group
+ *
+ * Copyright 2007, Helios Development Group and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org. 
+ *
+ */
+package test.org.helios.jmxstats;
+
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.helios.jmxstats.core.name.BloomFilter;
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * <p>Title: BloomFilterTest</p>
+ * <p>Description: Tests that {@link BloomFilter#mightContain(CharSequence)} never returns a false negative while concurrent adds grow the filter</p> 
+ * <p>Company: Helios Development Group LLC</p>
+ * @author Whitehead (nwhitehead AT heliosdev DOT org)
+ * <p><code>test.org.helios.jmxstats.BloomFilterTest</code></p>
+ */
+public class BloomFilterTest {
+	/** The number of writer threads */
+	public static final int WRITERS = 2;
+	/** The number of names each writer adds */
+	public static final int NAMES = 100000;
+	/** The number of reader threads */
+	public static final int READERS = 2;
+	
+	/** The number of names each writer has added, guarded by itself */
+	private final int[] added = new int[WRITERS];
+	/** The first failure seen by a reader */
+	private final AtomicReference<String> failure = new AtomicReference<String>(null);
+	
+	/**
+	 * Returns the name a writer adds at the passed index
+	 * @param writer The writer index
+	 * @param i The name index
+	 * @return the name
+	 */
+	private static String name(int writer, int i) {
+		return "bloom.writer" + writer + ".name" + i;
+	}
+	
+	/**
+	 * Tests that names added before a membership test starts are always found while the filter adds layers concurrently
+	 * @throws Exception thrown on any error
+	 */
+	@Test
+	public void testConcurrentGrowth() throws Exception {
+		final BloomFilter filter = new BloomFilter(16, BloomFilter.DEFAULT_FPP);
+		final Thread[] threads = new Thread[WRITERS + READERS];
+		for(int w = 0; w < WRITERS; w++) {
+			final int writer = w;
+			threads[w] = new Thread("BloomWriter#" + w) {
+				public void run() {
+					for(int i = 0; i < NAMES && failure.get()==null; i++) {
+						filter.add(name(writer, i));
+						synchronized(added) {
+							added[writer] = i+1;
+						}
+						if((i & 255)==0) Thread.yield();
+					}
+				}
+			};
+		}
+		for(int r = 0; r < READERS; r++) {
+			threads[WRITERS + r] = new Thread("BloomReader#" + r) {
+				public void run() {
+					final int[] snapshot = new int[WRITERS];
+					final Random random = new Random(getName().hashCode());
+					while(failure.get()==null) {
+						synchronized(added) {
+							System.arraycopy(added, 0, snapshot, 0, WRITERS);
+						}
+						boolean done = true;
+						for(int w = 0; w < WRITERS; w++) {
+							if(snapshot[w]<NAMES) done = false;
+							if(snapshot[w]==0) continue;
+							final int i = Math.max(0, snapshot[w] - 1 - random.nextInt(Math.min(snapshot[w], 64)));
+							if(!filter.mightContain(name(w, i))) {
+								failure.compareAndSet(null, "False negative for [" + name(w, i) + "] with [" + filter.getLayerCount() + "] layers");
+							}
+						}
+						if(done) break;
+					}
+				}
+			};
+		}
+		for(Thread t: threads) {
+			t.setDaemon(true);
+			t.start();
+		}
+		for(Thread t: threads) {
+			t.join(120000);
+		}
+		Assert.assertNull(failure.get(), failure.get());
+		Assert.assertTrue("Filter did not grow [" + filter.getLayerCount() + "]", filter.getLayerCount()>5);
+		for(int w = 0; w < WRITERS; w++) {
+			for(int i = 0; i < NAMES; i++) {
+				Assert.assertTrue(name(w, i), filter.mightContain(name(w, i)));
+			}
+		}
+	}
+}
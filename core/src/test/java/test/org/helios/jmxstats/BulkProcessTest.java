@@ -0,0 +1,266 @@
+/**
+ * Helios, OpenSource Monitoring
+ * Brought to you by the Helios Development Group
+ *
+ * Copyright 2007, Helios Development Group and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org. 
+ *
+ */
+package test.org.helios.jmxstats;
+
+import java.util.Random;
+
+import org.helios.jmxstats.core.Controller;
+import org.helios.jmxstats.core.metric.BaseMetric;
+import org.helios.jmxstats.core.metric.IMetric;
+import org.helios.jmxstats.core.metric.MetricRegistry;
+import org.helios.jmxstats.core.metric.MetricType;
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * <p>Title: BulkProcessTest</p>
+ * <p>Description: Tests that batches submitted through {@link IMetric#process(long[], int, int)} and {@link MetricRegistry#process(int[], long[], int, int)}
+ * accumulate the same interval values as submitting each value singly, whether the batch is ordered by handle or not, and that invalid ranges are rejected</p> 
+ * <p>Company: Helios Development Group LLC</p>
+ * @author Whitehead (nwhitehead AT heliosdev DOT org)
+ * <p><code>test.org.helios.jmxstats.BulkProcessTest</code></p>
+ */
+public class BulkProcessTest {
+	/** The maximum number of trials, since a trial interrupted by the system clock's own interval switch is repeated */
+	public static final int TRIALS = 5;
+	/** The metric types submitted to in each batch */
+	private static final MetricType[] TYPES = {MetricType.AVG, MetricType.DELTA, MetricType.INTERVALCOUNT, MetricType.DELTASTICKY};
+	/** The registry */
+	private final MetricRegistry registry = MetricRegistry.getInstance();
+	
+	/**
+	 * Tests that a batch ordered by handle, including runs for delta and interval count metrics, matches single value submission
+	 */
+	@Test
+	public void testSortedBatch() {
+		for(int trial = 0; trial < TRIALS; trial++) {
+			final long resetsBefore = registry.getResetCount();
+			final int[] handles = register("sorted" + trial);
+			final IMetric[] expected = references();
+			final Random random = new Random(trial);
+			final int[] batch = new int[200];
+			final long[] values = new long[batch.length];
+			for(int i = 0; i < batch.length; i++) {
+				final int m = i * TYPES.length / batch.length;
+				batch[i] = handles[m];
+				values[i] = nextValue(random, i);
+				expected[m].process(values[i]);
+			}
+			registry.process(batch, values, 0, batch.length);
+			if(registry.getResetCount()!=resetsBefore) continue;
+			assertMatches(expected, handles);
+			return;
+		}
+		Assert.fail("Every trial was interrupted by an interval switch");
+	}
+	
+	/**
+	 * Tests that an interleaved batch is sorted by handle while keeping the submission order of each handle's values, so delta metrics
+	 * see the same deltas as single value submission, and that only the passed range of the batch is processed
+	 */
+	@Test
+	public void testUnsortedBatch() {
+		for(int trial = 0; trial < TRIALS; trial++) {
+			final long resetsBefore = registry.getResetCount();
+			final int[] handles = register("unsorted" + trial);
+			final IMetric[] expected = references();
+			final Random random = new Random(trial);
+			final int off = 3, len = 500;
+			final int[] batch = new int[off + len + 5];
+			final long[] values = new long[batch.length];
+			for(int i = 0; i < batch.length; i++) {
+				// the first two values in range are out of handle order, so the batch is never already sorted
+				final int m = i==off ? TYPES.length-1 : i==off+1 ? 0 : random.nextInt(TYPES.length);
+				batch[i] = handles[m];
+				values[i] = nextValue(random, i);
+				if(i>=off && i<off+len) expected[m].process(values[i]);
+			}
+			final int[] handlesCopy = batch.clone();
+			final long[] valuesCopy = values.clone();
+			registry.process(batch, values, off, len);
+			if(registry.getResetCount()!=resetsBefore) continue;
+			Assert.assertArrayEquals("Handle array modified", handlesCopy, batch);
+			Assert.assertArrayEquals("Value array modified", valuesCopy, values);
+			assertMatches(expected, handles);
+			return;
+		}
+		Assert.fail("Every trial was interrupted by an interval switch");
+	}
+	
+	/**
+	 * Tests that a value batch submitted to one metric matches single value submission, including a delta metric primed by the batch
+	 */
+	@Test
+	public void testMetricBatch() {
+		for(int trial = 0; trial < TRIALS; trial++) {
+			final long resetsBefore = registry.getResetCount();
+			final int[] handles = register("metric" + trial);
+			final IMetric[] expected = references();
+			final Random random = new Random(trial);
+			for(int m = 0; m < TYPES.length; m++) {
+				final long[] values = new long[50];
+				for(int i = 0; i < values.length; i++) values[i] = nextValue(random, i);
+				for(int i = 1; i < values.length-1; i++) expected[m].process(values[i]);
+				Controller.getInstance().process(handles[m], values, 1, values.length-2);
+			}
+			if(registry.getResetCount()!=resetsBefore) continue;
+			assertMatches(expected, handles);
+			return;
+		}
+		Assert.fail("Every trial was interrupted by an interval switch");
+	}
+	
+	/**
+	 * Tests that ranges beyond either array, and handles that were never allocated, are rejected before any value is processed
+	 */
+	@Test
+	public void testInvalidBatches() {
+		for(int trial = 0; trial < TRIALS; trial++) {
+			final long resetsBefore = registry.getResetCount();
+			final int[] handles = register("invalid" + trial);
+			final int h = handles[0];
+			assertRejected(new int[]{h, h, h, h}, new long[]{1, 2, 3}, 0, 4);
+			assertRejected(new int[]{h, h, h}, new long[]{1, 2, 3, 4}, 0, 4);
+			assertRejected(new int[]{h, h, h}, new long[]{1, 2, 3}, 2, 2);
+			assertRejected(new int[]{h, h, h}, new long[]{1, 2, 3}, -1, 2);
+			assertRejected(new int[]{h, h, h}, new long[]{1, 2, 3}, 1, -1);
+			assertRejected(new int[]{h, h, h}, new long[]{1, 2, 3}, Integer.MAX_VALUE, 2);
+			assertRejected(new int[]{h, -1, h}, new long[]{1, 2, 3}, 0, 3);
+			assertRejected(new int[]{h, h, Integer.MAX_VALUE}, new long[]{1, 2, 3}, 0, 3);
+			assertRejected(null, new long[]{1}, 0, 1);
+			assertRejected(new int[]{h}, null, 0, 1);
+			try {
+				registry.getMetric(h).process(new long[]{1, 2, 3}, 2, 2);
+				Assert.fail("Range beyond the value array was accepted");
+			} catch (IllegalArgumentException expected) {
+			}
+			// mismatched lengths are accepted when the range lies within both arrays
+			registry.process(new int[]{h, h, h, h}, new long[]{5, 7, 9}, 1, 2);
+			if(registry.getResetCount()!=resetsBefore) continue;
+			final IMetric metric = registry.getMetric(h);
+			Assert.assertEquals(2, metric.getCount());
+			Assert.assertEquals(8, metric.getAverage());
+			return;
+		}
+		Assert.fail("Every trial was interrupted by an interval switch");
+	}
+	
+	/**
+	 * Tests that empty batches and empty ranges are accepted and process nothing, and that an empty batch does not prime a delta metric
+	 */
+	@Test
+	public void testEmptyBatches() {
+		for(int trial = 0; trial < TRIALS; trial++) {
+			final long resetsBefore = registry.getResetCount();
+			final int[] handles = register("empty" + trial);
+			registry.process(new int[0], new long[0], 0, 0);
+			registry.process(handles, new long[handles.length], handles.length, 0);
+			registry.process(new int[]{handles[1], handles[0]}, new long[]{1, 2}, 1, 0);
+			for(int m = 0; m < TYPES.length; m++) {
+				final IMetric metric = registry.getMetric(handles[m]);
+				metric.process(new long[0], 0, 0);
+				metric.process(new long[]{42}, 1, 0);
+			}
+			final IMetric delta = registry.getMetric(handles[1]);
+			delta.process(new long[]{10, 15}, 0, 2);
+			if(registry.getResetCount()!=resetsBefore) continue;
+			Assert.assertEquals(0, registry.getMetric(handles[0]).getCount());
+			Assert.assertEquals(0, registry.getMetric(handles[2]).getCount());
+			Assert.assertEquals(0, registry.getMetric(handles[3]).getCount());
+			Assert.assertEquals(1, delta.getCount());
+			Assert.assertEquals(5, delta.getAverage());
+			return;
+		}
+		Assert.fail("Every trial was interrupted by an interval switch");
+	}
+	
+	/**
+	 * Registers a metric of each test type
+	 * @param prefix The metric name prefix, unique to the trial
+	 * @return the metric handles, ascending
+	 */
+	private int[] register(String prefix) {
+		final int[] handles = new int[TYPES.length];
+		for(int m = 0; m < TYPES.length; m++) {
+			handles[m] = registry.getHandle("test.bulk." + prefix + "." + System.nanoTime() + "." + TYPES[m], TYPES[m]);
+			if(m>0) Assert.assertTrue("Handles are not ascending", handles[m]>handles[m-1]);
+		}
+		return handles;
+	}
+	
+	/**
+	 * Creates a reference metric of each test type, fed one value at a time
+	 * @return the reference metrics
+	 */
+	private static IMetric[] references() {
+		final IMetric[] metrics = new IMetric[TYPES.length];
+		for(int m = 0; m < TYPES.length; m++) {
+			metrics[m] = new BaseMetric(0, "test.bulk.reference." + TYPES[m], TYPES[m]);
+		}
+		return metrics;
+	}
+	
+	/**
+	 * Returns a test value, increasing on average so delta metrics see mostly positive deltas
+	 * @param random The random source
+	 * @param i The value index
+	 * @return the value
+	 */
+	private static long nextValue(Random random, int i) {
+		return i * 10L + random.nextInt(40) - 20;
+	}
+	
+	/**
+	 * Asserts that the registered metrics hold the same interval values as the reference metrics
+	 * @param expected The reference metrics
+	 * @param handles The handles of the registered metrics
+	 */
+	private void assertMatches(IMetric[] expected, int[] handles) {
+		for(int m = 0; m < TYPES.length; m++) {
+			final IMetric actual = registry.getMetric(handles[m]);
+			Assert.assertEquals(TYPES[m] + " count", expected[m].getCount(), actual.getCount());
+			Assert.assertTrue(TYPES[m] + " recorded nothing", actual.getCount()>0);
+			if(TYPES[m].isCounter()) continue;
+			Assert.assertEquals(TYPES[m] + " average", expected[m].getAverage(), actual.getAverage());
+			Assert.assertEquals(TYPES[m] + " minimum", expected[m].getMinimum(), actual.getMinimum());
+			Assert.assertEquals(TYPES[m] + " maximum", expected[m].getMaximum(), actual.getMaximum());
+		}
+	}
+	
+	/**
+	 * Asserts that the passed batch is rejected
+	 * @param handles The metric handles
+	 * @param values The values
+	 * @param off The offset
+	 * @param len The length
+	 */
+	private void assertRejected(int[] handles, long[] values, int off, int len) {
+		try {
+			registry.process(handles, values, off, len);
+			Assert.fail("Batch with offset/length [" + off + "/" + len + "] was accepted");
+		} catch (IllegalArgumentException expected) {
+		}
+	}
+}
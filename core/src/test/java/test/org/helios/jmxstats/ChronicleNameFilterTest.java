@@ -0,0 +1,139 @@
+/**
+ * Helios, OpenSource Monitoring
+ * Brought to you by the Helios Development Group
+ *
+ * Copyright 2007, Helios Development Group and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org. 
+ *
+ */
+package test.org.helios.jmxstats;
+
+import java.io.File;
+import java.util.concurrent.CountDownLatch;
+
+import org.helios.jmxstats.core.ChronicleController;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * <p>Title: ChronicleNameFilterTest</p>
+ * <p>Description: Tests that a name filter rebuilt on reopening a chronicle is sized for the stored names, rather than growing
+ * from the minimum capacity through a chain of layers that every negative lookup probes, and that the striped name lookup counters
+ * sum exactly across concurrent lookups</p> 
+ * <p>Company: Helios Development Group LLC</p>
+ * @author Whitehead (nwhitehead AT heliosdev DOT org)
+ * <p><code>test.org.helios.jmxstats.ChronicleNameFilterTest</code></p>
+ */
+public class ChronicleNameFilterTest {
+	/** The number of registered names, enough to need several layers when grown from the minimum capacity */
+	public static final int NAMES = 20000;
+	/** The chronicle name */
+	public static final String NAME = "filter";
+	
+	/** The temporary chronicle directory */
+	private final File chronicleDir = new File(System.getProperty("java.io.tmpdir"), "jmxstats-filter-" + System.nanoTime());
+	/** The open chronicle */
+	private ChronicleController chronicle = null;
+	
+	/**
+	 * Closes and deletes the temporary chronicle
+	 */
+	@After
+	public void tearDown() {
+		if(chronicle!=null) chronicle.close();
+		if(chronicleDir.listFiles()!=null) {
+			for(File f: chronicleDir.listFiles()) {
+				f.delete();
+			}
+			chronicleDir.delete();
+		}
+	}
+	
+	/**
+	 * Registers names, discards the persisted filter and checks the rebuilt filter on reopening
+	 */
+	@Test
+	public void testRebuiltFilterSizedFromNames() {
+		chronicle = ChronicleController.open(chronicleDir, NAME, 20);
+		for(int i = 0; i < NAMES; i++) {
+			chronicle.registerMetricName("app.host" + (i % 50) + ".metric" + i);
+		}
+		final int grownLayers = chronicle.getNameFilterLayers();
+		Assert.assertTrue("Expected a grown filter, had [" + grownLayers + "] layers", grownLayers>1);
+		chronicle.close();
+		chronicle = null;
+		final File filterFile = new File(chronicleDir, NAME + ChronicleController.NAME_FILTER_EXT);
+		Assert.assertTrue(filterFile.exists());
+		Assert.assertTrue(filterFile.delete());
+		chronicle = ChronicleController.open(chronicleDir, NAME, 20);
+		Assert.assertEquals(1, chronicle.getNameFilterLayers());
+		for(int i = 0; i < NAMES; i++) {
+			Assert.assertTrue(chronicle.isMetricCreated("app.host" + (i % 50) + ".metric" + i));
+		}
+		for(int i = 0; i < NAMES; i++) {
+			Assert.assertFalse(chronicle.isMetricCreated("app.host" + (i % 50) + ".other" + i));
+		}
+		Assert.assertTrue(chronicle.getFilterRejects() > NAMES * 9 / 10);
+	}
+	
+	/**
+	 * Looks names up from several threads and checks the summed lookup counters
+	 * @throws Exception thrown on any error
+	 */
+	@Test
+	public void testConcurrentLookupCounts() throws Exception {
+		chronicle = ChronicleController.open(chronicleDir, NAME, 20);
+		final int names = 1000, threads = 8, rounds = 20;
+		for(int i = 0; i < names; i++) {
+			chronicle.registerMetricName("app.counted" + i);
+		}
+		final long hits = chronicle.getNameHits(), misses = chronicle.getNameMisses(), rejects = chronicle.getFilterRejects();
+		final CountDownLatch start = new CountDownLatch(1), done = new CountDownLatch(threads);
+		final Throwable[] failure = new Throwable[1];
+		for(int t = 0; t < threads; t++) {
+			new Thread("LookupCounter#" + t) {
+				@Override
+				public void run() {
+					try {
+						start.await();
+						for(int r = 0; r < rounds; r++) {
+							for(int i = 0; i < names; i++) {
+								if(!chronicle.isMetricCreated("app.counted" + i)) throw new AssertionError("Name not found");
+								if(chronicle.getMetricNameIndex("app.counted" + i, -1L)<0) throw new AssertionError("Index not found");
+								chronicle.isMetricCreated("app.absent" + i);
+							}
+						}
+					} catch (Throwable e) {
+						failure[0] = e;
+					} finally {
+						done.countDown();
+					}
+				}
+			}.start();
+		}
+		start.countDown();
+		done.await();
+		Assert.assertNull(failure[0]);
+		final long lookups = (long)threads * rounds * names;
+		Assert.assertEquals(hits + 2 * lookups, chronicle.getNameHits());
+		Assert.assertEquals(misses + lookups, chronicle.getNameMisses());
+		Assert.assertTrue(chronicle.getFilterRejects() - rejects > lookups * 9 / 10);
+	}
+}
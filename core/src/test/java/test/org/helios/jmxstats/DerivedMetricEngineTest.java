@@ -0,0 +1,239 @@
+/**
+ * Helios, OpenSource Monitoring
+ * Brought to you by the Helios Development Group
+ *
+ * Copyright 2007, Helios Development Group and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org. 
+ *
+ */
+package test.org.helios.jmxstats;
+
+import static test.org.helios.jmxstats.AllocationAssert.assertAllocationFree;
+
+import java.lang.ref.WeakReference;
+
+import org.helios.jmxstats.core.Controller;
+import org.helios.jmxstats.core.derived.DerivedExpression;
+import org.helios.jmxstats.core.derived.DerivedMetricEngine;
+import org.helios.jmxstats.core.derived.ExpressionCompiler;
+import org.helios.jmxstats.core.metric.IntervalSnapshot;
+import org.helios.jmxstats.core.metric.MetricRegistry;
+import org.helios.jmxstats.core.metric.MetricType;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * <p>Title: DerivedMetricEngineTest</p>
+ * <p>Description: Tests compiled derived metrics against synthesized closed interval snapshots</p> 
+ * <p>Company: Helios Development Group LLC</p>
+ * @author Whitehead (nwhitehead AT heliosdev DOT org)
+ * <p><code>test.org.helios.jmxstats.DerivedMetricEngineTest</code></p>
+ */
+public class DerivedMetricEngineTest {
+	/** The controller */
+	private Controller controller;
+	/** The engine */
+	private DerivedMetricEngine engine;
+	
+	/**
+	 * Creates the engine
+	 */
+	@Before
+	public void setUp() {
+		controller = Controller.getInstance();
+		engine = new DerivedMetricEngine(controller);
+	}
+	
+	/**
+	 * Returns an empty closed interval snapshot sized for every registered metric
+	 * @return the snapshot
+	 */
+	private static IntervalSnapshot snapshot() {
+		return new IntervalSnapshot(1350000000000L, 1350000015000L, MetricRegistry.getInstance().size());
+	}
+	
+	/**
+	 * Sets one value for the passed metric in the passed snapshot
+	 * @param s The snapshot
+	 * @param handle The metric handle
+	 * @param count The interval count
+	 * @param value The average, minimum and maximum
+	 */
+	private static void set(IntervalSnapshot s, int handle, long count, long value) {
+		s.set(handle, MetricType.AVG, count, value * count, value, value, value);
+	}
+	
+	/**
+	 * Tests ratios, percentages, precedence, fields and bracketed names
+	 */
+	@Test
+	public void testExpressions() {
+		final int errors = controller.getMetricHandle("derived.test.errors", MetricType.AVG);
+		final int requests = controller.getMetricHandle("derived.test.requests", MetricType.AVG);
+		final int used = controller.getMetricHandle("derived:type=Heap/used", MetricType.AVG);
+		final int max = controller.getMetricHandle("derived:type=Heap/max", MetricType.AVG);
+		final int errorRate = engine.define("derived.test.errorRate", "derived.test.errors@count * 1000 / derived.test.requests@count");
+		final int heapPct = engine.define("derived.test.heapPct", "[derived:type=Heap/used] / [derived:type=Heap/max] * 100");
+		final int mixed = engine.define("derived.test.mixed", "-(derived.test.requests@max - 2) * (1 + 2) + derived.test.heapPct");
+		Assert.assertEquals(3, engine.getDerivedCount());
+		final IntervalSnapshot s = snapshot();
+		set(s, errors, 5, 1);
+		set(s, requests, 200, 10);
+		set(s, used, 1, 750);
+		set(s, max, 1, 1000);
+		engine.evaluate(s);
+		Assert.assertEquals(25, s.getAverage(errorRate));
+		Assert.assertEquals(75, s.getAverage(heapPct));
+		Assert.assertEquals(-24 + 75, s.getAverage(mixed));
+		Assert.assertEquals(1, s.getCount(heapPct));
+		Assert.assertEquals(0, engine.getSkipped());
+	}
+	
+	/**
+	 * Tests that a derived metric has no value when an input has no values or the result is not finite
+	 */
+	@Test
+	public void testNoValue() {
+		final int a = controller.getMetricHandle("derived.test.a", MetricType.AVG);
+		final int b = controller.getMetricHandle("derived.test.b", MetricType.AVG);
+		final int ratio = engine.define("derived.test.ratio", "derived.test.a / derived.test.b");
+		final int counts = engine.define("derived.test.counts", "derived.test.a@count / derived.test.b@count");
+		IntervalSnapshot s = snapshot();
+		set(s, a, 1, 10);
+		engine.evaluate(s);
+		Assert.assertEquals(0, s.getCount(ratio));
+		Assert.assertEquals(0, s.getCount(counts));
+		Assert.assertEquals(2, engine.getSkipped());
+		s = snapshot();
+		set(s, a, 1, 10);
+		set(s, b, 1, 0);
+		engine.evaluate(s);
+		Assert.assertEquals(0, s.getCount(ratio));
+		set(s, b, 1, 4);
+		engine.evaluate(s);
+		Assert.assertEquals(3, s.getAverage(ratio));
+		Assert.assertEquals(1, s.getAverage(counts));
+		Assert.assertTrue(engine.remove("derived.test.ratio"));
+		Assert.assertEquals(1, engine.getDerivedCount());
+	}
+	
+	/**
+	 * Tests that invalid expressions are rejected
+	 */
+	@Test
+	public void testInvalid() {
+		final String[] invalid = {"", "1 + 2", "derived.test.x +", "(derived.test.x", "derived.test.x@median", "[derived.test.x", "derived.test.x ) 2"};
+		for(String expr: invalid) {
+			try {
+				engine.define("derived.test.invalid", expr);
+				Assert.fail("Expression [" + expr + "] was accepted");
+			} catch (IllegalArgumentException expected) {
+			}
+		}
+		Assert.assertEquals(0, engine.getDerivedCount());
+	}
+	
+	/**
+	 * Tests that an expression referencing an unregistered metric is rejected without registering it, so its producer can still
+	 * register it with its own type
+	 */
+	@Test
+	public void testUnregisteredInputRejected() {
+		final MetricRegistry registry = MetricRegistry.getInstance();
+		final String producer = "derived.test.producer" + System.nanoTime();
+		try {
+			engine.define("derived.test.early", producer + "@count * 2");
+			Assert.fail("Unregistered input was accepted");
+		} catch (IllegalArgumentException expected) {
+		}
+		Assert.assertEquals(-1, registry.getHandle(producer));
+		Assert.assertEquals(0, engine.getDerivedCount());
+		final int handle = controller.getMetricHandle(producer, MetricType.INTERVALCOUNT);
+		Assert.assertEquals(MetricType.INTERVALCOUNT, registry.getMetric(handle).getType());
+		engine.define("derived.test.early", producer + "@count * 2");
+		Assert.assertEquals(1, engine.getDerivedCount());
+	}
+	
+	/**
+	 * Tests that a derived metric's pins are released when it is removed or redefined, and that pins taken by other holders remain
+	 */
+	@Test
+	public void testRemoveReleasesPins() {
+		final MetricRegistry registry = MetricRegistry.getInstance();
+		final int in = controller.getMetricHandle("derived.test.pinIn", MetricType.AVG);
+		final int shared = controller.getMetricHandle("derived.test.pinShared", MetricType.AVG);
+		registry.pin(shared);
+		final int out = engine.define("derived.test.pinOut", "derived.test.pinIn + derived.test.pinShared");
+		Assert.assertTrue(registry.isPinned(in));
+		Assert.assertTrue(registry.isPinned(out));
+		Assert.assertEquals(out, engine.define("derived.test.pinOut", "derived.test.pinShared * 2"));
+		Assert.assertFalse("Replaced input still pinned", registry.isPinned(in));
+		Assert.assertTrue(registry.isPinned(out));
+		Assert.assertTrue(engine.remove("derived.test.pinOut"));
+		Assert.assertFalse(registry.isPinned(out));
+		Assert.assertTrue("Pin held by another holder released", registry.isPinned(shared));
+		registry.unpin(shared);
+		Assert.assertFalse(registry.isPinned(shared));
+	}
+	
+	/**
+	 * Tests that evaluation does not allocate
+	 */
+	@Test
+	public void testEvaluationAllocationFree() {
+		final int x = controller.getMetricHandle("derived.test.x", MetricType.AVG);
+		final int y = controller.getMetricHandle("derived.test.y", MetricType.AVG);
+		for(int i = 0; i < 50; i++) {
+			engine.define("derived.test.z" + i, "(derived.test.x + derived.test.y@max) / " + (i+1));
+		}
+		final IntervalSnapshot s = snapshot();
+		set(s, x, 3, 100);
+		set(s, y, 2, 50);
+		assertAllocationFree("derived metric evaluation", new AllocationAssert.Operation() {
+			@Override
+			public void run(int iteration) {
+				engine.evaluate(s);
+			}
+		});
+		Assert.assertEquals(150, s.getAverage(controller.getMetricHandle("derived.test.z0", MetricType.AVG)));
+	}
+	
+	/**
+	 * Tests that a compiled expression's class is defined by its own loader and is unloaded once unreferenced
+	 * @throws Exception thrown on any error
+	 */
+	@Test
+	public void testExpressionClassUnloaded() throws Exception {
+		DerivedExpression expr = ExpressionCompiler.compile("derived.test.x * 2", new ExpressionCompiler.HandleResolver() {
+			@Override
+			public int resolve(String name) {
+				return controller.getMetricHandle(name, MetricType.AVG);
+			}
+		});
+		Assert.assertNotSame(DerivedExpression.class.getClassLoader(), expr.getClass().getClassLoader());
+		final WeakReference<Class<?>> ref = new WeakReference<Class<?>>(expr.getClass());
+		expr = null;
+		for(int i = 0; i < 50 && ref.get()!=null; i++) {
+			System.gc();
+			Thread.sleep(20);
+		}
+		Assert.assertNull("Expression class was not unloaded", ref.get());
+	}
+}
@@ -0,0 +1,295 @@
+/**
+ * Helios, OpenSource Monitoring
+ * Brought to you by the Helios Development Group
+ *
+ * Copyright 2007, Helios Development Group and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org. 
+ *
+ */
+package test.org.helios.jmxstats;
+
+import java.io.File;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.util.concurrent.Callable;
+
+import javax.management.Attribute;
+import javax.management.AttributeList;
+import javax.management.DynamicMBean;
+import javax.management.MBeanAttributeInfo;
+import javax.management.MBeanConstructorInfo;
+import javax.management.MBeanInfo;
+import javax.management.MBeanNotificationInfo;
+import javax.management.MBeanOperationInfo;
+import javax.management.MBeanServer;
+import javax.management.MBeanServerFactory;
+import javax.management.ObjectName;
+
+import org.helios.jmxstats.core.ChronicleController;
+import org.helios.jmxstats.core.Controller;
+import org.helios.jmxstats.core.Controller.SystemClock;
+import org.helios.jmxstats.core.jmx.CollectionRule;
+import org.helios.jmxstats.core.jmx.MBeanCollector;
+import org.helios.jmxstats.core.metric.IntervalSnapshot;
+import org.helios.jmxstats.core.metric.MetricRegistry;
+import org.helios.jmxstats.core.metric.MetricType;
+import org.helios.jmxstats.core.name.ObjectNameIndex;
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * <p>Title: HandleGenerationTest</p>
+ * <p>Description: Tests that values submitted through the handle of an evicted metric are dropped once its slot is recycled for a new
+ * metric, rather than recorded into the new metric, and that a cached MBean collection plan re-resolves the handle of an evicted metric.
+ * The registry reads its idle eviction threshold once, so each scenario runs against registry classes loaded by an isolated class loader
+ * with eviction enabled and the interval thread effectively idle.</p> 
+ * <p>Company: Helios Development Group LLC</p>
+ * @author Whitehead (nwhitehead AT heliosdev DOT org)
+ * <p><code>test.org.helios.jmxstats.HandleGenerationTest</code></p>
+ */
+public class HandleGenerationTest {
+	/** The interval used by the isolated registry, long enough that the interval thread never switches during the test */
+	public static final String ISOLATED_INTERVAL = "3600000";
+	
+	/**
+	 * Runs the recycling scenario against isolated registry classes
+	 * @throws Exception thrown on any error
+	 */
+	@Test
+	public void testStaleHandleDropped() throws Exception {
+		run(Scenario.class);
+	}
+	
+	/**
+	 * Runs the plan scenario against isolated registry classes
+	 * @throws Exception thrown on any error
+	 */
+	@Test
+	public void testPlanReResolvesEvicted() throws Exception {
+		run(PlanScenario.class);
+	}
+	
+	/**
+	 * Runs a scenario loaded by an isolated class loader, with eviction enabled, a long interval and a chronicle of its own
+	 * @param scenarioClass The scenario class
+	 * @throws Exception thrown on any error
+	 */
+	private static void run(Class<?> scenarioClass) throws Exception {
+		final String priorIdle = System.getProperty(MetricRegistry.IDLE_INTERVALS_PROP);
+		final String priorInterval = System.getProperty(SystemClock.INTERVAL_PROP);
+		final String priorName = System.getProperty(ChronicleController.CHRONICLE_PROP);
+		System.setProperty(MetricRegistry.IDLE_INTERVALS_PROP, "1");
+		System.setProperty(SystemClock.INTERVAL_PROP, ISOLATED_INTERVAL);
+		System.setProperty(ChronicleController.CHRONICLE_PROP, "generationtest" + System.nanoTime());
+		try {
+			final ClassLoader isolated = new IsolatingClassLoader(new URL[]{
+				MetricRegistry.class.getProtectionDomain().getCodeSource().getLocation(),
+				HandleGenerationTest.class.getProtectionDomain().getCodeSource().getLocation()
+			}, HandleGenerationTest.class.getClassLoader());
+			final Class<?> scenario = Class.forName(scenarioClass.getName(), true, isolated);
+			Assert.assertNotSame(scenarioClass, scenario);
+			((Callable<?>)scenario.newInstance()).call();
+		} finally {
+			restore(MetricRegistry.IDLE_INTERVALS_PROP, priorIdle);
+			restore(SystemClock.INTERVAL_PROP, priorInterval);
+			restore(ChronicleController.CHRONICLE_PROP, priorName);
+		}
+	}
+	
+	private static void restore(String key, String value) {
+		if(value==null) System.clearProperty(key);
+		else System.setProperty(key, value);
+	}
+	
+	/**
+	 * <p>Title: Scenario</p>
+	 * <p>Description: Evicts a metric, recycles its slot and submits values through both handles. Loaded by the isolated class loader.</p> 
+	 */
+	public static class Scenario implements Callable<Void> {
+		@Override
+		public Void call() {
+			final MetricRegistry registry = MetricRegistry.getInstance();
+			Assert.assertEquals(1, MetricRegistry.IDLE_INTERVALS);
+			long now = System.currentTimeMillis();
+			final int stale = registry.getHandle("generation.test.a", MetricType.AVG);
+			registry.process(stale, 5);
+			registry.reset(++now);
+			registry.reset(++now);
+			final MetricRegistry.Eviction evicted = registry.evictIdle();
+			Assert.assertNotNull(evicted);
+			Assert.assertEquals(1, evicted.size());
+			Assert.assertEquals(stale, evicted.getHandle(0));
+			Assert.assertEquals("generation.test.a", evicted.getName(0));
+			Assert.assertNull(registry.getMetric(stale));
+			registry.reset(++now);
+			Assert.assertNull(registry.evictIdle());
+			
+			final int handle = registry.getHandle("generation.test.b", MetricType.AVG);
+			Assert.assertEquals(MetricRegistry.slot(stale), MetricRegistry.slot(handle));
+			Assert.assertEquals(stale + (1 << MetricRegistry.SLOT_BITS), handle);
+			Assert.assertTrue(registry.isCurrent(handle));
+			Assert.assertFalse(registry.isCurrent(stale));
+			Assert.assertNull(registry.getMetric(stale));
+			Assert.assertEquals(handle, registry.getMetric(handle).getId());
+			
+			final long dropped = registry.getDroppedValues();
+			registry.process(stale, 1000);
+			registry.process(new int[]{stale, handle, stale}, new long[]{1000, 20, 1000}, 0, 3);
+			registry.processLocal(stale, 1000);
+			registry.process(handle, 10);
+			Assert.assertEquals(dropped + 4, registry.getDroppedValues());
+			final IntervalSnapshot closed = registry.reset(++now);
+			Assert.assertEquals(2, closed.getCount(handle));
+			Assert.assertEquals(30, closed.getTotal(handle));
+			Assert.assertEquals(20, closed.getMaximum(handle));
+			
+			// recycle the slot until its generations are exhausted
+			int current = handle;
+			for(int generation = 2; generation <= MetricRegistry.MAX_GENERATION; generation++) {
+				registry.reset(++now);
+				Assert.assertNotNull(registry.evictIdle());
+				registry.reset(++now);
+				registry.evictIdle();
+				final int next = registry.getHandle("generation.test.g" + generation, MetricType.AVG);
+				Assert.assertEquals(current + (1 << MetricRegistry.SLOT_BITS), next);
+				Assert.assertTrue(next>0);
+				current = next;
+			}
+			registry.reset(++now);
+			Assert.assertNotNull(registry.evictIdle());
+			registry.reset(++now);
+			registry.evictIdle();
+			Assert.assertEquals(1, registry.getRetiredSlots());
+			final int fresh = registry.getHandle("generation.test.fresh", MetricType.AVG);
+			Assert.assertTrue(MetricRegistry.slot(fresh)!=MetricRegistry.slot(stale));
+			return null;
+		}
+	}
+	
+	/**
+	 * <p>Title: PlanScenario</p>
+	 * <p>Description: Evicts the metric of an attribute that returned null, then collects a value through the same cached plan.
+	 * Loaded by the isolated class loader.</p> 
+	 */
+	public static class PlanScenario implements Callable<Void> {
+		@Override
+		public Void call() throws Exception {
+			final Controller controller = Controller.getInstance();
+			final MetricRegistry registry = MetricRegistry.getInstance();
+			final ChronicleController chronicle = ChronicleController.getInstance();
+			try {
+				final MBeanServer server = MBeanServerFactory.newMBeanServer();
+				final ObjectName on = new ObjectName("generation.test:type=Plan");
+				final Toggle source = new Toggle();
+				server.registerMBean(source, on);
+				final MBeanCollector collector = new MBeanCollector(server, null, 1);
+				collector.addRule(new CollectionRule(on, MetricType.AVG));
+				collector.resolve();
+				Assert.assertEquals(1, collector.collect());
+				final int first = controller.getMetricHandle(on, "Value", MetricType.AVG);
+				source.value = null;
+				long now = System.currentTimeMillis();
+				registry.reset(++now);
+				Assert.assertEquals(0, collector.collect());
+				registry.reset(++now);
+				final MetricRegistry.Eviction evicted = registry.evictIdle();
+				Assert.assertNotNull(evicted);
+				for(int i = 0; i < evicted.size(); i++) {
+					ObjectNameIndex.getInstance().remove(evicted.getHandle(i));
+				}
+				Assert.assertFalse(registry.isCurrent(first));
+				
+				source.value = 42L;
+				final long dropped = registry.getDroppedValues();
+				Assert.assertEquals(1, collector.collect());
+				Assert.assertEquals("Value submitted to the evicted handle", dropped, registry.getDroppedValues());
+				final int second = controller.getMetricHandle(on, "Value", MetricType.AVG);
+				Assert.assertTrue(second!=first);
+				Assert.assertTrue(registry.isCurrent(second));
+				Assert.assertEquals(1, registry.getMetric(second).getCount());
+				Assert.assertEquals(42, registry.getMetric(second).getMaximum());
+			} finally {
+				chronicle.close();
+				final File dir = new File(chronicle.getChroniclePath()).getParentFile();
+				final String name = new File(chronicle.getChroniclePath()).getName();
+				for(File f: dir.listFiles()) {
+					if(f.getName().startsWith(name)) f.delete();
+				}
+			}
+			return null;
+		}
+	}
+	
+	/**
+	 * <p>Title: Toggle</p>
+	 * <p>Description: A dynamic MBean with one long attribute whose value can be set to null</p> 
+	 */
+	public static class Toggle implements DynamicMBean {
+		/** The attribute value */
+		volatile Long value = 5L;
+		
+		public Object getAttribute(String name) {
+			return value;
+		}
+		
+		public AttributeList getAttributes(String[] names) {
+			final AttributeList list = new AttributeList(names.length);
+			for(String name: names) {
+				list.add(new Attribute(name, value));
+			}
+			return list;
+		}
+		
+		public MBeanInfo getMBeanInfo() {
+			return new MBeanInfo(getClass().getName(), "A toggled value", new MBeanAttributeInfo[]{new MBeanAttributeInfo("Value", Long.class.getName(), "The value", true, false, false)},
+				new MBeanConstructorInfo[0], new MBeanOperationInfo[0], new MBeanNotificationInfo[0]);
+		}
+		
+		public void setAttribute(Attribute attribute) {
+			throw new UnsupportedOperationException();
+		}
+		
+		public AttributeList setAttributes(AttributeList attributes) {
+			return new AttributeList();
+		}
+		
+		public Object invoke(String actionName, Object[] params, String[] signature) {
+			throw new UnsupportedOperationException();
+		}
+	}
+	
+	/**
+	 * <p>Title: IsolatingClassLoader</p>
+	 * <p>Description: Loads jmxstats classes itself rather than from its parent, so their static state is private to the test</p> 
+	 */
+	static class IsolatingClassLoader extends URLClassLoader {
+		IsolatingClassLoader(URL[] urls, ClassLoader parent) {
+			super(urls, parent);
+		}
+		
+		@Override
+		protected synchronized Class<?> loadClass(String name, boolean resolve) throws ClassNotFoundException {
+			if(!name.startsWith("org.helios.jmxstats.") && !name.startsWith("test.org.helios.jmxstats.")) return super.loadClass(name, resolve);
+			Class<?> c = findLoadedClass(name);
+			if(c==null) c = findClass(name);
+			if(resolve) resolveClass(c);
+			return c;
+		}
+	}
+}
@@ -0,0 +1,263 @@
+/**
+ * Helios, OpenSource Monitoring
+ * Brought to you by the Helios Development Group
+ *
+ * Copyright 2007, Helios Development Group and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org. 
+ *
+ */
+package test.org.helios.jmxstats;
+
+import static test.org.helios.jmxstats.AllocationAssert.assertAllocationFree;
+
+import java.io.File;
+
+import javax.management.ObjectName;
+
+import org.helios.jmxstats.core.ChronicleController;
+import org.helios.jmxstats.core.Controller.SystemClock;
+import org.helios.jmxstats.core.metric.IntervalSnapshot;
+import org.helios.jmxstats.core.metric.MetricRegistry;
+import org.helios.jmxstats.core.metric.MetricType;
+import org.helios.jmxstats.core.name.NameTrie;
+import org.helios.jmxstats.core.name.ObjectNameIndex;
+import org.junit.AfterClass;
+import org.junit.Assert;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+/**
+ * <p>Title: HotPathAllocationTest</p>
+ * <p>Description: Allocation regression tests for the hot paths declared allocation free: ingest, lookup, timing and snapshot reads.
+ * A test fails when its path starts allocating, e.g. by boxing, wrapping a name or creating a result object per call.</p> 
+ * <p>Company: Helios Development Group LLC</p>
+ * @author Whitehead (nwhitehead AT heliosdev DOT org)
+ * <p><code>test.org.helios.jmxstats.HotPathAllocationTest</code></p>
+ */
+public class HotPathAllocationTest {
+	/** The number of metrics registered per type */
+	public static final int METRICS = 64;
+	/** The metric registry */
+	private static MetricRegistry registry;
+	/** The metric names by type ordinal then index */
+	private static String[][] names;
+	/** The metric handles by type ordinal then index */
+	private static int[][] handles;
+	/** A standalone chronicle controller on a temporary directory */
+	private static ChronicleController chronicle;
+	/** The temporary chronicle directory */
+	private static File chronicleDir;
+	/** The ObjectNames registered through the ObjectName index */
+	private static ObjectName[] objectNames;
+	/** A closed interval snapshot */
+	private static IntervalSnapshot snapshot;
+	/** Keeps read values live */
+	private static volatile long sink = 0;
+	
+	/**
+	 * Registers the metrics and names the tests look up
+	 * @throws Exception thrown on any error
+	 */
+	@BeforeClass
+	public static void setUp() throws Exception {
+		registry = MetricRegistry.getInstance();
+		final MetricType[] types = MetricType.values();
+		names = new String[types.length][METRICS];
+		handles = new int[types.length][METRICS];
+		for(MetricType type: types) {
+			for(int i = 0; i < METRICS; i++) {
+				names[type.ordinal()][i] = "test.alloc." + type.name().toLowerCase() + ".metric" + i;
+				handles[type.ordinal()][i] = registry.getHandle(names[type.ordinal()][i], type);
+			}
+		}
+		chronicleDir = new File(System.getProperty("java.io.tmpdir"), "jmxstats-alloc-" + System.nanoTime());
+		chronicle = ChronicleController.open(chronicleDir, "alloc", 20);
+		for(int i = 0; i < METRICS; i++) {
+			chronicle.registerMetricName(names[0][i]);
+		}
+		objectNames = new ObjectName[METRICS];
+		for(int i = 0; i < METRICS; i++) {
+			objectNames[i] = new ObjectName("test.alloc:type=Pool,name=pool" + i);
+			ObjectNameIndex.getInstance().getHandle(objectNames[i], "Size", MetricType.AVG);
+		}
+		for(int[] hs: handles) {
+			for(int h: hs) {
+				registry.process(h, 1);
+			}
+		}
+		snapshot = registry.reset(System.currentTimeMillis());
+	}
+	
+	/**
+	 * Closes and deletes the temporary chronicle
+	 */
+	@AfterClass
+	public static void tearDown() {
+		if(chronicle!=null) chronicle.close();
+		if(chronicleDir!=null && chronicleDir.listFiles()!=null) {
+			for(File f: chronicleDir.listFiles()) {
+				f.delete();
+			}
+			chronicleDir.delete();
+		}
+	}
+	
+	/**
+	 * Single value ingest by handle, for every metric type
+	 */
+	@Test
+	public void testProcess() {
+		for(MetricType type: MetricType.values()) {
+			final int[] hs = handles[type.ordinal()];
+			assertAllocationFree("process " + type, new AllocationAssert.Operation() {
+				public void run(int iteration) {
+					registry.process(hs[iteration & (METRICS-1)], iteration);
+				}
+			});
+		}
+	}
+	
+	/**
+	 * Array ingest for one metric
+	 */
+	@Test
+	public void testProcessArray() {
+		final long[] values = new long[16];
+		final int handle = handles[MetricType.AVG.ordinal()][0];
+		assertAllocationFree("process array", new AllocationAssert.Operation() {
+			public void run(int iteration) {
+				values[iteration & 15] = iteration;
+				registry.getMetric(handle).process(values, 0, values.length);
+			}
+		});
+	}
+	
+	/**
+	 * Multi metric batch ingest, including the unsorted batch path which sorts in per thread scratch arrays
+	 */
+	@Test
+	public void testProcessBatch() {
+		final int[] batchHandles = new int[METRICS];
+		final long[] values = new long[METRICS];
+		for(int i = 0; i < METRICS; i++) {
+			batchHandles[i] = handles[MetricType.AVG.ordinal()][METRICS - 1 - i];
+		}
+		assertAllocationFree("process batch", new AllocationAssert.Operation() {
+			public void run(int iteration) {
+				values[iteration & (METRICS-1)] = iteration;
+				registry.process(batchHandles, values, 0, METRICS);
+			}
+		});
+	}
+	
+	/**
+	 * Thread local ingest
+	 */
+	@Test
+	public void testProcessLocal() {
+		final int[] hs = handles[MetricType.AVG.ordinal()];
+		assertAllocationFree("processLocal", new AllocationAssert.Operation() {
+			public void run(int iteration) {
+				registry.processLocal(hs[iteration & (METRICS-1)], iteration);
+			}
+		});
+	}
+	
+	/**
+	 * Handle lookup by name
+	 */
+	@Test
+	public void testHandleLookup() {
+		final String[] ns = names[MetricType.AVG.ordinal()];
+		assertAllocationFree("getHandle", new AllocationAssert.Operation() {
+			public void run(int iteration) {
+				sink += registry.getHandle(ns[iteration & (METRICS-1)]);
+			}
+		});
+	}
+	
+	/**
+	 * Handle lookup by ObjectName and attribute
+	 */
+	@Test
+	public void testObjectNameLookup() {
+		final ObjectNameIndex index = ObjectNameIndex.getInstance();
+		assertAllocationFree("ObjectNameIndex.getHandle", new AllocationAssert.Operation() {
+			public void run(int iteration) {
+				sink += index.getHandle(objectNames[iteration & (METRICS-1)], "Size");
+			}
+		});
+	}
+	
+	/**
+	 * Chronicle name index lookups and existence checks, for registered and unregistered names
+	 */
+	@Test
+	public void testNameIndexLookup() {
+		final String[] ns = names[0];
+		Assert.assertTrue(chronicle.getMetricNameIndex(ns[0], NameTrie.NO_VALUE)!=NameTrie.NO_VALUE);
+		assertAllocationFree("getMetricNameIndex", new AllocationAssert.Operation() {
+			public void run(int iteration) {
+				sink += chronicle.getMetricNameIndex(ns[iteration & (METRICS-1)], NameTrie.NO_VALUE);
+			}
+		});
+		assertAllocationFree("isMetricCreated", new AllocationAssert.Operation() {
+			public void run(int iteration) {
+				if(chronicle.isMetricCreated(ns[iteration & (METRICS-1)])) sink++;
+				if(chronicle.isMetricCreated("test.alloc.missing")) sink++;
+			}
+		});
+	}
+	
+	/**
+	 * Elapsed timing
+	 */
+	@Test
+	public void testTimer() {
+		SystemClock.startTimer();
+		assertAllocationFree("startTimer/elapsedTimer", new AllocationAssert.Operation() {
+			public void run(int iteration) {
+				SystemClock.startTimer();
+				sink += SystemClock.elapsedTimer();
+			}
+		});
+		assertAllocationFree("time", new AllocationAssert.Operation() {
+			public void run(int iteration) {
+				sink += SystemClock.time();
+			}
+		});
+	}
+	
+	/**
+	 * Closed interval snapshot reads
+	 */
+	@Test
+	public void testSnapshotReads() {
+		final int size = snapshot.size();
+		assertAllocationFree("IntervalSnapshot reads", new AllocationAssert.Operation() {
+			public void run(int iteration) {
+				final int h = iteration % size;
+				final IntervalSnapshot s = registry.getClosedInterval();
+				if(s.getType(h)!=null) {
+					sink += s.getCount(h) + s.getTotal(h) + s.getAverage(h) + s.getMinimum(h) + s.getMaximum(h) + (long)s.getSampleRate(h);
+				}
+			}
+		});
+	}
+}
@@ -0,0 +1,133 @@
+/**
+ * Helios, OpenSource Monitoring
+ * Brought to you by the Helios Development Group
+ *
+ * Copyright 2007, Helios Development Group and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org. 
+ *
+ */
+package test.org.helios.jmxstats;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.helios.jmxstats.core.ingest.IngestPipeline;
+import org.helios.jmxstats.core.ingest.WaitStrategy;
+import org.helios.jmxstats.core.metric.IntervalSnapshot;
+import org.helios.jmxstats.core.metric.MetricRegistry;
+import org.helios.jmxstats.core.metric.MetricType;
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * <p>Title: IngestPipelineTest</p>
+ * <p>Description: Tests that the ring buffer ingest pipeline applies every record exactly once across ring wraparound and drains at interval resets</p> 
+ * <p>Company: Helios Development Group LLC</p>
+ * @author Whitehead (nwhitehead AT heliosdev DOT org)
+ * <p><code>test.org.helios.jmxstats.IngestPipelineTest</code></p>
+ */
+public class IngestPipelineTest {
+	/** The ring size, small so every ring wraps many times */
+	public static final int RING_SIZE = 16;
+	/** The number of producer threads */
+	public static final int PRODUCERS = 3;
+	/** The number of values each producer submits */
+	public static final int VALUES = 100000;
+	/** The maximum number of trials, since a trial interrupted by the system clock's own interval switch is repeated */
+	public static final int TRIALS = 5;
+	
+	/**
+	 * Tests that a drain applies every record published before it, including records that wrapped the ring
+	 * @throws Exception thrown on any error
+	 */
+	@Test
+	public void testDrainAppliesPublished() throws Exception {
+		final MetricRegistry registry = MetricRegistry.getInstance();
+		final IngestPipeline pipeline = new IngestPipeline(registry, 2, RING_SIZE, WaitStrategy.YIELD);
+		try {
+			for(int trial = 0; trial < TRIALS; trial++) {
+				final int handle = registry.getHandle("test.ingest.drain" + trial, MetricType.AVG);
+				final long resetsBefore = registry.getResetCount();
+				for(int i = 0; i < VALUES; i++) {
+					pipeline.submit(handle, i);
+				}
+				Assert.assertTrue("Drain timed out", pipeline.drain(10, TimeUnit.SECONDS));
+				final long count = registry.getMetric(handle).getCount();
+				if(registry.getResetCount()!=resetsBefore) continue;
+				Assert.assertEquals(VALUES, count);
+				return;
+			}
+			Assert.fail("Every trial was interrupted by an interval switch");
+		} finally {
+			pipeline.shutdown();
+		}
+	}
+	
+	/**
+	 * Tests that records from several producers are applied exactly once while the test thread drains and resets repeatedly,
+	 * as the interval switch does
+	 * @throws Exception thrown on any error
+	 */
+	@Test
+	public void testWraparoundAcrossResets() throws Exception {
+		final MetricRegistry registry = MetricRegistry.getInstance();
+		final IngestPipeline pipeline = new IngestPipeline(registry, 2, RING_SIZE, WaitStrategy.YIELD);
+		try {
+			for(int trial = 0; trial < TRIALS; trial++) {
+				final int handle = registry.getHandle("test.ingest.wrap" + trial, MetricType.AVG);
+				final CountDownLatch done = new CountDownLatch(PRODUCERS);
+				for(int p = 0; p < PRODUCERS; p++) {
+					final Thread producer = new Thread("IngestTestProducer#" + p) {
+						public void run() {
+							try {
+								for(int i = 1; i <= VALUES; i++) {
+									pipeline.submit(handle, i);
+								}
+							} finally {
+								done.countDown();
+							}
+						}
+					};
+					producer.setDaemon(true);
+					producer.start();
+				}
+				final long resetsBefore = registry.getResetCount();
+				long count = 0, total = 0, resets = 0;
+				long time = System.currentTimeMillis();
+				boolean finished = false;
+				while(!finished) {
+					finished = done.await(1, TimeUnit.MILLISECONDS);
+					Assert.assertTrue("Drain timed out", pipeline.drain(10, TimeUnit.SECONDS));
+					final IntervalSnapshot closed = registry.reset(++time);
+					resets++;
+					count += closed.getCount(handle);
+					total += closed.getTotal(handle);
+				}
+				if(registry.getResetCount() - resetsBefore != resets) continue;
+				Assert.assertEquals("Closed counts", (long)PRODUCERS * VALUES, count);
+				Assert.assertEquals("Closed totals", (long)PRODUCERS * VALUES * (VALUES + 1) / 2, total);
+				Assert.assertEquals(0, pipeline.getPendingCount());
+				return;
+			}
+			Assert.fail("Every trial was interrupted by an interval switch");
+		} finally {
+			pipeline.shutdown();
+		}
+	}
+}
@@ -0,0 +1,160 @@
+/**
+ * Helios, OpenSource Monitoring
+ * Brought to you by the Helios Development Group
+ *
+ * Copyright 2007, Helios Development Group and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org. 
+ *
+ */
+package test.org.helios.jmxstats;
+
+import java.io.File;
+import java.lang.reflect.Field;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.util.concurrent.Callable;
+
+import org.helios.jmxstats.core.ChronicleController;
+import org.helios.jmxstats.core.ChronicleController.PointVisitor;
+import org.helios.jmxstats.core.Controller;
+import org.helios.jmxstats.core.Controller.SystemClock;
+import org.helios.jmxstats.core.metric.MetricType;
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * <p>Title: IntervalPersistenceTest</p>
+ * <p>Description: Tests that the intervals closed by real interval switches are written to the chronicle. The system clock reads its
+ * interval once, so the scenario runs against controller classes loaded by an isolated class loader with a short interval and a chronicle
+ * of its own.</p> 
+ * <p>Company: Helios Development Group LLC</p>
+ * @author Whitehead (nwhitehead AT heliosdev DOT org)
+ * <p><code>test.org.helios.jmxstats.IntervalPersistenceTest</code></p>
+ */
+public class IntervalPersistenceTest {
+	/** The interval used by the isolated controller in ms. */
+	public static final String ISOLATED_INTERVAL = "300";
+	/** The number of switches to wait for */
+	public static final int SWITCHES = 3;
+	/** The maximum time to wait for the switches in ms. */
+	public static final long TIMEOUT = 20000;
+	
+	/**
+	 * Runs the persistence scenario against isolated controller classes
+	 * @throws Exception thrown on any error
+	 */
+	@Test
+	public void testSwitchWritesInterval() throws Exception {
+		final String priorInterval = System.getProperty(SystemClock.INTERVAL_PROP);
+		final String priorName = System.getProperty(ChronicleController.CHRONICLE_PROP);
+		System.setProperty(SystemClock.INTERVAL_PROP, ISOLATED_INTERVAL);
+		System.setProperty(ChronicleController.CHRONICLE_PROP, "persisttest" + System.nanoTime());
+		try {
+			final ClassLoader isolated = new IsolatingClassLoader(new URL[]{
+				Controller.class.getProtectionDomain().getCodeSource().getLocation(),
+				IntervalPersistenceTest.class.getProtectionDomain().getCodeSource().getLocation()
+			}, IntervalPersistenceTest.class.getClassLoader());
+			final Class<?> scenario = Class.forName(Scenario.class.getName(), true, isolated);
+			Assert.assertNotSame(Scenario.class, scenario);
+			((Callable<?>)scenario.newInstance()).call();
+		} finally {
+			restore(SystemClock.INTERVAL_PROP, priorInterval);
+			restore(ChronicleController.CHRONICLE_PROP, priorName);
+		}
+	}
+	
+	private static void restore(String key, String value) {
+		if(value==null) System.clearProperty(key);
+		else System.setProperty(key, value);
+	}
+	
+	/**
+	 * <p>Title: Scenario</p>
+	 * <p>Description: Records values across several switches and reads them back from the chronicle. Loaded by the isolated class loader.</p> 
+	 */
+	public static class Scenario implements Callable<Void> {
+		@Override
+		public Void call() throws Exception {
+			Assert.assertEquals(Long.parseLong(ISOLATED_INTERVAL), SystemClock.getInterval());
+			final Controller controller = Controller.getInstance();
+			final ChronicleController chronicle = ChronicleController.getInstance();
+			try {
+				final int active = controller.getMetricHandle("persist.test.latency", MetricType.AVG);
+				controller.getMetricHandle("persist.test.idle", MetricType.AVG);
+				final long deadline = System.currentTimeMillis() + TIMEOUT;
+				while(chronicle.getIntervalCount()<SWITCHES && System.currentTimeMillis()<deadline) {
+					controller.process(active, 10);
+					controller.process(active, 30);
+					Thread.sleep(20);
+				}
+				Assert.assertTrue("Switches did not write intervals", chronicle.getIntervalCount()>=SWITCHES);
+				Assert.assertEquals(0, controller.getIntervalWriteFailures());
+				final long[] points = new long[1];
+				final int read = chronicle.readSeries(chronicle.getMetricNameIndex("persist.test.latency"), 0, Long.MAX_VALUE, new PointVisitor() {
+					public void point(long nameIndex, long startTime, long endTime, long count, long average, long minimum, long maximum, double sampleRate) {
+						Assert.assertTrue(count>0);
+						Assert.assertTrue(minimum>=10 && maximum<=30);
+						Assert.assertTrue(average>=10 && average<=30);
+						Assert.assertEquals(startTime + Long.parseLong(ISOLATED_INTERVAL) - 1, endTime);
+						points[0]++;
+					}
+				});
+				Assert.assertTrue(read>=SWITCHES - 1);
+				Assert.assertEquals(read, points[0]);
+				Assert.assertEquals(0, chronicle.readSeries(chronicle.getMetricNameIndex("persist.test.idle"), 0, Long.MAX_VALUE, new PointVisitor() {
+					public void point(long nameIndex, long startTime, long endTime, long count, long average, long minimum, long maximum, double sampleRate) {
+						Assert.fail("Idle metric written");
+					}
+				}));
+			} finally {
+				// park the isolated interval thread, let its pending switch complete, then release the chronicle
+				final Field interval = SystemClock.class.getDeclaredField("INTERVAL");
+				interval.setAccessible(true);
+				interval.setLong(null, Long.parseLong(HandleGenerationTest.ISOLATED_INTERVAL));
+				Thread.sleep(Long.parseLong(ISOLATED_INTERVAL) * 3);
+				chronicle.close();
+				final File dir = new File(chronicle.getChroniclePath()).getParentFile();
+				final String name = new File(chronicle.getChroniclePath()).getName();
+				for(File f: dir.listFiles()) {
+					if(f.getName().startsWith(name)) f.delete();
+				}
+			}
+			return null;
+		}
+	}
+	
+	/**
+	 * <p>Title: IsolatingClassLoader</p>
+	 * <p>Description: Loads jmxstats classes itself rather than from its parent, so their static state is private to the test</p> 
+	 */
+	private static class IsolatingClassLoader extends URLClassLoader {
+		IsolatingClassLoader(URL[] urls, ClassLoader parent) {
+			super(urls, parent);
+		}
+		
+		@Override
+		protected synchronized Class<?> loadClass(String name, boolean resolve) throws ClassNotFoundException {
+			if(!name.startsWith("org.helios.jmxstats.") && !name.startsWith("test.org.helios.jmxstats.")) return super.loadClass(name, resolve);
+			Class<?> c = findLoadedClass(name);
+			if(c==null) c = findClass(name);
+			if(resolve) resolveClass(c);
+			return c;
+		}
+	}
+}
@@ -0,0 +1,155 @@
+/**
+ * Helios, OpenSource Monitoring
+ * Brought to you by the Helios Development Group
+ *
+ * Copyright 2007, Helios Development Group and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org. 
+ *
+ */
+package test.org.helios.jmxstats;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.regex.Pattern;
+
+import org.helios.jmxstats.core.metric.MetricRegistry;
+import org.helios.jmxstats.core.name.InvertedIndex;
+import org.helios.jmxstats.core.name.MetricKey;
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * <p>Title: InvertedIndexTest</p>
+ * <p>Description: Tests {@link InvertedIndex} pattern queries against a scan of the indexed names, across postings long enough
+ * to be answered through skip entries and with names removed between queries, singly and in batches</p> 
+ * <p>Company: Helios Development Group LLC</p>
+ * @author Whitehead (nwhitehead AT heliosdev DOT org)
+ * <p><code>test.org.helios.jmxstats.InvertedIndexTest</code></p>
+ */
+public class InvertedIndexTest {
+	/** The number of indexed names */
+	public static final int NAMES = 20000;
+	/** The first handle used, clear of handles the registry hands out to other tests */
+	public static final int BASE_HANDLE = 100000;
+	
+	/** A root segment unique to this run, so the singleton index holds no other matches */
+	private final String root = "iitest" + System.nanoTime();
+	
+	/**
+	 * Tests exact, whole segment and partial wildcard queries against a scan, before and after removing names
+	 */
+	@Test
+	public void testFindMatchesScan() {
+		final InvertedIndex index = InvertedIndex.getInstance();
+		final Random random = new Random(7);
+		final String[] names = new String[NAMES];
+		for(int i = 0; i < NAMES; i++) {
+			names[i] = root + ".host" + random.nextInt(50) + ".svc" + random.nextInt(300) + (random.nextInt(8)==0 ? ".errors" : ".latency");
+			index.index(BASE_HANDLE + i, names[i]);
+		}
+		final String[] patterns = {
+			root + ".host7.svc12.latency",
+			root + ".*.svc12.latency",
+			root + ".host1*.*.errors",
+			root + ".*.*.errors",
+			root + ".*.svc2?.*",
+			root + ".host3.*.*",
+			root + ".*.*.*",
+			root + ".host999.*.*",
+			root + ".*.*"
+		};
+		check(index, names, 0, patterns);
+		for(int i = 0; i < NAMES; i += 3) {
+			index.remove(BASE_HANDLE + i, names[i]);
+			names[i] = null;
+		}
+		check(index, names, 0, patterns);
+	}
+	
+	/**
+	 * Tests that a batch removal, as done for the metrics evicted at one interval switch, leaves the same postings as a scan expects,
+	 * and that recycled handles carrying the next slot generation are indexed in order after the remaining first generation handles
+	 */
+	@Test
+	public void testBatchRemove() {
+		final InvertedIndex index = InvertedIndex.getInstance();
+		final String batchRoot = root + "b";
+		final String[] names = new String[NAMES];
+		for(int i = 0; i < NAMES; i++) {
+			names[i] = batchRoot + ".host" + (i % 40) + ".svc" + (i % 7) + ".latency";
+			index.index(BASE_HANDLE + NAMES + i, names[i]);
+		}
+		final int count = NAMES / 2;
+		final int[] handles = new int[count];
+		final String[] removed = new String[count];
+		for(int i = 0; i < count; i++) {
+			handles[i] = BASE_HANDLE + NAMES + i*2;
+			removed[i] = names[i*2];
+			names[i*2] = null;
+		}
+		index.remove(handles, removed, new MetricKey[count], count);
+		final String[] patterns = {batchRoot + ".*.*.*", batchRoot + ".host3.*.latency", batchRoot + ".*.svc4.*"};
+		check(index, names, NAMES, patterns);
+		for(int i = 0; i < count; i += 2) {
+			final int recycled = handles[i] + (1 << MetricRegistry.SLOT_BITS);
+			index.index(recycled, removed[i]);
+			Assert.assertTrue(index.isIndexed(recycled));
+		}
+		final int[] all = index.find(batchRoot + ".*.*.*");
+		Assert.assertEquals(NAMES - count + (count + 1) / 2, all.length);
+		for(int i = 1; i < all.length; i++) {
+			Assert.assertTrue(all[i-1]<all[i]);
+		}
+		Assert.assertEquals(handles[0] + (1 << MetricRegistry.SLOT_BITS), all[NAMES - count]);
+	}
+	
+	/**
+	 * Compares each pattern's matches with a scan of the indexed names
+	 * @param index The index
+	 * @param names The names indexed at each handle offset, null where removed
+	 * @param offset The offset of the first name's handle from {@link #BASE_HANDLE}
+	 * @param patterns The patterns to query
+	 */
+	private static void check(InvertedIndex index, String[] names, int offset, String[] patterns) {
+		for(String pattern: patterns) {
+			final Pattern regex = Pattern.compile(pattern.replace(".", "\\.").replace("*", "[^.]*").replace("?", "[^.]"));
+			final List<Integer> expected = new ArrayList<Integer>();
+			for(int i = 0; i < names.length; i++) {
+				if(names[i]!=null && regex.matcher(names[i]).matches()) expected.add(BASE_HANDLE + offset + i);
+			}
+			final int[] actual = index.find(pattern);
+			final int[] exp = new int[expected.size()];
+			for(int i = 0; i < exp.length; i++) {
+				exp[i] = expected.get(i);
+			}
+			log(pattern + ": " + exp.length);
+			Assert.assertTrue("Mismatch for [" + pattern + "]", Arrays.equals(exp, actual));
+		}
+	}
+	
+	/**
+	 * Out printer
+	 * @param msg The message to print
+	 */
+	public static void log(Object msg) {
+		System.out.println(msg);
+	}
+}
@@ -0,0 +1,138 @@
+/**
+ * Helios, OpenSource Monitoring
+ * Brought to you by the Helios Development Group
+ *
+ * Copyright 2007, Helios Development Group and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org. 
+ *
+ */
+package test.org.helios.jmxstats;
+
+import java.util.concurrent.CountDownLatch;
+
+import org.helios.jmxstats.core.metric.IntervalSnapshot;
+import org.helios.jmxstats.core.metric.MetricRegistry;
+import org.helios.jmxstats.core.metric.MetricType;
+import org.helios.jmxstats.core.metric.SamplingPolicy;
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * <p>Title: LocalHarvestTest</p>
+ * <p>Description: Tests that values recorded thread locally by several threads across many forced interval resets are harvested exactly once</p> 
+ * <p>Company: Helios Development Group LLC</p>
+ * @author Whitehead (nwhitehead AT heliosdev DOT org)
+ * <p><code>test.org.helios.jmxstats.LocalHarvestTest</code></p>
+ */
+public class LocalHarvestTest {
+	/** The number of recording threads */
+	public static final int THREADS = 4;
+	/** The number of values each thread records per metric */
+	public static final int VALUES = 200000;
+	/** The number of values between yields of a recording thread, so resets interleave with recording on few cores */
+	public static final int YIELD_EVERY = 256;
+	/** The minimum number of resets a trial must span */
+	public static final int MIN_RESETS = 20;
+	/** The maximum number of trials, since a trial interrupted by the system clock's own interval switch is repeated */
+	public static final int TRIALS = 5;
+	
+	/**
+	 * Records values from several threads while the test thread forces resets, and asserts the summed closed counts and totals are exact
+	 * @throws Exception thrown on any error
+	 */
+	@Test
+	public void testHarvestIsExact() throws Exception {
+		final MetricRegistry registry = MetricRegistry.getInstance();
+		for(int trial = 0; trial < TRIALS; trial++) {
+			final int avg = registry.getHandle("test.harvest.avg" + trial, MetricType.AVG);
+			final int counter = registry.getHandle("test.harvest.counter" + trial, MetricType.INTERVALCOUNT);
+			final CountDownLatch start = new CountDownLatch(1);
+			final CountDownLatch done = new CountDownLatch(THREADS);
+			for(int t = 0; t < THREADS; t++) {
+				final Thread thread = new Thread("HarvestTestRecorder#" + t) {
+					public void run() {
+						try {
+							start.await();
+							for(int i = 1; i <= VALUES; i++) {
+								registry.processLocal(avg, i);
+								registry.processLocal(counter, 1);
+								if(i % YIELD_EVERY==0) Thread.yield();
+							}
+						} catch (InterruptedException e) {
+							Thread.currentThread().interrupt();
+						} finally {
+							done.countDown();
+						}
+					}
+				};
+				thread.setDaemon(true);
+				thread.start();
+			}
+			final long resetsBefore = registry.getResetCount();
+			long count = 0, total = 0, counted = 0, resets = 0;
+			long time = System.currentTimeMillis();
+			start.countDown();
+			while(done.getCount()>0) {
+				final IntervalSnapshot closed = registry.reset(++time);
+				resets++;
+				count += closed.getCount(avg);
+				total += closed.getTotal(avg);
+				counted += closed.getCount(counter);
+			}
+			final IntervalSnapshot closed = registry.reset(++time);
+			resets++;
+			count += closed.getCount(avg);
+			total += closed.getTotal(avg);
+			counted += closed.getCount(counter);
+			if(registry.getResetCount() - resetsBefore != resets) {
+				log("Trial [" + trial + "] was interrupted by an interval switch. Retrying.");
+				continue;
+			}
+			log("Harvested [" + count + "] values across [" + resets + "] resets");
+			Assert.assertTrue("Too few resets to exercise the harvest [" + resets + "]", resets>=MIN_RESETS);
+			Assert.assertEquals("Closed counts", (long)THREADS * VALUES, count);
+			Assert.assertEquals("Closed totals", (long)THREADS * VALUES * (VALUES + 1) / 2, total);
+			Assert.assertEquals("Closed counter", (long)THREADS * VALUES, counted);
+			return;
+		}
+		Assert.fail("Every trial was interrupted by an interval switch");
+	}
+	
+	/**
+	 * Tests that sampled metrics are rejected, since thread local values would bypass sampling and skew the sampled average
+	 */
+	@Test
+	public void testSampledMetricRejected() {
+		final MetricRegistry registry = MetricRegistry.getInstance();
+		final int sampled = registry.getHandle("test.harvest.sampled", MetricType.AVG, SamplingPolicy.everyNth(100));
+		try {
+			registry.processLocal(sampled, 10);
+			Assert.fail("Sampled metric was recorded thread locally");
+		} catch (IllegalArgumentException expected) {
+		}
+	}
+	
+	/**
+	 * Console logger
+	 * @param msg The message to log
+	 */
+	public static void log(Object msg) {
+		System.out.println(msg);
+	}
+}
@@ -0,0 +1,178 @@
+/**
+ * Helios, OpenSource Monitoring
+ * Brought to you by the Helios Development Group
+ *
+ * Copyright 2007, Helios Development Group and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org. 
+ *
+ */
+package test.org.helios.jmxstats;
+
+import javax.management.Attribute;
+import javax.management.AttributeList;
+import javax.management.DynamicMBean;
+import javax.management.MBeanAttributeInfo;
+import javax.management.MBeanConstructorInfo;
+import javax.management.MBeanInfo;
+import javax.management.MBeanNotificationInfo;
+import javax.management.MBeanOperationInfo;
+import javax.management.MBeanServer;
+import javax.management.MBeanServerFactory;
+import javax.management.ObjectName;
+import javax.management.openmbean.CompositeData;
+import javax.management.openmbean.CompositeDataSupport;
+import javax.management.openmbean.CompositeType;
+import javax.management.openmbean.OpenType;
+import javax.management.openmbean.SimpleType;
+
+import org.helios.jmxstats.core.jmx.CollectionRule;
+import org.helios.jmxstats.core.jmx.MBeanCollector;
+import org.helios.jmxstats.core.metric.MetricType;
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * <p>Title: MBeanCollectorTest</p>
+ * <p>Description: Tests collection of 50k attributes from a private MBeanServer within the collection budget, with attributes whose
+ * values stop matching their classification after the first poll</p> 
+ * <p>Company: Helios Development Group LLC</p>
+ * @author Whitehead (nwhitehead AT heliosdev DOT org)
+ * <p><code>test.org.helios.jmxstats.MBeanCollectorTest</code></p>
+ */
+public class MBeanCollectorTest {
+	/** The number of MBeans */
+	public static final int MBEANS = 500;
+	/** The number of numeric attributes per MBean */
+	public static final int ATTRIBUTES = 100;
+	/** The index of the numeric attribute that returns a string after the first poll */
+	public static final int FLIPPED = 7;
+	/** The maximum time of one steady state collection in ms. */
+	public static final long BUDGET_MS = 1000;
+	
+	/** The composite type of the usage attribute */
+	private static final CompositeType USAGE_TYPE;
+	/** The composite type the usage attribute changes to after the first poll, with the same item names but a string item */
+	private static final CompositeType CHANGED_TYPE;
+	
+	static {
+		try {
+			USAGE_TYPE = new CompositeType("Usage", "A usage", new String[]{"used", "max"}, new String[]{"used", "max"}, new OpenType<?>[]{SimpleType.LONG, SimpleType.LONG});
+			CHANGED_TYPE = new CompositeType("Usage", "A usage", new String[]{"used", "max"}, new String[]{"used", "max"}, new OpenType<?>[]{SimpleType.STRING, SimpleType.LONG});
+		} catch (Exception e) {
+			throw new RuntimeException(e);
+		}
+	}
+	
+	/**
+	 * Collects the MBeans repeatedly, checking the flipped attributes are dropped without affecting the rest, and that
+	 * steady state collections fit the budget
+	 * @throws Exception thrown on any error
+	 */
+	@Test
+	public void testCollectWithinBudget() throws Exception {
+		final MBeanServer server = MBeanServerFactory.newMBeanServer();
+		for(int i = 0; i < MBEANS; i++) {
+			server.registerMBean(new Source(), new ObjectName("test.collector:type=Source,name=s" + i));
+		}
+		final MBeanCollector collector = new MBeanCollector(server, null, 1);
+		collector.addRule(new CollectionRule(new ObjectName("test.collector:type=Source,*"), MetricType.AVG));
+		collector.resolve();
+		Assert.assertEquals(MBEANS, collector.getPlannedMBeanCount());
+		Assert.assertEquals(MBEANS * (ATTRIBUTES + 1), collector.getPlannedAttributeCount());
+		// numeric attributes plus both usage items
+		Assert.assertEquals(MBEANS * (ATTRIBUTES + 2), collector.collect());
+		// the flipped attribute and the changed usage are ignored from here on
+		final int steady = MBEANS * (ATTRIBUTES - 1);
+		Assert.assertEquals(steady, collector.collect());
+		long best = Long.MAX_VALUE;
+		for(int i = 0; i < 5; i++) {
+			Assert.assertEquals(steady, collector.collect());
+			best = Math.min(best, collector.getLastCollectNanos());
+		}
+		log("Collected [" + steady + "] attributes in [" + best/1000000 + "] ms");
+		Assert.assertEquals(0, collector.getFailures());
+		Assert.assertTrue("Collection took [" + best/1000000 + "] ms", best/1000000 < BUDGET_MS);
+	}
+	
+	/**
+	 * Out printer
+	 * @param msg The message to print
+	 */
+	public static void log(Object msg) {
+		System.out.println(msg);
+	}
+	
+	/**
+	 * <p>Title: Source</p>
+	 * <p>Description: A dynamic MBean with numeric attributes and a usage composite, one numeric attribute and the composite changing
+	 * type after the first read</p> 
+	 */
+	public static class Source implements DynamicMBean {
+		/** The number of reads */
+		private int reads = 0;
+		
+		public AttributeList getAttributes(String[] names) {
+			final AttributeList list = new AttributeList(names.length);
+			for(String name: names) {
+				list.add(new Attribute(name, value(name)));
+			}
+			reads++;
+			return list;
+		}
+		
+		public Object getAttribute(String name) {
+			return value(name);
+		}
+		
+		private Object value(String name) {
+			try {
+				if("Usage".equals(name)) {
+					return reads==0 ? new CompositeDataSupport(USAGE_TYPE, new String[]{"used", "max"}, new Object[]{10L, 100L})
+						: (CompositeData)new CompositeDataSupport(CHANGED_TYPE, new String[]{"used", "max"}, new Object[]{"ten", 100L});
+				}
+				final int index = Integer.parseInt(name.substring(1));
+				if(index==FLIPPED && reads>0) return "n/a";
+				return Long.valueOf(index + reads);
+			} catch (Exception e) {
+				throw new RuntimeException(e);
+			}
+		}
+		
+		public MBeanInfo getMBeanInfo() {
+			final MBeanAttributeInfo[] infos = new MBeanAttributeInfo[ATTRIBUTES + 1];
+			for(int i = 0; i < ATTRIBUTES; i++) {
+				infos[i] = new MBeanAttributeInfo("a" + i, i==FLIPPED ? Number.class.getName() : Long.class.getName(), "A value", true, false, false);
+			}
+			infos[ATTRIBUTES] = new MBeanAttributeInfo("Usage", CompositeData.class.getName(), "A usage", true, false, false);
+			return new MBeanInfo(getClass().getName(), "A test source", infos, new MBeanConstructorInfo[0], new MBeanOperationInfo[0], new MBeanNotificationInfo[0]);
+		}
+		
+		public void setAttribute(Attribute attribute) {
+			throw new UnsupportedOperationException();
+		}
+		
+		public AttributeList setAttributes(AttributeList attributes) {
+			return new AttributeList();
+		}
+		
+		public Object invoke(String actionName, Object[] params, String[] signature) {
+			throw new UnsupportedOperationException();
+		}
+	}
+}
@@ -0,0 +1,102 @@
+/**
+ * Helios, OpenSource Monitoring
+ * Brought to you by the Helios Development Group
+ *
+ * Copyright 2007, Helios Development Group and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org. 
+ *
+ */
+package test.org.helios.jmxstats;
+
+import javax.management.MBeanInfo;
+import javax.management.MBeanServer;
+import javax.management.MBeanServerFactory;
+import javax.management.ObjectName;
+import javax.management.openmbean.CompositeData;
+
+import org.helios.jmxstats.core.jmx.MetricFacade;
+import org.helios.jmxstats.core.jmx.MetricFacade.Source;
+import org.helios.jmxstats.core.metric.MetricRegistry;
+import org.helios.jmxstats.core.metric.MetricType;
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * <p>Title: MetricFacadeTest</p>
+ * <p>Description: Tests that a metric facade's view only changes with its own prefix's membership, that it exposes a bounded
+ * number of metrics, and that prefixes too large for one facade are split by segment</p> 
+ * <p>Company: Helios Development Group LLC</p>
+ * @author Whitehead (nwhitehead AT heliosdev DOT org)
+ * <p><code>test.org.helios.jmxstats.MetricFacadeTest</code></p>
+ */
+public class MetricFacadeTest {
+	/** A root segment unique to this run */
+	private final String root = "mftest" + System.nanoTime();
+	
+	/**
+	 * Tests that registering metrics outside the prefix does not rebuild the view, and registering one inside does
+	 * @throws Exception thrown on any error
+	 */
+	@Test
+	public void testViewTracksPrefixMembership() throws Exception {
+		final MetricRegistry registry = MetricRegistry.getInstance();
+		final MBeanServer server = MBeanServerFactory.newMBeanServer();
+		final ObjectName on = MetricFacade.register(server, root + ".app.", Source.CURRENT);
+		Assert.assertEquals(0, server.getMBeanInfo(on).getAttributes().length);
+		final int handle = registry.getHandle(root + ".app.latency", MetricType.AVG);
+		registry.process(handle, 42);
+		final MBeanInfo info = server.getMBeanInfo(on);
+		Assert.assertEquals(1, info.getAttributes().length);
+		Assert.assertEquals(root + ".app.latency", info.getAttributes()[0].getName());
+		Assert.assertEquals(42L, ((CompositeData)server.getAttribute(on, root + ".app.latency")).get("maximum"));
+		final int version = registry.getVersion();
+		registry.getHandle(root + ".other.latency", MetricType.AVG);
+		Assert.assertTrue(registry.getVersion()!=version);
+		Assert.assertSame("View rebuilt for a metric outside the prefix", info, server.getMBeanInfo(on));
+		server.unregisterMBean(on);
+	}
+	
+	/**
+	 * Tests that a facade exposes at most {@link MetricFacade#MAX_ATTRIBUTES} metrics, and that registering prefixes splits
+	 * the oversized prefix by segment and unregisters its facade
+	 * @throws Exception thrown on any error
+	 */
+	@Test
+	public void testBoundedAndSplitPrefixes() throws Exception {
+		final MetricRegistry registry = MetricRegistry.getInstance();
+		final MBeanServer server = MBeanServerFactory.newMBeanServer();
+		final int hosts = 30, perHost = MetricFacade.MAX_ATTRIBUTES / 20;
+		for(int h = 0; h < hosts; h++) {
+			for(int m = 0; m < perHost; m++) {
+				registry.getHandle(root + ".big.host" + h + ".m" + m, MetricType.AVG);
+			}
+		}
+		final ObjectName wide = MetricFacade.register(server, root + ".", Source.CURRENT);
+		Assert.assertEquals(MetricFacade.MAX_ATTRIBUTES, server.getMBeanInfo(wide).getAttributes().length);
+		Assert.assertTrue(MetricFacade.registerPrefixes(server, Source.CURRENT)>=hosts);
+		Assert.assertFalse("Split prefix still registered", server.isRegistered(wide));
+		Assert.assertFalse(server.isRegistered(MetricFacade.objectName(root + ".big.")));
+		for(int h = 0; h < hosts; h++) {
+			final ObjectName on = MetricFacade.objectName(root + ".big.host" + h + ".");
+			Assert.assertTrue(server.isRegistered(on));
+			Assert.assertEquals(perHost, server.getMBeanInfo(on).getAttributes().length);
+		}
+		Assert.assertEquals(0, MetricFacade.registerPrefixes(server, Source.CURRENT));
+	}
+}
@@ -0,0 +1,160 @@
+/**
+ * Helios, OpenSource Monitoring
+ * Brought to you by the Helios Development Group
+ *
+ * Copyright 2007, Helios Development Group and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org. 
+ *
+ */
+package test.org.helios.jmxstats;
+
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.helios.jmxstats.core.name.NameTrie;
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * <p>Title: NameTrieTest</p>
+ * <p>Description: Tests lock free {@link NameTrie} lookups and prefix scans against a concurrent writer growing the trie from a small capacity</p> 
+ * <p>Company: Helios Development Group LLC</p>
+ * @author Whitehead (nwhitehead AT heliosdev DOT org)
+ * <p><code>test.org.helios.jmxstats.NameTrieTest</code></p>
+ */
+public class NameTrieTest {
+	/** The number of hosts in the generated names */
+	public static final int HOSTS = 20;
+	/** The number of names per host */
+	public static final int PER_HOST = 1500;
+	/** The number of reader threads */
+	public static final int READERS = 3;
+	
+	/** The generated names, in insertion order */
+	private final String[] names = new String[HOSTS * PER_HOST];
+	/** The number of names the writer has inserted */
+	private volatile int published = 0;
+	/** The first failure seen by a reader */
+	private final AtomicReference<String> failure = new AtomicReference<String>(null);
+	
+	/**
+	 * Generates interleaved names sharing long prefixes, so inserts add segments and nodes under existing parents
+	 */
+	private void generateNames() {
+		for(int i = 0; i < names.length; i++) {
+			final int host = i % HOSTS, n = i / HOSTS;
+			names[i] = "app.host" + host + ":type=Service,name=svc" + (n % 37) + "/metric" + n;
+		}
+	}
+	
+	/**
+	 * Tests single name operations against the serial semantics
+	 */
+	@Test
+	public void testBasics() {
+		final NameTrie trie = new NameTrie(16);
+		Assert.assertEquals(NameTrie.NO_VALUE, trie.get("a.b"));
+		final int id = trie.put("a.b:c=d", 5);
+		trie.put("a.b:c=e", 6);
+		trie.put("a.bb", 7);
+		Assert.assertEquals(5, trie.get("a.b:c=d"));
+		Assert.assertEquals("a.b:c=d", trie.getName(id));
+		Assert.assertEquals(3, trie.size());
+		Assert.assertEquals(2, trie.findByPrefix("a.b").length);
+		Assert.assertEquals(5, trie.remove("a.b:c=d"));
+		Assert.assertEquals(NameTrie.NO_VALUE, trie.get("a.b:c=d"));
+		Assert.assertEquals(2, trie.size());
+	}
+	
+	/**
+	 * Tests that names inserted before a lookup or prefix scan starts are always found while the trie grows concurrently
+	 * @throws Exception thrown on any error
+	 */
+	@Test
+	public void testConcurrentGrowth() throws Exception {
+		generateNames();
+		final NameTrie trie = new NameTrie(16);
+		final Thread[] readers = new Thread[READERS];
+		for(int r = 0; r < READERS; r++) {
+			final int seed = r;
+			readers[r] = new Thread("NameTrieReader#" + r) {
+				public void run() {
+					final Random random = new Random(seed);
+					long scans = 0;
+					while(failure.get()==null) {
+						final int p = published;
+						if(p>0) {
+							final int i = random.nextInt(p);
+							final long value = trie.get(names[i]);
+							if(value!=i) fail("get [" + names[i] + "] returned [" + value + "] with [" + p + "] published");
+							final int id = trie.getId(names[i]);
+							if(!names[i].equals(trie.getName(id))) fail("getName [" + id + "] returned [" + trie.getName(id) + "] for [" + names[i] + "]");
+							if((++scans & 63)==0) checkScan(trie, random.nextInt(HOSTS), p);
+						}
+						if(p==names.length) break;
+					}
+				}
+			};
+			readers[r].setDaemon(true);
+			readers[r].start();
+		}
+		for(int i = 0; i < names.length; i++) {
+			trie.put(names[i], i);
+			published = i+1;
+			if((i & 255)==0) Thread.yield();
+		}
+		for(Thread reader: readers) {
+			reader.join(60000);
+		}
+		Assert.assertNull(failure.get(), failure.get());
+		Assert.assertEquals(names.length, trie.size());
+		checkScan(trie, 0, names.length);
+		Assert.assertNull(failure.get(), failure.get());
+	}
+	
+	/**
+	 * Checks that a prefix scan of a host finds every name of the host that was published before the scan started
+	 * @param trie The trie
+	 * @param host The host to scan
+	 * @param p The number of names published before the scan
+	 */
+	private void checkScan(NameTrie trie, int host, int p) {
+		final int[] ids = trie.findByPrefix("app.host" + host);
+		final String[] found = new String[ids.length];
+		for(int i = 0; i < ids.length; i++) {
+			found[i] = trie.getName(ids[i]);
+		}
+		Arrays.sort(found);
+		for(int i = host; i < p; i += HOSTS) {
+			if(Arrays.binarySearch(found, names[i])<0) {
+				fail("findByPrefix [app.host" + host + "] missed [" + names[i] + "] with [" + p + "] published");
+				return;
+			}
+		}
+	}
+	
+	/**
+	 * Records the first reader failure
+	 * @param msg The failure message
+	 */
+	private void fail(String msg) {
+		failure.compareAndSet(null, msg);
+	}
+}
@@ -0,0 +1,111 @@
+/**
+ * Helios, OpenSource Monitoring
+ * Brought to you by the Helios Development Group
+ *
+ * Copyright 2007, Helios Development Group and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org. 
+ *
+ */
+package test.org.helios.jmxstats;
+
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+
+import javax.management.MBeanServer;
+import javax.management.MBeanServerFactory;
+import javax.management.NotificationBroadcasterSupport;
+import javax.management.ObjectName;
+
+import org.helios.jmxstats.core.Controller;
+import org.helios.jmxstats.core.jmx.GCNotificationHandler;
+import org.helios.jmxstats.core.jmx.NotificationCollector;
+import org.helios.jmxstats.core.metric.MetricRegistry;
+import org.helios.jmxstats.core.metric.MetricType;
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * <p>Title: NotificationCollectorTest</p>
+ * <p>Description: Tests that the metrics fed by notification subscriptions are pinned, since a subscription holds its handles
+ * for its whole life while its MBean may emit nothing for many intervals</p> 
+ * <p>Company: Helios Development Group LLC</p>
+ * @author Whitehead (nwhitehead AT heliosdev DOT org)
+ * <p><code>test.org.helios.jmxstats.NotificationCollectorTest</code></p>
+ */
+public class NotificationCollectorTest {
+	
+	/**
+	 * <p>Title: EmitterMBean</p>
+	 * <p>Description: The management interface of a test notification emitter</p> 
+	 */
+	public interface EmitterMBean {
+		/** @return the emitted notification count */
+		public int getEmitted();
+	}
+	
+	/**
+	 * <p>Title: Emitter</p>
+	 * <p>Description: A test notification emitter</p> 
+	 */
+	public static class Emitter extends NotificationBroadcasterSupport implements EmitterMBean {
+		public int getEmitted() {
+			return 0;
+		}
+	}
+	
+	/**
+	 * Tests that the pause time and reclaimed bytes metrics of every subscribed garbage collector are pinned
+	 * @throws Exception thrown on any error
+	 */
+	@Test
+	public void testGarbageCollectorHandlesPinned() throws Exception {
+		final NotificationCollector collector = new NotificationCollector();
+		try {
+			Assert.assertTrue(collector.subscribeGarbageCollectors()>0);
+			for(GarbageCollectorMXBean gc: ManagementFactory.getGarbageCollectorMXBeans()) {
+				final ObjectName on = gc.getObjectName();
+				for(String attribute: new String[]{GCNotificationHandler.PAUSE_TIME, GCNotificationHandler.RECLAIMED}) {
+					final int handle = Controller.getInstance().getMetricHandle(on, attribute, MetricType.AVG);
+					Assert.assertTrue("[" + on + "] " + attribute + " was not pinned", MetricRegistry.getInstance().isPinned(handle));
+				}
+			}
+		} finally {
+			collector.close();
+		}
+	}
+	
+	/**
+	 * Tests that the metric of a value subscription is pinned
+	 * @throws Exception thrown on any error
+	 */
+	@Test
+	public void testValueHandlePinned() throws Exception {
+		final MBeanServer server = MBeanServerFactory.newMBeanServer();
+		final ObjectName on = new ObjectName("test.notification:type=Emitter");
+		server.registerMBean(new Emitter(), on);
+		final NotificationCollector collector = new NotificationCollector(server);
+		try {
+			collector.subscribeValues(on, "test.emitted", MetricType.INTERVALCOUNT);
+			final int handle = Controller.getInstance().getMetricHandle(on, "test.emitted", MetricType.INTERVALCOUNT);
+			Assert.assertTrue(MetricRegistry.getInstance().isPinned(handle));
+		} finally {
+			collector.close();
+		}
+	}
+}
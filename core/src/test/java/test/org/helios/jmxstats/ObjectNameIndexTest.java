@@ -0,0 +1,230 @@
+/**
+ * Helios, OpenSource Monitoring
+ * Brought to you by the Helios Development Group
+ *
+ * Copyright 2007, Helios Development Group and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org. 
+ *
+ */
+package test.org.helios.jmxstats;
+
+import java.util.Arrays;
+
+import javax.management.ObjectName;
+
+import org.helios.jmxstats.core.Controller;
+import org.helios.jmxstats.core.metric.MetricRegistry;
+import org.helios.jmxstats.core.metric.MetricType;
+import org.helios.jmxstats.core.name.InvertedIndex;
+import org.helios.jmxstats.core.name.MetricKey;
+import org.helios.jmxstats.core.name.ObjectNameIndex;
+import org.helios.jmxstats.core.name.TokenTable;
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * <p>Title: ObjectNameIndexTest</p>
+ * <p>Description: Tests that ObjectName keyed metrics resolve to one handle regardless of key property order, that their keys
+ * round trip to the domain, key properties and attribute, that they are found by ObjectName pattern, and that removal drops them</p> 
+ * <p>Company: Helios Development Group LLC</p>
+ * @author Whitehead (nwhitehead AT heliosdev DOT org)
+ * <p><code>test.org.helios.jmxstats.ObjectNameIndexTest</code></p>
+ */
+public class ObjectNameIndexTest {
+	/** A domain unique to this run, so the singleton index holds no other metrics in it */
+	private final String domain = "onitest" + System.nanoTime();
+	
+	/**
+	 * Tests that equivalent ObjectNames with differently ordered key properties resolve to the same handle, and distinct attributes to distinct handles
+	 * @throws Exception thrown on any error
+	 */
+	@Test
+	public void testPropertyOrderIgnored() throws Exception {
+		final ObjectNameIndex index = ObjectNameIndex.getInstance();
+		final ObjectName a = new ObjectName(domain + ":type=MemoryPool,name=Eden Space,gen=young");
+		final ObjectName b = new ObjectName(domain + ":gen=young,name=Eden Space,type=MemoryPool");
+		Assert.assertNotSame(a, b);
+		Assert.assertEquals(-1, index.getHandle(a, "Used"));
+		final int used = index.getHandle(a, "Used", MetricType.AVG);
+		Assert.assertEquals(used, index.getHandle(b, "Used", MetricType.AVG));
+		Assert.assertEquals(used, index.getHandle(b, "Used"));
+		Assert.assertEquals(used, index.getHandle(new ObjectName(b.getCanonicalName()), "Used"));
+		final int max = index.getHandle(b, "Max", MetricType.AVG);
+		Assert.assertTrue(max!=used);
+		Assert.assertEquals(max, index.getHandle(a, "Max"));
+		Assert.assertEquals(-1, index.getHandle(a, "Committed"));
+		Assert.assertEquals(-1, index.getHandle(new ObjectName(domain + ":type=MemoryPool,name=Eden Space"), "Used"));
+		try {
+			index.getHandle(new ObjectName(domain + ":type=MemoryPool,*"), "Used", MetricType.AVG);
+			Assert.fail("Pattern was accepted");
+		} catch (IllegalArgumentException expected) {
+		}
+	}
+	
+	/**
+	 * Tests that a metric key round trips to the domain, key properties and attribute, and renders the registered metric name
+	 * @throws Exception thrown on any error
+	 */
+	@Test
+	public void testKeyRoundTrip() throws Exception {
+		final ObjectNameIndex index = ObjectNameIndex.getInstance();
+		final TokenTable tokens = index.getTokenTable();
+		final ObjectName on = new ObjectName(domain + ":type=Threading,host=app-01");
+		final int handle = index.getHandle(on, "ThreadCount", MetricType.AVG);
+		final MetricKey key = index.getKey(handle);
+		Assert.assertNotNull(key);
+		Assert.assertEquals(domain, tokens.getString(key.getDomain()));
+		Assert.assertEquals("ThreadCount", tokens.getString(key.getAttribute()));
+		Assert.assertEquals(2, key.getPropertyCount());
+		Assert.assertEquals("Threading", tokens.getString(key.getValueFor(tokens.get("type"))));
+		Assert.assertEquals("app-01", tokens.getString(key.getValueFor(tokens.get("host"))));
+		Assert.assertEquals(-1, key.getValueFor(tokens.get("ThreadCount")));
+		final String name = key.toName(tokens);
+		Assert.assertEquals(domain + ":host=app-01,type=Threading/ThreadCount", name);
+		Assert.assertEquals(name, MetricRegistry.getInstance().getMetric(handle).getName());
+		Assert.assertEquals(on, new ObjectName(name.substring(0, name.lastIndexOf('/'))));
+	}
+	
+	/**
+	 * Tests that ObjectName keyed metrics registered through the controller are found by ObjectName and attribute patterns
+	 * @throws Exception thrown on any error
+	 */
+	@Test
+	public void testPatternLookup() throws Exception {
+		final Controller controller = Controller.getInstance();
+		final int eden = controller.getMetricHandle(new ObjectName(domain + ":type=MemoryPool,name=Eden"), "Used", MetricType.AVG);
+		final int survivor = controller.getMetricHandle(new ObjectName(domain + ":type=MemoryPool,name=Survivor"), "Used", MetricType.AVG);
+		final int edenPeak = controller.getMetricHandle(new ObjectName(domain + ":type=MemoryPool,name=Eden"), "PeakUsed", MetricType.AVG);
+		final int young = controller.getMetricHandle(new ObjectName(domain + ":type=GarbageCollector,name=Young"), "CollectionCount", MetricType.DELTA);
+		Assert.assertArrayEquals(sorted(eden, survivor), controller.findMetrics(new ObjectName(domain + ":type=MemoryPool,*"), "Used"));
+		Assert.assertArrayEquals(sorted(eden, survivor, edenPeak), controller.findMetrics(new ObjectName(domain + ":type=MemoryPool,*"), null));
+		Assert.assertArrayEquals(sorted(eden, edenPeak), controller.findMetrics(new ObjectName(domain + ":type=MemoryPool,name=Eden"), "*"));
+		Assert.assertArrayEquals(sorted(eden, survivor, edenPeak), controller.findMetrics(new ObjectName(domain + ":type=MemoryPool,name=*"), "*Used"));
+		Assert.assertArrayEquals(sorted(young), controller.findMetrics(new ObjectName(domain + ":name=Y*,*"), null));
+		Assert.assertArrayEquals(sorted(eden, survivor, edenPeak, young), controller.findMetrics(new ObjectName(domain + ":*"), null));
+		Assert.assertEquals(0, controller.findMetrics(new ObjectName(domain + ":type=MemoryPool"), null).length);
+		Assert.assertEquals(0, controller.findMetrics(new ObjectName(domain + ":type=Nothing,*"), null).length);
+	}
+	
+	/**
+	 * Tests that removing a metric drops its handle and key, and drops the ObjectName once its last attribute is removed
+	 * @throws Exception thrown on any error
+	 */
+	@Test
+	public void testRemove() throws Exception {
+		final ObjectNameIndex index = ObjectNameIndex.getInstance();
+		final ObjectName on = new ObjectName(domain + ":type=Removed");
+		final int objectNames = index.getObjectNameCount();
+		final int a = index.getHandle(on, "A", MetricType.AVG);
+		final int b = index.getHandle(on, "B", MetricType.AVG);
+		Assert.assertEquals(objectNames + 1, index.getObjectNameCount());
+		final MetricKey key = index.remove(a);
+		Assert.assertNotNull(key);
+		Assert.assertEquals(-1, index.getHandle(on, "A"));
+		Assert.assertNull(index.getKey(a));
+		Assert.assertNull(index.remove(a));
+		Assert.assertEquals(b, index.getHandle(on, "B"));
+		Assert.assertEquals(objectNames + 1, index.getObjectNameCount());
+		Assert.assertNotNull(index.remove(b));
+		Assert.assertEquals(objectNames, index.getObjectNameCount());
+		Assert.assertEquals(-1, index.getHandle(on, "B"));
+	}
+	
+	/**
+	 * Tests that the tokens of removed ObjectNames, such as unique session ids, are unmapped and reused rather than growing the token table
+	 * @throws Exception thrown on any error
+	 */
+	@Test
+	public void testTokensReclaimed() throws Exception {
+		final ObjectNameIndex index = ObjectNameIndex.getInstance();
+		final TokenTable tokens = index.getTokenTable();
+		final int sessions = 500;
+		tokens.recycle();
+		final int[] handles = register(index, domain + "a", sessions);
+		for(int i = 0; i < sessions; i++) {
+			Assert.assertTrue(tokens.get(domain + "a" + i)>=0);
+			Assert.assertNotNull(index.remove(handles[i]));
+			Assert.assertEquals(-1, tokens.get(domain + "a" + i));
+		}
+		Assert.assertEquals(-1, tokens.get(domain));
+		final int allocated = tokens.getAllocated();
+		tokens.recycle();
+		final int[] reused = register(index, domain + "b", sessions);
+		// other tests sharing the table may intern concurrently, so only check the released tokens were reused
+		Assert.assertTrue(tokens.getAllocated() < allocated + sessions);
+		final MetricKey key = index.getKey(reused[7]);
+		Assert.assertEquals(domain + "b7", tokens.getString(key.getValueFor(tokens.get("session"))));
+		Assert.assertEquals(domain + ":session=" + domain + "b7,type=Session/LastAccessed", key.toName(tokens));
+		for(int i = 0; i < sessions; i++) {
+			Assert.assertNotNull(index.remove(reused[i]));
+			Assert.assertEquals(-1, tokens.get(domain + "b" + i));
+		}
+	}
+	
+	/**
+	 * Tests that the segment tokens of dotted names removed from the inverted index are unmapped
+	 * @throws Exception thrown on any error
+	 */
+	@Test
+	public void testSegmentTokensReleased() throws Exception {
+		final TokenTable tokens = ObjectNameIndex.getInstance().getTokenTable();
+		final InvertedIndex inverted = InvertedIndex.getInstance();
+		final MetricRegistry registry = MetricRegistry.getInstance();
+		final String s1 = domain + "s1", s2 = domain + "s2";
+		final String a = domain + ".session." + s1 + ".requests", b = domain + ".session." + s2 + ".requests";
+		final int ha = registry.getHandle(a, MetricType.DELTA), hb = registry.getHandle(b, MetricType.DELTA);
+		inverted.index(ha, a);
+		inverted.index(hb, b);
+		Assert.assertArrayEquals(sorted(ha, hb), inverted.find(domain + ".session.*.requests"));
+		inverted.remove(ha, a);
+		Assert.assertEquals(-1, tokens.get(s1));
+		Assert.assertTrue(tokens.get(domain)>=0);
+		Assert.assertArrayEquals(sorted(hb), inverted.find(domain + ".session.*.requests"));
+		inverted.remove(new int[]{hb}, new String[]{b}, new MetricKey[1], 1);
+		Assert.assertEquals(-1, tokens.get(s2));
+		Assert.assertEquals(-1, tokens.get(domain));
+		Assert.assertEquals(0, inverted.find(domain + ".session.*.requests").length);
+	}
+	
+	/**
+	 * Registers a metric for each of a number of sessions with unique ids
+	 * @param index The ObjectName index
+	 * @param prefix The session id prefix
+	 * @param sessions The number of sessions
+	 * @return the metric handles
+	 * @throws Exception thrown on any error
+	 */
+	private int[] register(ObjectNameIndex index, String prefix, int sessions) throws Exception {
+		final int[] handles = new int[sessions];
+		for(int i = 0; i < sessions; i++) {
+			handles[i] = index.getHandle(new ObjectName(domain + ":type=Session,session=" + prefix + i), "LastAccessed", MetricType.AVG);
+		}
+		return handles;
+	}
+	
+	/**
+	 * Sorts the passed handles
+	 * @param handles The handles
+	 * @return the sorted handles
+	 */
+	private static int[] sorted(int... handles) {
+		Arrays.sort(handles);
+		return handles;
+	}
+}
@@ -0,0 +1,199 @@
+/**
+ * Helios, OpenSource Monitoring
+ * Brought to you by the Helios Development Group
+ *
+ * Copyright 2007, Helios Development Group and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org. 
+ *
+ */
+package test.org.helios.jmxstats;
+
+import java.io.File;
+import java.util.List;
+
+import org.helios.jmxstats.core.ChronicleController;
+import org.helios.jmxstats.core.metric.IntervalSnapshot;
+import org.helios.jmxstats.core.metric.MetricType;
+import org.helios.jmxstats.core.query.AggregationEngine;
+import org.helios.jmxstats.core.query.AggregationQuery;
+import org.helios.jmxstats.core.query.GroupResult;
+import org.helios.jmxstats.core.query.QueryCache;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * <p>Title: QueryCacheTest</p>
+ * <p>Description: Tests that cached query results are extended with newly stored intervals and match a full execution</p> 
+ * <p>Company: Helios Development Group LLC</p>
+ * @author Whitehead (nwhitehead AT heliosdev DOT org)
+ * <p><code>test.org.helios.jmxstats.QueryCacheTest</code></p>
+ */
+public class QueryCacheTest {
+	/** The number of app instances */
+	public static final int INSTANCES = 10;
+	/** The number of endpoints per instance */
+	public static final int ENDPOINTS = 3;
+	/** The interval length in ms. */
+	public static final long INTERVAL = 15000;
+	/** The bucket size in ms. */
+	public static final long BUCKET = 4 * INTERVAL;
+	/** The first interval start time, which is aligned to the bucket size */
+	public static final long FIRST_START = 1350000000000L / BUCKET * BUCKET;
+	/** The temporary chronicle */
+	private ChronicleController chronicle;
+	/** The temporary chronicle directory */
+	private File chronicleDir;
+	/** The engine */
+	private AggregationEngine engine;
+	/** The cache */
+	private QueryCache cache;
+	/** The chronicle name indexes of the series */
+	private long[] nameIndexes;
+	/** The number of stored intervals */
+	private int intervals = 0;
+	
+	/**
+	 * Creates the chronicle, engine and cache
+	 * @throws Exception thrown on any error
+	 */
+	@Before
+	public void setUp() throws Exception {
+		chronicleDir = new File(System.getProperty("java.io.tmpdir"), "jmxstats-qcache-" + System.nanoTime());
+		chronicle = ChronicleController.open(chronicleDir, "qcache", 20);
+		nameIndexes = new long[INSTANCES * ENDPOINTS];
+		for(int i = 0; i < INSTANCES; i++) {
+			for(int e = 0; e < ENDPOINTS; e++) {
+				nameIndexes[i * ENDPOINTS + e] = chronicle.registerMetricName("app.instance" + i + ".endpoint" + e + ".requests");
+			}
+		}
+		engine = new AggregationEngine(chronicle, 2);
+		cache = new QueryCache(engine, 2);
+	}
+	
+	/**
+	 * Shuts down the cache and engine and deletes the temporary chronicle
+	 */
+	@After
+	public void tearDown() {
+		if(cache!=null) cache.shutdown();
+		if(engine!=null) engine.shutdown();
+		if(chronicle!=null) chronicle.close();
+		if(chronicleDir!=null && chronicleDir.listFiles()!=null) {
+			for(File f: chronicleDir.listFiles()) {
+				f.delete();
+			}
+			chronicleDir.delete();
+		}
+	}
+	
+	/**
+	 * Stores the next interval
+	 */
+	private void closeInterval() {
+		final long start = FIRST_START + intervals * INTERVAL;
+		final IntervalSnapshot snapshot = new IntervalSnapshot(start, start + INTERVAL - 1, nameIndexes.length);
+		for(int h = 0; h < nameIndexes.length; h++) {
+			final long avg = (h + 1) * (intervals + 1);
+			snapshot.set(h, MetricType.AVG, 1 + h % 3, avg * (1 + h % 3), avg, avg - h % 5, avg + h % 7);
+		}
+		chronicle.writeInterval(snapshot, nameIndexes);
+		intervals++;
+	}
+	
+	/**
+	 * Returns a sliding window query ending at the latest stored interval
+	 * @param windowIntervals The window length in intervals
+	 * @return the query
+	 */
+	private AggregationQuery window(int windowIntervals) {
+		final long to = FIRST_START + (intervals - 1) * INTERVAL;
+		return new AggregationQuery("app.*.*.requests", to - (windowIntervals - 1) * INTERVAL, to, BUCKET, true, 2);
+	}
+	
+	/**
+	 * Asserts that the cached results of the passed query match a full execution of the bucket aligned query
+	 * @param query The query
+	 */
+	private void assertMatchesEngine(AggregationQuery query) {
+		final List<GroupResult> cached = cache.execute(query);
+		final long from = query.getFromTime() / BUCKET * BUCKET;
+		final List<GroupResult> expected = engine.execute(new AggregationQuery(query.getPattern(), from, query.getToTime(), BUCKET, true, query.getGroupBy()));
+		Assert.assertEquals(expected.size(), cached.size());
+		for(int g = 0; g < expected.size(); g++) {
+			final GroupResult e = expected.get(g), c = cached.get(g);
+			Assert.assertEquals(e.getKey(), c.getKey());
+			Assert.assertEquals(e.getSeriesCount(), c.getSeriesCount());
+			Assert.assertEquals(e.getBucketCount(), c.getBucketCount());
+			for(int b = 0; b < e.getBucketCount(); b++) {
+				Assert.assertEquals(e.getBucketTime(b), c.getBucketTime(b));
+				Assert.assertEquals(e.getSeries(b), c.getSeries(b));
+				Assert.assertEquals(e.getCount(b), c.getCount(b));
+				Assert.assertEquals(e.getSum(b), c.getSum(b));
+				Assert.assertEquals(e.getTotal(b), c.getTotal(b));
+				Assert.assertEquals(e.getMinimum(b), c.getMinimum(b));
+				Assert.assertEquals(e.getMaximum(b), c.getMaximum(b));
+				Assert.assertEquals(e.getPercentile(b, 90), c.getPercentile(b, 90));
+			}
+		}
+	}
+	
+	/**
+	 * Tests a sliding window refreshed as intervals close
+	 */
+	@Test
+	public void testSlidingWindow() {
+		for(int i = 0; i < 10; i++) {
+			closeInterval();
+		}
+		assertMatchesEngine(window(8));
+		Assert.assertEquals(1, cache.getMisses());
+		assertMatchesEngine(window(8));
+		Assert.assertEquals(1, cache.getHits());
+		final long computed = cache.getBucketsComputed();
+		for(int i = 0; i < 9; i++) {
+			closeInterval();
+			assertMatchesEngine(window(8));
+			// the partial last bucket and at most one new bucket are recomputed
+			Assert.assertTrue(cache.getBucketsComputed() - computed <= 2 * (i + 1));
+		}
+		Assert.assertEquals(9, cache.getExtensions());
+		Assert.assertEquals(1, cache.getMisses());
+	}
+	
+	/**
+	 * Tests that a window extending before the cached range is recomputed and that entries are evicted beyond the maximum
+	 */
+	@Test
+	public void testWiderWindowAndEviction() {
+		for(int i = 0; i < 12; i++) {
+			closeInterval();
+		}
+		assertMatchesEngine(window(4));
+		assertMatchesEngine(window(12));
+		Assert.assertEquals(2, cache.getMisses());
+		assertMatchesEngine(window(4));
+		Assert.assertEquals(1, cache.getHits());
+		final long to = FIRST_START + (intervals - 1) * INTERVAL;
+		cache.execute(new AggregationQuery("app.*.*.requests", FIRST_START, to, BUCKET, false, 1));
+		cache.execute(new AggregationQuery("app.*.*.requests", FIRST_START, to, INTERVAL, false, 1));
+		Assert.assertTrue(cache.getSize()<=2);
+	}
+}
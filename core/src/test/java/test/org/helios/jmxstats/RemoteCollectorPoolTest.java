@@ -0,0 +1,221 @@
+/**
+ * Helios, OpenSource Monitoring
+ * Brought to you by the Helios Development Group
+ *
+ * Copyright 2007, Helios Development Group and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org. 
+ *
+ */
+package test.org.helios.jmxstats;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import javax.management.MBeanServer;
+import javax.management.MBeanServerFactory;
+import javax.management.ObjectName;
+import javax.management.remote.JMXConnectorServer;
+import javax.management.remote.JMXConnectorServerFactory;
+import javax.management.remote.JMXServiceURL;
+
+import org.helios.jmxstats.core.jmx.CollectionRule;
+import org.helios.jmxstats.core.jmx.RemoteCollectorPool;
+import org.helios.jmxstats.core.jmx.RemoteTarget;
+import org.helios.jmxstats.core.metric.MetricType;
+import org.helios.jmxstats.core.name.ObjectNameIndex;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * <p>Title: RemoteCollectorPoolTest</p>
+ * <p>Description: Tests the remote collector pool against an in-process JMX connector server on loopback</p> 
+ * <p>Company: Helios Development Group LLC</p>
+ * @author Whitehead (nwhitehead AT heliosdev DOT org)
+ * <p><code>test.org.helios.jmxstats.RemoteCollectorPoolTest</code></p>
+ */
+public class RemoteCollectorPoolTest {
+	/** The remote MBeanServer */
+	private MBeanServer server;
+	/** The loopback connector server */
+	private JMXConnectorServer connectorServer;
+	/** The pool under test */
+	private RemoteCollectorPool pool;
+	
+	/**
+	 * <p>Title: GaugeMBean</p>
+	 * <p>Description: The management interface of a test gauge</p> 
+	 */
+	public interface GaugeMBean {
+		/** @return the size */
+		public long getSize();
+		/** @return the load */
+		public int getLoad();
+		/** @return a non numeric attribute */
+		public String getLabel();
+	}
+	
+	/**
+	 * <p>Title: Gauge</p>
+	 * <p>Description: A test gauge that optionally sleeps when read</p> 
+	 */
+	public static class Gauge implements GaugeMBean {
+		/** The read delay in ms. */
+		private final long delay;
+		/**
+		 * Creates a new Gauge
+		 * @param delay The read delay in ms.
+		 */
+		public Gauge(long delay) {
+			this.delay = delay;
+		}
+		public long getSize() {
+			if(delay>0) {
+				try { Thread.sleep(delay); } catch (InterruptedException e) { /* No Op */ }
+			}
+			return 42;
+		}
+		public int getLoad() {
+			return 7;
+		}
+		public String getLabel() {
+			return "gauge";
+		}
+	}
+	
+	/**
+	 * Starts the loopback connector server and the pool
+	 * @throws Exception thrown on any error
+	 */
+	@Before
+	public void setUp() throws Exception {
+		server = MBeanServerFactory.newMBeanServer();
+		connectorServer = JMXConnectorServerFactory.newJMXConnectorServer(new JMXServiceURL("service:jmx:rmi://127.0.0.1"), null, server);
+		connectorServer.start();
+		pool = new RemoteCollectorPool(2);
+		pool.addRule(new CollectionRule(new ObjectName("test.remote:type=Gauge,*"), MetricType.AVG));
+	}
+	
+	/**
+	 * Stops the pool and the connector server
+	 * @throws Exception thrown on any error
+	 */
+	@After
+	public void tearDown() throws Exception {
+		pool.stop();
+		if(connectorServer.isActive()) connectorServer.stop();
+	}
+	
+	/**
+	 * Tests that a target's numeric attributes are collected into target qualified metrics
+	 * @throws Exception thrown on any error
+	 */
+	@Test
+	public void testCollect() throws Exception {
+		server.registerMBean(new Gauge(0), new ObjectName("test.remote:type=Gauge,name=a"));
+		server.registerMBean(new Gauge(0), new ObjectName("test.remote:type=Gauge,name=b"));
+		final RemoteTarget target = pool.addTarget("collect-target", connectorServer.getAddress(), null);
+		Assert.assertEquals(1, pool.poll(30, TimeUnit.SECONDS));
+		Assert.assertTrue(target.isConnected());
+		Assert.assertEquals(4, target.getLastCollected());
+		Assert.assertEquals(0, target.getFailures());
+		Assert.assertTrue(ObjectNameIndex.getInstance().getHandle(new ObjectName("test.remote:type=Gauge,name=a,jmxtarget=collect-target"), "Size")>=0);
+		Assert.assertEquals(1, pool.poll(30, TimeUnit.SECONDS));
+		Assert.assertEquals(2, target.getPolls());
+	}
+	
+	/**
+	 * Tests that a failed target is disconnected and backs off before reconnecting
+	 * @throws Exception thrown on any error
+	 */
+	@Test
+	public void testReconnectBackoff() throws Exception {
+		server.registerMBean(new Gauge(0), new ObjectName("test.remote:type=Gauge,name=a"));
+		final RemoteTarget target = pool.addTarget("backoff-target", connectorServer.getAddress(), null);
+		pool.poll(30, TimeUnit.SECONDS);
+		Assert.assertTrue(target.isConnected());
+		connectorServer.stop();
+		pool.poll(30, TimeUnit.SECONDS);
+		Assert.assertFalse(target.isConnected());
+		Assert.assertEquals(1, target.getFailures());
+		Assert.assertNotNull(target.getLastError());
+		pool.poll(30, TimeUnit.SECONDS);
+		Assert.assertEquals(2, target.getFailures());
+		pool.poll(30, TimeUnit.SECONDS);
+		Assert.assertEquals("Target should skip 1 interval after its 2nd consecutive failure", 2, target.getFailures());
+		pool.poll(30, TimeUnit.SECONDS);
+		Assert.assertEquals(3, target.getFailures());
+	}
+	
+	/**
+	 * Tests that a target that does not complete by the deadline is flagged and skipped while it is still being polled
+	 * @throws Exception thrown on any error
+	 */
+	@Test
+	public void testMissedDeadline() throws Exception {
+		server.registerMBean(new Gauge(0), new ObjectName("test.remote:type=Gauge,name=fast"));
+		final RemoteTarget target = pool.addTarget("slow-target", connectorServer.getAddress(), null);
+		Assert.assertEquals(1, pool.poll(30, TimeUnit.SECONDS));
+		server.registerMBean(new Gauge(1000), new ObjectName("test.remote:type=Gauge,name=slow"));
+		pool.addRule(new CollectionRule(new ObjectName("test.remote:type=Gauge,name=slow"), MetricType.AVG));
+		Assert.assertEquals(0, pool.poll(100, TimeUnit.MILLISECONDS));
+		Assert.assertEquals(0, pool.poll(100, TimeUnit.MILLISECONDS));
+		Assert.assertTrue(target.isLate());
+		Assert.assertTrue(target.getMissedDeadlines()>=1);
+		Thread.sleep(1500);
+		Assert.assertTrue(target.getMissedDeadlines()>=2);
+		Assert.assertEquals(0, target.getFailures());
+	}
+	
+	/**
+	 * Tests that a poll overrunning its deadline by the timeout is aborted, and that the released target reconnects on the next round
+	 * while the aborted worker is still blocked, without the aborted poll's outcome being recorded when it returns
+	 * @throws Exception thrown on any error
+	 */
+	@Test
+	public void testOverrunAborted() throws Exception {
+		final RemoteCollectorPool strict = new RemoteCollectorPool(2, 200);
+		try {
+			strict.addRule(new CollectionRule(new ObjectName("test.remote:type=Gauge,*"), MetricType.AVG));
+			server.registerMBean(new Gauge(0), new ObjectName("test.remote:type=Gauge,name=fast"));
+			final RemoteTarget target = strict.addTarget("hung-target", connectorServer.getAddress(), null);
+			Assert.assertEquals(1, strict.poll(30, TimeUnit.SECONDS));
+			final ObjectName hung = new ObjectName("test.remote:type=Gauge,name=hung");
+			server.registerMBean(new Gauge(3000), hung);
+			strict.addRule(new CollectionRule(hung, MetricType.AVG));
+			Assert.assertEquals(0, strict.poll(100, TimeUnit.MILLISECONDS));
+			Thread.sleep(800);
+			Assert.assertFalse(target.isConnected());
+			Assert.assertEquals(1, target.getFailures());
+			Assert.assertTrue(target.getLastError() instanceof TimeoutException);
+			server.unregisterMBean(hung);
+			final long start = System.currentTimeMillis();
+			Assert.assertEquals(1, strict.poll(30, TimeUnit.SECONDS));
+			Assert.assertTrue("Reconnect waited for the aborted poll", System.currentTimeMillis() - start < 1500);
+			Assert.assertTrue(target.isConnected());
+			Assert.assertEquals(2, target.getLastCollected());
+			Thread.sleep(3000);
+			Assert.assertTrue(target.isConnected());
+			Assert.assertEquals(1, target.getFailures());
+		} finally {
+			strict.stop();
+		}
+	}
+}
@@ -0,0 +1,191 @@
+/**
+ * Helios, OpenSource Monitoring
+ * Brought to you by the Helios Development Group
+ *
+ * Copyright 2007, Helios Development Group and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org. 
+ *
+ */
+package test.org.helios.jmxstats;
+
+import java.io.File;
+import java.util.concurrent.CountDownLatch;
+
+import org.helios.jmxstats.core.ChronicleController;
+import org.helios.jmxstats.core.ChronicleController.PointVisitor;
+import org.helios.jmxstats.core.metric.IntervalSnapshot;
+import org.helios.jmxstats.core.metric.MetricRegistry;
+import org.helios.jmxstats.core.metric.MetricType;
+import org.helios.jmxstats.core.metric.SamplingPolicy;
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * <p>Title: SampledMetricTest</p>
+ * <p>Description: Tests that sampled metrics keep exact counts across recording threads, including threads that terminate before
+ * the interval closes, that their estimates are close to the exact values, and that the sampling rate is stored with each interval</p> 
+ * <p>Company: Helios Development Group LLC</p>
+ * @author Whitehead (nwhitehead AT heliosdev DOT org)
+ * <p><code>test.org.helios.jmxstats.SampledMetricTest</code></p>
+ */
+public class SampledMetricTest {
+	/** The number of recording threads */
+	public static final int THREADS = 4;
+	/** The number of values each thread records */
+	public static final int VALUES = 200000;
+	/** The maximum number of trials, since a trial interrupted by the system clock's own interval switch is repeated */
+	public static final int TRIALS = 5;
+	
+	/**
+	 * Tests that singly and batch recorded values of terminated threads are counted exactly and the random sample estimates the average
+	 * @throws Exception thrown on any error
+	 */
+	@Test
+	public void testRandomExactCount() throws Exception {
+		final MetricRegistry registry = MetricRegistry.getInstance();
+		for(int trial = 0; trial < TRIALS; trial++) {
+			final int handle = registry.getHandle("test.sampled.random" + trial + "." + System.nanoTime(), MetricType.AVG, SamplingPolicy.random(0.02));
+			final long resetsBefore = registry.getResetCount();
+			record(registry, handle);
+			final IntervalSnapshot closed = registry.reset(System.currentTimeMillis());
+			final IntervalSnapshot next = registry.reset(System.currentTimeMillis() + 1);
+			if(registry.getResetCount() - resetsBefore != 2) continue;
+			Assert.assertEquals((long)THREADS * VALUES, closed.getCount(handle));
+			Assert.assertEquals(0.02d, closed.getSampleRate(handle), 1e-6);
+			// uniform 0..999: mean 499.5, about 16000 samples put the standard error near 2.3
+			Assert.assertEquals(499.5d, closed.getAverage(handle), 25d);
+			Assert.assertTrue(closed.getMinimum(handle)<50);
+			Assert.assertTrue(closed.getMaximum(handle)>950);
+			Assert.assertEquals("Skips counted twice", 0, next.getCount(handle));
+			return;
+		}
+		Assert.fail("Every trial was interrupted by an interval switch");
+	}
+	
+	/**
+	 * Tests that every Nth sampling keeps an exact count and that the running count of a live thread is harvested once per interval
+	 */
+	@Test
+	public void testNthExactCount() {
+		final MetricRegistry registry = MetricRegistry.getInstance();
+		for(int trial = 0; trial < TRIALS; trial++) {
+			final int handle = registry.getHandle("test.sampled.nth" + trial + "." + System.nanoTime(), MetricType.AVG, SamplingPolicy.everyNth(10));
+			final long resetsBefore = registry.getResetCount();
+			long count = 0;
+			for(int r = 0; r < 3; r++) {
+				for(int i = 0; i < VALUES; i++) {
+					registry.getMetric(handle).process(i % 1000);
+				}
+				Assert.assertEquals(VALUES, registry.getMetric(handle).getCount());
+				final IntervalSnapshot closed = registry.reset(System.currentTimeMillis() + r);
+				Assert.assertEquals(0.1d, closed.getSampleRate(handle), 1e-6);
+				Assert.assertEquals(499.5d, closed.getAverage(handle), 10d);
+				count += closed.getCount(handle);
+			}
+			if(registry.getResetCount() - resetsBefore != 3) continue;
+			Assert.assertEquals(3L * VALUES, count);
+			return;
+		}
+		Assert.fail("Every trial was interrupted by an interval switch");
+	}
+	
+	/**
+	 * Tests that the sampling rate is written with each stored point and read back, and is 1 for metrics that are not sampled
+	 */
+	@Test
+	public void testRateStored() {
+		final File dir = new File(System.getProperty("java.io.tmpdir"), "jmxstats-sampled-" + System.nanoTime());
+		final ChronicleController chronicle = ChronicleController.open(dir, "sampled", 20);
+		try {
+			final long[] nameIndexes = {chronicle.registerMetricName("sampled.fast"), chronicle.registerMetricName("sampled.exact")};
+			final IntervalSnapshot snapshot = new IntervalSnapshot(1350000000000L, 1350000014999L, 2);
+			snapshot.set(0, MetricType.AVG, 100, 5000, 50, 1, 99);
+			snapshot.setSampling(0, 9900, 0.01f);
+			snapshot.set(1, MetricType.AVG, 3, 30, 10, 9, 11);
+			chronicle.writeInterval(snapshot, nameIndexes);
+			final double[] rates = new double[2];
+			final long[] counts = new long[2];
+			Assert.assertEquals(2, chronicle.readIntervals(0, Long.MAX_VALUE, new PointVisitor() {
+				public void point(long nameIndex, long startTime, long endTime, long count, long average, long minimum, long maximum, double sampleRate) {
+					final int i = nameIndex==nameIndexes[0] ? 0 : 1;
+					rates[i] = sampleRate;
+					counts[i] = count;
+				}
+			}));
+			Assert.assertEquals(0.01d, rates[0], 1e-6);
+			Assert.assertEquals(10000, counts[0]);
+			Assert.assertEquals(1d, rates[1], 0d);
+			Assert.assertEquals(1, chronicle.readSeries(nameIndexes[0], 0, Long.MAX_VALUE, new PointVisitor() {
+				public void point(long nameIndex, long startTime, long endTime, long count, long average, long minimum, long maximum, double sampleRate) {
+					rates[0] = sampleRate;
+					Assert.assertEquals(99, maximum);
+				}
+			}));
+			Assert.assertEquals(0.01d, rates[0], 1e-6);
+		} finally {
+			chronicle.close();
+			final File[] files = dir.listFiles();
+			if(files!=null) {
+				for(File f: files) {
+					f.delete();
+				}
+			}
+			dir.delete();
+		}
+	}
+	
+	/**
+	 * Records {@link #VALUES} values uniformly distributed over 0 to 999 from each of {@link #THREADS} threads, half singly and half
+	 * in batches, and waits for the threads to terminate
+	 * @param registry The metric registry
+	 * @param handle The sampled metric handle
+	 * @throws InterruptedException thrown if interrupted while waiting
+	 */
+	private static void record(final MetricRegistry registry, final int handle) throws InterruptedException {
+		final CountDownLatch start = new CountDownLatch(1);
+		final Thread[] threads = new Thread[THREADS];
+		for(int t = 0; t < THREADS; t++) {
+			threads[t] = new Thread("SampledTestRecorder#" + t) {
+				public void run() {
+					try {
+						start.await();
+					} catch (InterruptedException e) {
+						return;
+					}
+					final long[] batch = new long[100];
+					for(int i = 0; i < VALUES / 2; i++) {
+						registry.getMetric(handle).process(i % 1000);
+					}
+					for(int i = 0; i < VALUES / 2; i += batch.length) {
+						for(int k = 0; k < batch.length; k++) {
+							batch[k] = (i + k) % 1000;
+						}
+						registry.getMetric(handle).process(batch, 0, batch.length);
+					}
+				}
+			};
+			threads[t].setDaemon(true);
+			threads[t].start();
+		}
+		start.countDown();
+		for(Thread t: threads) {
+			t.join();
+		}
+	}
+}
@@ -0,0 +1,213 @@
+/**
+ * Helios, OpenSource Monitoring
+ * Brought to you by the Helios Development Group
+ *
+ * Copyright 2007, Helios Development Group and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org. 
+ *
+ */
+package test.org.helios.jmxstats;
+
+import java.io.File;
+import java.lang.reflect.Field;
+import java.net.URL;
+import java.util.concurrent.Callable;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+import org.helios.jmxstats.core.ChronicleController;
+import org.helios.jmxstats.core.Controller;
+import org.helios.jmxstats.core.Controller.CurrentInterval;
+import org.helios.jmxstats.core.Controller.SystemClock;
+import org.helios.jmxstats.core.IntervalListener;
+import org.helios.jmxstats.core.SelfMonitor;
+import org.helios.jmxstats.core.metric.IntervalSnapshot;
+import org.helios.jmxstats.core.metric.MetricRegistry;
+import org.helios.jmxstats.core.metric.MetricType;
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * <p>Title: SelfMonitorTest</p>
+ * <p>Description: Tests that the self metrics are registered and pinned, and that an interval switch records the switch timings and the
+ * dropped value count into them. The scenario runs against controller classes loaded by an isolated class loader with idle eviction
+ * enabled and an interval thread that never switches on its own, and simulates each switch the way the interval thread trips it.</p> 
+ * <p>Company: Helios Development Group LLC</p>
+ * @author Whitehead (nwhitehead AT heliosdev DOT org)
+ * <p><code>test.org.helios.jmxstats.SelfMonitorTest</code></p>
+ */
+public class SelfMonitorTest {
+	/** The self metric names, without the prefix */
+	public static final String[] SELF_METRICS = {
+		"switch.latencyNs", "switch.drainNs", "switch.flushNs", "listener.durationNs", "listener.lagNs", "names.hits", "names.misses",
+		"names.filterRejects", "chronicle.bytes", "chronicle.entries", "metrics.live", "metrics.dropped"
+	};
+	/** The number of values submitted to an evicted metric */
+	public static final int DROPPED = 5;
+	/** The maximum number of switches waited for the idle metric to be evicted */
+	public static final int MAX_SWITCHES = 5;
+	
+	/**
+	 * Runs the self monitor scenario against isolated controller classes
+	 * @throws Exception thrown on any error
+	 */
+	@Test
+	public void testSwitchRecorded() throws Exception {
+		final String priorIdle = System.getProperty(MetricRegistry.IDLE_INTERVALS_PROP);
+		final String priorInterval = System.getProperty(SystemClock.INTERVAL_PROP);
+		final String priorName = System.getProperty(ChronicleController.CHRONICLE_PROP);
+		final String priorEnabled = System.getProperty(SelfMonitor.ENABLED_PROP);
+		System.setProperty(MetricRegistry.IDLE_INTERVALS_PROP, "1");
+		System.setProperty(SystemClock.INTERVAL_PROP, HandleGenerationTest.ISOLATED_INTERVAL);
+		System.setProperty(ChronicleController.CHRONICLE_PROP, "selfmonitortest" + System.nanoTime());
+		System.setProperty(SelfMonitor.ENABLED_PROP, "true");
+		try {
+			final ClassLoader isolated = new HandleGenerationTest.IsolatingClassLoader(new URL[]{
+				MetricRegistry.class.getProtectionDomain().getCodeSource().getLocation(),
+				SelfMonitorTest.class.getProtectionDomain().getCodeSource().getLocation()
+			}, SelfMonitorTest.class.getClassLoader());
+			final Class<?> scenario = Class.forName(Scenario.class.getName(), true, isolated);
+			Assert.assertNotSame(Scenario.class, scenario);
+			((Callable<?>)scenario.newInstance()).call();
+		} finally {
+			restore(MetricRegistry.IDLE_INTERVALS_PROP, priorIdle);
+			restore(SystemClock.INTERVAL_PROP, priorInterval);
+			restore(ChronicleController.CHRONICLE_PROP, priorName);
+			restore(SelfMonitor.ENABLED_PROP, priorEnabled);
+		}
+	}
+	
+	private static void restore(String key, String value) {
+		if(value==null) System.clearProperty(key);
+		else System.setProperty(key, value);
+	}
+	
+	/**
+	 * <p>Title: Scenario</p>
+	 * <p>Description: Switches the interval until an idle metric is evicted, submits values to it, and checks the self metrics of the
+	 * following switches. Loaded by the isolated class loader.</p> 
+	 */
+	public static class Scenario implements Callable<Void> {
+		/** Released by the interval listener once per switch */
+		private final Semaphore switched = new Semaphore(0);
+		
+		@Override
+		public Void call() throws Exception {
+			final Controller controller = Controller.getInstance();
+			final MetricRegistry registry = MetricRegistry.getInstance();
+			final ChronicleController chronicle = ChronicleController.getInstance();
+			try {
+				controller.addIntervalListener(new IntervalListener() {
+					@Override
+					public void onIntervalSwitch(CurrentInterval ci) {
+						switched.release();
+					}
+				});
+				final int[] self = new int[SELF_METRICS.length];
+				for(int i = 0; i < self.length; i++) {
+					self[i] = registry.getHandle(SelfMonitor.PREFIX + SELF_METRICS[i]);
+					Assert.assertTrue("Self metric [" + SELF_METRICS[i] + "] is not registered", self[i]>=0);
+					Assert.assertTrue("Self metric [" + SELF_METRICS[i] + "] is not pinned", registry.isPinned(self[i]));
+				}
+				final int victim = controller.getMetricHandle("selfmonitor.test.idle", MetricType.AVG);
+				for(int i = 0; i < MAX_SWITCHES && registry.isCurrent(victim); i++) {
+					switchInterval();
+				}
+				Assert.assertFalse("Idle metric was not evicted", registry.isCurrent(victim));
+				for(int i = 0; i < self.length; i++) {
+					Assert.assertTrue("Self metric [" + SELF_METRICS[i] + "] was evicted", registry.isCurrent(self[i]));
+					Assert.assertTrue("Self metric [" + SELF_METRICS[i] + "] is not pinned", registry.isPinned(self[i]));
+				}
+				
+				final long dropped = registry.getDroppedValues();
+				for(int i = 0; i < DROPPED; i++) {
+					registry.process(victim, 7);
+				}
+				Assert.assertEquals(dropped + DROPPED, registry.getDroppedValues());
+				// the first switch records the counters into the live interval, the second closes it
+				switchInterval();
+				switchInterval();
+				final IntervalSnapshot closed = registry.getClosedInterval();
+				final int droppedMetric = self[11], latency = self[0], drain = self[1], flush = self[2], live = self[10];
+				Assert.assertEquals(MetricType.DELTA, closed.getType(droppedMetric));
+				Assert.assertEquals(1, closed.getCount(droppedMetric));
+				Assert.assertEquals(DROPPED, closed.getTotal(droppedMetric));
+				Assert.assertEquals(1, closed.getCount(latency));
+				Assert.assertTrue("Switch latency [" + closed.getAverage(latency) + "]", closed.getAverage(latency)>0);
+				Assert.assertTrue("Switch latency [" + closed.getAverage(latency) + "] is not from the simulated trip", closed.getAverage(latency)<TimeUnit.SECONDS.toNanos(30));
+				Assert.assertEquals(1, closed.getCount(drain));
+				Assert.assertTrue(closed.getAverage(drain)>=0);
+				Assert.assertEquals(1, closed.getCount(flush));
+				Assert.assertEquals(1, closed.getCount(live));
+				Assert.assertTrue(closed.getAverage(live)>=SELF_METRICS.length);
+			} finally {
+				chronicle.close();
+				final File dir = new File(chronicle.getChroniclePath()).getParentFile();
+				final String name = new File(chronicle.getChroniclePath()).getName();
+				for(File f: dir.listFiles()) {
+					if(f.getName().startsWith(name)) f.delete();
+				}
+			}
+			return null;
+		}
+		
+		/**
+		 * Trips an interval switch the way the interval thread does, and waits until the switch has notified the listeners and the
+		 * interval action thread is idle again
+		 * @throws Exception thrown on any error
+		 */
+		private void switchInterval() throws Exception {
+			final Thread action = (Thread)field("intervalActionThread").get(null);
+			awaitIdle(action);
+			field("tripNanos").setLong(null, System.nanoTime());
+			action.interrupt();
+			Assert.assertTrue("Interval switch timed out", switched.tryAcquire(30, TimeUnit.SECONDS));
+			awaitIdle(action);
+		}
+		
+		/**
+		 * Waits until the interval action thread is waiting for the next trip, rather than e.g. waiting for the listeners
+		 * @param action The interval action thread
+		 * @throws Exception thrown on any error
+		 */
+		private static void awaitIdle(Thread action) throws Exception {
+			while(true) {
+				if(action.getState()==Thread.State.WAITING) {
+					for(StackTraceElement frame: action.getStackTrace()) {
+						if("invokeAll".equals(frame.getMethodName())) break;
+						if("join".equals(frame.getMethodName()) && Thread.class.getName().equals(frame.getClassName())) return;
+					}
+				}
+				Thread.sleep(1);
+			}
+		}
+		
+		/**
+		 * Returns an accessible static field of the system clock
+		 * @param name The field name
+		 * @return the field
+		 * @throws Exception thrown if the field cannot be found
+		 */
+		private static Field field(String name) throws Exception {
+			final Field f = SystemClock.class.getDeclaredField(name);
+			f.setAccessible(true);
+			return f;
+		}
+	}
+}
@@ -0,0 +1,263 @@
+/**
+ * Helios, OpenSource Monitoring
+ * Brought to you by the Helios Development Group
+ *
+ * Copyright 2007, Helios Development Group and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org. 
+ *
+ */
+package test.org.helios.jmxstats;
+
+import static test.org.helios.jmxstats.AllocationAssert.assertAllocationFree;
+
+import java.io.ByteArrayOutputStream;
+import java.io.InputStream;
+import java.io.StringReader;
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
+import java.util.List;
+
+import org.helios.jmxstats.core.Controller;
+import org.helios.jmxstats.core.agent.TimingConfig;
+import org.helios.jmxstats.core.agent.TimingTransformer;
+import org.helios.jmxstats.core.metric.MetricRegistry;
+import org.helios.jmxstats.core.metric.MetricType;
+import org.junit.Assert;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+/**
+ * <p>Title: TimingAgentTest</p>
+ * <p>Description: Tests the timing agent's config parsing and weaving. The target class is woven by the {@link TimingTransformer}
+ * and defined in a child class loader, as the agent would when the class is loaded.</p> 
+ * <p>Company: Helios Development Group LLC</p>
+ * @author Whitehead (nwhitehead AT heliosdev DOT org)
+ * <p><code>test.org.helios.jmxstats.TimingAgentTest</code></p>
+ */
+public class TimingAgentTest {
+	/** The timing config used to weave the target */
+	public static final String CONFIG = 
+		"# timing rules\n" +
+		"\n" +
+		"test.org.helios.jmxstats.TimingAgentTest$Target  run     test.agent.{simple}.{method}\n" +
+		"test.org.helios.jmxstats.TimingAgentTest$T*      fail*\n";
+	/** The transformer */
+	private static TimingTransformer transformer;
+	/** The woven target class */
+	private static Class<?> wovenClass;
+	
+	/**
+	 * Weaves and defines the target class
+	 * @throws Exception thrown on any error
+	 */
+	@BeforeClass
+	public static void setUp() throws Exception {
+		transformer = new TimingTransformer(TimingConfig.parse(new StringReader(CONFIG)));
+		final String className = Target.class.getName();
+		final InputStream is = TimingAgentTest.class.getResourceAsStream("/" + className.replace('.', '/') + ".class");
+		final ByteArrayOutputStream baos = new ByteArrayOutputStream();
+		try {
+			final byte[] buff = new byte[8192];
+			int read = -1;
+			while((read = is.read(buff))!=-1) {
+				baos.write(buff, 0, read);
+			}
+		} finally {
+			is.close();
+		}
+		final WeavingClassLoader loader = new WeavingClassLoader(className);
+		final byte[] woven = transformer.transform(loader, className.replace('.', '/'), null, null, baos.toByteArray());
+		Assert.assertNotNull("Target was not woven", woven);
+		loader.bytes = woven;
+		wovenClass = Class.forName(className, true, loader);
+		Assert.assertNotSame(Target.class, wovenClass);
+	}
+	
+	/**
+	 * Tests rule parsing, matching and metric naming
+	 * @throws Exception thrown on any error
+	 */
+	@Test
+	public void testConfig() throws Exception {
+		final TimingConfig config = TimingConfig.parse(new StringReader(CONFIG + "com.acme.*.Dao exec*\n"));
+		Assert.assertEquals(3, config.getRules().size());
+		final List<TimingConfig.Rule> rules = config.getRules("com.acme.order.Dao");
+		Assert.assertEquals(1, rules.size());
+		Assert.assertEquals("com.acme.order.Dao.executeQuery", TimingConfig.getMetricName(rules, "com.acme.order.Dao", "executeQuery"));
+		Assert.assertNull(TimingConfig.getMetricName(rules, "com.acme.order.Dao", "close"));
+		Assert.assertTrue(config.getRules("com.acme.Dao").isEmpty());
+		Assert.assertEquals(2, config.getRules(Target.class.getName()).size());
+		Assert.assertEquals("test.agent.TimingAgentTest$Target.run", TimingConfig.getMetricName(config.getRules(Target.class.getName()), Target.class.getName(), "run"));
+		try {
+			TimingConfig.parse(new StringReader("com.acme.Dao\n"));
+			Assert.fail("Rule with no method pattern was accepted");
+		} catch (IllegalArgumentException expected) {}
+	}
+	
+	/**
+	 * Tests that one static handle field is added per metric and resolved and pinned when the woven class is initialized
+	 * @throws Exception thrown on any error
+	 */
+	@Test
+	public void testHandleFields() throws Exception {
+		int handleFields = 0;
+		for(Field f: wovenClass.getDeclaredFields()) {
+			if(f.getName().startsWith(TimingTransformer.FIELD_PREFIX)) {
+				handleFields++;
+				Assert.assertTrue(Modifier.isStatic(f.getModifiers()) && Modifier.isFinal(f.getModifiers()));
+				f.setAccessible(true);
+				Assert.assertTrue("Handle [" + f.getName() + "] was not resolved", f.getInt(null)>=0);
+				Assert.assertTrue("Handle [" + f.getName() + "] was not pinned", MetricRegistry.getInstance().isPinned(f.getInt(null)));
+			}
+		}
+		Assert.assertEquals(2, handleFields);
+		Assert.assertEquals(1, transformer.getWovenClasses());
+		Assert.assertEquals(3, transformer.getWovenMethods());
+	}
+	
+	/**
+	 * Tests that calls of a woven method are recorded and calls of other methods are not
+	 * @throws Exception thrown on any error
+	 */
+	@Test
+	public void testCallsRecorded() throws Exception {
+		final Controller controller = Controller.getInstance();
+		final int handle = controller.getMetricHandle("test.agent.TimingAgentTest$Target.run", MetricType.AVG);
+		final AllocationAssert.Operation op = (AllocationAssert.Operation)wovenClass.newInstance();
+		final long before = controller.getMetric(handle).getCount();
+		for(int i = 0; i < 100; i++) {
+			op.run(i);
+		}
+		Assert.assertEquals(100, controller.getMetric(handle).getCount() - before);
+		Assert.assertEquals(0, controller.findMetrics("test.agent.*.untimed").length);
+	}
+	
+	/**
+	 * Tests that exits by exception are recorded
+	 * @throws Exception thrown on any error
+	 */
+	@Test
+	public void testExceptionalExitRecorded() throws Exception {
+		final Controller controller = Controller.getInstance();
+		final int handle = controller.getMetricHandle(wovenClass.getName() + ".fail", MetricType.AVG);
+		final Object target = wovenClass.newInstance();
+		final long before = controller.getMetric(handle).getCount();
+		for(int i = 0; i < 10; i++) {
+			try {
+				wovenClass.getMethod("fail", int.class).invoke(target, i);
+				Assert.fail("No exception thrown");
+			} catch (java.lang.reflect.InvocationTargetException expected) {
+				Assert.assertTrue(expected.getCause() instanceof IllegalStateException);
+			}
+		}
+		Assert.assertEquals(10, controller.getMetric(handle).getCount() - before);
+	}
+	
+	/**
+	 * Tests that a timed call does not allocate
+	 * @throws Exception thrown on any error
+	 */
+	@Test
+	public void testTimedCallAllocationFree() throws Exception {
+		final AllocationAssert.Operation op = (AllocationAssert.Operation)wovenClass.newInstance();
+		assertAllocationFree("Woven method call", op);
+	}
+	
+	/**
+	 * <p>Title: Target</p>
+	 * <p>Description: The class woven by the tests</p> 
+	 */
+	public static class Target implements AllocationAssert.Operation {
+		/** Keeps the computed value live */
+		private long total = 0;
+		
+		/**
+		 * {@inheritDoc}
+		 * @see test.org.helios.jmxstats.AllocationAssert.Operation#run(int)
+		 */
+		@Override
+		public void run(int iteration) {
+			if(iteration%2==0) {
+				total += iteration;
+				return;
+			}
+			total += untimed(iteration);
+		}
+		
+		/**
+		 * A method no rule selects
+		 * @param iteration The iteration number
+		 * @return the passed number, doubled
+		 */
+		public long untimed(int iteration) {
+			return iteration * 2L;
+		}
+		
+		/**
+		 * A timed method that always throws
+		 * @param iteration The iteration number
+		 * @return never returns
+		 */
+		public long fail(int iteration) {
+			if(iteration>=0) throw new IllegalStateException("Failed on [" + iteration + "]");
+			return total;
+		}
+		
+		/**
+		 * A timed overload of {@link #fail(int)}, which shares its metric
+		 * @return never returns
+		 */
+		public long fail() {
+			return fail(1);
+		}
+	}
+	
+	/**
+	 * <p>Title: WeavingClassLoader</p>
+	 * <p>Description: Defines the woven target class itself instead of delegating it to the parent</p> 
+	 */
+	private static class WeavingClassLoader extends ClassLoader {
+		/** The name of the class defined by this loader */
+		private final String className;
+		/** The woven class bytes */
+		private byte[] bytes = null;
+		
+		/**
+		 * Creates a new WeavingClassLoader
+		 * @param className The name of the class defined by this loader
+		 */
+		WeavingClassLoader(String className) {
+			super(TimingAgentTest.class.getClassLoader());
+			this.className = className;
+		}
+		
+		/**
+		 * {@inheritDoc}
+		 * @see java.lang.ClassLoader#loadClass(java.lang.String, boolean)
+		 */
+		@Override
+		protected synchronized Class<?> loadClass(String name, boolean resolve) throws ClassNotFoundException {
+			if(!name.equals(className) || bytes==null) return super.loadClass(name, resolve);
+			Class<?> clazz = findLoadedClass(name);
+			if(clazz==null) clazz = defineClass(name, bytes, 0, bytes.length);
+			if(resolve) resolveClass(clazz);
+			return clazz;
+		}
+	}
+}